@@ -17,36 +17,747 @@ package com.github.mobile;
 
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.FROYO;
+import static com.github.mobile.RequestMetrics.CACHE_HTTP;
+import static com.google.gson.stream.JsonToken.NULL;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.CHARSET_UTF8;
+import android.util.Log;
 
 import com.github.kevinsawicki.http.HttpRequest;
+import com.github.mobile.RequestCoalescer.Copier;
+import com.github.mobile.RequestScheduler.DeferredException;
+import com.github.mobile.ResponseCache.Entry;
+import com.github.mobile.ResponseCache.Recorder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
 
 import org.eclipse.egit.github.core.client.GitHubClient;
+import org.eclipse.egit.github.core.client.GitHubRequest;
+import org.eclipse.egit.github.core.client.GitHubResponse;
+import org.eclipse.egit.github.core.client.GsonUtils;
 
 /**
  * Default client used to communicate with GitHub API
  */
 public class DefaultClient extends GitHubClient {
 
+    private static final String TAG = "DefaultClient";
+
     private static final String USER_AGENT = "GitHubAndroid/1.6";
 
+    private static final String HEADER_RATE_RESET = "X-RateLimit-Reset";
+
     static {
         // Disable http.keepAlive on Froyo and below
         if (SDK_INT <= FROYO)
             HttpRequest.keepAlive(false);
     }
 
+    /**
+     * Connection reporting the headers of a response whose body was copied
+     */
+    private static class CopiedConnection extends HttpURLConnection {
+
+        private final GitHubResponse response;
+
+        private CopiedConnection(final GitHubResponse response) {
+            super(null);
+
+            this.response = response;
+        }
+
+        @Override
+        public String getHeaderField(final String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // Copies are never connected
+        }
+
+        @Override
+        public void disconnect() {
+            // Copies are never connected
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    /**
+     * Stream counting the time spent blocked reading from the wrapped stream
+     */
+    private static class ReadTimingInputStream extends FilterInputStream {
+
+        private long readNanos;
+
+        private ReadTimingInputStream(final InputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, length);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.skip(count);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Consumer of the elements of a streamed response
+     *
+     * @param <V>
+     */
+    public interface Consumer<V> {
+
+        /**
+         * Consume element parsed from the response
+         *
+         * @param element
+         * @throws IOException
+         */
+        void consume(V element) throws IOException;
+    }
+
+    /**
+     * Array of a streamed response and the consumer of its elements
+     *
+     * @param <V>
+     */
+    public static class ArrayField<V> {
+
+        private final String name;
+
+        private final Type type;
+
+        private final Consumer<V> consumer;
+
+        /**
+         * Create field
+         *
+         * @param name
+         *            name of the field of the top-level object holding the
+         *            array, or null if the top-level value is the array
+         * @param type
+         *            type of each element
+         * @param consumer
+         */
+        public ArrayField(final String name, final Type type,
+                final Consumer<V> consumer) {
+            this.name = name;
+            this.type = type;
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * Parse the elements of a JSON array, passing each element to the consumer
+     * as soon as it is read
+     * <p>
+     * Only a single element is held in memory at a time.
+     *
+     * @param reader
+     * @param field
+     *            name of the field of the top-level object holding the array,
+     *            or null if the top-level value is the array
+     * @param type
+     *            type of each element
+     * @param consumer
+     * @return number of elements parsed
+     * @throws IOException
+     */
+    public static <V> int parse(final Reader reader, final String field,
+            final Type type, final Consumer<V> consumer) throws IOException {
+        return parse(reader, new ArrayField<V>(field, type, consumer));
+    }
+
+    /**
+     * Parse the elements of the JSON arrays of the given fields, passing each
+     * element to the consumer of its field as soon as it is read
+     * <p>
+     * Only a single element is held in memory at a time and the values of
+     * other fields of the top-level object are skipped.
+     *
+     * @param reader
+     * @param fields
+     * @return number of elements parsed
+     * @throws IOException
+     */
+    public static int parse(final Reader reader, final ArrayField<?>... fields)
+            throws IOException {
+        Gson gson = GsonUtils.getGson();
+        JsonReader json = new JsonReader(reader);
+        try {
+            if (fields.length == 1 && fields[0].name == null)
+                return parseArray(gson, json, fields[0]);
+
+            int count = 0;
+            json.beginObject();
+            while (json.hasNext()) {
+                ArrayField<?> field = getField(fields, json.nextName());
+                if (field != null)
+                    count += parseArray(gson, json, field);
+                else
+                    json.skipValue();
+            }
+            json.endObject();
+            return count;
+        } catch (JsonParseException e) {
+            throw new IOException(e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            json.close();
+        }
+    }
+
+    private static ArrayField<?> getField(final ArrayField<?>[] fields,
+            final String name) {
+        for (ArrayField<?> field : fields)
+            if (name.equals(field.name))
+                return field;
+        return null;
+    }
+
+    private static <V> int parseArray(final Gson gson, final JsonReader json,
+            final ArrayField<V> field) throws IOException {
+        if (json.peek() == NULL) {
+            json.nextNull();
+            return 0;
+        }
+
+        int count = 0;
+        json.beginArray();
+        while (json.hasNext()) {
+            V element = gson.fromJson(json, field.type);
+            field.consumer.consume(element);
+            count++;
+        }
+        json.endArray();
+        return count;
+    }
+
+    private final ResponseCache responseCache;
+
+    private final RequestCoalescer coalescer;
+
+    private final RequestScheduler scheduler;
+
+    private final RequestMetrics metrics;
+
+    private final ThreadLocal<Long> connectedAt = new ThreadLocal<Long>();
+
     /**
      * Create client
      */
     public DefaultClient() {
+        this(null);
+    }
+
+    /**
+     * Create client that revalidates GET responses stored in the given cache
+     *
+     * @param responseCache
+     */
+    public DefaultClient(final ResponseCache responseCache) {
+        this(responseCache, null);
+    }
+
+    /**
+     * Create client that revalidates GET responses stored in the given cache
+     * and shares the responses of identical GET requests made concurrently
+     *
+     * @param responseCache
+     * @param coalescer
+     */
+    public DefaultClient(final ResponseCache responseCache,
+            final RequestCoalescer coalescer) {
+        this(responseCache, coalescer, null);
+    }
+
+    /**
+     * Create client that revalidates GET responses stored in the given cache,
+     * shares the responses of identical GET requests made concurrently and
+     * schedules requests against the rate limit with the given scheduler
+     *
+     * @param responseCache
+     * @param coalescer
+     * @param scheduler
+     */
+    public DefaultClient(final ResponseCache responseCache,
+            final RequestCoalescer coalescer, final RequestScheduler scheduler) {
+        this(responseCache, coalescer, scheduler, null);
+    }
+
+    /**
+     * Create client that revalidates GET responses stored in the given cache,
+     * shares the responses of identical GET requests made concurrently,
+     * schedules requests against the rate limit with the given scheduler and
+     * records the latency, size and parse time of responses in the given
+     * metrics
+     *
+     * @param responseCache
+     * @param coalescer
+     * @param scheduler
+     * @param metrics
+     */
+    public DefaultClient(final ResponseCache responseCache,
+            final RequestCoalescer coalescer,
+            final RequestScheduler scheduler, final RequestMetrics metrics) {
         super();
 
+        this.responseCache = responseCache;
+        this.coalescer = coalescer;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+
         setSerializeNulls(false);
         setUserAgent(USER_AGENT);
     }
 
+    /**
+     * Get the scope that cached and coalesced responses are stored under
+     * <p>
+     * Sub-classes should return a value identifying the credentials being
+     * used, responses are not cached or coalesced when this returns null.
+     *
+     * @return scope or null if responses should not be cached
+     */
+    protected String getCacheScope() {
+        return null;
+    }
+
+    private static String getKey(final String scope, final String accept,
+            final String uri) {
+        return scope + ' ' + accept + ' ' + uri;
+    }
+
+    @Override
+    public GitHubResponse get(final GitHubRequest request) throws IOException {
+        String scope = null;
+        if (responseCache != null || coalescer != null)
+            scope = getCacheScope();
+        if (scope == null)
+            return super.get(request);
+
+        final String uri = request.generateUri();
+        final String key = getKey(scope, request.getResponseContentType(),
+                uri);
+        if (coalescer == null)
+            return get(request, uri, key);
+
+        // Throttled requests may be held back by the scheduler so they are
+        // only shared with other throttled requests and never keep a caller
+        // of a higher priority waiting
+        String shared = key;
+        if (scheduler != null && scheduler.getPriority().isThrottled())
+            shared = "throttled " + key;
+        try {
+            // Callers modify the models they are returned so each caller of
+            // a shared request is given its own copy
+            return coalescer.execute(shared, ResponseCache.getEndpoint(uri),
+                    new Callable<GitHubResponse>() {
+
+                        public GitHubResponse call() throws Exception {
+                            return get(request, uri, key);
+                        }
+                    }, new Copier<GitHubResponse>() {
+
+                        public GitHubResponse copy(
+                                final GitHubResponse response) {
+                            return DefaultClient.copy(request, response);
+                        }
+                    });
+        } catch (DeferredException e) {
+            // Request shared was deferred at a lower priority than the caller
+            return get(request, uri, key);
+        }
+    }
+
+    /**
+     * Copy response by serializing the models of its body and parsing them
+     * again
+     *
+     * @param request
+     * @param response
+     * @return copy
+     */
+    private static GitHubResponse copy(final GitHubRequest request,
+            final GitHubResponse response) {
+        Type type = request.getType();
+        Object body = response.getBody();
+        if (type == null || body == null)
+            return response;
+
+        Gson gson = GsonUtils.getGson();
+        return new GitHubResponse(new CopiedConnection(response),
+                gson.fromJson(gson.toJsonTree(body, type), type));
+    }
+
+    private GitHubResponse get(final GitHubRequest request, final String uri,
+            final String key) throws IOException {
+        if (responseCache == null)
+            return super.get(request);
+
+        String accept = request.getResponseContentType();
+        String endpoint = ResponseCache.getEndpoint(uri);
+
+        HttpURLConnection httpRequest = createGet(uri);
+        if (accept != null)
+            httpRequest.setRequestProperty(HEADER_ACCEPT, accept);
+        Entry cached = responseCache.get(key);
+        if (cached != null) {
+            cached.applyTo(httpRequest);
+            responseCache.revalidate(endpoint);
+        }
+
+        final int code;
+        try {
+            code = httpRequest.getResponseCode();
+        } catch (IOException e) {
+            if (cached == null)
+                throw e;
+
+            // Serve the cached response while offline
+            if (metrics != null)
+                metrics.stale(CACHE_HTTP);
+            Log.d(TAG, "Offline, using cached response: " + endpoint);
+            return new GitHubResponse(cached.replayHeaders(httpRequest),
+                    getBody(request, cached.openBody()));
+        }
+        updateRateLimits(httpRequest);
+        if (code == HTTP_NOT_MODIFIED && cached != null) {
+            responseCache.hit(endpoint);
+            if (metrics != null)
+                metrics.hit(CACHE_HTTP);
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "Not modified: " + endpoint);
+            try {
+                // Not modified responses may omit the links to other pages
+                return new GitHubResponse(cached.replayHeaders(httpRequest),
+                        getBody(request, cached.openBody()));
+            } catch (IOException e) {
+                responseCache.remove(key);
+                throw e;
+            }
+        }
+
+        if (isOk(code)) {
+            responseCache.miss(endpoint);
+            if (metrics != null)
+                metrics.miss(CACHE_HTTP);
+            InputStream stream = getStream(httpRequest);
+            Recorder recorder = responseCache.record(key, httpRequest, stream);
+            if (recorder == null)
+                return new GitHubResponse(httpRequest,
+                        getBody(request, stream));
+
+            Object body;
+            try {
+                body = getBody(request, recorder);
+            } catch (IOException e) {
+                recorder.abort();
+                throw e;
+            } catch (RuntimeException e) {
+                recorder.abort();
+                throw e;
+            }
+            recorder.commit();
+            return new GitHubResponse(httpRequest, body);
+        }
+
+        if (isEmpty(code))
+            return new GitHubResponse(httpRequest, null);
+
+        throw createException(getStream(httpRequest), code,
+                httpRequest.getResponseMessage());
+    }
+
+    /**
+     * Request the given URI and stream the elements of the JSON array in the
+     * response to the consumer as they arrive, following the next page links
+     * of paged responses
+     * <p>
+     * Each page is revalidated against and recorded to the response cache as
+     * it is streamed, a page the server reports as not modified is streamed
+     * from the cache. Streamed responses are not coalesced since no parsed
+     * response is kept to be shared.
+     *
+     * @param uri
+     * @param field
+     *            name of the field of the top-level object holding the array,
+     *            or null if the top-level value is the array
+     * @param type
+     *            type of each element
+     * @param consumer
+     * @return number of elements streamed
+     * @throws IOException
+     */
+    public <V> int stream(final String uri, final String field,
+            final Type type, final Consumer<V> consumer) throws IOException {
+        return stream(uri, new ArrayField<V>(field, type, consumer));
+    }
+
+    /**
+     * Request the given URI and stream the elements of the JSON arrays of the
+     * given fields in the response to their consumers as they arrive,
+     * following the next page links of paged responses
+     * <p>
+     * Responses are revalidated against and recorded to the response cache
+     * the same as by {@link #stream(String, String, Type, Consumer)}.
+     *
+     * @param uri
+     * @param fields
+     * @return number of elements streamed
+     * @throws IOException
+     */
+    public int stream(final String uri, final ArrayField<?>... fields)
+            throws IOException {
+        String scope = responseCache != null ? getCacheScope() : null;
+        int count = 0;
+        String next = uri;
+        while (next != null) {
+            String endpoint = ResponseCache.getEndpoint(next);
+            String key = scope != null ? getKey(scope, null, next) : null;
+            Entry cached = key != null ? responseCache.get(key) : null;
+
+            HttpURLConnection request = createGet(next);
+            if (cached != null) {
+                cached.applyTo(request);
+                responseCache.revalidate(endpoint);
+            }
+
+            final int code;
+            try {
+                code = request.getResponseCode();
+            } catch (IOException e) {
+                if (cached == null)
+                    throw e;
+
+                // Stream the cached response while offline
+                if (metrics != null)
+                    metrics.stale(CACHE_HTTP);
+                Log.d(TAG, "Offline, streaming cached response: " + endpoint);
+                count += parse(next, cached.openBody(), fields);
+                next = getNext(cached.replayHeaders(request));
+                continue;
+            }
+            updateRateLimits(request);
+            if (code == HTTP_NOT_MODIFIED && cached != null) {
+                responseCache.hit(endpoint);
+                if (metrics != null)
+                    metrics.hit(CACHE_HTTP);
+                try {
+                    count += parse(next, cached.openBody(), fields);
+                } catch (IOException e) {
+                    responseCache.remove(key);
+                    throw e;
+                }
+                next = getNext(cached.replayHeaders(request));
+                continue;
+            }
+            if (isEmpty(code))
+                break;
+            if (!isOk(code))
+                throw createException(getStream(request), code,
+                        request.getResponseMessage());
+
+            InputStream stream = getStream(request);
+            Recorder recorder = null;
+            if (key != null) {
+                responseCache.miss(endpoint);
+                if (metrics != null)
+                    metrics.miss(CACHE_HTTP);
+                recorder = responseCache.record(key, request, stream);
+            }
+            if (recorder == null)
+                count += parse(next, stream, fields);
+            else {
+                try {
+                    count += parse(next, recorder, fields);
+                } catch (IOException e) {
+                    recorder.abort();
+                    throw e;
+                } catch (RuntimeException e) {
+                    recorder.abort();
+                    throw e;
+                }
+                recorder.commit();
+            }
+            next = getNext(request);
+        }
+        return count;
+    }
+
+    private int parse(final String uri, final InputStream stream,
+            final ArrayField<?>... fields) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(stream,
+                CHARSET_UTF8), 8192);
+        long start = System.currentTimeMillis();
+        int count = parse(reader, fields);
+        if (metrics != null)
+            metrics.parsed(uri, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    private static String getNext(final HttpURLConnection response)
+            throws IOException {
+        String link = new GitHubResponse(response, null).getNext();
+        return link != null ? new URL(link).getFile() : null;
+    }
+
+    @Override
+    protected HttpURLConnection createConnection(String uri, String method)
+            throws IOException {
+        String scope = scheduler != null ? getCacheScope() : null;
+        if (scope != null)
+            scheduler.acquire(scope);
+
+        if (metrics != null)
+            connectedAt.set(System.currentTimeMillis());
+        return super.createConnection(uri, method);
+    }
+
+    @Override
+    protected InputStream getStream(final HttpURLConnection request)
+            throws IOException {
+        InputStream stream = super.getStream(request);
+        if (metrics == null || stream == null)
+            return stream;
+
+        final String uri = request.getURL().getFile();
+        return new FilterInputStream(stream) {
+
+            private long bytes;
+
+            private boolean recorded;
+
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read != -1)
+                    bytes++;
+                else
+                    record();
+                return read;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+                    throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read != -1)
+                    bytes += read;
+                else
+                    record();
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                record();
+                super.close();
+            }
+
+            private void record() {
+                if (!recorded) {
+                    recorded = true;
+                    metrics.received(uri, bytes);
+                }
+            }
+        };
+    }
+
+    @Override
+    protected Object getBody(final GitHubRequest request,
+            final InputStream stream) throws IOException {
+        if (metrics == null)
+            return super.getBody(request, stream);
+
+        // Time spent waiting on the network for the body is not counted so
+        // only parsing is timed
+        ReadTimingInputStream body = new ReadTimingInputStream(stream);
+        long start = System.nanoTime();
+        try {
+            return super.getBody(request, body);
+        } finally {
+            long elapsed = System.nanoTime() - start - body.readNanos;
+            metrics.parsed(request.generateUri(), elapsed / 1000000);
+        }
+    }
+
+    @Override
+    protected GitHubClient updateRateLimits(HttpURLConnection request) {
+        super.updateRateLimits(request);
+
+        Long connected = connectedAt.get();
+        if (metrics != null && connected != null) {
+            connectedAt.remove();
+            try {
+                metrics.response(request.getURL().getFile(),
+                        request.getResponseCode(), System.currentTimeMillis()
+                                - connected);
+            } catch (IOException e) {
+                // Status was already read by the caller, ignore
+            }
+        }
+
+        String scope = scheduler != null ? getCacheScope() : null;
+        if (scope == null)
+            return this;
+
+        long resetAt = -1;
+        String reset = request.getHeaderField(HEADER_RATE_RESET);
+        if (reset != null && reset.length() > 0)
+            try {
+                resetAt = Long.parseLong(reset) * 1000;
+            } catch (NumberFormatException nfe) {
+                resetAt = -1;
+            }
+        scheduler.update(scope, getRequestLimit(), getRemainingRequests(),
+                resetAt);
+        return this;
+    }
+
     @Override
     protected HttpURLConnection configureRequest(HttpURLConnection request) {
         super.configureRequest(request);
@@ -19,11 +19,15 @@ import android.content.Context;
 
 import com.github.mobile.accounts.AccountClient;
 import com.github.mobile.accounts.AccountScope;
+import com.github.mobile.accounts.AccountUtils;
 import com.github.mobile.accounts.GitHubAccount;
 import com.github.mobile.core.commit.CommitStore;
 import com.github.mobile.core.gist.GistStore;
 import com.github.mobile.core.issue.IssueStore;
+import com.github.mobile.persistence.CacheHelper;
 import com.github.mobile.persistence.OrganizationRepositories;
+import com.github.mobile.persistence.RepositoryIssues;
+import com.github.mobile.persistence.WriteQueue;
 import com.github.mobile.sync.SyncCampaign;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provider;
@@ -33,6 +37,8 @@ import com.google.inject.name.Named;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.egit.github.core.client.GitHubClient;
 import org.eclipse.egit.github.core.service.CommitService;
@@ -42,14 +48,33 @@ import org.eclipse.egit.github.core.service.PullRequestService;
 
 /**
  * Main module provide services and clients
+ * <p>
+ * Caches and stores are partitioned by account. The account used is the one
+ * of the account scope in progress on the calling thread, or else the account
+ * configured on the device.
  */
 public class GitHubModule extends AbstractModule {
 
-    private WeakReference<IssueStore> issues;
+    private final Map<String, WeakReference<IssueStore>> issues = new HashMap<String, WeakReference<IssueStore>>();
 
-    private WeakReference<GistStore> gists;
+    private final Map<String, WeakReference<GistStore>> gists = new HashMap<String, WeakReference<GistStore>>();
 
-    private WeakReference<CommitStore> commits;
+    private final Map<String, WeakReference<CommitStore>> commits = new HashMap<String, WeakReference<CommitStore>>();
+
+    private final Map<String, CacheHelper> cacheHelpers = new HashMap<String, CacheHelper>();
+
+    private ResponseCache responseCache;
+
+    private static String getLogin(Context context, AccountScope scope) {
+        GitHubAccount account = scope.getAccount();
+        return account != null ? account.getUsername() : AccountUtils
+                .getLogin(context);
+    }
+
+    private static <V> V get(Map<String, WeakReference<V>> stores, String login) {
+        WeakReference<V> reference = stores.get(login);
+        return reference != null ? reference.get() : null;
+    }
 
     @Override
     protected void configure() {
@@ -57,12 +82,41 @@ public class GitHubModule extends AbstractModule {
         install(new FactoryModuleBuilder().build(SyncCampaign.Factory.class));
         install(new FactoryModuleBuilder()
                 .build(OrganizationRepositories.Factory.class));
+        install(new FactoryModuleBuilder()
+                .build(RepositoryIssues.Factory.class));
         install(AccountScope.module());
     }
 
     @Provides
-    GitHubClient client(Provider<GitHubAccount> accountProvider) {
-        return new AccountClient(accountProvider);
+    DefaultClient defaultClient(Provider<GitHubAccount> accountProvider,
+            ResponseCache responseCache, RequestCoalescer coalescer,
+            RequestScheduler scheduler, RequestMetrics metrics) {
+        return new AccountClient(accountProvider, responseCache, coalescer,
+                scheduler, metrics);
+    }
+
+    @Provides
+    GitHubClient client(DefaultClient client) {
+        return client;
+    }
+
+    @Provides
+    synchronized ResponseCache responseCache(Context context) {
+        if (responseCache == null)
+            responseCache = new ResponseCache(new File(context.getCacheDir(),
+                    "responses"));
+        return responseCache;
+    }
+
+    @Provides
+    synchronized CacheHelper cacheHelper(Context context, AccountScope scope) {
+        String login = getLogin(context, scope);
+        CacheHelper helper = cacheHelpers.get(login);
+        if (helper == null) {
+            helper = new CacheHelper(context, login);
+            cacheHelpers.put(login, helper);
+        }
+        return helper;
     }
 
     @Provides
@@ -72,32 +126,46 @@ public class GitHubModule extends AbstractModule {
     }
 
     @Provides
-    IssueStore issueStore(IssueService issueService,
-            PullRequestService pullService) {
-        IssueStore store = issues != null ? issues.get() : null;
+    @Named("accountCacheDir")
+    File accountCacheDir(Context context, AccountScope scope,
+            @Named("cacheDir") File cacheDir) {
+        String login = getLogin(context, scope);
+        return login != null ? new File(cacheDir, login) : cacheDir;
+    }
+
+    @Provides
+    synchronized IssueStore issueStore(Context context, AccountScope scope,
+            IssueService issueService, PullRequestService pullService,
+            WriteQueue writes) {
+        String login = getLogin(context, scope);
+        IssueStore store = get(issues, login);
         if (store == null) {
-            store = new IssueStore(issueService, pullService);
-            issues = new WeakReference<IssueStore>(store);
+            store = new IssueStore(issueService, pullService, writes);
+            issues.put(login, new WeakReference<IssueStore>(store));
         }
         return store;
     }
 
     @Provides
-    GistStore gistStore(GistService service) {
-        GistStore store = gists != null ? gists.get() : null;
+    synchronized GistStore gistStore(Context context, AccountScope scope,
+            GistService service) {
+        String login = getLogin(context, scope);
+        GistStore store = get(gists, login);
         if (store == null) {
             store = new GistStore(service);
-            gists = new WeakReference<GistStore>(store);
+            gists.put(login, new WeakReference<GistStore>(store));
         }
         return store;
     }
 
     @Provides
-    CommitStore commitStore(CommitService service) {
-        CommitStore store = commits != null ? commits.get() : null;
+    synchronized CommitStore commitStore(Context context, AccountScope scope,
+            CommitService service) {
+        String login = getLogin(context, scope);
+        CommitStore store = get(commits, login);
         if (store == null) {
             store = new CommitStore(service);
-            commits = new WeakReference<CommitStore>(store);
+            commits.put(login, new WeakReference<CommitStore>(store));
         }
         return store;
     }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import android.util.Log;
+
+import com.google.inject.Singleton;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalescer of identical requests made concurrently
+ * <p>
+ * The first caller of {@link #execute(String, String, Callable, Copier)} for
+ * a key performs the request on its own thread while callers arriving with
+ * the same key before it completes wait for and share its result or
+ * exception. When a result was shared every caller is given its own copy so
+ * callers are free to modify what they are returned.
+ */
+@Singleton
+public class RequestCoalescer {
+
+    private static final String TAG = "RequestCoalescer";
+
+    /**
+     * Creator of copies of a shared result
+     *
+     * @param <V>
+     */
+    public interface Copier<V> {
+
+        /**
+         * Copy result, the result given must not be modified
+         *
+         * @param result
+         * @return copy
+         */
+        V copy(V result);
+    }
+
+    /**
+     * Request in flight and the number of callers waiting on it
+     *
+     * @param <V>
+     */
+    private static class Call<V> {
+
+        private final FutureTask<V> task;
+
+        private int waiting;
+
+        private Call(final Callable<V> request) {
+            task = new FutureTask<V>(request);
+        }
+    }
+
+    private final Map<String, Call<?>> inFlight = new HashMap<String, Call<?>>();
+
+    private final ConcurrentMap<String, AtomicInteger> saved = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final AtomicInteger totalSaved = new AtomicInteger();
+
+    /**
+     * Execute the request for the given key or wait for the identical request
+     * already in flight
+     * <p>
+     * The result is shared by all callers as is and must not be modified.
+     *
+     * @param key
+     *            key identifying the request including its credentials
+     * @param endpoint
+     *            endpoint saved requests are counted under
+     * @param request
+     * @return result
+     * @throws IOException
+     */
+    public <V> V execute(final String key, final String endpoint,
+            final Callable<V> request) throws IOException {
+        return execute(key, endpoint, request, null);
+    }
+
+    /**
+     * Execute the request for the given key or wait for the identical request
+     * already in flight
+     * <p>
+     * Each caller of a request that was shared is returned a copy of the
+     * result created by the given copier.
+     *
+     * @param key
+     *            key identifying the request including its credentials
+     * @param endpoint
+     *            endpoint saved requests are counted under
+     * @param request
+     * @param copier
+     *            copier of shared results, null to share results as is
+     * @return result
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(final String key, final String endpoint,
+            final Callable<V> request, final Copier<V> copier)
+            throws IOException {
+        Call<V> call;
+        boolean first;
+        synchronized (inFlight) {
+            call = (Call<V>) inFlight.get(key);
+            first = call == null;
+            if (first) {
+                call = new Call<V>(request);
+                inFlight.put(key, call);
+            } else
+                call.waiting++;
+        }
+
+        if (!first) {
+            save(endpoint);
+            return copy(get(call.task), copier);
+        }
+
+        boolean shared;
+        try {
+            call.task.run();
+        } finally {
+            synchronized (inFlight) {
+                inFlight.remove(key);
+                shared = call.waiting > 0;
+            }
+        }
+        V result = get(call.task);
+        return shared ? copy(result, copier) : result;
+    }
+
+    private static <V> V copy(final V result, final Copier<V> copier) {
+        return copier != null && result != null ? copier.copy(result)
+                : result;
+    }
+
+    private void save(final String endpoint) {
+        totalSaved.incrementAndGet();
+        AtomicInteger count = saved.get(endpoint);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger existing = saved.putIfAbsent(endpoint, count);
+            if (existing != null)
+                count = existing;
+        }
+        count.incrementAndGet();
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, "Coalesced request: " + endpoint);
+    }
+
+    private static <V> V get(final FutureTask<V> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause != null ? cause.getMessage() : null);
+        }
+    }
+
+    /**
+     * Get number of requests currently in flight
+     *
+     * @return request count
+     */
+    public int getInFlight() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Get number of requests that were not made because an identical request
+     * was already in flight
+     *
+     * @return saved request count
+     */
+    public int getSaved() {
+        return totalSaved.get();
+    }
+
+    /**
+     * Get number of saved requests for each endpoint, sorted by endpoint
+     *
+     * @return non-null but possibly empty map of endpoints to saved requests
+     */
+    public Map<String, Integer> getSavedByEndpoint() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : saved.entrySet())
+            counts.put(entry.getKey(), entry.getValue().get());
+        return Collections.unmodifiableMap(counts);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Codec used to write and read request data to and from the compact binary
+ * format used by {@link RequestWriter} and {@link RequestReader}
+ *
+ * @param <V>
+ *            type of value encoded
+ */
+public interface RequestCodec<V> {
+
+    /**
+     * Get tag identifying the schema of the encoded values
+     * <p>
+     * Files written with a different schema tag are ignored when read so the
+     * tag must change whenever the encoded layout changes.
+     *
+     * @return schema tag
+     */
+    String getSchema();
+
+    /**
+     * Encode value to output
+     *
+     * @param value
+     * @param output
+     * @throws IOException
+     */
+    void encode(V value, DataOutput output) throws IOException;
+
+    /**
+     * Decode value from input
+     *
+     * @param input
+     * @return value
+     * @throws IOException
+     */
+    V decode(DataInput input) throws IOException;
+}
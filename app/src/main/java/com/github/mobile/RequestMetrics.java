@@ -0,0 +1,483 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import com.google.inject.Singleton;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Metrics of API requests made and of the caches serving them
+ * <p>
+ * Requests are grouped by endpoint template, the request path with values
+ * such as user names, repository names, numbers and SHA-1s replaced by
+ * placeholders.
+ */
+@Singleton
+public class RequestMetrics {
+
+    /**
+     * Name of the cache of revalidated API responses
+     */
+    public static final String CACHE_HTTP = "http";
+
+    /**
+     * Name of the database cache of lists of resources
+     */
+    public static final String CACHE_DATABASE = "database";
+
+    /**
+     * Name of the file cache of account data such as bookmarked filters
+     */
+    public static final String CACHE_FILES = "files";
+
+    /**
+     * Upper bounds in milliseconds of the latency histogram buckets, the last
+     * bucket holds all larger latencies
+     */
+    private static final long[] LATENCY_BOUNDS = { 100, 250, 500, 1000, 2500,
+            5000 };
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private static final Pattern SHA = Pattern.compile("[0-9a-fA-F]{40}");
+
+    /**
+     * Metrics of a single endpoint template
+     */
+    public static class Endpoint {
+
+        private final String template;
+
+        private final AtomicIntegerArray latencies = new AtomicIntegerArray(
+                LATENCY_BOUNDS.length + 1);
+
+        private final AtomicLong latencyMillis = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong parseMillis = new AtomicLong();
+
+        private final AtomicInteger parsed = new AtomicInteger();
+
+        private final ConcurrentMap<Integer, AtomicInteger> codes = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+        private Endpoint(final String template) {
+            this.template = template;
+        }
+
+        /**
+         * @return endpoint template
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return number of responses received
+         */
+        public int getRequests() {
+            int requests = 0;
+            for (int i = 0; i < latencies.length(); i++)
+                requests += latencies.get(i);
+            return requests;
+        }
+
+        /**
+         * @return average milliseconds until the response status was received
+         */
+        public long getAverageLatency() {
+            int requests = getRequests();
+            return requests > 0 ? latencyMillis.get() / requests : 0;
+        }
+
+        /**
+         * Get the latency below which the given percentage of responses was
+         * received
+         * <p>
+         * The value is the upper bound of the histogram bucket the percentile
+         * falls in, or -1 when it falls in the last, unbounded bucket.
+         *
+         * @param percent
+         * @return milliseconds
+         */
+        public long getLatencyPercentile(final int percent) {
+            int requests = getRequests();
+            if (requests == 0)
+                return 0;
+
+            int target = (int) Math.ceil(requests * percent / 100.0);
+            int count = 0;
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                count += latencies.get(i);
+                if (count >= target)
+                    return LATENCY_BOUNDS[i];
+            }
+            return -1;
+        }
+
+        /**
+         * Get number of responses in each latency bucket
+         *
+         * @return counts, one more than the number of bucket bounds
+         */
+        public int[] getLatencyHistogram() {
+            int[] histogram = new int[latencies.length()];
+            for (int i = 0; i < histogram.length; i++)
+                histogram[i] = latencies.get(i);
+            return histogram;
+        }
+
+        /**
+         * @return total bytes of response bodies received
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return average milliseconds spent parsing a response body
+         */
+        public long getAverageParseMillis() {
+            int count = parsed.get();
+            return count > 0 ? parseMillis.get() / count : 0;
+        }
+
+        /**
+         * @return number of responses received for each status code, sorted
+         *         by code
+         */
+        public Map<Integer, Integer> getStatusCodes() {
+            Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+            for (Map.Entry<Integer, AtomicInteger> entry : codes.entrySet())
+                counts.put(entry.getKey(), entry.getValue().get());
+            return counts;
+        }
+
+        private void response(final int code, final long millis) {
+            int bucket = 0;
+            while (bucket < LATENCY_BOUNDS.length
+                    && millis > LATENCY_BOUNDS[bucket])
+                bucket++;
+            latencies.incrementAndGet(bucket);
+            latencyMillis.addAndGet(millis);
+            increment(codes, code);
+        }
+
+        @Override
+        public String toString() {
+            return template + ": requests=" + getRequests() + ", codes="
+                    + getStatusCodes() + ", averageLatency="
+                    + getAverageLatency() + "ms, p90="
+                    + getLatencyPercentile(90) + "ms, bytes=" + bytes
+                    + ", averageParse=" + getAverageParseMillis() + "ms";
+        }
+    }
+
+    /**
+     * Counters of how a single cache has served lookups
+     */
+    public static class Cache {
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private final AtomicInteger stale = new AtomicInteger();
+
+        private final AtomicInteger misses = new AtomicInteger();
+
+        /**
+         * @return number of lookups served from the cache
+         */
+        public int getHits() {
+            return hits.get();
+        }
+
+        /**
+         * @return number of lookups served from the cache and then refreshed
+         */
+        public int getStale() {
+            return stale.get();
+        }
+
+        /**
+         * @return number of lookups not found in the cache
+         */
+        public int getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * @return percentage of lookups served from the cache, stale or not
+         */
+        public int getHitRatio() {
+            int served = hits.get() + stale.get();
+            int total = served + misses.get();
+            return total > 0 ? served * 100 / total : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", stale=" + stale + ", misses=" + misses
+                    + ", ratio=" + getHitRatio() + "%";
+        }
+    }
+
+    /**
+     * Get the endpoint template of the given request URI
+     *
+     * @param uri
+     * @return template
+     */
+    public static String getTemplate(final String uri) {
+        String path = ResponseCache.getEndpoint(uri);
+        String[] segments = path.split("/");
+        StringBuilder template = new StringBuilder(path.length());
+        // Placeholders for the segments following a named segment
+        String[] pending = null;
+        int next = 0;
+        for (String segment : segments) {
+            if (segment.length() == 0)
+                continue;
+
+            template.append('/');
+            if (pending != null && next < pending.length) {
+                template.append(pending[next++]);
+                continue;
+            }
+            pending = null;
+
+            if (NUMBER.matcher(segment).matches())
+                template.append("{number}");
+            else if (SHA.matcher(segment).matches())
+                template.append("{sha}");
+            else {
+                template.append(segment);
+                pending = getPlaceholders(segment);
+                next = 0;
+            }
+        }
+        return template.length() > 0 ? template.toString() : "/";
+    }
+
+    private static String[] getPlaceholders(final String segment) {
+        if ("repos".equals(segment))
+            return new String[] { "{owner}", "{repo}" };
+        if ("users".equals(segment) || "orgs".equals(segment))
+            return new String[] { "{user}" };
+        if ("refs".equals(segment) || "branches".equals(segment))
+            return new String[] { "{ref}" };
+        return null;
+    }
+
+    private static void increment(
+            final ConcurrentMap<Integer, AtomicInteger> counts, final int key) {
+        AtomicInteger count = counts.get(key);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger existing = counts.putIfAbsent(key, count);
+            if (existing != null)
+                count = existing;
+        }
+        count.incrementAndGet();
+    }
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<String, Cache>();
+
+    private volatile long startedAt = System.currentTimeMillis();
+
+    private Endpoint getEndpoint(final String uri) {
+        String template = getTemplate(uri);
+        Endpoint endpoint = endpoints.get(template);
+        if (endpoint == null) {
+            endpoint = new Endpoint(template);
+            Endpoint existing = endpoints.putIfAbsent(template, endpoint);
+            if (existing != null)
+                endpoint = existing;
+        }
+        return endpoint;
+    }
+
+    private Cache getCache(final String name) {
+        Cache cache = caches.get(name);
+        if (cache == null) {
+            cache = new Cache();
+            Cache existing = caches.putIfAbsent(name, cache);
+            if (existing != null)
+                cache = existing;
+        }
+        return cache;
+    }
+
+    /**
+     * Record the status of a response to the given request URI
+     *
+     * @param uri
+     * @param code
+     * @param millis
+     *            time from opening the connection until the status was
+     *            received
+     * @return this metrics
+     */
+    public RequestMetrics response(final String uri, final int code,
+            final long millis) {
+        getEndpoint(uri).response(code, millis);
+        return this;
+    }
+
+    /**
+     * Record bytes of a response body received for the given request URI
+     *
+     * @param uri
+     * @param bytes
+     * @return this metrics
+     */
+    public RequestMetrics received(final String uri, final long bytes) {
+        getEndpoint(uri).bytes.addAndGet(bytes);
+        return this;
+    }
+
+    /**
+     * Record time spent parsing the response body of the given request URI
+     *
+     * @param uri
+     * @param millis
+     * @return this metrics
+     */
+    public RequestMetrics parsed(final String uri, final long millis) {
+        Endpoint endpoint = getEndpoint(uri);
+        endpoint.parsed.incrementAndGet();
+        endpoint.parseMillis.addAndGet(millis);
+        return this;
+    }
+
+    /**
+     * Record a lookup served from the named cache
+     *
+     * @param cache
+     * @return this metrics
+     */
+    public RequestMetrics hit(final String cache) {
+        getCache(cache).hits.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Record a lookup served from the named cache that is then refreshed
+     *
+     * @param cache
+     * @return this metrics
+     */
+    public RequestMetrics stale(final String cache) {
+        getCache(cache).stale.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Record a lookup not found in the named cache
+     *
+     * @param cache
+     * @return this metrics
+     */
+    public RequestMetrics miss(final String cache) {
+        getCache(cache).misses.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Get metrics of each endpoint template, sorted by number of requests
+     *
+     * @return non-null but possibly empty list
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> sorted = new ArrayList<Endpoint>(endpoints.values());
+        Collections.sort(sorted, new Comparator<Endpoint>() {
+
+            public int compare(final Endpoint lhs, final Endpoint rhs) {
+                return rhs.getRequests() - lhs.getRequests();
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Get counters of each cache, sorted by name
+     *
+     * @return non-null but possibly empty map of names to caches
+     */
+    public Map<String, Cache> getCaches() {
+        return Collections.unmodifiableMap(new TreeMap<String, Cache>(caches));
+    }
+
+    /**
+     * Clear all metrics recorded
+     *
+     * @return this metrics
+     */
+    public RequestMetrics clear() {
+        endpoints.clear();
+        caches.clear();
+        startedAt = System.currentTimeMillis();
+        return this;
+    }
+
+    /**
+     * Write all metrics as text to the given writer
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void dump(final Writer writer) throws IOException {
+        writer.write("Recorded since " + new Date(startedAt)
+                + "\n\nCaches\n");
+        for (Map.Entry<String, Cache> cache : getCaches().entrySet())
+            writer.write(cache.getKey() + ": " + cache.getValue() + '\n');
+
+        writer.write("\nLatency buckets (ms): ");
+        for (long bound : LATENCY_BOUNDS)
+            writer.write("<=" + bound + ' ');
+        writer.write(">" + LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1] + '\n');
+
+        writer.write("\nEndpoints\n");
+        for (Endpoint endpoint : getEndpoints()) {
+            writer.write(endpoint.toString());
+            writer.write("\n  histogram=");
+            int[] histogram = endpoint.getLatencyHistogram();
+            for (int i = 0; i < histogram.length; i++) {
+                if (i > 0)
+                    writer.write(',');
+                writer.write(Integer.toString(histogram[i]));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
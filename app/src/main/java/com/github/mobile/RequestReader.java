@@ -17,6 +17,8 @@ package com.github.mobile;
 
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -27,6 +29,10 @@ import java.util.zip.GZIPInputStream;
 
 /**
  * Reader of previously fetched request data
+ * <p>
+ * Files are written atomically by {@link RequestWriter} so no lock is taken
+ * while reading. Files in the previous serialized format are still read so
+ * stored data survives the format change.
  */
 public class RequestReader {
 
@@ -50,13 +56,52 @@ public class RequestReader {
     /**
      * Read request data
      *
+     * @param codec
      * @return read data
      */
-    @SuppressWarnings("unchecked")
-    public <V> V read() {
+    public <V> V read(RequestCodec<V> codec) {
         if (!handle.exists() || handle.length() == 0)
             return null;
 
+        DataInputStream input = null;
+        boolean delete = false;
+        try {
+            input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(handle), 8192));
+            int magic = input.readInt();
+            if (magic != RequestWriter.MAGIC) {
+                input.close();
+                input = null;
+                return readSerialized();
+            }
+            if (input.readInt() != version
+                    || !codec.getSchema().equals(input.readUTF())) {
+                delete = true;
+                return null;
+            }
+            return codec.decode(input);
+        } catch (IOException e) {
+            Log.d(TAG, "Exception reading cache " + handle.getName(), e);
+            return null;
+        } finally {
+            if (input != null)
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "Exception closing stream", e);
+                }
+            if (delete)
+                handle.delete();
+        }
+    }
+
+    /**
+     * Read data written by the previous serialization-based writer
+     *
+     * @return read data
+     */
+    @SuppressWarnings("unchecked")
+    private <V> V readSerialized() {
         RandomAccessFile dir = null;
         FileLock lock = null;
         ObjectInputStream input = null;
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import android.util.Log;
+
+import com.google.inject.Singleton;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scheduler of API requests that keeps background work from exhausting the
+ * rate limit of an account
+ * <p>
+ * Requests are made with the {@link Priority} of the calling thread.
+ * Interactive requests are never held back. Lower priorities are deferred
+ * once the remaining budget falls to the share of the limit they must leave
+ * for higher priorities, and sync requests are spaced out so the budget they
+ * may use lasts until the limit resets.
+ */
+@Singleton
+public class RequestScheduler {
+
+    private static final String TAG = "RequestScheduler";
+
+    /**
+     * Longest time in milliseconds a request is delayed before it is deferred
+     * instead
+     */
+    private static final long MAX_DELAY = 10 * 1000;
+
+    /**
+     * Priority classes of requests
+     */
+    public static enum Priority {
+
+        /**
+         * Requests made for the user, never held back
+         */
+        INTERACTIVE(0, false),
+
+        /**
+         * Requests for content that may be needed soon
+         */
+        PREFETCH(0.2F, false),
+
+        /**
+         * Requests made by background syncs
+         */
+        SYNC(0.5F, true);
+
+        private final float reserve;
+
+        private final boolean throttled;
+
+        private Priority(final float reserve, final boolean throttled) {
+            this.reserve = reserve;
+            this.throttled = throttled;
+        }
+
+        /**
+         * Are requests of this priority spaced out over the rate limit
+         * period?
+         *
+         * @return true if throttled, false otherwise
+         */
+        public boolean isThrottled() {
+            return throttled;
+        }
+    }
+
+    /**
+     * Exception thrown when a request is deferred until the rate limit resets
+     */
+    public static class DeferredException extends IOException {
+
+        private static final long serialVersionUID = -6211478436201404658L;
+
+        private final long resetAt;
+
+        private DeferredException(final Priority priority, final long resetAt) {
+            super("Deferred " + priority + " request until "
+                    + new Date(resetAt));
+            this.resetAt = resetAt;
+        }
+
+        /**
+         * Get time in milliseconds at which the rate limit resets
+         *
+         * @return reset time
+         */
+        public long getResetAt() {
+            return resetAt;
+        }
+    }
+
+    /**
+     * Rate limit budget of an account
+     */
+    public static class Budget {
+
+        private final int limit;
+
+        private final int remaining;
+
+        private final long resetAt;
+
+        private Budget(final int limit, final int remaining, final long resetAt) {
+            this.limit = limit;
+            this.remaining = remaining;
+            this.resetAt = resetAt;
+        }
+
+        /**
+         * @return number of requests allowed per period
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return number of requests remaining in the current period
+         */
+        public int getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * @return time in milliseconds at which the limit resets or -1 if
+         *         unknown
+         */
+        public long getResetAt() {
+            return resetAt;
+        }
+
+        @Override
+        public String toString() {
+            return remaining + " of " + limit + " remaining";
+        }
+    }
+
+    private final ThreadLocal<Priority> priority = new ThreadLocal<Priority>();
+
+    private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<String, Budget>();
+
+    private final ConcurrentMap<String, Long> lastThrottled = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Get priority of requests made on the calling thread
+     *
+     * @return priority
+     */
+    public Priority getPriority() {
+        Priority current = priority.get();
+        return current != null ? current : Priority.INTERACTIVE;
+    }
+
+    /**
+     * Set priority of requests made on the calling thread
+     * <p>
+     * Callers should restore the returned priority once done
+     *
+     * @param priority
+     * @return previous priority
+     */
+    public Priority setPriority(final Priority priority) {
+        Priority previous = getPriority();
+        this.priority.set(priority);
+        return previous;
+    }
+
+    /**
+     * Update budget of the given scope from a response
+     *
+     * @param scope
+     * @param limit
+     * @param remaining
+     * @param resetAt
+     *            time in milliseconds at which the limit resets or -1 if
+     *            unknown
+     * @return this scheduler
+     */
+    public RequestScheduler update(final String scope, final int limit,
+            final int remaining, final long resetAt) {
+        if (limit > 0 && remaining >= 0)
+            budgets.put(scope, new Budget(limit, remaining, resetAt));
+        return this;
+    }
+
+    /**
+     * Get budget of the given scope
+     *
+     * @param scope
+     * @return budget or null if no response has reported it yet
+     */
+    public Budget getBudget(final String scope) {
+        return budgets.get(scope);
+    }
+
+    /**
+     * Get time to wait before a request of the given priority may be made
+     *
+     * @param scope
+     * @param priority
+     * @param now
+     * @return milliseconds to wait or -1 if the request must be deferred
+     */
+    protected long getDelay(final String scope, final Priority priority,
+            final long now) {
+        Budget budget = budgets.get(scope);
+        if (budget == null || priority == Priority.INTERACTIVE)
+            return 0;
+        if (budget.resetAt > 0 && budget.resetAt <= now)
+            return 0;
+
+        int spare = budget.remaining - (int) (budget.limit * priority.reserve);
+        if (spare <= 0)
+            return -1;
+        if (!priority.throttled || budget.resetAt <= 0)
+            return 0;
+
+        long interval = (budget.resetAt - now) / spare;
+        Long last = lastThrottled.get(scope);
+        if (last == null)
+            return 0;
+        return Math.max(0, last + interval - now);
+    }
+
+    /**
+     * Wait until a request of the calling thread's priority may be made for
+     * the given scope
+     *
+     * @param scope
+     * @throws IOException
+     *             if interrupted or if the request is deferred until the rate
+     *             limit resets
+     */
+    public void acquire(final String scope) throws IOException {
+        Priority current = getPriority();
+        long now = System.currentTimeMillis();
+        long delay = getDelay(scope, current, now);
+        if (delay < 0 || delay > MAX_DELAY) {
+            Budget budget = budgets.get(scope);
+            long resetAt = budget != null ? budget.resetAt : -1;
+            if (resetAt <= 0)
+                resetAt = now + 60 * 60 * 1000;
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "Deferring " + current + " request, " + budget);
+            throw new DeferredException(current, resetAt);
+        }
+
+        if (delay > 0)
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+        if (current.throttled)
+            lastThrottled.put(scope, System.currentTimeMillis());
+    }
+}
@@ -17,21 +17,27 @@ package com.github.mobile;
 
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileLock;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Request writer
+ * <p>
+ * Data is written to a temporary file that is renamed over the target file
+ * once complete so readers never observe a partially written file.
  */
 public class RequestWriter {
 
     private static final String TAG = "RequestWriter";
 
+    /**
+     * Magic number at the start of every file written
+     */
+    static final int MAGIC = 0x47484331;
+
     private final File handle;
 
     private final int version;
@@ -56,43 +62,44 @@ public class RequestWriter {
      * Write request to file
      *
      * @param request
+     * @param codec
      * @return request
      */
-    public <V> V write(V request) {
-        RandomAccessFile dir = null;
-        FileLock lock = null;
-        ObjectOutputStream output = null;
+    public <V> V write(V request, RequestCodec<V> codec) {
+        File temp = null;
+        FileOutputStream file = null;
+        DataOutputStream output = null;
+        boolean written = false;
         try {
-            createDirectory(handle.getParentFile());
-            dir = new RandomAccessFile(handle, "rw");
-            lock = dir.getChannel().lock();
-            output = new ObjectOutputStream(new GZIPOutputStream(
-                    new FileOutputStream(dir.getFD()), 8192));
+            File dir = handle.getParentFile();
+            createDirectory(dir);
+            temp = File.createTempFile(handle.getName(), ".tmp", dir);
+            file = new FileOutputStream(temp);
+            output = new DataOutputStream(new BufferedOutputStream(file, 8192));
+            output.writeInt(MAGIC);
             output.writeInt(version);
-            output.writeObject(request);
+            output.writeUTF(codec.getSchema());
+            codec.encode(request, output);
+            output.flush();
+            file.getFD().sync();
+            written = true;
         } catch (IOException e) {
             Log.d(TAG, "Exception writing cache " + handle.getName(), e);
-            return null;
         } finally {
             if (output != null)
                 try {
                     output.close();
                 } catch (IOException e) {
                     Log.d(TAG, "Exception closing stream", e);
-                }
-            if (lock != null)
-                try {
-                    lock.release();
-                } catch (IOException e) {
-                    Log.d(TAG, "Exception unlocking file", e);
-                }
-            if (dir != null)
-                try {
-                    dir.close();
-                } catch (IOException e) {
-                    Log.d(TAG, "Exception closing file", e);
+                    written = false;
                 }
         }
-        return request;
+
+        if (written && temp.renameTo(handle))
+            return request;
+
+        if (temp != null)
+            temp.delete();
+        return null;
     }
 }
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of API responses that are revalidated using conditional
+ * requests
+ * <p>
+ * Responses are stored under a key made up of the request URL and the account
+ * the request was made with along with the ETag and Last-Modified values the
+ * server sent back and the links to other pages of paged responses.
+ */
+public class ResponseCache {
+
+    private static final String TAG = "ResponseCache";
+
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_LINK = "Link";
+
+    /**
+     * Version of the format entries are stored in
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Connection that reports the headers stored with a cached response in
+     * place of the headers of the response it was served for
+     */
+    private static class CachedConnection extends HttpURLConnection {
+
+        private final HttpURLConnection response;
+
+        private final String link;
+
+        private CachedConnection(final HttpURLConnection response,
+                final String link) {
+            super(response.getURL());
+
+            this.response = response;
+            this.link = link;
+        }
+
+        @Override
+        public String getHeaderField(final String name) {
+            if (HEADER_LINK.equalsIgnoreCase(name))
+                return link;
+            return response.getHeaderField(name);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            response.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            response.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return response.usingProxy();
+        }
+    }
+
+    /**
+     * Counters of how a single endpoint has been served
+     */
+    public static class Stats {
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private final AtomicInteger misses = new AtomicInteger();
+
+        private final AtomicInteger revalidations = new AtomicInteger();
+
+        /**
+         * Get number of responses served from the cache after the server
+         * reported them as not modified
+         *
+         * @return hit count
+         */
+        public int getHits() {
+            return hits.get();
+        }
+
+        /**
+         * Get number of responses that had to be fully downloaded
+         *
+         * @return miss count
+         */
+        public int getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * Get number of conditional requests sent
+         *
+         * @return revalidation count
+         */
+        public int getRevalidations() {
+            return revalidations.get();
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", revalidations="
+                    + revalidations;
+        }
+    }
+
+    /**
+     * Cached response
+     */
+    public static class Entry {
+
+        private final File file;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private final String link;
+
+        private Entry(final File file, final String etag,
+                final String lastModified, final String link) {
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.link = link;
+        }
+
+        /**
+         * Add the conditional request headers for this entry to the given
+         * request
+         *
+         * @param request
+         * @return request
+         */
+        public HttpURLConnection applyTo(final HttpURLConnection request) {
+            if (!TextUtils.isEmpty(etag))
+                request.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            if (!TextUtils.isEmpty(lastModified))
+                request.setRequestProperty(HEADER_IF_MODIFIED_SINCE,
+                        lastModified);
+            return request;
+        }
+
+        /**
+         * Wrap the response the cached body is served for so the headers
+         * stored with this entry, such as the links to other pages, are
+         * reported in place of the headers of the response
+         *
+         * @param response
+         * @return connection reporting the stored headers
+         */
+        public HttpURLConnection replayHeaders(
+                final HttpURLConnection response) {
+            return new CachedConnection(response,
+                    !TextUtils.isEmpty(link) ? link : null);
+        }
+
+        /**
+         * Open stream to the cached response body
+         * <p>
+         * The entry is marked as recently used so it is evicted last when
+         * the caches are trimmed.
+         *
+         * @return stream
+         * @throws IOException
+         */
+        public InputStream openBody() throws IOException {
+            file.setLastModified(System.currentTimeMillis());
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 8192));
+            try {
+                input.readInt();
+                input.readUTF();
+                input.readUTF();
+                input.readUTF();
+                input.readUTF();
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return input;
+        }
+    }
+
+    /**
+     * Stream that copies the response body to a temporary file as it is read
+     * so it can be committed to the cache once fully consumed
+     */
+    public static class Recorder extends FilterInputStream {
+
+        private final File temp;
+
+        private final File target;
+
+        private final OutputStream output;
+
+        private boolean failed;
+
+        private boolean closed;
+
+        private Recorder(final InputStream input, final File temp,
+                final File target, final OutputStream output) {
+            super(input);
+
+            this.temp = temp;
+            this.target = target;
+            this.output = output;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1 && !failed)
+                try {
+                    output.write(read);
+                } catch (IOException e) {
+                    failed = true;
+                }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0 && !failed)
+                try {
+                    output.write(buffer, offset, read);
+                } catch (IOException e) {
+                    failed = true;
+                }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes would be missing from the recorded body
+            failed = true;
+            return super.skip(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                // Drain any trailing bytes the parser left unread so the
+                // complete body is recorded
+                byte[] buffer = new byte[8192];
+                while (!failed && read(buffer, 0, buffer.length) != -1)
+                    ;
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    failed = true;
+                }
+                super.close();
+            }
+        }
+
+        /**
+         * Move the recorded body into the cache
+         *
+         * @return true if committed, false otherwise
+         */
+        public boolean commit() {
+            try {
+                close();
+            } catch (IOException e) {
+                failed = true;
+            }
+            if (failed || !temp.renameTo(target)) {
+                abort();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Discard the recorded body
+         */
+        public void abort() {
+            failed = true;
+            try {
+                close();
+            } catch (IOException e) {
+                // Ignored
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Get the endpoint a URI belongs to for the purposes of counting
+     *
+     * @param uri
+     * @return endpoint
+     */
+    public static String getEndpoint(final String uri) {
+        int query = uri.indexOf('?');
+        return query != -1 ? uri.substring(0, query) : uri;
+    }
+
+    /**
+     * Get hex encoded MD5 digest of key for use as a file name
+     *
+     * @param key
+     * @return digest or null if it can't be computed
+     */
+    public static String hash(final String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder hashed = new StringBuilder(bytes.length * 2);
+            for (byte value : bytes) {
+                hashed.append(Character.forDigit((value >> 4) & 0xF, 16));
+                hashed.append(Character.forDigit(value & 0xF, 16));
+            }
+            return hashed.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    private final File dir;
+
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+    /**
+     * Create response cache storing entries in the given directory
+     *
+     * @param dir
+     */
+    public ResponseCache(final File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get cache directory
+     *
+     * @return directory
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    private File getFile(final String key) {
+        String hashed = hash(key);
+        return hashed != null ? new File(dir, hashed) : null;
+    }
+
+    /**
+     * Get cached entry for key
+     *
+     * @param key
+     * @return entry or null if none cached
+     */
+    public Entry get(final String key) {
+        File file = getFile(key);
+        if (file == null || !file.exists())
+            return null;
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1024));
+            // Entries stored in an older format are replaced when next stored
+            if (input.readInt() != FORMAT_VERSION)
+                return null;
+            // Guard against hash collisions
+            if (!key.equals(input.readUTF()))
+                return null;
+            return new Entry(file, input.readUTF(), input.readUTF(),
+                    input.readUTF());
+        } catch (IOException e) {
+            Log.d(TAG, "Exception reading cached response " + file.getName(),
+                    e);
+            return null;
+        } finally {
+            if (input != null)
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "Exception closing stream", e);
+                }
+        }
+    }
+
+    /**
+     * Wrap the body of the given response in a stream that records it to the
+     * cache if the response carries a validator
+     *
+     * @param key
+     * @param response
+     * @param body
+     * @return recording stream or null if the response cannot be cached
+     */
+    public Recorder record(final String key, final HttpURLConnection response,
+            final InputStream body) {
+        String etag = response.getHeaderField(HEADER_ETAG);
+        String lastModified = response.getHeaderField(HEADER_LAST_MODIFIED);
+        if (TextUtils.isEmpty(etag) && TextUtils.isEmpty(lastModified))
+            return null;
+        String link = response.getHeaderField(HEADER_LINK);
+
+        File target = getFile(key);
+        if (target == null)
+            return null;
+
+        if (!dir.exists())
+            dir.mkdirs();
+
+        File temp = null;
+        DataOutputStream output = null;
+        try {
+            temp = File.createTempFile(target.getName(), ".tmp", dir);
+            output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp), 8192));
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(key);
+            output.writeUTF(etag != null ? etag : "");
+            output.writeUTF(lastModified != null ? lastModified : "");
+            output.writeUTF(link != null ? link : "");
+            return new Recorder(body, temp, target, output);
+        } catch (IOException e) {
+            Log.d(TAG, "Exception creating cached response", e);
+            if (output != null)
+                try {
+                    output.close();
+                } catch (IOException e2) {
+                    // Ignored
+                }
+            if (temp != null)
+                temp.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Remove entry for key
+     *
+     * @param key
+     * @return this cache
+     */
+    public ResponseCache remove(final String key) {
+        File file = getFile(key);
+        if (file != null)
+            file.delete();
+        return this;
+    }
+
+    private Stats getStats(final String endpoint) {
+        Stats endpointStats = stats.get(endpoint);
+        if (endpointStats == null) {
+            endpointStats = new Stats();
+            Stats existing = stats.putIfAbsent(endpoint, endpointStats);
+            if (existing != null)
+                endpointStats = existing;
+        }
+        return endpointStats;
+    }
+
+    /**
+     * Record a response served from the cache
+     *
+     * @param endpoint
+     * @return this cache
+     */
+    public ResponseCache hit(final String endpoint) {
+        getStats(endpoint).hits.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Record a response that was fully downloaded
+     *
+     * @param endpoint
+     * @return this cache
+     */
+    public ResponseCache miss(final String endpoint) {
+        getStats(endpoint).misses.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Record a conditional request being sent
+     *
+     * @param endpoint
+     * @return this cache
+     */
+    public ResponseCache revalidate(final String endpoint) {
+        getStats(endpoint).revalidations.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Get counters for each endpoint requested, sorted by endpoint
+     *
+     * @return non-null but possibly empty map of endpoints to counters
+     */
+    public Map<String, Stats> getStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, Stats>(stats));
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+import static android.os.Process.setThreadPriority;
+import android.util.Log;
+
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central executor of background work
+ * <p>
+ * Work runs in one of a few {@link Lane}s, each with its own bounded set of
+ * threads, so disk and CPU work is never stuck behind slow network requests.
+ * Queued work in a lane runs in priority order, and work submitted on behalf
+ * of an owner such as a fragment can be cancelled together once the owner is
+ * destroyed.
+ */
+@Singleton
+public class TaskExecutor {
+
+    private static final String TAG = "TaskExecutor";
+
+    /**
+     * Priority of work that should run before other queued work
+     */
+    public static final int PRIORITY_HIGH = 10;
+
+    /**
+     * Default priority
+     */
+    public static final int PRIORITY_DEFAULT = 0;
+
+    /**
+     * Priority of work that should run only when no other work is queued
+     */
+    public static final int PRIORITY_LOW = -10;
+
+    /**
+     * Lanes that work runs in
+     */
+    public static enum Lane {
+
+        /**
+         * Requests made for an action of the user, kept apart from
+         * background requests so they never wait on prefetching, syncing or
+         * avatar downloads
+         */
+        INTERACTIVE(4),
+
+        /**
+         * Requests to the API and other servers
+         */
+        NETWORK(6),
+
+        /**
+         * Reading and writing files and databases
+         */
+        DISK(2),
+
+        /**
+         * Decoding and formatting
+         */
+        CPU(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+        private final int threads;
+
+        private Lane(final int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * @return maximum number of threads running work in this lane
+         */
+        public int getThreads() {
+            return threads;
+        }
+    }
+
+    /**
+     * Metrics of a single lane
+     */
+    public static class Stats {
+
+        private final AtomicInteger completed = new AtomicInteger();
+
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        private final AtomicLong waitMillis = new AtomicLong();
+
+        private final AtomicLong maxWaitMillis = new AtomicLong();
+
+        private final AtomicInteger maxQueued = new AtomicInteger();
+
+        private ThreadPoolExecutor pool;
+
+        /**
+         * @return number of work items waiting for a thread
+         */
+        public int getQueued() {
+            return pool.getQueue().size();
+        }
+
+        /**
+         * @return largest number of work items that waited at once
+         */
+        public int getMaxQueued() {
+            return maxQueued.get();
+        }
+
+        /**
+         * @return number of work items currently running
+         */
+        public int getActive() {
+            return pool.getActiveCount();
+        }
+
+        /**
+         * @return number of work items run
+         */
+        public int getCompleted() {
+            return completed.get();
+        }
+
+        /**
+         * @return number of work items cancelled before running
+         */
+        public int getCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * @return average milliseconds work waited for a thread
+         */
+        public long getAverageWaitMillis() {
+            int count = completed.get();
+            return count > 0 ? waitMillis.get() / count : 0;
+        }
+
+        /**
+         * @return longest milliseconds work waited for a thread
+         */
+        public long getMaxWaitMillis() {
+            return maxWaitMillis.get();
+        }
+
+        private void queued() {
+            int queued = pool.getQueue().size();
+            int max = maxQueued.get();
+            while (queued > max && !maxQueued.compareAndSet(max, queued))
+                max = maxQueued.get();
+        }
+
+        private void started(final long wait) {
+            waitMillis.addAndGet(wait);
+            long max = maxWaitMillis.get();
+            while (wait > max && !maxWaitMillis.compareAndSet(max, wait))
+                max = maxWaitMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return "queued=" + getQueued() + ", active=" + getActive()
+                    + ", completed=" + completed + ", cancelled=" + cancelled
+                    + ", averageWait=" + getAverageWaitMillis() + "ms";
+        }
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * Work item queued in a lane
+     */
+    private class Job implements Runnable, Comparable<Job> {
+
+        private final Lane lane;
+
+        private final Future<?> future;
+
+        private final Runnable runnable;
+
+        private final boolean wrapped;
+
+        private final int priority;
+
+        private final Object owner;
+
+        private final long sequence = SEQUENCE.getAndIncrement();
+
+        private final long queuedAt = System.currentTimeMillis();
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private Job(final Lane lane, final Runnable runnable,
+                final int priority, final Object owner) {
+            this.lane = lane;
+            this.priority = priority;
+            this.owner = owner;
+            wrapped = !(runnable instanceof Future);
+            if (wrapped)
+                this.runnable = new FutureTask(runnable, null);
+            else
+                this.runnable = runnable;
+            future = (Future<?>) this.runnable;
+        }
+
+        public void run() {
+            getStats(lane).started(System.currentTimeMillis() - queuedAt);
+            try {
+                runnable.run();
+                if (wrapped)
+                    logFailure();
+            } finally {
+                getStats(lane).completed.incrementAndGet();
+                finished(this);
+            }
+        }
+
+        /**
+         * Log the exception thrown by a plain runnable, which would otherwise
+         * be held by the wrapping future that nobody reads
+         */
+        private void logFailure() {
+            if (!future.isDone() || future.isCancelled())
+                return;
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.d(TAG, "Exception running work in " + lane + " lane",
+                        e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void cancel() {
+            if (pools.get(lane).remove(this)) {
+                getStats(lane).cancelled.incrementAndGet();
+                finished(this);
+            }
+            future.cancel(true);
+        }
+
+        public int compareTo(final Job another) {
+            if (priority != another.priority)
+                return priority > another.priority ? -1 : 1;
+            if (sequence != another.sequence)
+                return sequence < another.sequence ? -1 : 1;
+            return 0;
+        }
+    }
+
+    /**
+     * Executor that runs one work item at a time in a lane, in the order
+     * submitted
+     */
+    private class SerialExecutor implements Executor {
+
+        private final LinkedList<Runnable> pending = new LinkedList<Runnable>();
+
+        private final Lane lane;
+
+        private final int priority;
+
+        private boolean running;
+
+        private SerialExecutor(final Lane lane, final int priority) {
+            this.lane = lane;
+            this.priority = priority;
+        }
+
+        public synchronized void execute(final Runnable command) {
+            pending.add(new Runnable() {
+
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        next();
+                    }
+                }
+            });
+            if (!running)
+                next();
+        }
+
+        private synchronized void next() {
+            Runnable command = pending.poll();
+            running = command != null;
+            if (running)
+                submit(lane, command, priority, null);
+        }
+    }
+
+    private final Map<Lane, ThreadPoolExecutor> pools = new EnumMap<Lane, ThreadPoolExecutor>(
+            Lane.class);
+
+    private final Map<Lane, Stats> stats = new EnumMap<Lane, Stats>(
+            Lane.class);
+
+    private final Map<Object, Set<Job>> owned = new WeakHashMap<Object, Set<Job>>();
+
+    /**
+     * Create executor with a thread pool for each lane
+     */
+    public TaskExecutor() {
+        for (final Lane lane : Lane.values()) {
+            ThreadFactory factory = new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+
+                        public void run() {
+                            setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, lane.name().toLowerCase() + '-'
+                            + count.incrementAndGet());
+                }
+            };
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(lane.threads,
+                    lane.threads, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), factory);
+            pools.put(lane, pool);
+
+            Stats laneStats = new Stats();
+            laneStats.pool = pool;
+            stats.put(lane, laneStats);
+        }
+    }
+
+    private void finished(final Job job) {
+        if (job.owner == null)
+            return;
+
+        synchronized (owned) {
+            Set<Job> jobs = owned.get(job.owner);
+            if (jobs != null) {
+                jobs.remove(job);
+                if (jobs.isEmpty())
+                    owned.remove(job.owner);
+            }
+        }
+    }
+
+    private void submit(final Lane lane, final Runnable command,
+            final int priority, final Object owner) {
+        Job job = new Job(lane, command, priority, owner);
+        if (owner != null)
+            synchronized (owned) {
+                Set<Job> jobs = owned.get(owner);
+                if (jobs == null) {
+                    jobs = new HashSet<Job>();
+                    owned.put(owner, jobs);
+                }
+                jobs.add(job);
+            }
+        pools.get(lane).execute(job);
+        getStats(lane).queued();
+    }
+
+    /**
+     * Get executor running work in the given lane at the default priority
+     *
+     * @param lane
+     * @return executor
+     */
+    public Executor getExecutor(final Lane lane) {
+        return getExecutor(lane, PRIORITY_DEFAULT, null);
+    }
+
+    /**
+     * Get executor running work in the given lane at the given priority
+     * <p>
+     * Work is cancelled by {@link #cancel(Object)} with the given owner.
+     *
+     * @param lane
+     * @param priority
+     * @param owner
+     *            owner of the work or null if not owned, only weakly
+     *            referenced
+     * @return executor
+     */
+    public Executor getExecutor(final Lane lane, final int priority,
+            final Object owner) {
+        return new Executor() {
+
+            public void execute(final Runnable command) {
+                submit(lane, command, priority, owner);
+            }
+        };
+    }
+
+    /**
+     * Get executor running one work item at a time in the given lane, in the
+     * order the items are submitted
+     *
+     * @param lane
+     * @param priority
+     * @return executor
+     */
+    public Executor getSerialExecutor(final Lane lane, final int priority) {
+        return new SerialExecutor(lane, priority);
+    }
+
+    /**
+     * Cancel all queued and running work submitted on behalf of the given
+     * owner
+     * <p>
+     * Running work is interrupted.
+     *
+     * @param owner
+     * @return number of work items cancelled
+     */
+    public int cancel(final Object owner) {
+        List<Job> jobs;
+        synchronized (owned) {
+            Set<Job> ownerJobs = owned.remove(owner);
+            if (ownerJobs == null)
+                return 0;
+            jobs = new ArrayList<Job>(ownerJobs);
+        }
+        for (Job job : jobs)
+            job.cancel();
+        return jobs.size();
+    }
+
+    /**
+     * Get metrics of the given lane
+     *
+     * @param lane
+     * @return stats
+     */
+    public Stats getStats(final Lane lane) {
+        return stats.get(lane);
+    }
+}
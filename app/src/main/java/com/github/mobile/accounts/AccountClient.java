@@ -20,6 +20,10 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.github.mobile.DefaultClient;
+import com.github.mobile.RequestCoalescer;
+import com.github.mobile.RequestMetrics;
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.ResponseCache;
 import com.google.inject.Provider;
 
 import java.net.HttpURLConnection;
@@ -42,11 +46,75 @@ public class AccountClient extends DefaultClient {
      * @param accountProvider
      */
     public AccountClient(final Provider<GitHubAccount> accountProvider) {
-        super();
+        this(accountProvider, null);
+    }
+
+    /**
+     * Create account-aware client that caches responses per account
+     *
+     * @param accountProvider
+     * @param responseCache
+     */
+    public AccountClient(final Provider<GitHubAccount> accountProvider,
+            final ResponseCache responseCache) {
+        this(accountProvider, responseCache, null);
+    }
+
+    /**
+     * Create account-aware client that caches responses per account and
+     * coalesces identical requests made concurrently for the same account
+     *
+     * @param accountProvider
+     * @param responseCache
+     * @param coalescer
+     */
+    public AccountClient(final Provider<GitHubAccount> accountProvider,
+            final ResponseCache responseCache, final RequestCoalescer coalescer) {
+        this(accountProvider, responseCache, coalescer, null);
+    }
+
+    /**
+     * Create account-aware client that caches responses per account,
+     * coalesces identical requests made concurrently for the same account and
+     * schedules requests against the account's rate limit
+     *
+     * @param accountProvider
+     * @param responseCache
+     * @param coalescer
+     * @param scheduler
+     */
+    public AccountClient(final Provider<GitHubAccount> accountProvider,
+            final ResponseCache responseCache,
+            final RequestCoalescer coalescer, final RequestScheduler scheduler) {
+        this(accountProvider, responseCache, coalescer, scheduler, null);
+    }
+
+    /**
+     * Create account-aware client that caches responses per account,
+     * coalesces identical requests made concurrently for the same account,
+     * schedules requests against the account's rate limit and records
+     * response metrics
+     *
+     * @param accountProvider
+     * @param responseCache
+     * @param coalescer
+     * @param scheduler
+     * @param metrics
+     */
+    public AccountClient(final Provider<GitHubAccount> accountProvider,
+            final ResponseCache responseCache,
+            final RequestCoalescer coalescer,
+            final RequestScheduler scheduler, final RequestMetrics metrics) {
+        super(responseCache, coalescer, scheduler, metrics);
 
         this.accountProvider = accountProvider;
     }
 
+    @Override
+    protected String getCacheScope() {
+        return accountProvider.get().getUsername();
+    }
+
     @Override
     protected HttpURLConnection configureRequest(final HttpURLConnection request) {
         GitHubAccount account = accountProvider.get();
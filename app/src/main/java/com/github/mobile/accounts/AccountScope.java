@@ -17,6 +17,7 @@ package com.github.mobile.accounts;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.content.Context;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Key;
@@ -25,6 +26,7 @@ import com.google.inject.OutOfScopeException;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Custom scope that makes an authenticated GitHub account available by
@@ -82,6 +84,57 @@ public class AccountScope extends ScopeBase {
         currentAccount.set(account);
     }
 
+    /**
+     * Get account of the scoping block in progress on the current thread
+     *
+     * @return account or null if no scoping block is in progress
+     */
+    public GitHubAccount getAccount() {
+        return currentAccount.get();
+    }
+
+    /**
+     * Wrap executor so commands run in the account scope in progress on the
+     * thread executing them, or else with the account configured on the
+     * device
+     *
+     * @param executor
+     * @param context
+     * @return wrapped executor
+     */
+    public Executor wrap(final Executor executor, final Context context) {
+        return new Executor() {
+
+            public void execute(final Runnable command) {
+                GitHubAccount account = currentAccount.get();
+                if (account == null) {
+                    Account configured = AccountUtils.getAccount(context);
+                    if (configured != null)
+                        account = new GitHubAccount(configured,
+                                AccountManager.get(context));
+                }
+
+                final GitHubAccount scoped = account;
+                executor.execute(new Runnable() {
+
+                    public void run() {
+                        if (scoped == null) {
+                            command.run();
+                            return;
+                        }
+
+                        enterWith(scoped);
+                        try {
+                            command.run();
+                        } finally {
+                            exit();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
     /**
      * Exit scope
      */
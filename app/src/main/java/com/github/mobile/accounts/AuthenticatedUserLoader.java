@@ -20,6 +20,8 @@ import android.accounts.AccountManager;
 import android.accounts.AccountsException;
 import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.github.kevinsawicki.wishlist.AsyncLoader;
 import com.google.inject.Inject;
@@ -37,6 +39,8 @@ import roboguice.inject.ContextScope;
  */
 public abstract class AuthenticatedUserLoader<D> extends AsyncLoader<D> {
 
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
     @Inject
     private ContextScope contextScope;
 
@@ -92,6 +96,30 @@ public abstract class AuthenticatedUserLoader<D> extends AsyncLoader<D> {
         }
     }
 
+    /**
+     * Deliver data to the registered listener while {@link #load(Account)} is
+     * still running
+     * <p>
+     * This allows cached data to be shown immediately while it is revalidated
+     * in the background. Returning the same instance from
+     * {@link #load(Account)} will not deliver the data a second time. Data
+     * that can no longer be delivered is passed to {@link #onCanceled(Object)}
+     * so it can be released.
+     *
+     * @param intermediate
+     */
+    protected void deliverIntermediateResult(final D intermediate) {
+        HANDLER.post(new Runnable() {
+
+            public void run() {
+                if (!isReset() && !isAbandoned())
+                    deliverResult(intermediate);
+                else
+                    onCanceled(intermediate);
+            }
+        });
+    }
+
     /**
      * Load data
      *
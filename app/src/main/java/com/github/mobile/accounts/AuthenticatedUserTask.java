@@ -15,11 +15,14 @@
  */
 package com.github.mobile.accounts;
 
+import static com.github.mobile.TaskExecutor.Lane.INTERACTIVE;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.app.Activity;
 import android.content.Context;
 
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Lane;
 import com.google.inject.Inject;
 
 import java.io.IOException;
@@ -46,14 +49,21 @@ public abstract class AuthenticatedUserTask<ResultT> extends
     @Inject
     private Activity activity;
 
+    @Inject
+    private TaskExecutor executors;
+
     /**
      * Create asynchronous task that ensures a valid account is present when
      * executed
+     * <p>
+     * The task runs in the {@link Lane#INTERACTIVE} lane
      *
      * @param context
      */
     protected AuthenticatedUserTask(final Context context) {
         super(context);
+
+        executor = executors.getExecutor(INTERACTIVE);
     }
 
     /**
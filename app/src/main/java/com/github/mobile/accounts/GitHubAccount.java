@@ -88,6 +88,21 @@ public class GitHubAccount {
         }
     }
 
+    @Override
+    public boolean equals(final Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof GitHubAccount))
+            return false;
+
+        return account.equals(((GitHubAccount) other).account);
+    }
+
+    @Override
+    public int hashCode() {
+        return account.hashCode();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + '[' + account.name + ']';
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.core;
+
+import static android.content.Context.CONNECTIVITY_SERVICE;
+import static android.net.ConnectivityManager.TYPE_ETHERNET;
+import static android.net.ConnectivityManager.TYPE_WIFI;
+import static android.net.ConnectivityManager.TYPE_WIMAX;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_EHRPD;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_EVDO_0;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_EVDO_A;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_EVDO_B;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_HSDPA;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_HSPA;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_HSPAP;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_HSUPA;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_LTE;
+import static android.telephony.TelephonyManager.NETWORK_TYPE_UMTS;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy choosing the number of resources requested per page by a
+ * {@link ResourcePager}
+ * <p>
+ * Pages are larger on fast unmetered connections and smaller on slow mobile
+ * connections. Pagers whose pages have been slow to load in the past use
+ * smaller pages. Large pages are preceded by a smaller first page so the first
+ * rows are displayed sooner.
+ */
+@Singleton
+public class PageSizePolicy {
+
+    private static final String TAG = "PageSizePolicy";
+
+    /**
+     * Number of resources the API returns per page by default
+     */
+    public static final int DEFAULT_SIZE = 30;
+
+    /**
+     * Maximum number of resources the API returns per page
+     */
+    public static final int MAX_SIZE = 100;
+
+    /**
+     * Page size used on fast mobile connections
+     */
+    private static final int MOBILE_SIZE = 50;
+
+    /**
+     * Smallest size of the first page requested before larger pages
+     */
+    private static final int FIRST_PAGE_SIZE = 25;
+
+    /**
+     * Average time in milliseconds to load a page after which a pager's page
+     * size is halved
+     */
+    private static final long SLOW_PAGE_MILLIS = 3000;
+
+    /**
+     * Latency of the pages loaded by a single pager
+     */
+    public static class Stats {
+
+        private final AtomicInteger pages = new AtomicInteger();
+
+        private final AtomicLong resources = new AtomicLong();
+
+        private final AtomicLong millis = new AtomicLong();
+
+        /**
+         * Get number of pages loaded
+         *
+         * @return page count
+         */
+        public int getPages() {
+            return pages.get();
+        }
+
+        /**
+         * Get number of resources loaded
+         *
+         * @return resource count
+         */
+        public long getResources() {
+            return resources.get();
+        }
+
+        /**
+         * Get average time in milliseconds to load a page
+         *
+         * @return average milliseconds or 0 if no pages were loaded
+         */
+        public long getAverageMillis() {
+            int loaded = pages.get();
+            return loaded > 0 ? millis.get() / loaded : 0;
+        }
+
+        /**
+         * Get average time in milliseconds to load a single resource
+         *
+         * @return average milliseconds or 0 if no resources were loaded
+         */
+        public long getMillisPerResource() {
+            long loaded = resources.get();
+            return loaded > 0 ? millis.get() / loaded : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "pages=" + pages + ", resources=" + resources
+                    + ", averageMillis=" + getAverageMillis();
+        }
+    }
+
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+    private final ConnectivityManager connectivity;
+
+    /**
+     * Create policy using the connectivity of the given context
+     *
+     * @param context
+     */
+    @Inject
+    public PageSizePolicy(final Context context) {
+        connectivity = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(CONNECTIVITY_SERVICE);
+    }
+
+    private static boolean isFastMobile(final int subtype) {
+        switch (subtype) {
+        case NETWORK_TYPE_UMTS:
+        case NETWORK_TYPE_EVDO_0:
+        case NETWORK_TYPE_EVDO_A:
+        case NETWORK_TYPE_EVDO_B:
+        case NETWORK_TYPE_HSDPA:
+        case NETWORK_TYPE_HSUPA:
+        case NETWORK_TYPE_HSPA:
+        case NETWORK_TYPE_HSPAP:
+        case NETWORK_TYPE_EHRPD:
+        case NETWORK_TYPE_LTE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Get page size suited to the active network connection
+     *
+     * @return page size
+     */
+    protected int getNetworkSize() {
+        NetworkInfo network = connectivity != null ? connectivity
+                .getActiveNetworkInfo() : null;
+        if (network == null)
+            return DEFAULT_SIZE;
+
+        switch (network.getType()) {
+        case TYPE_WIFI:
+        case TYPE_ETHERNET:
+        case TYPE_WIMAX:
+            return MAX_SIZE;
+        default:
+            return isFastMobile(network.getSubtype()) ? MOBILE_SIZE
+                    : DEFAULT_SIZE;
+        }
+    }
+
+    /**
+     * Get size of the pages requested by the named pager
+     *
+     * @param pager
+     * @return page size
+     */
+    public int getPageSize(final String pager) {
+        int size = getNetworkSize();
+        Stats pagerStats = stats.get(pager);
+        if (pagerStats != null
+                && pagerStats.getAverageMillis() > SLOW_PAGE_MILLIS)
+            size = Math.max(DEFAULT_SIZE, size / 2);
+        return size;
+    }
+
+    /**
+     * Get size of the first page to request before pages of the given size
+     * <p>
+     * The first page is half a page so the rest of the first page can be
+     * requested as a single page of the same size.
+     *
+     * @param size
+     * @return first page size
+     */
+    public int getFirstPageSize(final int size) {
+        return size >= 2 * FIRST_PAGE_SIZE ? size / 2 : size;
+    }
+
+    /**
+     * Record the time taken to load a page
+     *
+     * @param pager
+     * @param size
+     *            requested page size
+     * @param resources
+     *            number of resources returned
+     * @param millis
+     * @return this policy
+     */
+    public PageSizePolicy record(final String pager, final int size,
+            final int resources, final long millis) {
+        Stats pagerStats = stats.get(pager);
+        if (pagerStats == null) {
+            pagerStats = new Stats();
+            Stats existing = stats.putIfAbsent(pager, pagerStats);
+            if (existing != null)
+                pagerStats = existing;
+        }
+        pagerStats.pages.incrementAndGet();
+        pagerStats.resources.addAndGet(resources);
+        pagerStats.millis.addAndGet(millis);
+
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, pager + " loaded " + resources + " of " + size
+                    + " resources in " + millis + " ms");
+        return this;
+    }
+
+    /**
+     * Get latency of each pager that has loaded pages, sorted by pager name
+     *
+     * @return non-null but possibly empty map of pager names to latency
+     */
+    public Map<String, Stats> getStats() {
+        return Collections.unmodifiableMap(new TreeMap<String, Stats>(stats));
+    }
+}
@@ -18,20 +18,64 @@ package com.github.mobile.core;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.egit.github.core.client.NoSuchPageException;
 import org.eclipse.egit.github.core.client.PageIterator;
 
 /**
  * Generic resource pager for elements with an id that can be paged
+ * <p>
+ * Pagers given an {@link Executor} reload previously loaded pages
+ * concurrently after a call to {@link #clear()} and can read ahead the next
+ * page before it is requested from {@link #next()}. Pages are always
+ * registered in order on the thread calling {@link #next()}.
+ * <p>
+ * Pagers given a {@link PageSizePolicy} request pages of the size chosen by the
+ * policy, starting with a smaller first page when pages are large, and record
+ * how long each page takes to load. The rest of the first full page is then
+ * requested in pages of the smaller size so no resource is requested twice.
  *
  * @param <E>
  */
 public abstract class ResourcePager<E> {
 
+    /**
+     * Maximum number of pages requested concurrently
+     */
+    private static final int MAX_CONCURRENT_PAGES = 4;
+
+    /**
+     * Number of resources the API returns per page by default
+     */
+    public static final int DEFAULT_PAGE_SIZE = PageSizePolicy.DEFAULT_SIZE;
+
+    /**
+     * Single page of resources
+     *
+     * @param <E>
+     */
+    private static class Page<E> {
+
+        private final Collection<E> resources;
+
+        private final boolean hasNext;
+
+        private Page(final Collection<E> resources, final boolean hasNext) {
+            this.resources = resources;
+            this.hasNext = hasNext;
+        }
+    }
+
     /**
      * Next page to request
      */
@@ -52,6 +96,115 @@ public abstract class ResourcePager<E> {
      */
     protected boolean hasMore;
 
+    private Executor executor;
+
+    private FutureTask<Page<E>> readAhead;
+
+    private int readAheadPage;
+
+    private PageSizePolicy policy;
+
+    private int pageSize = -1;
+
+    private int selectedSize = -1;
+
+    /**
+     * Size of the pages requested after a smaller first page until the
+     * resources loaded fill the first page of the selected size, -1 if not
+     * filling the first page
+     */
+    private int fillSize = -1;
+
+    /**
+     * Next page of {@link #fillSize} to request
+     */
+    private int fillPage;
+
+    /**
+     * Set executor used to request pages concurrently and to read ahead
+     * <p>
+     * Pages are requested one at a time on the thread calling {@link #next()}
+     * when no executor is set
+     *
+     * @param executor
+     * @return this pager
+     */
+    public ResourcePager<E> setExecutor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set policy used to choose the page size and to record page latency
+     *
+     * @param policy
+     * @return this pager
+     */
+    public ResourcePager<E> setPageSizePolicy(final PageSizePolicy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Set number of resources to request per page
+     * <p>
+     * A fixed page size takes precedence over the size chosen by the
+     * {@link PageSizePolicy} and is used from the next call to {@link #reset()}
+     * or from the first page if no pages have been requested yet
+     *
+     * @param pageSize
+     *            page size or -1 to use the policy or API default
+     * @return this pager
+     */
+    public ResourcePager<E> setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Get number of resources requested per page
+     *
+     * @return page size
+     */
+    public int getPageSize() {
+        int size = selectPageSize();
+        return size > 0 ? size : DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Select the page size if not selected since the last call to
+     * {@link #reset()}
+     * <p>
+     * The size is kept until the pager is reset so previously loaded pages are
+     * reloaded with the same size they were loaded with
+     *
+     * @return page size or -1 to use the API default
+     */
+    private synchronized int selectPageSize() {
+        if (selectedSize <= 0)
+            if (pageSize > 0)
+                selectedSize = pageSize;
+            else if (policy != null)
+                selectedSize = policy.getPageSize(getName());
+        return selectedSize;
+    }
+
+    /**
+     * Get name this pager's latency is recorded under
+     *
+     * @return name
+     */
+    protected String getName() {
+        return getClass().getName();
+    }
+
+    private void record(final int size, final Collection<E> resourcePage,
+            final long start) {
+        if (policy != null)
+            policy.record(getName(), size > 0 ? size : DEFAULT_PAGE_SIZE,
+                    resourcePage.size(), System.currentTimeMillis() - start);
+    }
+
     /**
      * Reset the number of the next page to be requested from {@link #next()}
      * and clear all stored state
@@ -60,6 +213,9 @@ public abstract class ResourcePager<E> {
      */
     public ResourcePager<E> reset() {
         page = 1;
+        synchronized (this) {
+            selectedSize = -1;
+        }
         return clear();
     }
 
@@ -70,6 +226,8 @@ public abstract class ResourcePager<E> {
      * @return this pager
      */
     public ResourcePager<E> clear() {
+        cancelReadAhead();
+        fillSize = -1;
         count = Math.max(1, page - 1);
         page = 1;
         resources.clear();
@@ -95,6 +253,117 @@ public abstract class ResourcePager<E> {
         return new ArrayList<E>(resources.values());
     }
 
+    /**
+     * Can pages be requested independently of the pages before them?
+     * <p>
+     * Sub-classes that build the request for a page from the resources of the
+     * previous page must return false so pages are never requested
+     * concurrently or ahead of time
+     *
+     * @return true if concurrent requests are supported, false otherwise
+     */
+    protected boolean isPageIndependent() {
+        return true;
+    }
+
+    private Page<E> fetch(final int number, final int size) throws IOException {
+        PageIterator<E> iterator = createIterator(number, size);
+        try {
+            if (!iterator.hasNext())
+                return new Page<E>(Collections.<E> emptyList(), false);
+            long start = System.currentTimeMillis();
+            Collection<E> resourcePage = iterator.next();
+            record(size, resourcePage, start);
+            return new Page<E>(resourcePage, iterator.hasNext());
+        } catch (NoSuchPageException e) {
+            throw e.getCause();
+        }
+    }
+
+    private FutureTask<Page<E>> submit(final int number) {
+        final int size = selectPageSize();
+        FutureTask<Page<E>> task = new FutureTask<Page<E>>(
+                new Callable<Page<E>>() {
+
+                    public Page<E> call() throws Exception {
+                        return fetch(number, size);
+                    }
+                });
+        executor.execute(task);
+        return task;
+    }
+
+    private static <E> Page<E> get(final FutureTask<Page<E>> task)
+            throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw new IOException(e.getMessage());
+        } catch (CancellationException e) {
+            throw new IOException("Page request cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause != null ? cause.getMessage() : null);
+        }
+    }
+
+    private synchronized FutureTask<Page<E>> takeReadAhead(final int number) {
+        FutureTask<Page<E>> task = readAhead;
+        readAhead = null;
+        if (task != null && readAheadPage != number) {
+            task.cancel(true);
+            return null;
+        }
+        return task;
+    }
+
+    private synchronized void cancelReadAhead() {
+        if (readAhead != null) {
+            readAhead.cancel(true);
+            readAhead = null;
+        }
+    }
+
+    /**
+     * Start requesting the page the next call to {@link #next()} will return
+     * in the background
+     * <p>
+     * This method must not be called while {@link #next()} is running and
+     * does nothing if no executor is set
+     *
+     * @return this pager
+     */
+    public synchronized ResourcePager<E> readAhead() {
+        if (executor == null || !hasMore || count > 1 || !isPageIndependent()
+                || fillSize > 0)
+            return this;
+        if (readAhead != null && readAheadPage == page)
+            return this;
+
+        cancelReadAhead();
+        readAheadPage = page;
+        readAhead = submit(page);
+        return this;
+    }
+
+    private boolean add(final Page<E> resourcePage) {
+        if (resourcePage.resources.isEmpty())
+            return false;
+
+        for (E resource : resourcePage.resources) {
+            resource = register(resource);
+            if (resource == null)
+                continue;
+            resources.put(getId(resource), resource);
+        }
+        return true;
+    }
+
     /**
      * Get the next page of issues
      *
@@ -102,11 +371,25 @@ public abstract class ResourcePager<E> {
      * @throws IOException
      */
     public boolean next() throws IOException {
+        int size = selectPageSize();
+        if (page == 1 && count == 1 && resources.isEmpty() && policy != null) {
+            int firstSize = policy.getFirstPageSize(size);
+            if (firstSize > 0 && firstSize < size)
+                return nextFirstPage(firstSize);
+        }
+        if (fillSize > 0)
+            return nextFillPage(size);
+
+        if (executor != null && isPageIndependent())
+            return count > 1 ? nextConcurrently() : nextReadAhead();
+
         boolean emptyPage = false;
-        PageIterator<E> iterator = createIterator(page, -1);
+        PageIterator<E> iterator = createIterator(page, size);
         try {
             for (int i = 0; i < count && iterator.hasNext(); i++) {
+                long start = System.currentTimeMillis();
                 Collection<E> resourcePage = iterator.next();
+                record(size, resourcePage, start);
                 emptyPage = resourcePage.isEmpty();
                 if (emptyPage)
                     break;
@@ -132,6 +415,125 @@ public abstract class ResourcePager<E> {
         return hasMore;
     }
 
+    /**
+     * Get a first page smaller than the page size so the first resources can
+     * be displayed sooner
+     * <p>
+     * When the page size is a multiple of the first page size the rest of the
+     * first full page is requested next in pages of the first page size,
+     * otherwise the first full page is requested next and the resources
+     * already loaded are replaced as they are loaded again
+     *
+     * @param firstSize
+     * @return true if more pages
+     * @throws IOException
+     */
+    private boolean nextFirstPage(final int firstSize) throws IOException {
+        Page<E> resourcePage;
+        try {
+            resourcePage = fetch(1, firstSize);
+        } catch (IOException e) {
+            hasMore = false;
+            throw e;
+        }
+
+        boolean added = add(resourcePage);
+        hasMore = added && resourcePage.hasNext;
+        // Fewer resources than requested means there are no more to load
+        if (added && !hasMore)
+            page++;
+        else if (hasMore && selectPageSize() % firstSize == 0) {
+            fillSize = firstSize;
+            fillPage = 2;
+        }
+        return hasMore;
+    }
+
+    /**
+     * Get the next page of the first page size until the resources loaded
+     * fill the first page of the given size
+     *
+     * @param size
+     * @return true if more pages
+     * @throws IOException
+     */
+    private boolean nextFillPage(final int size) throws IOException {
+        Page<E> resourcePage;
+        try {
+            resourcePage = fetch(fillPage, fillSize);
+        } catch (IOException e) {
+            hasMore = false;
+            throw e;
+        }
+
+        hasMore = add(resourcePage) && resourcePage.hasNext;
+        if (fillPage * fillSize >= size) {
+            fillSize = -1;
+            page = 2;
+        } else
+            fillPage++;
+        return hasMore;
+    }
+
+    /**
+     * Get the next page using the page read ahead if available
+     *
+     * @return true if more pages
+     * @throws IOException
+     */
+    private boolean nextReadAhead() throws IOException {
+        FutureTask<Page<E>> task = takeReadAhead(page);
+        Page<E> resourcePage;
+        try {
+            resourcePage = task != null ? get(task) : fetch(page,
+                    selectPageSize());
+        } catch (IOException e) {
+            hasMore = false;
+            throw e;
+        }
+
+        page++;
+        hasMore = add(resourcePage) && resourcePage.hasNext;
+        return hasMore;
+    }
+
+    /**
+     * Reload all previously loaded pages with at most
+     * {@link #MAX_CONCURRENT_PAGES} requests in flight at once
+     *
+     * @return true if more pages
+     * @throws IOException
+     */
+    private boolean nextConcurrently() throws IOException {
+        LinkedList<FutureTask<Page<E>>> pending = new LinkedList<FutureTask<Page<E>>>();
+        int submitted = 0;
+        boolean more = true;
+        try {
+            while (submitted < count && pending.size() < MAX_CONCURRENT_PAGES)
+                pending.add(submit(page + submitted++));
+
+            while (!pending.isEmpty()) {
+                Page<E> resourcePage = get(pending.removeFirst());
+                more = add(resourcePage) && resourcePage.hasNext;
+                if (!more)
+                    break;
+                if (submitted < count)
+                    pending.add(submit(page + submitted++));
+            }
+        } catch (IOException e) {
+            hasMore = false;
+            throw e;
+        } finally {
+            for (FutureTask<Page<E>> task : pending)
+                task.cancel(true);
+        }
+
+        page += count;
+        count = 1;
+        hasMore = more;
+        return hasMore;
+    }
+
     /**
      * Are more pages available to request?
      *
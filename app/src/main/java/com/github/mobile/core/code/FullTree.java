@@ -20,6 +20,7 @@ import static org.eclipse.egit.github.core.TreeEntry.TYPE_BLOB;
 import static org.eclipse.egit.github.core.TreeEntry.TYPE_TREE;
 import android.text.TextUtils;
 
+import com.github.mobile.DefaultClient.Consumer;
 import com.github.mobile.core.commit.CommitUtils;
 import com.github.mobile.core.ref.RefUtils;
 
@@ -33,8 +34,12 @@ import org.eclipse.egit.github.core.TreeEntry;
 
 /**
  * {@link Tree} with additional information
+ * <p>
+ * Trees can be built from a parsed {@link Tree} or have their entries streamed
+ * in one at a time through {@link #consume(TreeEntry)} so the full list of
+ * entries is never held in memory.
  */
-public class FullTree {
+public class FullTree implements Consumer<TreeEntry> {
 
     /**
      * Entry in a tree
@@ -188,4 +193,28 @@ public class FullTree {
             for (TreeEntry entry : entries)
                 root.add(entry);
     }
+
+    /**
+     * Create empty tree with branch that entries are streamed into
+     *
+     * @param sha
+     * @param reference
+     */
+    public FullTree(final String sha, final Reference reference) {
+        this(new Tree().setSha(sha), reference);
+    }
+
+    /**
+     * Add entry streamed from the API to this tree
+     * <p>
+     * Entries must be added in the order the API lists them so folders are
+     * added before their contents. The URL of each entry is dropped since
+     * entries are looked up by SHA-1.
+     *
+     * @param entry
+     */
+    public void consume(final TreeEntry entry) {
+        entry.setUrl(null);
+        root.add(entry);
+    }
 }
@@ -15,11 +15,15 @@
  */
 package com.github.mobile.core.code;
 
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_GIT;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_REPOS;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_TREES;
 import android.accounts.Account;
 import android.content.Context;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.github.mobile.DefaultClient;
 import com.github.mobile.accounts.AuthenticatedUserTask;
 import com.github.mobile.core.ref.RefUtils;
 import com.google.inject.Inject;
@@ -29,7 +33,7 @@ import java.io.IOException;
 import org.eclipse.egit.github.core.Commit;
 import org.eclipse.egit.github.core.Reference;
 import org.eclipse.egit.github.core.Repository;
-import org.eclipse.egit.github.core.Tree;
+import org.eclipse.egit.github.core.TreeEntry;
 import org.eclipse.egit.github.core.service.DataService;
 import org.eclipse.egit.github.core.service.RepositoryService;
 
@@ -50,6 +54,9 @@ public class RefreshTreeTask extends AuthenticatedUserTask<FullTree> {
     @Inject
     private DataService dataService;
 
+    @Inject
+    private DefaultClient client;
+
     /**
      * Create task to refresh repository's tree
      *
@@ -99,9 +106,16 @@ public class RefreshTreeTask extends AuthenticatedUserTask<FullTree> {
                 || TextUtils.isEmpty(commit.getTree().getSha()))
             throw new IOException("Commit does not have associated tree SHA-1");
 
-        Tree tree = dataService.getTree(repository, commit.getTree().getSha(),
-                true);
-        return new FullTree(tree, ref);
+        // Stream the recursive listing since large trees have tens of
+        // thousands of entries
+        String sha = commit.getTree().getSha();
+        StringBuilder uri = new StringBuilder(SEGMENT_REPOS);
+        uri.append('/').append(repository.generateId());
+        uri.append(SEGMENT_GIT).append(SEGMENT_TREES);
+        uri.append('/').append(sha).append("?recursive=1");
+        FullTree tree = new FullTree(sha, ref);
+        client.stream(uri.toString(), "tree", TreeEntry.class, tree);
+        return tree;
     }
 
     @Override
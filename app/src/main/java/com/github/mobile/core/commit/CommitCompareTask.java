@@ -15,16 +15,25 @@
  */
 package com.github.mobile.core.commit;
 
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_COMPARE;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_REPOS;
 import android.accounts.Account;
 import android.content.Context;
 import android.util.Log;
 
+import com.github.mobile.DefaultClient;
+import com.github.mobile.DefaultClient.ArrayField;
+import com.github.mobile.DefaultClient.Consumer;
 import com.github.mobile.accounts.AuthenticatedUserTask;
 import com.google.inject.Inject;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.egit.github.core.CommitFile;
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.RepositoryCommit;
 import org.eclipse.egit.github.core.RepositoryCommitCompare;
-import org.eclipse.egit.github.core.service.CommitService;
 
 /**
  * Task to compare two commits
@@ -35,7 +44,7 @@ public class CommitCompareTask extends
     private static final String TAG = "CommitCompareTask";
 
     @Inject
-    private CommitService service;
+    private DefaultClient client;
 
     private final IRepositoryIdProvider repository;
 
@@ -58,9 +67,45 @@ public class CommitCompareTask extends
         this.head = head;
     }
 
+    /**
+     * Consumer adding each element to a list
+     *
+     * @param <V>
+     */
+    private static class ListConsumer<V> implements Consumer<V> {
+
+        private final List<V> elements = new ArrayList<V>();
+
+        public void consume(final V element) {
+            elements.add(element);
+        }
+    }
+
+    /**
+     * Compare the commits by streaming the commits and files of the response
+     * as they arrive
+     * <p>
+     * Comparisons of distant commits hold hundreds of files along with their
+     * patches so only the commits and files are parsed and the other fields
+     * of the comparison are skipped.
+     */
     @Override
     protected RepositoryCommitCompare run(Account account) throws Exception {
-        return service.compare(repository, base, head);
+        StringBuilder uri = new StringBuilder(SEGMENT_REPOS);
+        uri.append('/').append(repository.generateId());
+        uri.append(SEGMENT_COMPARE);
+        uri.append('/').append(base).append("...").append(head);
+
+        ListConsumer<RepositoryCommit> commits = new ListConsumer<RepositoryCommit>();
+        ListConsumer<CommitFile> files = new ListConsumer<CommitFile>();
+        client.stream(uri.toString(), new ArrayField<RepositoryCommit>(
+                "commits", RepositoryCommit.class, commits),
+                new ArrayField<CommitFile>("files", CommitFile.class, files));
+
+        RepositoryCommitCompare compare = new RepositoryCommitCompare();
+        compare.setCommits(commits.elements);
+        compare.setFiles(files.elements);
+        return compare;
     }
 
     @Override
@@ -31,6 +31,8 @@ public class FullIssue extends ArrayList<Comment> implements Serializable {
 
     private final Issue issue;
 
+    private final long loadedAt = System.currentTimeMillis();
+
     /**
      * Create wrapper for issue and comments
      *
@@ -56,4 +58,11 @@ public class FullIssue extends ArrayList<Comment> implements Serializable {
     public Issue getIssue() {
         return issue;
     }
+
+    /**
+     * @return time in milliseconds the issue and comments were loaded at
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.core.issue;
+
+import com.github.mobile.RequestCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.egit.github.core.Label;
+import org.eclipse.egit.github.core.Milestone;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Codec for writing bookmarked {@link IssueFilter} instances using only the
+ * fields needed to display and apply them
+ */
+public class IssueFilterCodec implements RequestCodec<Collection<IssueFilter>> {
+
+    private static final String SCHEMA = "issue-filters:1";
+
+    private static void writeString(final DataOutput output,
+            final String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null)
+            output.writeUTF(value);
+    }
+
+    private static String readString(final DataInput input)
+            throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeUser(final DataOutput output, final User user)
+            throws IOException {
+        output.writeBoolean(user != null);
+        if (user == null)
+            return;
+
+        output.writeInt(user.getId());
+        writeString(output, user.getLogin());
+        writeString(output, user.getAvatarUrl());
+        writeString(output, user.getGravatarId());
+    }
+
+    private static User readUser(final DataInput input) throws IOException {
+        if (!input.readBoolean())
+            return null;
+
+        User user = new User();
+        user.setId(input.readInt());
+        user.setLogin(readString(input));
+        user.setAvatarUrl(readString(input));
+        user.setGravatarId(readString(input));
+        return user;
+    }
+
+    private static void writeRepository(final DataOutput output,
+            final Repository repository) throws IOException {
+        output.writeLong(repository.getId());
+        writeString(output, repository.getName());
+        writeUser(output, repository.getOwner());
+        writeString(output, repository.getDescription());
+        writeString(output, repository.getLanguage());
+        writeString(output, repository.getHtmlUrl());
+        writeString(output, repository.getUrl());
+        writeString(output, repository.getMirrorUrl());
+        output.writeBoolean(repository.isPrivate());
+        output.writeBoolean(repository.isFork());
+        output.writeBoolean(repository.isHasIssues());
+        output.writeInt(repository.getWatchers());
+        output.writeInt(repository.getForks());
+    }
+
+    private static Repository readRepository(final DataInput input)
+            throws IOException {
+        Repository repository = new Repository();
+        repository.setId(input.readLong());
+        repository.setName(readString(input));
+        repository.setOwner(readUser(input));
+        repository.setDescription(readString(input));
+        repository.setLanguage(readString(input));
+        repository.setHtmlUrl(readString(input));
+        repository.setUrl(readString(input));
+        repository.setMirrorUrl(readString(input));
+        repository.setPrivate(input.readBoolean());
+        repository.setFork(input.readBoolean());
+        repository.setHasIssues(input.readBoolean());
+        repository.setWatchers(input.readInt());
+        repository.setForks(input.readInt());
+        return repository;
+    }
+
+    private static void writeMilestone(final DataOutput output,
+            final Milestone milestone) throws IOException {
+        output.writeBoolean(milestone != null);
+        if (milestone == null)
+            return;
+
+        output.writeInt(milestone.getNumber());
+        writeString(output, milestone.getTitle());
+        writeString(output, milestone.getState());
+    }
+
+    private static Milestone readMilestone(final DataInput input)
+            throws IOException {
+        if (!input.readBoolean())
+            return null;
+
+        Milestone milestone = new Milestone();
+        milestone.setNumber(input.readInt());
+        milestone.setTitle(readString(input));
+        milestone.setState(readString(input));
+        return milestone;
+    }
+
+    private static void writeLabels(final DataOutput output,
+            final Set<Label> labels) throws IOException {
+        if (labels == null) {
+            output.writeInt(0);
+            return;
+        }
+
+        output.writeInt(labels.size());
+        for (Label label : labels) {
+            writeString(output, label.getName());
+            writeString(output, label.getColor());
+            writeString(output, label.getUrl());
+        }
+    }
+
+    private static List<Label> readLabels(final DataInput input)
+            throws IOException {
+        int count = input.readInt();
+        List<Label> labels = new ArrayList<Label>(count);
+        for (int i = 0; i < count; i++) {
+            Label label = new Label();
+            label.setName(readString(input));
+            label.setColor(readString(input));
+            label.setUrl(readString(input));
+            labels.add(label);
+        }
+        return labels;
+    }
+
+    public String getSchema() {
+        return SCHEMA;
+    }
+
+    public void encode(final Collection<IssueFilter> filters,
+            final DataOutput output) throws IOException {
+        output.writeInt(filters.size());
+        for (IssueFilter filter : filters) {
+            writeRepository(output, filter.getRepository());
+            writeLabels(output, filter.getLabels());
+            writeMilestone(output, filter.getMilestone());
+            writeUser(output, filter.getAssignee());
+            output.writeBoolean(filter.isOpen());
+        }
+    }
+
+    public Collection<IssueFilter> decode(final DataInput input)
+            throws IOException {
+        int count = input.readInt();
+        Collection<IssueFilter> filters = new HashSet<IssueFilter>(count);
+        for (int i = 0; i < count; i++) {
+            IssueFilter filter = new IssueFilter(readRepository(input));
+            List<Label> labels = readLabels(input);
+            if (!labels.isEmpty())
+                filter.setLabels(labels);
+            filter.setMilestone(readMilestone(input));
+            filter.setAssignee(readUser(input));
+            filter.setOpen(input.readBoolean());
+            filters.add(filter);
+        }
+        return filters;
+    }
+}
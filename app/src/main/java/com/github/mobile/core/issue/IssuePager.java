@@ -15,12 +15,28 @@
  */
 package com.github.mobile.core.issue;
 
+import android.database.sqlite.SQLiteDatabase;
+
 import com.github.mobile.core.ResourcePager;
+import com.github.mobile.persistence.DatabaseCache;
+import com.github.mobile.persistence.RepositoryIssues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.RepositoryIssue;
 
 /**
  * Helper class for showing more and more pages of issues
+ * <p>
+ * Pagers created with a {@link RepositoryIssues} resource write every page
+ * loaded through to the database cache and, once a filter has been loaded
+ * before, start from the cached issues after requesting only the issues
+ * updated since the last sync.
  */
 public abstract class IssuePager extends ResourcePager<Issue> {
 
@@ -29,18 +45,133 @@ public abstract class IssuePager extends ResourcePager<Issue> {
      */
     protected final IssueStore store;
 
+    private final DatabaseCache cache;
+
+    private final RepositoryIssues persisted;
+
+    private final List<Issue> loaded = new ArrayList<Issue>();
+
     /**
      * Create issue pager
      *
      * @param store
      */
     public IssuePager(final IssueStore store) {
+        this(store, null, null);
+    }
+
+    /**
+     * Create issue pager that persists issues to the given cache
+     *
+     * @param store
+     * @param cache
+     * @param persisted
+     */
+    public IssuePager(final IssueStore store, final DatabaseCache cache,
+            final RepositoryIssues persisted) {
         this.store = store;
+        this.cache = cache;
+        this.persisted = persisted;
+    }
+
+    /**
+     * Register issue loaded from the database cache
+     * <p>
+     * Issues already in the {@link IssueStore} are preferred over stored
+     * copies that are not newer since stored copies do not include the body.
+     *
+     * @param issue
+     * @return registered issue
+     */
+    private Issue registerCached(final Issue issue) {
+        RepositoryIssue current = store.getIssue(
+                ((RepositoryIssue) issue).getRepository(), issue.getNumber());
+        if (current != null && current.getUpdatedAt() != null
+                && issue.getUpdatedAt() != null
+                && !issue.getUpdatedAt().after(current.getUpdatedAt()))
+            return current;
+        return store.addIssue(issue);
+    }
+
+    /**
+     * Load the issues stored in the database cache that match this pager
+     *
+     * @return non-null but possibly empty list of issues
+     */
+    public List<Issue> loadCached() {
+        if (persisted == null)
+            return Collections.emptyList();
+
+        List<Issue> cached = cache.load(persisted);
+        if (cached == null)
+            return Collections.emptyList();
+
+        List<Issue> issues = new ArrayList<Issue>(cached.size());
+        for (Issue issue : cached)
+            issues.add(registerCached(issue));
+        return issues;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (persisted == null)
+            return super.next();
+
+        if (page == 1 && resources.isEmpty() && cache.isFetched(persisted)
+                && sync())
+            return hasMore;
+
+        loaded.clear();
+        try {
+            return super.next();
+        } finally {
+            if (!loaded.isEmpty())
+                cache.store(persisted, loaded);
+            loaded.clear();
+        }
+    }
+
+    /**
+     * Update the cached issues with the issues updated since the last sync
+     * and load them into this pager
+     *
+     * @return true if cached issues were loaded, false otherwise
+     * @throws IOException
+     */
+    private boolean sync() throws IOException {
+        SQLiteDatabase db = cache.getReadable();
+        Date since = db != null ? persisted.getSynced(db) : null;
+        if (since == null)
+            return false;
+
+        try {
+            cache.requestAndStore(persisted.setSince(since));
+        } finally {
+            persisted.setSince(null);
+        }
+
+        List<Issue> cached = cache.load(persisted);
+        if (cached == null)
+            return false;
+
+        for (Issue issue : cached)
+            resources.put(getId(issue), registerCached(issue));
+
+        // The cached issues are not a whole number of API pages since issues
+        // updated since the last sync may come from any page, so page from the
+        // start and merge the pages loaded into the cached issues by id
+        page = 1;
+        count = 1;
+        hasMore = true;
+        return true;
     }
 
     @Override
     protected Issue register(Issue resource) {
-        return store.addIssue(resource);
+        Issue registered = store.addIssue(resource);
+        if (persisted != null)
+            loaded.add(registered);
+        return registered;
     }
 
     @Override
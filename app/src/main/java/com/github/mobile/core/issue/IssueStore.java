@@ -15,7 +15,10 @@
  */
 package com.github.mobile.core.issue;
 
+import android.text.TextUtils;
+
 import com.github.mobile.core.ItemStore;
+import com.github.mobile.persistence.WriteQueue;
 import com.github.mobile.util.HtmlUtils;
 
 import java.io.IOException;
@@ -37,10 +40,14 @@ public class IssueStore extends ItemStore {
 
     private final Map<String, ItemReferences<RepositoryIssue>> repos = new HashMap<String, ItemReferences<RepositoryIssue>>();
 
+    private final Map<String, ItemReferences<FullIssue>> fullIssues = new HashMap<String, ItemReferences<FullIssue>>();
+
     private final IssueService issueService;
 
     private final PullRequestService pullService;
 
+    private final WriteQueue writes;
+
     /**
      * Create issue store
      *
@@ -49,8 +56,21 @@ public class IssueStore extends ItemStore {
      */
     public IssueStore(final IssueService issueService,
             final PullRequestService pullService) {
+        this(issueService, pullService, null);
+    }
+
+    /**
+     * Create issue store that queues edits made while offline
+     *
+     * @param issueService
+     * @param pullService
+     * @param writes
+     */
+    public IssueStore(final IssueService issueService,
+            final PullRequestService pullService, final WriteQueue writes) {
         this.issueService = issueService;
         this.pullService = pullService;
+        this.writes = writes;
     }
 
     /**
@@ -66,6 +86,38 @@ public class IssueStore extends ItemStore {
         return repoIssues != null ? repoIssues.get(number) : null;
     }
 
+    /**
+     * Get issue with the comments loaded along with it
+     *
+     * @param repository
+     * @param number
+     * @return issue and comments or null if not in store
+     */
+    public FullIssue getFullIssue(IRepositoryIdProvider repository, int number) {
+        ItemReferences<FullIssue> repoIssues = fullIssues.get(repository
+                .generateId());
+        return repoIssues != null ? repoIssues.get(number) : null;
+    }
+
+    /**
+     * Add issue with its comments to store
+     *
+     * @param repository
+     * @param issue
+     * @return issue
+     */
+    public FullIssue addFullIssue(IRepositoryIdProvider repository,
+            FullIssue issue) {
+        String repoId = repository.generateId();
+        ItemReferences<FullIssue> repoIssues = fullIssues.get(repoId);
+        if (repoIssues == null) {
+            repoIssues = new ItemReferences<FullIssue>();
+            fullIssues.put(repoId, repoIssues);
+        }
+        repoIssues.put(issue.getIssue().getNumber(), issue);
+        return issue;
+    }
+
     /**
      * Add issue to store
      *
@@ -179,6 +231,9 @@ public class IssueStore extends ItemStore {
 
     /**
      * Edit issue
+     * <p>
+     * Edits made while offline, or while earlier writes are still queued, are
+     * queued and the stored issue is updated with the edit right away.
      *
      * @param repository
      * @param issue
@@ -187,6 +242,41 @@ public class IssueStore extends ItemStore {
      */
     public RepositoryIssue editIssue(IRepositoryIdProvider repository,
             Issue issue) throws IOException {
-        return addIssue(repository, issueService.editIssue(repository, issue));
+        if (writes == null)
+            return addIssue(repository,
+                    issueService.editIssue(repository, issue));
+
+        if (!writes.hasWrites())
+            try {
+                return addIssue(repository,
+                        issueService.editIssue(repository, issue));
+            } catch (IOException e) {
+                if (!WriteQueue.isOffline(e))
+                    throw e;
+            }
+
+        RepositoryIssue current = getIssue(repository, issue.getNumber());
+        writes.editIssue(repository, issue,
+                current != null ? current.getUpdatedAt() : null);
+        if (current == null)
+            return addIssue(repository, issue);
+
+        if (issue.getTitle() != null)
+            current.setTitle(issue.getTitle());
+        if (issue.getBody() != null) {
+            current.setBody(issue.getBody());
+            current.setBodyHtml(HtmlUtils.toHtml(issue.getBody()));
+        }
+        if (issue.getState() != null)
+            current.setState(issue.getState());
+        if (issue.getAssignee() != null)
+            current.setAssignee(TextUtils.isEmpty(issue.getAssignee()
+                    .getLogin()) ? null : issue.getAssignee());
+        if (issue.getMilestone() != null)
+            current.setMilestone(issue.getMilestone().getNumber() > 0 ? issue
+                    .getMilestone() : null);
+        if (issue.getLabels() != null)
+            current.setLabels(issue.getLabels());
+        return current;
     }
 }
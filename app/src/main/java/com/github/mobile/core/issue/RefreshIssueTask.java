@@ -15,10 +15,13 @@
  */
 package com.github.mobile.core.issue;
 
+import static com.github.mobile.RequestScheduler.Priority.PREFETCH;
 import android.accounts.Account;
 import android.content.Context;
 import android.util.Log;
 
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.RequestScheduler.Priority;
 import com.github.mobile.accounts.AuthenticatedUserTask;
 import com.github.mobile.util.HtmlUtils;
 import com.github.mobile.util.HttpImageGetter;
@@ -26,6 +29,7 @@ import com.google.inject.Inject;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.eclipse.egit.github.core.Comment;
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
@@ -45,6 +49,9 @@ public class RefreshIssueTask extends AuthenticatedUserTask<FullIssue> {
     @Inject
     private IssueStore store;
 
+    @Inject
+    private RequestScheduler scheduler;
+
     private final IRepositoryIdProvider repositoryId;
 
     private final int issueNumber;
@@ -53,6 +60,8 @@ public class RefreshIssueTask extends AuthenticatedUserTask<FullIssue> {
 
     private final HttpImageGetter commentImageGetter;
 
+    private final boolean prefetch;
+
     /**
      * Create task to refresh given issue
      *
@@ -71,12 +80,50 @@ public class RefreshIssueTask extends AuthenticatedUserTask<FullIssue> {
         this.issueNumber = issueNumber;
         this.bodyImageGetter = bodyImageGetter;
         this.commentImageGetter = commentImageGetter;
+        prefetch = false;
+    }
+
+    /**
+     * Create task to load given issue into the store ahead of it being viewed
+     * <p>
+     * The HTML of the issue and comments is left to be encoded once viewed
+     * and requests are made at the priority of prefetches.
+     *
+     * @param context
+     * @param repositoryId
+     * @param issueNumber
+     * @param executor
+     */
+    public RefreshIssueTask(Context context,
+            IRepositoryIdProvider repositoryId, int issueNumber,
+            Executor executor) {
+        super(context, executor);
+
+        this.repositoryId = repositoryId;
+        this.issueNumber = issueNumber;
+        this.bodyImageGetter = null;
+        this.commentImageGetter = null;
+        prefetch = true;
     }
 
     @Override
     public FullIssue run(Account account) throws Exception {
+        if (!prefetch)
+            return refresh();
+
+        // Yield to requests made for the user once the rate limit runs low
+        Priority previous = scheduler.setPriority(PREFETCH);
+        try {
+            return refresh();
+        } finally {
+            scheduler.setPriority(previous);
+        }
+    }
+
+    private FullIssue refresh() throws Exception {
         Issue issue = store.refreshIssue(repositoryId, issueNumber);
-        bodyImageGetter.encode(issue.getId(), issue.getBodyHtml());
+        if (bodyImageGetter != null)
+            bodyImageGetter.encode(issue.getId(), issue.getBodyHtml());
         List<Comment> comments;
         if (issue.getComments() > 0)
             comments = service.getComments(repositoryId, issueNumber);
@@ -86,9 +133,11 @@ public class RefreshIssueTask extends AuthenticatedUserTask<FullIssue> {
             String formatted = HtmlUtils.format(comment.getBodyHtml())
                     .toString();
             comment.setBodyHtml(formatted);
-            commentImageGetter.encode(comment.getId(), formatted);
+            if (commentImageGetter != null)
+                commentImageGetter.encode(comment.getId(), formatted);
         }
-        return new FullIssue(issue, comments);
+        return store.addFullIssue(repositoryId, new FullIssue(issue,
+                comments));
     }
 
     @Override
@@ -15,6 +15,8 @@
  */
 package com.github.mobile.core.repo;
 
+import java.io.IOException;
+
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
 import org.eclipse.egit.github.core.service.WatcherService;
 
@@ -23,6 +25,7 @@ import android.content.Context;
 import android.util.Log;
 
 import com.github.mobile.R.string;
+import com.github.mobile.persistence.WriteQueue;
 import com.github.mobile.ui.ProgressDialogTask;
 import com.google.inject.Inject;
 
@@ -36,6 +39,9 @@ public class StarRepositoryTask extends ProgressDialogTask<Void> {
     @Inject
     private WatcherService service;
 
+    @Inject
+    private WriteQueue writes;
+
     private final IRepositoryIdProvider repo;
 
     /**
@@ -63,7 +69,18 @@ public class StarRepositoryTask extends ProgressDialogTask<Void> {
 
     @Override
     protected Void run(Account account) throws Exception {
-        service.watch(repo);
+        if (writes.hasWrites()) {
+            writes.star(repo, true);
+            return null;
+        }
+
+        try {
+            service.watch(repo);
+        } catch (IOException e) {
+            if (!WriteQueue.isOffline(e))
+                throw e;
+            writes.star(repo, true);
+        }
 
         return null;
     }
@@ -15,31 +15,40 @@
  */
 package com.github.mobile.persistence;
 
+import static com.github.mobile.RequestMetrics.CACHE_FILES;
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import static com.github.mobile.TaskExecutor.PRIORITY_HIGH;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
 import android.accounts.Account;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.util.Log;
 
+import com.github.mobile.RequestCodec;
 import com.github.mobile.RequestFuture;
+import com.github.mobile.RequestMetrics;
 import com.github.mobile.RequestReader;
 import com.github.mobile.RequestWriter;
+import com.github.mobile.TaskExecutor;
 import com.github.mobile.accounts.AuthenticatedUserTask;
 import com.github.mobile.core.issue.IssueFilter;
+import com.github.mobile.core.issue.IssueFilterCodec;
 import com.github.mobile.persistence.OrganizationRepositories.Factory;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.name.Named;
 
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.User;
@@ -51,20 +60,34 @@ public class AccountDataManager {
 
     private static final String TAG = "AccountDataManager";
 
-    private static final Executor EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      * Format version to bump if serialization format changes and cache should
      * be ignored
      */
     private static final int FORMAT_VERSION = 4;
 
+    /**
+     * Age in milliseconds after which cached organizations and repositories
+     * are revalidated
+     */
+    private static final long MAX_AGE = 10 * 60 * 1000;
+
+    private static final IssueFilterCodec FILTER_CODEC = new IssueFilterCodec();
+
+    private static final SnapshotCodec SNAPSHOT_CODEC = new SnapshotCodec();
+
     @Inject
     private Context context;
 
     @Inject
     private DatabaseCache dbCache;
 
+    @Inject
+    private TaskExecutor executors;
+
+    @Inject
+    private RequestMetrics metrics;
+
     @Inject
     private Factory allRepos;
 
@@ -75,6 +98,10 @@ public class AccountDataManager {
     @Named("cacheDir")
     private File root;
 
+    @Inject
+    @Named("accountCacheDir")
+    private Provider<File> accountRoot;
+
     /**
      * @return context
      */
@@ -82,23 +109,49 @@ public class AccountDataManager {
         return context;
     }
 
+    /**
+     * Get file in the directory of the current account
+     * <p>
+     * A file stored before files were partitioned by account is moved into the
+     * directory of the first account that requests it
+     *
+     * @param name
+     * @return file
+     */
+    private File getAccountFile(final String name) {
+        File file = new File(accountRoot.get(), name);
+        if (!file.exists()) {
+            File shared = new File(root, name);
+            if (shared.exists() && !shared.equals(file)) {
+                file.getParentFile().mkdirs();
+                if (!shared.renameTo(file))
+                    Log.d(TAG, "Unable to move " + name + " to account");
+            }
+        }
+        return file;
+    }
+
     /**
      * Read data from file
      *
      * @param file
+     * @param codec
      * @return data
      */
-    @SuppressWarnings("unchecked")
-    private <V> V read(final File file) {
+    private <V> V read(final File file, final RequestCodec<V> codec) {
         long start = System.currentTimeMillis();
         long length = file.length();
-        Object data = new RequestReader(file, FORMAT_VERSION).read();
-        if (data != null)
-            Log.d(TAG, MessageFormat.format(
-                    "Cache hit to {0}, {1} ms to load {2} bytes",
-                    file.getName(), (System.currentTimeMillis() - start),
-                    length));
-        return (V) data;
+        V data = new RequestReader(file, FORMAT_VERSION).read(codec);
+        if (data == null) {
+            metrics.miss(CACHE_FILES);
+            return null;
+        }
+
+        metrics.hit(CACHE_FILES);
+        Log.d(TAG, MessageFormat.format(
+                "Cache hit to {0}, {1} ms to load {2} bytes", file.getName(),
+                (System.currentTimeMillis() - start), length));
+        return data;
     }
 
     /**
@@ -106,10 +159,12 @@ public class AccountDataManager {
      *
      * @param file
      * @param data
+     * @param codec
      * @return this manager
      */
-    private AccountDataManager write(File file, Object data) {
-        new RequestWriter(file, FORMAT_VERSION).write(data);
+    private <V> AccountDataManager write(File file, V data,
+            RequestCodec<V> codec) {
+        new RequestWriter(file, FORMAT_VERSION).write(data, codec);
         return this;
     }
 
@@ -159,6 +214,23 @@ public class AccountDataManager {
                 : dbCache.loadOrRequest(userAndOrgsResource);
     }
 
+    /**
+     * Get organizations, delivering stale cached organizations to the given
+     * future before revalidating them
+     * <p/>
+     * This method may perform file and/or network I/O and should never be
+     * called on the UI-thread
+     *
+     * @param staleFuture
+     * @return list of user and Orgs
+     * @throws IOException
+     */
+    public List<User> getOrgs(RequestFuture<List<User>> staleFuture)
+            throws IOException {
+        return dbCache.loadAndRevalidate(userAndOrgsResource, MAX_AGE,
+                staleFuture);
+    }
+
     /**
      * Get repositories for given {@link User}
      * <p/>
@@ -178,6 +250,52 @@ public class AccountDataManager {
                 .loadOrRequest(resource);
     }
 
+    /**
+     * Get cached repositories for given {@link User} sorted with the given
+     * recent repositories first
+     * <p/>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param user
+     * @param recent
+     *            ids of recent repositories
+     * @param filter
+     *            text the repositories must match, may be null
+     * @return list of repositories that must be closed once no longer used,
+     *         null if the cache could not be opened
+     */
+    public CursorList<Repository> getSortedRepos(final User user,
+            final Collection<Long> recent, final String filter) {
+        SQLiteDatabase db = dbCache.getReadable();
+        if (db == null)
+            return null;
+
+        OrganizationRepositories resource = allRepos.under(user);
+        Cursor cursor = resource.getSortedCursor(db, recent, filter);
+        return new CursorList<Repository>(cursor, resource,
+                OrganizationRepositories.COLUMN_SECTION);
+    }
+
+    /**
+     * Request and store repositories for given {@link User} if they were
+     * never fetched or were fetched longer ago than the maximum age
+     * <p/>
+     * This method may perform network I/O and should never be called on the
+     * UI-thread
+     *
+     * @param user
+     * @param forceReload
+     *            if true, repositories are requested regardless of age
+     * @return true if the stored repositories changed, false otherwise
+     * @throws IOException
+     */
+    public boolean revalidateRepos(final User user, final boolean forceReload)
+            throws IOException {
+        return dbCache.revalidate(allRepos.under(user), forceReload ? 0
+                : MAX_AGE);
+    }
+
     /**
      * Get bookmarked issue filters
      * <p/>
@@ -187,8 +305,8 @@ public class AccountDataManager {
      * @return non-null but possibly empty collection of issue filters
      */
     public Collection<IssueFilter> getIssueFilters() {
-        final File cache = new File(root, "issue_filters.ser");
-        Collection<IssueFilter> cached = read(cache);
+        final File cache = getAccountFile("issue_filters.ser");
+        Collection<IssueFilter> cached = read(cache, FILTER_CODEC);
         if (cached != null)
             return cached;
         return Collections.emptyList();
@@ -201,7 +319,8 @@ public class AccountDataManager {
      */
     public void getIssueFilters(
             final RequestFuture<Collection<IssueFilter>> requestFuture) {
-        new AuthenticatedUserTask<Collection<IssueFilter>>(context, EXECUTOR) {
+        new AuthenticatedUserTask<Collection<IssueFilter>>(context,
+                executors.getExecutor(DISK)) {
 
             @Override
             public Collection<IssueFilter> run(Account account)
@@ -226,12 +345,12 @@ public class AccountDataManager {
      * @param filter
      */
     public void addIssueFilter(IssueFilter filter) {
-        final File cache = new File(root, "issue_filters.ser");
-        Collection<IssueFilter> filters = read(cache);
+        final File cache = getAccountFile("issue_filters.ser");
+        Collection<IssueFilter> filters = read(cache, FILTER_CODEC);
         if (filters == null)
             filters = new HashSet<IssueFilter>();
         if (filters.add(filter))
-            write(cache, filters);
+            write(cache, filters, FILTER_CODEC);
     }
 
     /**
@@ -242,7 +361,8 @@ public class AccountDataManager {
      */
     public void addIssueFilter(final IssueFilter filter,
             final RequestFuture<IssueFilter> requestFuture) {
-        new AuthenticatedUserTask<IssueFilter>(context, EXECUTOR) {
+        new AuthenticatedUserTask<IssueFilter>(context,
+                executors.getExecutor(DISK)) {
 
             @Override
             public IssueFilter run(Account account) throws Exception {
@@ -271,10 +391,10 @@ public class AccountDataManager {
      * @param filter
      */
     public void removeIssueFilter(IssueFilter filter) {
-        final File cache = new File(root, "issue_filters.ser");
-        Collection<IssueFilter> filters = read(cache);
+        final File cache = getAccountFile("issue_filters.ser");
+        Collection<IssueFilter> filters = read(cache, FILTER_CODEC);
         if (filters != null && filters.remove(filter))
-            write(cache, filters);
+            write(cache, filters, FILTER_CODEC);
     }
 
     /**
@@ -285,7 +405,8 @@ public class AccountDataManager {
      */
     public void removeIssueFilter(final IssueFilter filter,
             final RequestFuture<IssueFilter> requestFuture) {
-        new AuthenticatedUserTask<IssueFilter>(context, EXECUTOR) {
+        new AuthenticatedUserTask<IssueFilter>(context,
+                executors.getExecutor(DISK)) {
 
             @Override
             public IssueFilter run(Account account) throws Exception {
@@ -304,4 +425,80 @@ public class AccountDataManager {
             }
         }.execute();
     }
+
+    private File getSnapshotFile(final String name) {
+        return getAccountFile("snapshots/" + name.replaceAll("[^\\w.-]", "_")
+                + ".snap");
+    }
+
+    /**
+     * Get snapshot of the items last shown in a list
+     * <p/>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param name
+     * @return non-null but possibly empty list of items
+     */
+    @SuppressWarnings("unchecked")
+    public <E> List<E> getSnapshot(final String name) {
+        List<Object> items = read(getSnapshotFile(name), SNAPSHOT_CODEC);
+        if (items != null)
+            return (List<E>) items;
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get snapshot of the items last shown in a list
+     *
+     * @param name
+     * @param requestFuture
+     */
+    public <E> void getSnapshot(final String name,
+            final RequestFuture<List<E>> requestFuture) {
+        new AuthenticatedUserTask<List<E>>(context, executors.getExecutor(
+                DISK, PRIORITY_HIGH, null)) {
+
+            @Override
+            public List<E> run(Account account) throws Exception {
+                return getSnapshot(name);
+            }
+
+            @Override
+            protected void onSuccess(List<E> items) throws Exception {
+                requestFuture.success(items);
+            }
+
+            @Override
+            protected void onException(Exception e) throws RuntimeException {
+                Log.d(TAG, "Exception reading snapshot", e);
+            }
+        }.execute();
+    }
+
+    /**
+     * Save snapshot of the items shown in a list
+     * <p/>
+     * The snapshot is written in the background.
+     *
+     * @param name
+     * @param items
+     */
+    public void saveSnapshot(final String name, final List<?> items) {
+        final List<Object> snapshot = new ArrayList<Object>(items);
+        new AuthenticatedUserTask<Void>(context, executors.getExecutor(DISK,
+                PRIORITY_LOW, null)) {
+
+            @Override
+            public Void run(Account account) throws Exception {
+                write(getSnapshotFile(name), snapshot, SNAPSHOT_CODEC);
+                return null;
+            }
+
+            @Override
+            protected void onException(Exception e) throws RuntimeException {
+                Log.d(TAG, "Exception saving snapshot", e);
+            }
+        }.execute();
+    }
 }
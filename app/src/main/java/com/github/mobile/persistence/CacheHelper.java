@@ -15,48 +15,210 @@
  */
 package com.github.mobile.persistence;
 
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.HONEYCOMB;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
-import com.google.inject.Inject;
+import java.io.File;
 
 /**
  * Helper class to create & upgrade database cache tables
+ * <p>
+ * Each account has its own database so switching accounts keeps the cache of
+ * every account intact. A single instance per account is shared by the
+ * process and the database it opens is kept open for the lifetime of the
+ * process.
  */
 public class CacheHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "CacheHelper";
+
+    /**
+     * Version constant to increment when the schema changes
+     * <p>
+     * Each increment must be accompanied by a migration step in
+     * {@link #upgradeTo(SQLiteDatabase, int)}
+     */
+    private static final int VERSION = 13;
+
+    /**
+     * Oldest version that can be migrated, databases older than this version
+     * are rebuilt
+     */
+    private static final int MIGRATABLE_VERSION = 8;
+
+    /**
+     * Name of database file not belonging to any account
+     * <p>
+     * This database was shared by all accounts prior to caches being
+     * partitioned by account
+     */
+    static final String NAME = "cache.db";
+
+    private static final String[] SUFFIXES = new String[] { "", "-journal",
+            "-wal", "-shm" };
+
     /**
-     * Version constant to increment when the database should be rebuilt
+     * Get name of database file for account
+     *
+     * @param login
+     * @return name
      */
-    private static final int VERSION = 8;
+    static String getName(final String login) {
+        return login != null ? "cache-" + login + ".db" : NAME;
+    }
 
     /**
-     * Name of database file
+     * Rename the database shared by all accounts to the given name if no
+     * database with that name exists yet
+     *
+     * @param context
+     * @param name
+     * @return name
      */
-    private static final String NAME = "cache.db";
+    private static String adopt(final Context context, final String name) {
+        File database = context.getDatabasePath(name);
+        File shared = context.getDatabasePath(NAME);
+        if (NAME.equals(name) || database.exists() || !shared.exists())
+            return name;
+
+        for (String suffix : SUFFIXES) {
+            File from = new File(shared.getPath() + suffix);
+            if (from.exists()
+                    && !from.renameTo(new File(database.getPath() + suffix)))
+                Log.d(TAG, "Unable to rename " + from.getName());
+        }
+        return name;
+    }
 
     /**
+     * Create helper for database not belonging to any account
+     *
      * @param context
      */
-    @Inject
     public CacheHelper(final Context context) {
-        super(context, NAME, null, VERSION);
+        this(context, null);
+    }
+
+    /**
+     * Create helper for the database of the account with the given login
+     * <p>
+     * The database shared by all accounts prior to caches being partitioned
+     * is adopted by the first account opened.
+     *
+     * @param context
+     * @param login
+     */
+    public CacheHelper(final Context context, final String login) {
+        super(context.getApplicationContext(), adopt(context, getName(login)),
+                null, VERSION);
+    }
+
+    @Override
+    public void onOpen(final SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Allow reads to proceed concurrently with sync writes
+        if (SDK_INT >= HONEYCOMB && !db.isReadOnly())
+            db.enableWriteAheadLogging();
     }
 
     @Override
     public void onCreate(final SQLiteDatabase db) {
         db.execSQL("CREATE TABLE orgs (id INTEGER PRIMARY KEY);");
         db.execSQL("CREATE TABLE users (id INTEGER PRIMARY KEY, name TEXT, avatarurl TEXT);");
-        db.execSQL("CREATE TABLE repos (id INTEGER PRIMARY KEY, repoId INTEGER, orgId INTEGER, name TEXT, ownerId INTEGER, private INTEGER, fork INTEGER, description TEXT, forks INTEGER, watchers INTEGER, language TEXT, hasIssues INTEGER, mirrorUrl TEXT);");
+        createRepos(db);
+        createReposIndex(db);
+        createFetched(db);
+        createIssues(db);
+        createWriteQueue(db);
+    }
+
+    private void createRepos(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE repos (id INTEGER PRIMARY KEY, repoId INTEGER, orgId INTEGER, name TEXT, ownerId INTEGER, private INTEGER, fork INTEGER, description TEXT, forks INTEGER, watchers INTEGER, language TEXT, hasIssues INTEGER, mirrorUrl TEXT, updatedAt INTEGER);");
+        db.execSQL("CREATE UNIQUE INDEX repos_org ON repos (orgId, repoId);");
+        db.execSQL("CREATE INDEX repos_owner ON repos (ownerId);");
+        db.execSQL("CREATE INDEX repos_updated ON repos (updatedAt);");
+    }
+
+    private void createReposIndex(final SQLiteDatabase db) {
+        // Full-text index of repos rows, the docid of each row is the id of the
+        // repos row indexed
+        db.execSQL("CREATE VIRTUAL TABLE repos_fts USING fts3(name, owner, description, language);");
+    }
+
+    private void createFetched(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE fetched (key TEXT PRIMARY KEY, fetchedAt INTEGER, hash INTEGER);");
+    }
+
+    private void createIssues(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE issues (id INTEGER PRIMARY KEY, repoId INTEGER, number INTEGER, issueId INTEGER, title TEXT, state TEXT, comments INTEGER, createdAt INTEGER, updatedAt INTEGER, closedAt INTEGER, htmlUrl TEXT, url TEXT, pullRequestUrl TEXT, userId INTEGER, userLogin TEXT, userAvatarUrl TEXT, assigneeId INTEGER, assigneeLogin TEXT, assigneeAvatarUrl TEXT, milestoneNumber INTEGER, milestoneTitle TEXT, labels TEXT);");
+        db.execSQL("CREATE UNIQUE INDEX issues_repo ON issues (repoId, number);");
+        db.execSQL("CREATE INDEX issues_state ON issues (repoId, state, createdAt);");
+        db.execSQL("CREATE TABLE issue_syncs (repoId INTEGER PRIMARY KEY, updatedAt INTEGER);");
+    }
+
+    private void createWriteQueue(final SQLiteDatabase db) {
+        // Writes made while offline in the order they must be replayed,
+        // updatedAt is the time the edited resource was last updated when the
+        // write was made
+        db.execSQL("CREATE TABLE write_queue (id INTEGER PRIMARY KEY AUTOINCREMENT, type TEXT, repo TEXT, number INTEGER, body TEXT, updatedAt INTEGER, queuedAt INTEGER);");
     }
 
     @Override
     public void onUpgrade(final SQLiteDatabase db, final int oldVersion,
             final int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS orgs");
-        db.execSQL("DROP TABLE IF EXISTS users");
-        db.execSQL("DROP TABLE IF EXISTS repos");
-        onCreate(db);
+        if (oldVersion < MIGRATABLE_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS orgs");
+            db.execSQL("DROP TABLE IF EXISTS users");
+            db.execSQL("DROP TABLE IF EXISTS repos");
+            db.execSQL("DROP TABLE IF EXISTS repos_fts");
+            db.execSQL("DROP TABLE IF EXISTS fetched");
+            db.execSQL("DROP TABLE IF EXISTS issues");
+            db.execSQL("DROP TABLE IF EXISTS issue_syncs");
+            db.execSQL("DROP TABLE IF EXISTS write_queue");
+            onCreate(db);
+            return;
+        }
+
+        for (int version = oldVersion + 1; version <= newVersion; version++)
+            upgradeTo(db, version);
+    }
+
+    /**
+     * Migrate database from the previous version to the given version
+     *
+     * @param db
+     * @param version
+     */
+    private void upgradeTo(final SQLiteDatabase db, final int version) {
+        switch (version) {
+        case 9:
+            createFetched(db);
+            break;
+        case 10:
+            // Add updatedAt column and indexes to repos
+            db.execSQL("ALTER TABLE repos RENAME TO repos_old;");
+            createRepos(db);
+            db.execSQL("INSERT OR REPLACE INTO repos (repoId, orgId, name, ownerId, private, fork, description, forks, watchers, language, hasIssues, mirrorUrl) SELECT repoId, orgId, name, ownerId, private, fork, description, forks, watchers, language, hasIssues, mirrorUrl FROM repos_old;");
+            db.execSQL("DROP TABLE repos_old;");
+            break;
+        case 11:
+            createIssues(db);
+            break;
+        case 12:
+            createReposIndex(db);
+            db.execSQL("INSERT INTO repos_fts (docid, name, owner, description, language) SELECT repos.id, repos.name, users.name, repos.description, repos.language FROM repos JOIN users ON (repos.ownerId = users.id);");
+            break;
+        case 13:
+            createWriteQueue(db);
+            break;
+        default:
+            throw new IllegalArgumentException("No migration to version "
+                    + version);
+        }
     }
 }
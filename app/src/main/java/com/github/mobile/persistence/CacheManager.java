@@ -0,0 +1,448 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.persistence;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.github.mobile.ResponseCache;
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.util.PreferenceUtils;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Manager of the on-disk caches that keeps their combined size under a byte
+ * budget
+ * <p>
+ * Files in the response cache are evicted least recently used first once the
+ * budget is exceeded. Cached issues are then evicted from the database least
+ * recently fetched first and the free pages left behind are reclaimed using
+ * incremental vacuuming. The avatar and image caches evict from their own
+ * indexes under their own budgets, and along with saved requests such as
+ * bookmarks count towards the budget but are never evicted here.
+ * <p>
+ * Usage includes the caches of every account while only the database of the
+ * current account is trimmed.
+ */
+@Singleton
+public class CacheManager {
+
+    private static final String TAG = "CacheManager";
+
+    /**
+     * Namespace of the cache database
+     */
+    public static final String DATABASE = "database";
+
+    /**
+     * Namespace of saved requests such as bookmarks and recent repositories
+     */
+    public static final String REQUESTS = "requests";
+
+    /**
+     * Namespace of avatar images
+     */
+    public static final String AVATARS = "avatars";
+
+    /**
+     * Namespace of images embedded in rendered HTML
+     */
+    public static final String IMAGES = "images";
+
+    /**
+     * Namespace of API responses
+     */
+    public static final String RESPONSES = "responses";
+
+    /**
+     * Default budget in bytes of all caches combined
+     */
+    public static final long DEFAULT_BUDGET = 32 * 1024 * 1024;
+
+    /**
+     * Minimum time in milliseconds between trims
+     */
+    private static final long TRIM_INTERVAL = 6 * 60 * 60 * 1000;
+
+    private static final String PREF_BUDGET = "budget";
+
+    private static final String PREF_TRIMMED_AT = "trimmedAt";
+
+    /**
+     * Usage of a single cache namespace
+     */
+    public static class Usage {
+
+        private final String namespace;
+
+        private final long bytes;
+
+        private final int files;
+
+        private Usage(final String namespace, final long bytes,
+                final int files) {
+            this.namespace = namespace;
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        /**
+         * @return namespace
+         */
+        public String getNamespace() {
+            return namespace;
+        }
+
+        /**
+         * @return bytes used
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return number of files
+         */
+        public int getFiles() {
+            return files;
+        }
+    }
+
+    private static final Comparator<File> LEAST_RECENT_FIRST = new Comparator<File>() {
+
+        public int compare(final File lhs, final File rhs) {
+            long lhsModified = lhs.lastModified();
+            long rhsModified = rhs.lastModified();
+            if (lhsModified < rhsModified)
+                return -1;
+            if (lhsModified > rhsModified)
+                return 1;
+            return 0;
+        }
+    };
+
+    private static void collect(final File dir, final List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        for (File child : children)
+            if (child.isDirectory())
+                collect(child, files);
+            else
+                files.add(child);
+    }
+
+    private static long length(final List<File> files) {
+        long length = 0;
+        for (File file : files)
+            length += file.length();
+        return length;
+    }
+
+    private final Context context;
+
+    private final DatabaseCache dbCache;
+
+    private final Map<String, File> dirs = new LinkedHashMap<String, File>();
+
+    private final SharedPreferences preferences;
+
+    private final Executor executor;
+
+    /**
+     * Create cache manager
+     *
+     * @param context
+     * @param dbCache
+     * @param requestDir
+     * @param responseCache
+     * @param executors
+     */
+    @Inject
+    public CacheManager(final Context context, final DatabaseCache dbCache,
+            @Named("cacheDir") final File requestDir,
+            final ResponseCache responseCache, final TaskExecutor executors) {
+        this.context = context.getApplicationContext();
+        this.dbCache = dbCache;
+        executor = executors.getSerialExecutor(DISK, PRIORITY_LOW);
+
+        File cacheDir = this.context.getCacheDir();
+        dirs.put(REQUESTS, requestDir);
+        dirs.put(AVATARS, new File(cacheDir, "avatars"));
+        dirs.put(IMAGES, new File(cacheDir, "images"));
+        dirs.put(RESPONSES, responseCache.getDirectory());
+
+        preferences = this.context.getSharedPreferences("cache", MODE_PRIVATE);
+    }
+
+    /**
+     * Get directory used by namespace
+     *
+     * @param namespace
+     * @return directory
+     */
+    public File getDirectory(final String namespace) {
+        return dirs.get(namespace);
+    }
+
+    /**
+     * Get budget in bytes of all caches combined
+     *
+     * @return budget
+     */
+    public long getBudget() {
+        return preferences.getLong(PREF_BUDGET, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Set budget in bytes of all caches combined
+     *
+     * @param budget
+     * @return this manager
+     */
+    public CacheManager setBudget(final long budget) {
+        PreferenceUtils.save(preferences.edit().putLong(PREF_BUDGET, budget));
+        return this;
+    }
+
+    private List<File> getDatabaseFiles() {
+        File[] databases = context.getDatabasePath(CacheHelper.NAME)
+                .getParentFile().listFiles();
+        if (databases == null)
+            return Collections.emptyList();
+
+        // Include the databases of every account
+        List<File> files = new ArrayList<File>(databases.length);
+        for (File file : databases) {
+            String name = file.getName();
+            if (name.startsWith("cache") && name.contains(".db"))
+                files.add(file);
+        }
+        return files;
+    }
+
+    private List<File> getFiles(final String namespace) {
+        List<File> files = new ArrayList<File>();
+        collect(dirs.get(namespace), files);
+        return files;
+    }
+
+    /**
+     * Get usage of each namespace
+     *
+     * @return non-null list of usage by namespace
+     */
+    public List<Usage> getUsage() {
+        List<Usage> usage = new ArrayList<Usage>(dirs.size() + 1);
+        List<File> files = getDatabaseFiles();
+        usage.add(new Usage(DATABASE, length(files), files.size()));
+        for (String namespace : dirs.keySet()) {
+            files = getFiles(namespace);
+            usage.add(new Usage(namespace, length(files), files.size()));
+        }
+        return usage;
+    }
+
+    /**
+     * Trim caches in the background if not trimmed recently
+     *
+     * @return this manager
+     */
+    public CacheManager trimInBackground() {
+        executor.execute(new Runnable() {
+
+            public void run() {
+                trimIfDue();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Trim caches if not trimmed recently
+     *
+     * @return true if trimmed, false otherwise
+     */
+    public boolean trimIfDue() {
+        long trimmedAt = preferences.getLong(PREF_TRIMMED_AT, 0);
+        if (Math.abs(System.currentTimeMillis() - trimmedAt) < TRIM_INTERVAL)
+            return false;
+
+        trim();
+        return true;
+    }
+
+    /**
+     * Trim caches to fit the budget and reclaim free database pages
+     *
+     * @return bytes used by all caches after trimming
+     */
+    public synchronized long trim() {
+        long budget = getBudget();
+
+        // Avatars and images are evicted by their caches, deleting their
+        // files here would leave the indexes of those caches out of date
+        List<File> evictable = getFiles(RESPONSES);
+        long used = length(evictable) + length(getFiles(AVATARS))
+                + length(getFiles(IMAGES)) + length(getFiles(REQUESTS));
+
+        SQLiteDatabase db = dbCache.getWritable();
+        if (db != null)
+            used += getDatabaseUsed(db);
+        else
+            used += length(getDatabaseFiles());
+
+        int evicted = 0;
+        if (used > budget) {
+            Collections.sort(evictable, LEAST_RECENT_FIRST);
+            for (File file : evictable) {
+                if (used <= budget)
+                    break;
+                long length = file.length();
+                if (file.delete()) {
+                    used -= length;
+                    evicted++;
+                }
+            }
+        }
+
+        if (db != null)
+            try {
+                if (used > budget) {
+                    long freed = evictIssues(db, used - budget);
+                    used -= freed;
+                }
+                vacuum(db);
+            } catch (SQLiteException e) {
+                Log.d(TAG, "Exception trimming cache database", e);
+            }
+
+        PreferenceUtils.save(preferences.edit().putLong(PREF_TRIMMED_AT,
+                System.currentTimeMillis()));
+        Log.d(TAG, "Trimmed caches to " + used + " of " + budget
+                + " bytes, evicted " + evicted + " files");
+        return used;
+    }
+
+    private static long queryLong(final SQLiteDatabase db, final String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get bytes used by rows in the database excluding free pages
+     *
+     * @param db
+     * @return bytes used
+     */
+    private static long getDatabaseUsed(final SQLiteDatabase db) {
+        long pages = queryLong(db, "PRAGMA page_count")
+                - queryLong(db, "PRAGMA freelist_count");
+        return pages * queryLong(db, "PRAGMA page_size");
+    }
+
+    /**
+     * Delete cached issues of the least recently fetched repositories until
+     * at least the given number of bytes are freed or no issues remain
+     *
+     * @param db
+     * @param excess
+     * @return bytes freed
+     */
+    private static long evictIssues(final SQLiteDatabase db, final long excess) {
+        long start = getDatabaseUsed(db);
+        long freed = 0;
+        while (freed < excess) {
+            Cursor cursor = db.rawQuery(
+                    "SELECT key FROM fetched WHERE key LIKE 'issues:%' ORDER BY fetchedAt LIMIT 1",
+                    null);
+            String key;
+            try {
+                if (!cursor.moveToFirst())
+                    break;
+                key = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+
+            String repoId = key.substring(7, key.indexOf(':', 7));
+            db.beginTransaction();
+            try {
+                db.delete("issues", "repoId=?", new String[] { repoId });
+                db.delete("issue_syncs", "repoId=?", new String[] { repoId });
+                db.delete("fetched", "key LIKE ?", new String[] { "issues:"
+                        + repoId + ":%" });
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(TAG, "Evicted cached issues of repository " + repoId);
+            freed = start - getDatabaseUsed(db);
+        }
+        return freed;
+    }
+
+    /**
+     * Reclaim free pages of the database
+     * <p>
+     * Incremental vacuuming is enabled the first time the database is
+     * vacuumed which requires rebuilding the database once.
+     *
+     * @param db
+     */
+    private static void vacuum(final SQLiteDatabase db) {
+        if (queryLong(db, "PRAGMA auto_vacuum") != 2) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return;
+        }
+
+        if (queryLong(db, "PRAGMA freelist_count") == 0)
+            return;
+
+        // Each step of the pragma frees a page so the cursor must be drained
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            while (cursor.moveToNext())
+                ;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.persistence;
+
+import android.database.Cursor;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * List of the rows of a cursor where an element is only created from its row
+ * once it is accessed
+ * <p>
+ * Elements are created a block at a time so the rows around the row accessed
+ * are ready when scrolled to, and only the most recently used blocks are
+ * retained. The list must be closed once it is no longer displayed.
+ *
+ * @param <E>
+ */
+public class CursorList<E> extends AbstractList<E> implements RandomAccess {
+
+    /**
+     * Number of rows created at a time
+     */
+    private static final int BLOCK_SIZE = 40;
+
+    /**
+     * Maximum number of blocks retained
+     */
+    private static final int MAX_BLOCKS = 5;
+
+    private final Cursor cursor;
+
+    private final PersistableResource<E> resource;
+
+    private final int size;
+
+    private final String[] sections;
+
+    private final Map<Integer, Object[]> blocks = new LinkedHashMap<Integer, Object[]>(
+            MAX_BLOCKS + 1, 0.75F, true) {
+
+        private static final long serialVersionUID = -2904718209346154721L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+            return size() > MAX_BLOCKS;
+        }
+    };
+
+    /**
+     * Create list over cursor
+     * <p>
+     * The cursor is counted and the section column read when created so this
+     * constructor should not be called on the UI-thread
+     *
+     * @param cursor
+     * @param resource
+     *            resource that creates elements from rows of the cursor
+     * @param sectionColumn
+     *            name of column with the section of each row, may be null
+     */
+    public CursorList(final Cursor cursor,
+            final PersistableResource<E> resource, final String sectionColumn) {
+        this.cursor = cursor;
+        this.resource = resource;
+        size = cursor.getCount();
+
+        if (sectionColumn != null) {
+            int column = cursor.getColumnIndexOrThrow(sectionColumn);
+            sections = new String[size];
+            for (int i = 0; i < size; i++) {
+                cursor.moveToPosition(i);
+                sections[i] = cursor.getString(column);
+            }
+        } else
+            sections = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized E get(final int location) {
+        if (location < 0 || location >= size)
+            throw new IndexOutOfBoundsException("Invalid index " + location
+                    + ", size is " + size);
+
+        int start = location - location % BLOCK_SIZE;
+        Object[] block = blocks.get(start);
+        if (block == null) {
+            block = new Object[Math.min(BLOCK_SIZE, size - start)];
+            for (int i = 0; i < block.length; i++) {
+                cursor.moveToPosition(start + i);
+                block[i] = resource.loadFrom(cursor);
+            }
+            blocks.put(start, block);
+        }
+        return (E) block[location - start];
+    }
+
+    /**
+     * Get section of the row at the given location
+     *
+     * @param location
+     * @return section or null if no section column was given
+     */
+    public String getSection(final int location) {
+        return sections != null ? sections[location] : null;
+    }
+
+    /**
+     * Close the cursor backing this list
+     */
+    public synchronized void close() {
+        blocks.clear();
+        cursor.close();
+    }
+}
@@ -15,12 +15,16 @@
  */
 package com.github.mobile.persistence;
 
+import static com.github.mobile.RequestMetrics.CACHE_DATABASE;
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.github.mobile.RequestFuture;
+import com.github.mobile.RequestMetrics;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
@@ -31,6 +35,10 @@ import java.util.List;
 /**
  * Given a PersistableResource, this class will take support loading/storing
  * it's data or requesting fresh data, as appropriate.
+ * <p>
+ * The {@link CacheHelper} used is the one of the current account, it is shared
+ * by the process and is intentionally never closed so the database connection
+ * is reused across calls.
  */
 public class DatabaseCache {
 
@@ -39,6 +47,9 @@ public class DatabaseCache {
     @Inject
     private Provider<CacheHelper> helperProvider;
 
+    @Inject
+    private RequestMetrics metrics;
+
     /**
      * Get writable database
      *
@@ -77,6 +88,66 @@ public class DatabaseCache {
         }
     }
 
+    /**
+     * Get writable cache database
+     *
+     * @return writable database or null if it failed to create/open
+     */
+    public SQLiteDatabase getWritable() {
+        return getWritable(helperProvider.get());
+    }
+
+    /**
+     * Get readable cache database
+     *
+     * @return readable database or null if it failed to create/open
+     */
+    public SQLiteDatabase getReadable() {
+        return getReadable(helperProvider.get());
+    }
+
+    /**
+     * Load given resources from the cache only
+     *
+     * @param persistableResource
+     * @return resources or null if none are stored
+     */
+    public <E> List<E> load(PersistableResource<E> persistableResource) {
+        return loadFromDB(helperProvider.get(), persistableResource);
+    }
+
+    /**
+     * Has the given resource been fetched and stored before?
+     *
+     * @param persistableResource
+     * @return true if fetched, false otherwise
+     */
+    public boolean isFetched(PersistableResource<?> persistableResource) {
+        return getFetched(helperProvider.get(), persistableResource)[0] != 0;
+    }
+
+    /**
+     * Store resources that were requested outside of this cache
+     *
+     * @param persistableResource
+     * @param items
+     */
+    public <E> void store(PersistableResource<E> persistableResource,
+            List<E> items) {
+        final SQLiteDatabase db = getWritable(helperProvider.get());
+        if (db == null)
+            return;
+
+        db.beginTransaction();
+        try {
+            setFetched(db, persistableResource,
+                    persistableResource.store(db, items));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * Load or request given resources
      *
@@ -87,17 +158,96 @@ public class DatabaseCache {
     public <E> List<E> loadOrRequest(PersistableResource<E> persistableResource)
             throws IOException {
         SQLiteOpenHelper helper = helperProvider.get();
-        try {
-            List<E> items = loadFromDB(helper, persistableResource);
-            if (items != null) {
-                Log.d(TAG, "CACHE HIT: Found " + items.size() + " items for "
-                        + persistableResource);
-                return items;
-            }
+        List<E> items = loadFromDB(helper, persistableResource);
+        if (items != null) {
+            metrics.hit(CACHE_DATABASE);
+            Log.d(TAG, "CACHE HIT: Found " + items.size() + " items for "
+                    + persistableResource);
+            return items;
+        }
+        metrics.miss(CACHE_DATABASE);
+        return requestAndStore(helper, persistableResource);
+    }
+
+    /**
+     * Load given resources from the cache and, if they were fetched longer ago
+     * than the given age, request fresh resources from the API
+     * <p>
+     * Stale resources are passed to the given future before the request is
+     * made so they can be displayed while the request is in progress. The
+     * returned list is the same instance given to the future when the
+     * requested resources are unchanged or the request fails.
+     *
+     * @param persistableResource
+     * @param maxAge
+     *            maximum age in milliseconds before cached resources are
+     *            revalidated
+     * @param staleFuture
+     *            future to deliver stale resources to
+     * @return resources
+     * @throws IOException
+     */
+    public <E> List<E> loadAndRevalidate(
+            PersistableResource<E> persistableResource, long maxAge,
+            RequestFuture<List<E>> staleFuture) throws IOException {
+        SQLiteOpenHelper helper = helperProvider.get();
+        List<E> items = loadFromDB(helper, persistableResource);
+        if (items == null) {
+            metrics.miss(CACHE_DATABASE);
             return requestAndStore(helper, persistableResource);
-        } finally {
-            helper.close();
         }
+
+        long[] fetched = getFetched(helper, persistableResource);
+        long age = System.currentTimeMillis() - fetched[0];
+        if (age >= 0 && age < maxAge) {
+            metrics.hit(CACHE_DATABASE);
+            Log.d(TAG, "CACHE HIT: Found " + items.size()
+                    + " fresh items for " + persistableResource);
+            return items;
+        }
+
+        metrics.stale(CACHE_DATABASE);
+        Log.d(TAG, "CACHE STALE: Revalidating " + items.size()
+                + " items for " + persistableResource);
+        staleFuture.success(items);
+
+        List<E> requested;
+        try {
+            requested = requestAndStore(helper, persistableResource);
+        } catch (IOException e) {
+            Log.d(TAG, "Exception revalidating " + persistableResource, e);
+            return items;
+        }
+
+        long[] revalidated = getFetched(helper, persistableResource);
+        if (revalidated[1] == fetched[1]) {
+            Log.d(TAG, "CACHE UNCHANGED: " + persistableResource);
+            return items;
+        } else
+            return requested;
+    }
+
+    /**
+     * Request and store given resources if they were never fetched or were
+     * fetched longer ago than the given age
+     *
+     * @param persistableResource
+     * @param maxAge
+     *            maximum age in milliseconds before resources are requested
+     * @return true if the stored resources changed, false otherwise
+     * @throws IOException
+     */
+    public boolean revalidate(PersistableResource<?> persistableResource,
+            long maxAge) throws IOException {
+        SQLiteOpenHelper helper = helperProvider.get();
+        long[] fetched = getFetched(helper, persistableResource);
+        long age = System.currentTimeMillis() - fetched[0];
+        if (fetched[0] != 0 && age >= 0 && age < maxAge)
+            return false;
+
+        requestAndStore(helper, persistableResource);
+        return fetched[0] == 0
+                || getFetched(helper, persistableResource)[1] != fetched[1];
     }
 
     /**
@@ -109,12 +259,7 @@ public class DatabaseCache {
      */
     public <E> List<E> requestAndStore(
             PersistableResource<E> persistableResource) throws IOException {
-        SQLiteOpenHelper helper = helperProvider.get();
-        try {
-            return requestAndStore(helper, persistableResource);
-        } finally {
-            helper.close();
-        }
+        return requestAndStore(helperProvider.get(), persistableResource);
     }
 
     private <E> List<E> requestAndStore(final SQLiteOpenHelper helper,
@@ -128,7 +273,8 @@ public class DatabaseCache {
 
         db.beginTransaction();
         try {
-            persistableResource.store(db, items);
+            setFetched(db, persistableResource,
+                    persistableResource.store(db, items));
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -136,6 +282,71 @@ public class DatabaseCache {
         return items;
     }
 
+    /**
+     * Record the time the given resource was fetched and count a change of
+     * the stored rows if the store changed them
+     * <p>
+     * The count is kept in the hash column, comparing it before and after a
+     * store tells whether the store changed the rows.
+     *
+     * @param db
+     * @param persistableResource
+     * @param changed
+     */
+    private void setFetched(final SQLiteDatabase db,
+            final PersistableResource<?> persistableResource,
+            final boolean changed) {
+        String key = persistableResource.getKey();
+        long changes = 0;
+        Cursor cursor = db.query("fetched", new String[] { "hash" }, "key=?",
+                new String[] { key }, null, null, null);
+        try {
+            if (cursor.moveToFirst())
+                changes = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        if (changed)
+            changes++;
+
+        ContentValues values = new ContentValues(3);
+        values.put("key", key);
+        values.put("fetchedAt", System.currentTimeMillis());
+        values.put("hash", changes);
+        db.replace("fetched", null, values);
+    }
+
+    /**
+     * Get the time the given resource was last fetched and the number of
+     * times its stored rows changed
+     *
+     * @param helper
+     * @param persistableResource
+     * @return two element array of fetched time and change count, zeros if
+     *         unknown
+     */
+    private long[] getFetched(final SQLiteOpenHelper helper,
+            final PersistableResource<?> persistableResource) {
+        long[] fetched = new long[2];
+        final SQLiteDatabase db = getReadable(helper);
+        if (db == null)
+            return fetched;
+
+        Cursor cursor = db.query("fetched", new String[] { "fetchedAt",
+                "hash" }, "key=?",
+                new String[] { persistableResource.getKey() }, null, null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                fetched[0] = cursor.getLong(0);
+                fetched[1] = cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return fetched;
+    }
+
     private <E> List<E> loadFromDB(final SQLiteOpenHelper helper,
             final PersistableResource<E> persistableResource) {
         final SQLiteDatabase db = getReadable(helper);
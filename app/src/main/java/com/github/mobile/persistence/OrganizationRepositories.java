@@ -15,11 +15,22 @@
  */
 package com.github.mobile.persistence;
 
-import android.content.ContentValues;
+import static com.github.mobile.persistence.Organizations.bind;
+import static com.github.mobile.persistence.Organizations.bindUser;
+import static com.github.mobile.persistence.Organizations.compileUserInsert;
+import static com.github.mobile.persistence.Organizations.pruneUsers;
+import static java.util.Locale.US;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_ORGS;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_REPOS;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_USER;
+import static org.eclipse.egit.github.core.client.IGitHubConstants.SEGMENT_WATCHED;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 
+import com.github.mobile.DefaultClient;
+import com.github.mobile.DefaultClient.Consumer;
 import com.github.mobile.accounts.GitHubAccount;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -27,15 +38,17 @@ import com.google.inject.assistedinject.Assisted;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.User;
-import org.eclipse.egit.github.core.service.RepositoryService;
-import org.eclipse.egit.github.core.service.WatcherService;
 
 /**
  * Cache of repositories under a given organization
@@ -57,11 +70,29 @@ public class OrganizationRepositories implements
         OrganizationRepositories under(User org);
     }
 
-    private final User org;
+    /**
+     * Name of column with the section of each repository in the cursor
+     * returned from
+     * {@link #getSortedCursor(SQLiteDatabase, Collection, String)}
+     */
+    public static final String COLUMN_SECTION = "section";
+
+    private static final String TABLES = "repos JOIN users ON (repos.ownerId = users.id)";
+
+    private static final String[] COLUMNS = new String[] { "repos.repoId",
+            "repos.name", "users.id", "users.name", "users.avatarurl",
+            "repos.private", "repos.fork", "repos.description", "repos.forks",
+            "repos.watchers", "repos.language", "repos.hasIssues",
+            "repos.mirrorUrl", "repos.updatedAt" };
 
-    private final RepositoryService repos;
+    /**
+     * Number of repositories requested per page
+     */
+    private static final int PAGE_SIZE = 100;
+
+    private final User org;
 
-    private final WatcherService watcher;
+    private final DefaultClient client;
 
     private final Provider<GitHubAccount> accountProvider;
 
@@ -69,34 +100,137 @@ public class OrganizationRepositories implements
      * Create repositories cache for a given organization
      *
      * @param orgs
-     * @param repos
-     * @param watcher
+     * @param client
      * @param accountProvider
      */
     @Inject
     public OrganizationRepositories(@Assisted User orgs,
-            RepositoryService repos, WatcherService watcher,
-            Provider<GitHubAccount> accountProvider) {
+            DefaultClient client, Provider<GitHubAccount> accountProvider) {
         this.org = orgs;
-        this.repos = repos;
-        this.watcher = watcher;
+        this.client = client;
         this.accountProvider = accountProvider;
     }
 
+    @Override
+    public String getKey() {
+        return "repos:" + org.getId();
+    }
+
     @Override
     public Cursor getCursor(SQLiteDatabase readableDatabase) {
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
-        builder.setTables("repos JOIN users ON (repos.ownerId = users.id)");
-        return builder.query(readableDatabase, new String[] {
-                "repos.repoId, repos.name", "users.id", "users.name",
-                "users.avatarurl", "repos.private", "repos.fork",
-                "repos.description", "repos.forks", "repos.watchers",
-                "repos.language", "repos.hasIssues", "repos.mirrorUrl" },
-                "repos.orgId=?",
+        builder.setTables(TABLES);
+        return builder.query(readableDatabase, COLUMNS, "repos.orgId=?",
                 new String[] { Integer.toString(org.getId()) }, null, null,
                 null);
     }
 
+    /**
+     * Convert text typed by the user into a full-text query matching
+     * repositories with words starting with each word typed
+     *
+     * @param text
+     * @return query or null if the text contains no words
+     */
+    public static String toMatchQuery(final String text) {
+        if (text == null)
+            return null;
+
+        StringBuilder query = new StringBuilder();
+        for (String word : text.toLowerCase(US).split(
+                "[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+")) {
+            if (word.length() == 0)
+                continue;
+            if (query.length() > 0)
+                query.append(' ');
+            query.append(word).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * Search the repositories stored under all organizations
+     * <p>
+     * The cursor returned contains the repository id, owner login, name and
+     * description of each matching repository ordered by name
+     *
+     * @param readableDatabase
+     * @param text
+     *            text typed by the user
+     * @param limit
+     *            maximum number of repositories returned
+     * @return cursor or null if the text contains no words
+     */
+    public static Cursor search(final SQLiteDatabase readableDatabase,
+            final String text, final int limit) {
+        String match = toMatchQuery(text);
+        if (match == null)
+            return null;
+
+        return readableDatabase
+                .rawQuery(
+                        "SELECT repos.repoId, users.name, repos.name, repos.description FROM repos_fts JOIN repos ON (repos.id = repos_fts.docid) JOIN users ON (repos.ownerId = users.id) WHERE repos_fts MATCH ? GROUP BY repos.repoId ORDER BY repos.name COLLATE NOCASE LIMIT "
+                                + limit, new String[] { match });
+    }
+
+    /**
+     * Get cursor over the repositories sorted with the given recent
+     * repositories first and then by name
+     * <p>
+     * The cursor includes a {@link #COLUMN_SECTION} column with an empty
+     * value for recent repositories and the upper-case first character of the
+     * name for all others.
+     *
+     * @param readableDatabase
+     * @param recent
+     *            ids of recent repositories
+     * @param filter
+     *            text typed by the user that the name, owner, description
+     *            or language of the repositories must match, may be null
+     * @return cursor
+     */
+    public Cursor getSortedCursor(SQLiteDatabase readableDatabase,
+            Collection<Long> recent, String filter) {
+        String isRecent;
+        if (!recent.isEmpty()) {
+            StringBuilder ids = new StringBuilder("repos.repoId IN (");
+            for (Long id : recent)
+                ids.append(id).append(',');
+            ids.setCharAt(ids.length() - 1, ')');
+            isRecent = ids.toString();
+        } else
+            isRecent = "0";
+
+        String[] columns = new String[COLUMNS.length + 1];
+        System.arraycopy(COLUMNS, 0, columns, 0, COLUMNS.length);
+        columns[COLUMNS.length] = "CASE WHEN " + isRecent
+                + " THEN '' ELSE upper(substr(repos.name, 1, 1)) END AS "
+                + COLUMN_SECTION;
+
+        String orgId = Integer.toString(org.getId());
+        String match = toMatchQuery(filter);
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        String selection;
+        String[] args;
+        if (match != null) {
+            builder.setTables(TABLES
+                    + " JOIN repos_fts ON (repos_fts.docid = repos.id)");
+            selection = "repos.orgId=? AND repos_fts MATCH ?";
+            args = new String[] { orgId, match };
+        } else {
+            builder.setTables(TABLES);
+            selection = "repos.orgId=?";
+            args = new String[] { orgId };
+        }
+
+        // Same order as RecentRepositories with repositories owned by the
+        // organization before others of the same name
+        return builder.query(readableDatabase, columns, selection, args, null,
+                null, COLUMN_SECTION + " != '', repos.name COLLATE NOCASE, "
+                        + "users.id=" + orgId + " DESC, "
+                        + "users.name COLLATE NOCASE");
+    }
+
     @Override
     public Repository loadFrom(Cursor cursor) {
         Repository repo = new Repository();
@@ -117,67 +251,221 @@ public class OrganizationRepositories implements
         repo.setLanguage(cursor.getString(10));
         repo.setHasIssues(cursor.getInt(11) == 1);
         repo.setMirrorUrl(cursor.getString(12));
+        if (!cursor.isNull(13))
+            repo.setUpdatedAt(new Date(cursor.getLong(13)));
 
         return repo;
     }
 
+    /**
+     * Get state of the repositories currently stored for this organization
+     *
+     * @param db
+     * @param rows
+     *            map to fill with the row id of each repository id
+     * @return map of repository ids to a signature of the stored values
+     */
+    private Map<Long, String> getStored(final SQLiteDatabase db,
+            final Map<Long, Long> rows) {
+        Map<Long, String> stored = new HashMap<Long, String>();
+        Cursor cursor = db
+                .rawQuery(
+                        "SELECT repos.repoId, repos.id, repos.name, repos.ownerId, repos.private, repos.fork, repos.description, repos.forks, repos.watchers, repos.language, repos.hasIssues, repos.mirrorUrl, repos.updatedAt, users.name, users.avatarurl FROM repos LEFT JOIN users ON (repos.ownerId = users.id) WHERE repos.orgId=?",
+                        new String[] { Integer.toString(org.getId()) });
+        try {
+            while (cursor.moveToNext()) {
+                stored.put(cursor.getLong(0), getSignature(
+                        cursor.getString(2), cursor.getInt(3),
+                        cursor.getInt(4), cursor.getInt(5),
+                        cursor.getString(6), cursor.getInt(7),
+                        cursor.getInt(8), cursor.getString(9),
+                        cursor.getInt(10), cursor.getString(11),
+                        cursor.getLong(12), cursor.getString(13),
+                        cursor.getString(14)));
+                rows.put(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+
+    /**
+     * Get signature of every value written for a repository, in the order
+     * the columns of the repos row are written followed by the values of the
+     * owner's users row
+     *
+     * @param values
+     * @return signature
+     */
+    private static String getSignature(final Object... values) {
+        StringBuilder signature = new StringBuilder();
+        for (Object value : values)
+            signature.append(value).append('\0');
+        return signature.toString();
+    }
+
+    private static String getSignature(final long updatedAt,
+            final Repository repo) {
+        User owner = repo.getOwner();
+        return getSignature(repo.getName(), owner.getId(),
+                repo.isPrivate() ? 1 : 0, repo.isFork() ? 1 : 0,
+                repo.getDescription(), repo.getForks(), repo.getWatchers(),
+                repo.getLanguage(), repo.isHasIssues() ? 1 : 0,
+                repo.getMirrorUrl(), updatedAt, owner.getLogin(),
+                owner.getAvatarUrl());
+    }
+
+    private static long getUpdatedAt(final Repository repo) {
+        Date updatedAt = repo.getUpdatedAt();
+        return updatedAt != null ? updatedAt.getTime() : 0;
+    }
+
     @Override
-    public void store(SQLiteDatabase db, List<Repository> repos) {
-        db.delete("repos", "orgId=?",
-                new String[] { Integer.toString(org.getId()) });
-        if (repos.isEmpty())
-            return;
-
-        ContentValues values = new ContentValues(12);
-        for (Repository repo : repos) {
-            values.clear();
-
-            User owner = repo.getOwner();
-            values.put("repoId", repo.getId());
-            values.put("name", repo.getName());
-            values.put("orgId", org.getId());
-            values.put("ownerId", owner.getId());
-            values.put("private", repo.isPrivate() ? 1 : 0);
-            values.put("fork", repo.isFork() ? 1 : 0);
-            values.put("description", repo.getDescription());
-            values.put("forks", repo.getForks());
-            values.put("watchers", repo.getWatchers());
-            values.put("language", repo.getLanguage());
-            values.put("hasIssues", repo.isHasIssues() ? 1 : 0);
-            values.put("mirrorUrl", repo.getMirrorUrl());
-            db.replace("repos", null, values);
-
-            values.clear();
-
-            values.put("id", owner.getId());
-            values.put("name", owner.getLogin());
-            values.put("avatarurl", owner.getAvatarUrl());
-            db.replace("users", null, values);
+    public boolean store(SQLiteDatabase db, List<Repository> repos) {
+        Map<Long, Long> rows = new HashMap<Long, Long>();
+        Map<Long, String> stored = getStored(db, rows);
+        boolean changed = false;
+
+        SQLiteStatement insertRepo = db
+                .compileStatement("INSERT OR REPLACE INTO repos (repoId, name, orgId, ownerId, private, fork, description, forks, watchers, language, hasIssues, mirrorUrl, updatedAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement insertUser = compileUserInsert(db);
+        SQLiteStatement insertIndex = db
+                .compileStatement("INSERT INTO repos_fts (docid, name, owner, description, language) VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement deleteIndex = db
+                .compileStatement("DELETE FROM repos_fts WHERE docid=?");
+        Set<Integer> owners = new HashSet<Integer>();
+        try {
+            for (Repository repo : repos) {
+                long updatedAt = getUpdatedAt(repo);
+                String previous = stored.remove(repo.getId());
+                // Skip rows that have not changed since last stored
+                if (updatedAt != 0 && previous != null
+                        && previous.equals(getSignature(updatedAt, repo)))
+                    continue;
+
+                changed = true;
+                User owner = repo.getOwner();
+                insertRepo.bindLong(1, repo.getId());
+                bind(insertRepo, 2, repo.getName());
+                insertRepo.bindLong(3, org.getId());
+                insertRepo.bindLong(4, owner.getId());
+                insertRepo.bindLong(5, repo.isPrivate() ? 1 : 0);
+                insertRepo.bindLong(6, repo.isFork() ? 1 : 0);
+                bind(insertRepo, 7, repo.getDescription());
+                insertRepo.bindLong(8, repo.getForks());
+                insertRepo.bindLong(9, repo.getWatchers());
+                bind(insertRepo, 10, repo.getLanguage());
+                insertRepo.bindLong(11, repo.isHasIssues() ? 1 : 0);
+                bind(insertRepo, 12, repo.getMirrorUrl());
+                insertRepo.bindLong(13, updatedAt);
+                long row = insertRepo.executeInsert();
+
+                // Replacing the row assigns it a new id so the index entry
+                // of the previous row is removed
+                Long previousRow = rows.get(repo.getId());
+                if (previousRow != null) {
+                    deleteIndex.bindLong(1, previousRow);
+                    deleteIndex.execute();
+                }
+                insertIndex.bindLong(1, row);
+                bind(insertIndex, 2, repo.getName());
+                bind(insertIndex, 3, owner.getLogin());
+                bind(insertIndex, 4, repo.getDescription());
+                bind(insertIndex, 5, repo.getLanguage());
+                insertIndex.executeInsert();
+
+                // Only write each owner once per batch
+                if (owners.add(owner.getId()))
+                    bindUser(insertUser, owner).executeInsert();
+            }
+
+            // Remove repositories no longer under this organization
+            if (!stored.isEmpty()) {
+                SQLiteStatement delete = db
+                        .compileStatement("DELETE FROM repos WHERE orgId=? AND repoId=?");
+                try {
+                    delete.bindLong(1, org.getId());
+                    for (Long repoId : stored.keySet()) {
+                        delete.bindLong(2, repoId);
+                        delete.execute();
+                        deleteIndex.bindLong(1, rows.get(repoId));
+                        deleteIndex.execute();
+                    }
+                } finally {
+                    delete.close();
+                }
+            }
+        } finally {
+            insertRepo.close();
+            insertUser.close();
+            insertIndex.close();
+            deleteIndex.close();
         }
+
+        if (stored.isEmpty())
+            return changed;
+
+        pruneUsers(db);
+        return true;
+    }
+
+    /**
+     * Copy the values of the repository that are stored
+     * <p>
+     * Repositories are parsed with every URL the API includes, copying them as
+     * they arrive keeps only the values stored in memory.
+     *
+     * @param repo
+     * @return copy of repository
+     */
+    private static Repository copyStored(final Repository repo) {
+        Repository copy = new Repository();
+        copy.setId(repo.getId());
+        copy.setName(repo.getName());
+
+        User owner = repo.getOwner();
+        if (owner != null) {
+            User ownerCopy = new User();
+            ownerCopy.setId(owner.getId());
+            ownerCopy.setLogin(owner.getLogin());
+            ownerCopy.setAvatarUrl(owner.getAvatarUrl());
+            copy.setOwner(ownerCopy);
+        }
+
+        copy.setPrivate(repo.isPrivate());
+        copy.setFork(repo.isFork());
+        copy.setDescription(repo.getDescription());
+        copy.setForks(repo.getForks());
+        copy.setWatchers(repo.getWatchers());
+        copy.setLanguage(repo.getLanguage());
+        copy.setHasIssues(repo.isHasIssues());
+        copy.setMirrorUrl(repo.getMirrorUrl());
+        copy.setUpdatedAt(repo.getUpdatedAt());
+        return copy;
+    }
+
+    private void stream(final String path, final Map<Long, Repository> all)
+            throws IOException {
+        client.stream(path + "?per_page=" + PAGE_SIZE, null,
+                Repository.class, new Consumer<Repository>() {
+
+                    public void consume(Repository repo) {
+                        if (repo.getOwner() != null)
+                            all.put(repo.getId(), copyStored(repo));
+                    }
+                });
     }
 
     @Override
     public List<Repository> request() throws IOException {
+        Map<Long, Repository> all = new LinkedHashMap<Long, Repository>();
         if (isAuthenticatedUser()) {
-            Set<Repository> all = new TreeSet<Repository>(
-                    new Comparator<Repository>() {
-
-                        public int compare(final Repository repo1,
-                                final Repository repo2) {
-                            final long id1 = repo1.getId();
-                            final long id2 = repo2.getId();
-                            if (id1 > id2)
-                                return 1;
-                            if (id1 < id2)
-                                return -1;
-                            return 0;
-                        }
-                    });
-            all.addAll(repos.getRepositories());
-            all.addAll(watcher.getWatched());
-            return new ArrayList<Repository>(all);
+            stream(SEGMENT_USER + SEGMENT_REPOS, all);
+            stream(SEGMENT_USER + SEGMENT_WATCHED, all);
         } else
-            return repos.getOrgRepositories(org.getLogin());
+            stream(SEGMENT_ORGS + '/' + org.getLogin() + SEGMENT_REPOS, all);
+        return new ArrayList<Repository>(all.values());
     }
 
     private boolean isAuthenticatedUser() {
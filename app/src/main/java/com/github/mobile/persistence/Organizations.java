@@ -15,16 +15,18 @@
  */
 package com.github.mobile.persistence;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 
 import com.google.inject.Inject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.service.OrganizationService;
@@ -35,6 +37,60 @@ import org.eclipse.egit.github.core.service.UserService;
  */
 public class Organizations implements PersistableResource<User> {
 
+    /**
+     * Compile statement that inserts or replaces a row in the users table
+     *
+     * @param db
+     * @return statement to pass to {@link #bindUser(SQLiteStatement, User)}
+     */
+    static SQLiteStatement compileUserInsert(final SQLiteDatabase db) {
+        return db
+                .compileStatement("INSERT OR REPLACE INTO users (id, name, avatarurl) VALUES (?, ?, ?)");
+    }
+
+    /**
+     * Bind user to statement created by
+     * {@link #compileUserInsert(SQLiteDatabase)}
+     *
+     * @param statement
+     * @param user
+     * @return statement
+     */
+    static SQLiteStatement bindUser(final SQLiteStatement statement,
+            final User user) {
+        statement.bindLong(1, user.getId());
+        bind(statement, 2, user.getLogin());
+        bind(statement, 3, user.getAvatarUrl());
+        return statement;
+    }
+
+    /**
+     * Delete users that are no longer an organization or the owner of a
+     * stored repository
+     *
+     * @param db
+     */
+    static void pruneUsers(final SQLiteDatabase db) {
+        db.execSQL("DELETE FROM users WHERE id NOT IN (SELECT id FROM orgs) AND NOT EXISTS (SELECT 1 FROM repos WHERE repos.ownerId = users.id)");
+    }
+
+    /**
+     * Bind possibly null string value to statement
+     *
+     * @param statement
+     * @param index
+     * @param value
+     * @return statement
+     */
+    static SQLiteStatement bind(final SQLiteStatement statement,
+            final int index, final String value) {
+        if (value != null)
+            statement.bindString(index, value);
+        else
+            statement.bindNull(index);
+        return statement;
+    }
+
     private final UserService userService;
 
     private final OrganizationService orgService;
@@ -51,6 +107,11 @@ public class Organizations implements PersistableResource<User> {
         this.userService = userService;
     }
 
+    @Override
+    public String getKey() {
+        return "orgs";
+    }
+
     @Override
     public Cursor getCursor(SQLiteDatabase readableDatabase) {
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
@@ -70,23 +131,58 @@ public class Organizations implements PersistableResource<User> {
         return user;
     }
 
+    /**
+     * Get the values stored for each organization
+     *
+     * @param db
+     * @return set of the values of each organization
+     */
+    private Set<String> getStored(final SQLiteDatabase db) {
+        Set<String> stored = new HashSet<String>();
+        Cursor cursor = getCursor(db);
+        try {
+            while (cursor.moveToNext())
+                stored.add(cursor.getInt(0) + "\0" + cursor.getString(1)
+                        + '\0' + cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+
     @Override
-    public void store(SQLiteDatabase db, List<User> orgs) {
-        db.delete("orgs", null, null);
-        if (orgs.isEmpty())
-            return;
+    public boolean store(SQLiteDatabase db, List<User> orgs) {
+        Set<String> stored = getStored(db);
+        boolean changed = stored.size() != orgs.size();
+
+        StringBuilder ids = new StringBuilder();
+        SQLiteStatement insertOrg = db
+                .compileStatement("INSERT OR IGNORE INTO orgs (id) VALUES (?)");
+        SQLiteStatement insertUser = compileUserInsert(db);
+        try {
+            for (User user : orgs) {
+                if (ids.length() > 0)
+                    ids.append(',');
+                ids.append(user.getId());
 
-        ContentValues values = new ContentValues(3);
-        for (User user : orgs) {
-            values.clear();
+                if (!stored.contains(user.getId() + "\0" + user.getLogin()
+                        + '\0' + user.getAvatarUrl()))
+                    changed = true;
 
-            values.put("id", user.getId());
-            db.replace("orgs", null, values);
+                insertOrg.bindLong(1, user.getId());
+                insertOrg.executeInsert();
 
-            values.put("name", user.getLogin());
-            values.put("avatarurl", user.getAvatarUrl());
-            db.replace("users", null, values);
+                bindUser(insertUser, user).executeInsert();
+            }
+        } finally {
+            insertOrg.close();
+            insertUser.close();
         }
+
+        // Remove organizations the user is no longer a member of
+        db.delete("orgs", "id NOT IN (" + ids + ")", null);
+        pruneUsers(db);
+        return changed;
     }
 
     @Override
@@ -30,6 +30,12 @@ import java.util.List;
  */
 public interface PersistableResource<E> {
 
+    /**
+     * @return key identifying the data stored by this resource, used to track
+     *         when it was last fetched
+     */
+    String getKey();
+
     /**
      * @param readableDatabase
      * @return a cursor capable of reading the required information out of the
@@ -48,8 +54,10 @@ public interface PersistableResource<E> {
      *
      * @param writableDatabase
      * @param items
+     * @return true if the stored items changed, false if they were already
+     *         stored as supplied
      */
-    void store(SQLiteDatabase writableDatabase, List<E> items);
+    boolean store(SQLiteDatabase writableDatabase, List<E> items);
 
     /**
      * Request the data directly from the GitHub API, rather than attempting to
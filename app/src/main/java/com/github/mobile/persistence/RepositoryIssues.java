@@ -0,0 +1,409 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.persistence;
+
+import static com.github.mobile.persistence.Organizations.bind;
+import static org.eclipse.egit.github.core.service.IssueService.DIRECTION_DESCENDING;
+import static org.eclipse.egit.github.core.service.IssueService.FIELD_DIRECTION;
+import static org.eclipse.egit.github.core.service.IssueService.FIELD_SORT;
+import static org.eclipse.egit.github.core.service.IssueService.FILTER_STATE;
+import static org.eclipse.egit.github.core.service.IssueService.SORT_UPDATED;
+import static org.eclipse.egit.github.core.service.IssueService.STATE_CLOSED;
+import static org.eclipse.egit.github.core.service.IssueService.STATE_OPEN;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.github.mobile.core.issue.IssueFilter;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.Label;
+import org.eclipse.egit.github.core.Milestone;
+import org.eclipse.egit.github.core.PullRequest;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.RepositoryIssue;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.service.IssueService;
+
+/**
+ * Cache of the issues in a repository that match a filter
+ * <p>
+ * Issues from every filter of a repository share the same rows so requesting
+ * the issues updated since the last sync keeps all filters up to date.
+ */
+public class RepositoryIssues implements PersistableResource<Issue> {
+
+    /**
+     * Creation factory
+     */
+    public interface Factory {
+
+        /**
+         * Get issues in repository matching filter
+         *
+         * @param repository
+         * @param filter
+         * @return issues
+         */
+        RepositoryIssues under(Repository repository, IssueFilter filter);
+    }
+
+    private static final String FILTER_SINCE = "since";
+
+    private static final int SYNC_PAGE_SIZE = 100;
+
+    private static final String[] COLUMNS = new String[] { "number",
+            "issueId", "title", "state", "comments", "createdAt", "updatedAt",
+            "closedAt", "htmlUrl", "url", "pullRequestUrl", "userId",
+            "userLogin", "userAvatarUrl", "assigneeId", "assigneeLogin",
+            "assigneeAvatarUrl", "milestoneNumber", "milestoneTitle", "labels" };
+
+    private static long getTime(final Date date) {
+        return date != null ? date.getTime() : 0;
+    }
+
+    private static Date getDate(final Cursor cursor, final int index) {
+        return !cursor.isNull(index) ? new Date(cursor.getLong(index)) : null;
+    }
+
+    private static void bindDate(final SQLiteStatement statement,
+            final int index, final Date date) {
+        if (date != null)
+            statement.bindLong(index, date.getTime());
+        else
+            statement.bindNull(index);
+    }
+
+    private static String encodeLabels(final Collection<Label> labels) {
+        if (labels == null || labels.isEmpty())
+            return null;
+
+        // Names are surrounded by separators so a LIKE pattern can match a
+        // single label
+        StringBuilder encoded = new StringBuilder("\n");
+        for (Label label : labels)
+            encoded.append(label.getName()).append('\t')
+                    .append(label.getColor()).append('\n');
+        return encoded.toString();
+    }
+
+    private static List<Label> decodeLabels(final String encoded) {
+        List<Label> labels = new ArrayList<Label>();
+        if (encoded == null)
+            return labels;
+
+        for (String line : encoded.split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab == -1)
+                continue;
+            Label label = new Label();
+            label.setName(line.substring(0, tab));
+            label.setColor(line.substring(tab + 1));
+            labels.add(label);
+        }
+        return labels;
+    }
+
+    private static String escapeLike(final String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+
+    private final Repository repository;
+
+    private final IssueFilter filter;
+
+    private final IssueService service;
+
+    private Date since;
+
+    /**
+     * Create issues cache for a given repository and filter
+     *
+     * @param repository
+     * @param filter
+     * @param service
+     */
+    @Inject
+    public RepositoryIssues(@Assisted Repository repository,
+            @Assisted IssueFilter filter, IssueService service) {
+        this.repository = repository;
+        this.filter = filter;
+        this.service = service;
+    }
+
+    /**
+     * Set the time the issues requested must have been updated since
+     * <p>
+     * When set, {@link #request()} returns every issue in the repository
+     * updated since the given time regardless of the filter, otherwise only
+     * the first page of issues matching the filter is requested
+     *
+     * @param since
+     * @return this resource
+     */
+    public RepositoryIssues setSince(final Date since) {
+        this.since = since;
+        return this;
+    }
+
+    /**
+     * Get the time stored issues are known to be current up to
+     *
+     * @param readableDatabase
+     * @return time or null if issues in this repository were never stored
+     */
+    public Date getSynced(final SQLiteDatabase readableDatabase) {
+        Cursor cursor = readableDatabase.query("issue_syncs",
+                new String[] { "updatedAt" }, "repoId=?",
+                new String[] { Long.toString(repository.getId()) }, null,
+                null, null);
+        try {
+            return cursor.moveToFirst() ? getDate(cursor, 0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public String getKey() {
+        return "issues:" + repository.getId() + ":"
+                + new TreeMap<String, String>(filter.toFilterMap());
+    }
+
+    @Override
+    public Cursor getCursor(SQLiteDatabase readableDatabase) {
+        StringBuilder selection = new StringBuilder("repoId=? AND state=?");
+        List<String> args = new ArrayList<String>();
+        args.add(Long.toString(repository.getId()));
+        args.add(filter.isOpen() ? STATE_OPEN : STATE_CLOSED);
+
+        Milestone milestone = filter.getMilestone();
+        if (milestone != null) {
+            selection.append(" AND milestoneNumber=?");
+            args.add(Integer.toString(milestone.getNumber()));
+        }
+        User assignee = filter.getAssignee();
+        if (assignee != null) {
+            selection.append(" AND assigneeId=?");
+            args.add(Integer.toString(assignee.getId()));
+        }
+        Collection<Label> labels = filter.getLabels();
+        if (labels != null)
+            for (Label label : labels) {
+                selection.append(" AND labels LIKE ? ESCAPE '\\'");
+                args.add("%\n" + escapeLike(label.getName()) + "\t%");
+            }
+
+        return readableDatabase.query("issues", COLUMNS, selection.toString(),
+                args.toArray(new String[args.size()]), null, null,
+                "createdAt DESC");
+    }
+
+    @Override
+    public Issue loadFrom(Cursor cursor) {
+        RepositoryIssue issue = new RepositoryIssue();
+        issue.setRepository(repository);
+        issue.setNumber(cursor.getInt(0));
+        issue.setId(cursor.getLong(1));
+        issue.setTitle(cursor.getString(2));
+        issue.setState(cursor.getString(3));
+        issue.setComments(cursor.getInt(4));
+        issue.setCreatedAt(getDate(cursor, 5));
+        issue.setUpdatedAt(getDate(cursor, 6));
+        issue.setClosedAt(getDate(cursor, 7));
+        issue.setHtmlUrl(cursor.getString(8));
+        issue.setUrl(cursor.getString(9));
+        if (!cursor.isNull(10))
+            issue.setPullRequest(new PullRequest().setHtmlUrl(cursor
+                    .getString(10)));
+
+        User user = new User();
+        user.setId(cursor.getInt(11));
+        user.setLogin(cursor.getString(12));
+        user.setAvatarUrl(cursor.getString(13));
+        issue.setUser(user);
+
+        if (!cursor.isNull(14)) {
+            User assignee = new User();
+            assignee.setId(cursor.getInt(14));
+            assignee.setLogin(cursor.getString(15));
+            assignee.setAvatarUrl(cursor.getString(16));
+            issue.setAssignee(assignee);
+        }
+
+        if (!cursor.isNull(17)) {
+            Milestone milestone = new Milestone();
+            milestone.setNumber(cursor.getInt(17));
+            milestone.setTitle(cursor.getString(18));
+            issue.setMilestone(milestone);
+        }
+
+        issue.setLabels(decodeLabels(cursor.getString(19)));
+        return issue;
+    }
+
+    @Override
+    public boolean store(SQLiteDatabase db, List<Issue> issues) {
+        long synced = getTime(getSynced(db));
+        long latest = 0;
+        boolean changed = false;
+
+        SQLiteStatement query = db
+                .compileStatement("SELECT updatedAt FROM issues WHERE repoId=? AND number=?");
+        SQLiteStatement insert = db
+                .compileStatement("INSERT OR REPLACE INTO issues (repoId, number, issueId, title, state, comments, createdAt, updatedAt, closedAt, htmlUrl, url, pullRequestUrl, userId, userLogin, userAvatarUrl, assigneeId, assigneeLogin, assigneeAvatarUrl, milestoneNumber, milestoneTitle, labels) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (Issue issue : issues) {
+                latest = Math.max(latest, getTime(issue.getUpdatedAt()));
+                if (!changed)
+                    changed = isChanged(query, issue);
+
+                insert.bindLong(1, repository.getId());
+                insert.bindLong(2, issue.getNumber());
+                insert.bindLong(3, issue.getId());
+                bind(insert, 4, issue.getTitle());
+                bind(insert, 5, issue.getState());
+                insert.bindLong(6, issue.getComments());
+                bindDate(insert, 7, issue.getCreatedAt());
+                bindDate(insert, 8, issue.getUpdatedAt());
+                bindDate(insert, 9, issue.getClosedAt());
+                bind(insert, 10, issue.getHtmlUrl());
+                bind(insert, 11, issue.getUrl());
+                PullRequest pullRequest = issue.getPullRequest();
+                bind(insert, 12, pullRequest != null ? pullRequest.getHtmlUrl()
+                        : null);
+
+                User user = issue.getUser();
+                insert.bindLong(13, user != null ? user.getId() : 0);
+                bind(insert, 14, user != null ? user.getLogin() : null);
+                bind(insert, 15, user != null ? user.getAvatarUrl() : null);
+
+                User assignee = issue.getAssignee();
+                if (assignee != null) {
+                    insert.bindLong(16, assignee.getId());
+                    bind(insert, 17, assignee.getLogin());
+                    bind(insert, 18, assignee.getAvatarUrl());
+                } else {
+                    insert.bindNull(16);
+                    insert.bindNull(17);
+                    insert.bindNull(18);
+                }
+
+                Milestone milestone = issue.getMilestone();
+                if (milestone != null) {
+                    insert.bindLong(19, milestone.getNumber());
+                    bind(insert, 20, milestone.getTitle());
+                } else {
+                    insert.bindNull(19);
+                    insert.bindNull(20);
+                }
+
+                bind(insert, 21, encodeLabels(issue.getLabels()));
+                insert.executeInsert();
+            }
+        } finally {
+            query.close();
+            insert.close();
+        }
+
+        // Only a sync of all updated issues or the first store for the
+        // repository advances the time stored issues are current up to
+        if (latest > synced && (since != null || synced == 0)) {
+            SQLiteStatement update = db
+                    .compileStatement("INSERT OR REPLACE INTO issue_syncs (repoId, updatedAt) VALUES (?, ?)");
+            try {
+                update.bindLong(1, repository.getId());
+                update.bindLong(2, latest);
+                update.executeInsert();
+            } finally {
+                update.close();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Is the given issue not stored or stored with a different updated time?
+     *
+     * @param query
+     *            statement querying the updated time of a stored issue
+     * @param issue
+     * @return true if changed, false otherwise
+     */
+    private boolean isChanged(final SQLiteStatement query, final Issue issue) {
+        query.bindLong(1, repository.getId());
+        query.bindLong(2, issue.getNumber());
+        try {
+            return query.simpleQueryForLong() != getTime(issue.getUpdatedAt());
+        } catch (SQLiteDoneException e) {
+            return true;
+        }
+    }
+
+    private void requestUpdated(final String state, final List<Issue> issues)
+            throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Map<String, String> params = new HashMap<String, String>(4);
+        params.put(FILTER_STATE, state);
+        params.put(FILTER_SINCE, format.format(since));
+        params.put(FIELD_SORT, SORT_UPDATED);
+        params.put(FIELD_DIRECTION, DIRECTION_DESCENDING);
+        PageIterator<Issue> iterator = service.pageIssues(repository, params,
+                1, SYNC_PAGE_SIZE);
+        while (iterator.hasNext())
+            issues.addAll(iterator.next());
+    }
+
+    @Override
+    public List<Issue> request() throws IOException {
+        List<Issue> issues = new ArrayList<Issue>();
+        if (since != null) {
+            requestUpdated(STATE_OPEN, issues);
+            requestUpdated(STATE_CLOSED, issues);
+        } else {
+            PageIterator<Issue> iterator = service.pageIssues(repository,
+                    filter.toFilterMap());
+            if (iterator.hasNext())
+                issues.addAll(iterator.next());
+        }
+        return issues;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '[' + getKey() + ']';
+    }
+}
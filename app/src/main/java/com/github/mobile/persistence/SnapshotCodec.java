@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.persistence;
+
+import com.github.mobile.RequestCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.egit.github.core.client.GsonUtils;
+
+/**
+ * Codec for writing a snapshot of the items shown in a list
+ * <p>
+ * Each item is written as the name of its class followed by the JSON Gson
+ * serializes the model to so lists of any model type can be restored.
+ */
+public class SnapshotCodec implements RequestCodec<List<Object>> {
+
+    private static final String SCHEMA = "list-snapshot:1";
+
+    private static final String CHARSET = "UTF-8";
+
+    public String getSchema() {
+        return SCHEMA;
+    }
+
+    public void encode(final List<Object> value, final DataOutput output)
+            throws IOException {
+        output.writeInt(value.size());
+        for (Object item : value) {
+            output.writeUTF(item.getClass().getName());
+            byte[] json = GsonUtils.toJson(item).getBytes(CHARSET);
+            output.writeInt(json.length);
+            output.write(json);
+        }
+    }
+
+    public List<Object> decode(final DataInput input) throws IOException {
+        int count = input.readInt();
+        List<Object> items = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            Class<?> type;
+            try {
+                type = Class.forName(input.readUTF());
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e.getMessage());
+            }
+            byte[] json = new byte[input.readInt()];
+            input.readFully(json);
+            items.add(GsonUtils.fromJson(new String(json, CHARSET), type));
+        }
+        return items;
+    }
+}
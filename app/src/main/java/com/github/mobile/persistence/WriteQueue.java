@@ -0,0 +1,524 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.persistence;
+
+import static android.content.Context.MODE_MULTI_PROCESS;
+import static android.content.Context.MODE_PRIVATE;
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
+import static android.content.pm.PackageManager.DONT_KILL_APP;
+import static com.github.mobile.accounts.AccountConstants.ACCOUNT_TYPE;
+import static com.github.mobile.accounts.AccountConstants.PROVIDER_AUTHORITY;
+import android.accounts.Account;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.github.mobile.accounts.GitHubAccount;
+import com.github.mobile.sync.ConnectivityReceiver;
+import com.github.mobile.util.PreferenceUtils;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.egit.github.core.Comment;
+import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.RepositoryId;
+import org.eclipse.egit.github.core.client.GsonUtils;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.eclipse.egit.github.core.service.IssueService;
+import org.eclipse.egit.github.core.service.WatcherService;
+
+/**
+ * Durable queue of writes made while offline
+ * <p>
+ * Writes are stored in the cache database of the account and replayed in the
+ * order they were made once the network returns. An issue edit is not
+ * replayed if the issue was updated on the server after the edit was made,
+ * such writes are dropped so the change made on the server is kept.
+ */
+public class WriteQueue {
+
+    private static final String TAG = "WriteQueue";
+
+    /**
+     * Extra of a sync request that only replays queued writes
+     */
+    public static final String EXTRA_WRITES_ONLY = "writesOnly";
+
+    /**
+     * Type of a write editing an issue
+     */
+    public static final String EDIT_ISSUE = "editIssue";
+
+    /**
+     * Type of a write creating a comment on an issue
+     */
+    public static final String CREATE_COMMENT = "createComment";
+
+    /**
+     * Type of a write starring a repository
+     */
+    public static final String STAR = "star";
+
+    /**
+     * Type of a write unstarring a repository
+     */
+    public static final String UNSTAR = "unstar";
+
+    /**
+     * Result of applying a write that conflicts with a change made on the
+     * server
+     */
+    protected static final long CONFLICT = -1;
+
+    private static final String TABLE = "write_queue";
+
+    private static final String[] COLUMNS = new String[] { "id", "type",
+            "repo", "number", "body", "updatedAt" };
+
+    private static final String PREFS = "write_queue";
+
+    /**
+     * Queued write
+     */
+    public static class Write {
+
+        private final long id;
+
+        private final String type;
+
+        private final String repo;
+
+        private final int number;
+
+        private final String body;
+
+        private final long updatedAt;
+
+        private Write(final Cursor cursor) {
+            id = cursor.getLong(0);
+            type = cursor.getString(1);
+            repo = cursor.getString(2);
+            number = cursor.getInt(3);
+            body = cursor.getString(4);
+            updatedAt = cursor.getLong(5);
+        }
+
+        /**
+         * @return type
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return id of the repository written to
+         */
+        public String getRepo() {
+            return repo;
+        }
+
+        /**
+         * @return number of the issue written to or 0 if none
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return body of the write
+         */
+        public String getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return type + ' ' + repo + (number > 0 ? "#" + number : "");
+        }
+    }
+
+    /**
+     * Is the given exception caused by the network being unavailable before
+     * the request was sent?
+     * <p>
+     * Only failures to reach the server are considered offline, a request
+     * that failed after being sent may have been applied and so must not be
+     * queued to be made again.
+     *
+     * @param e
+     * @return true if offline, false otherwise
+     */
+    public static boolean isOffline(final IOException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof UnknownHostException
+                    || cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException)
+                return true;
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Is the given exception a rejection by the server of a write that would
+     * never succeed if made again?
+     *
+     * @param e
+     * @return true if rejected, false if the write may succeed later
+     */
+    private static boolean isRejected(final RequestException e) {
+        switch (e.getStatus()) {
+        case 404:
+        case 410:
+        case 422:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Is a network connection available?
+     *
+     * @param context
+     * @return true if connected, false otherwise
+     */
+    public static boolean isConnected(final Context context) {
+        ConnectivityManager manager = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = manager != null ? manager.getActiveNetworkInfo()
+                : null;
+        return network != null && network.isConnected();
+    }
+
+    /**
+     * Get preferences recording which accounts have queued writes
+     * <p>
+     * Writes are replayed by the sync process so the preferences are reloaded
+     * on each access.
+     *
+     * @param context
+     * @return preferences
+     */
+    public static SharedPreferences getPending(final Context context) {
+        return context.getSharedPreferences(PREFS, MODE_PRIVATE
+                | MODE_MULTI_PROCESS);
+    }
+
+    /**
+     * Request a sync replaying the queued writes of the given account
+     *
+     * @param account
+     */
+    public static void requestReplay(final Account account) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(EXTRA_WRITES_ONLY, true);
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(account, PROVIDER_AUTHORITY, extras);
+    }
+
+    private final Context context;
+
+    private final Provider<CacheHelper> helperProvider;
+
+    private final Provider<GitHubAccount> accountProvider;
+
+    private final IssueService issueService;
+
+    private final WatcherService watcherService;
+
+    /**
+     * Create write queue
+     *
+     * @param context
+     * @param helperProvider
+     * @param accountProvider
+     * @param issueService
+     * @param watcherService
+     */
+    @Inject
+    public WriteQueue(final Context context,
+            final Provider<CacheHelper> helperProvider,
+            final Provider<GitHubAccount> accountProvider,
+            final IssueService issueService,
+            final WatcherService watcherService) {
+        this.context = context.getApplicationContext();
+        this.helperProvider = helperProvider;
+        this.accountProvider = accountProvider;
+        this.issueService = issueService;
+        this.watcherService = watcherService;
+    }
+
+    private WriteQueue add(final String type, final IRepositoryIdProvider repo,
+            final int number, final String body, final Date updatedAt) {
+        ContentValues values = new ContentValues();
+        values.put("type", type);
+        values.put("repo", repo.generateId());
+        values.put("number", number);
+        values.put("body", body);
+        values.put("updatedAt", updatedAt != null ? updatedAt.getTime() : 0);
+        values.put("queuedAt", System.currentTimeMillis());
+        helperProvider.get().getWritableDatabase().insert(TABLE, null, values);
+        Log.d(TAG, "Queued " + type + " to " + repo.generateId());
+
+        pendingChanged(true);
+        return this;
+    }
+
+    /**
+     * Queue an edit of an issue
+     *
+     * @param repo
+     * @param edit
+     * @param updatedAt
+     *            time the issue was last updated when edited, or null if
+     *            unknown
+     * @return this queue
+     */
+    public WriteQueue editIssue(final IRepositoryIdProvider repo,
+            final Issue edit, final Date updatedAt) {
+        return add(EDIT_ISSUE, repo, edit.getNumber(),
+                GsonUtils.toJson(edit), updatedAt);
+    }
+
+    /**
+     * Queue creation of a comment on an issue
+     *
+     * @param repo
+     * @param number
+     * @param comment
+     * @return this queue
+     */
+    public WriteQueue createComment(final IRepositoryIdProvider repo,
+            final int number, final String comment) {
+        return add(CREATE_COMMENT, repo, number, comment, null);
+    }
+
+    /**
+     * Queue starring or unstarring a repository
+     *
+     * @param repo
+     * @param starred
+     * @return this queue
+     */
+    public WriteQueue star(final IRepositoryIdProvider repo,
+            final boolean starred) {
+        return add(starred ? STAR : UNSTAR, repo, 0, null, null);
+    }
+
+    /**
+     * Get writes waiting to be replayed in the order they were made
+     *
+     * @return non-null but possibly empty list
+     */
+    public List<Write> getWrites() {
+        return query(null);
+    }
+
+    private List<Write> query(final String selection) {
+        SQLiteDatabase db = helperProvider.get().getReadableDatabase();
+        Cursor cursor = db.query(TABLE, COLUMNS, selection, null, null, null,
+                "id");
+        try {
+            List<Write> writes = new ArrayList<Write>(cursor.getCount());
+            while (cursor.moveToNext())
+                writes.add(new Write(cursor));
+            return writes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Has any write been queued and not yet replayed?
+     *
+     * @return true if pending writes, false otherwise
+     */
+    public boolean hasWrites() {
+        SQLiteOpenHelper helper = helperProvider.get();
+        Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + TABLE, null);
+        try {
+            return cursor.moveToFirst() && cursor.getInt(0) > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replay queued writes in order
+     * <p>
+     * Replaying stops at the first write that fails because of the network or
+     * a server error, it and all writes after it stay queued. Writes the
+     * server rejects as missing or invalid are dropped since they would never
+     * succeed, as are writes conflicting with a change made on the server
+     * after the write was made.
+     * <p>
+     * The time the server updated an issue at when applying a write is carried
+     * forward to the writes queued after it for the same issue so they are not
+     * taken as conflicting with the earlier write.
+     *
+     * @return number of conflicting writes dropped
+     * @throws IOException
+     */
+    public int replay() throws IOException {
+        int conflicts = 0;
+        SQLiteDatabase db = helperProvider.get().getWritableDatabase();
+        Map<String, Long> updated = new HashMap<String, Long>();
+        for (Write write : getWrites()) {
+            String[] id = new String[] { Long.toString(write.id) };
+            String issue = write.repo + '#' + write.number;
+            long since = write.updatedAt;
+            Long applied = updated.get(issue);
+            if (since > 0 && applied != null)
+                since = Math.max(since, applied);
+            try {
+                long updatedAt = apply(write, since);
+                if (updatedAt == CONFLICT) {
+                    Log.d(TAG, "Dropping " + write
+                            + ", the issue was updated on the server after"
+                            + " the write was queued");
+                    conflicts++;
+                } else
+                    Log.d(TAG, "Replayed " + write);
+                if (updatedAt > 0) {
+                    updated.put(issue, updatedAt);
+                    carryForward(db, write, updatedAt);
+                }
+            } catch (RequestException e) {
+                if (!isRejected(e))
+                    throw e;
+                Log.d(TAG, "Dropping rejected " + write, e);
+            }
+            db.delete(TABLE, "id = ?", id);
+        }
+
+        pendingChanged(false);
+        return conflicts;
+    }
+
+    /**
+     * Record the time the server updated the issue of the given write at on
+     * the writes still queued for it so they are checked against it if
+     * replaying stops before reaching them
+     *
+     * @param db
+     * @param write
+     * @param updatedAt
+     */
+    private void carryForward(final SQLiteDatabase db, final Write write,
+            final long updatedAt) {
+        ContentValues values = new ContentValues();
+        values.put("updatedAt", updatedAt);
+        db.update(TABLE, values, "repo = ? AND number = ? AND id > ?"
+                + " AND updatedAt > 0 AND updatedAt < ?", new String[] {
+                write.repo, Integer.toString(write.number),
+                Long.toString(write.id), Long.toString(updatedAt) });
+    }
+
+    private static long getTime(final Date date) {
+        return date != null ? date.getTime() : 0;
+    }
+
+    /**
+     * Apply write to the server
+     *
+     * @param write
+     * @param updatedAt
+     *            time the issue was last updated at when the write was made,
+     *            0 to not check for conflicting changes
+     * @return time the server updated the issue at when applying the write,
+     *         0 if unknown, or {@link #CONFLICT} if the write conflicts with
+     *         a change made on the server
+     * @throws IOException
+     */
+    protected long apply(final Write write, final long updatedAt)
+            throws IOException {
+        RepositoryId repo = RepositoryId.createFromId(write.repo);
+        if (EDIT_ISSUE.equals(write.type)) {
+            if (updatedAt > 0) {
+                Date updated = issueService.getIssue(repo, write.number)
+                        .getUpdatedAt();
+                if (updated != null && updated.getTime() > updatedAt)
+                    return CONFLICT;
+            }
+            return getTime(issueService.editIssue(repo,
+                    GsonUtils.fromJson(write.body, Issue.class))
+                    .getUpdatedAt());
+        } else if (CREATE_COMMENT.equals(write.type)) {
+            Comment comment = issueService.createComment(repo, write.number,
+                    write.body);
+            return getTime(comment.getUpdatedAt() != null ? comment
+                    .getUpdatedAt() : comment.getCreatedAt());
+        } else if (STAR.equals(write.type))
+            watcherService.watch(repo);
+        else if (UNSTAR.equals(write.type))
+            watcherService.unwatch(repo);
+        else
+            Log.d(TAG, "Dropping unknown " + write);
+        return 0;
+    }
+
+    /**
+     * Record whether the current account has pending writes
+     * <p>
+     * The connectivity receiver is only enabled while any account has pending
+     * writes, and a replay is requested right away when already connected.
+     *
+     * @param pending
+     *            true if a write was just queued, false if writes were just
+     *            replayed
+     */
+    protected void pendingChanged(final boolean pending) {
+        String login = accountProvider.get().getUsername();
+        SharedPreferences prefs = getPending(context);
+        if (pending)
+            PreferenceUtils.save(prefs.edit().putBoolean(login, true));
+        else if (!hasWrites())
+            PreferenceUtils.save(prefs.edit().remove(login));
+
+        boolean anyPending = !prefs.getAll().isEmpty();
+        context.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(context, ConnectivityReceiver.class),
+                anyPending ? COMPONENT_ENABLED_STATE_ENABLED
+                        : COMPONENT_ENABLED_STATE_DEFAULT, DONT_KILL_APP);
+
+        if (pending && isConnected(context))
+            requestReplay(new Account(login, ACCOUNT_TYPE));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.sync;
+
+import static com.github.mobile.accounts.AccountConstants.ACCOUNT_TYPE;
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.github.mobile.persistence.WriteQueue;
+
+/**
+ * Receiver of connectivity changes that requests a replay of the writes
+ * queued while offline once the network returns
+ * <p>
+ * This receiver is only enabled while writes are queued.
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "ConnectivityReceiver";
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (!WriteQueue.isConnected(context))
+            return;
+
+        SharedPreferences pending = WriteQueue.getPending(context);
+        for (Account account : AccountManager.get(context).getAccountsByType(
+                ACCOUNT_TYPE))
+            if (pending.getBoolean(account.name, false)) {
+                Log.d(TAG, "Replaying queued writes of " + account.name);
+                WriteQueue.requestReplay(account);
+            }
+    }
+}
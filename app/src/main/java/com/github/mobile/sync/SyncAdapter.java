@@ -15,6 +15,7 @@
  */
 package com.github.mobile.sync;
 
+import static com.github.mobile.persistence.WriteQueue.EXTRA_WRITES_ONLY;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.content.AbstractThreadedSyncAdapter;
@@ -67,7 +68,10 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
             try {
                 cancelCampaign();
                 campaign = campaignFactory.create(syncResult);
-                campaign.run();
+                if (extras.getBoolean(EXTRA_WRITES_ONLY))
+                    campaign.replayWrites();
+                else
+                    campaign.run();
             } finally {
                 contextScope.exit(getContext());
             }
@@ -15,13 +15,19 @@
  */
 package com.github.mobile.sync;
 
+import static com.github.mobile.RequestScheduler.Priority.SYNC;
 import android.content.SyncResult;
 import android.database.SQLException;
 import android.util.Log;
 
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.RequestScheduler.DeferredException;
+import com.github.mobile.RequestScheduler.Priority;
+import com.github.mobile.persistence.CacheManager;
 import com.github.mobile.persistence.DatabaseCache;
 import com.github.mobile.persistence.OrganizationRepositories;
 import com.github.mobile.persistence.Organizations;
+import com.github.mobile.persistence.WriteQueue;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
@@ -57,9 +63,18 @@ public class SyncCampaign implements Runnable {
     @Inject
     private OrganizationRepositories.Factory repos;
 
+    @Inject
+    private CacheManager cacheManager;
+
     @Inject
     private Organizations persistedOrgs;
 
+    @Inject
+    private RequestScheduler scheduler;
+
+    @Inject
+    private WriteQueue writes;
+
     private final SyncResult syncResult;
 
     private boolean cancelled = false;
@@ -75,10 +90,57 @@ public class SyncCampaign implements Runnable {
     }
 
     public void run() {
+        replayWrites();
+        if (cancelled)
+            return;
+
+        Priority previous = scheduler.setPriority(SYNC);
+        try {
+            sync();
+        } finally {
+            scheduler.setPriority(previous);
+        }
+    }
+
+    /**
+     * Record that the sync was deferred until the rate limit resets
+     *
+     * @param e
+     */
+    private void defer(final DeferredException e) {
+        syncResult.delayUntil = Math.max(0,
+                (e.getResetAt() - System.currentTimeMillis()) / 1000);
+        Log.d(TAG, "Sync deferred until the rate limit resets", e);
+    }
+
+    /**
+     * Replay the writes queued while offline
+     * <p>
+     * Writes are made on behalf of the user and so are replayed at the
+     * priority of interactive requests.
+     */
+    public void replayWrites() {
+        try {
+            syncResult.stats.numConflictDetectedExceptions += writes.replay();
+        } catch (DeferredException e) {
+            defer(e);
+        } catch (IOException e) {
+            syncResult.stats.numIoExceptions++;
+            Log.d(TAG, "Exception replaying queued writes", e);
+        } catch (SQLException e) {
+            syncResult.stats.numIoExceptions++;
+            Log.d(TAG, "Exception replaying queued writes", e);
+        }
+    }
+
+    private void sync() {
         List<User> orgs;
         try {
             orgs = cache.requestAndStore(persistedOrgs);
             syncResult.stats.numUpdates++;
+        } catch (DeferredException e) {
+            defer(e);
+            return;
         } catch (IOException e) {
             syncResult.stats.numIoExceptions++;
             Log.d(TAG, "Exception requesting users and orgs", e);
@@ -98,6 +160,9 @@ public class SyncCampaign implements Runnable {
             try {
                 cache.requestAndStore(repos.under(org));
                 syncResult.stats.numUpdates++;
+            } catch (DeferredException e) {
+                defer(e);
+                break;
             } catch (IOException e) {
                 syncResult.stats.numIoExceptions++;
                 Log.d(TAG, "Exception requesting repositories", e);
@@ -107,6 +172,8 @@ public class SyncCampaign implements Runnable {
             }
         }
 
+        cacheManager.trimIfDue();
+
         Log.d(TAG, "Sync campaign finished");
     }
 
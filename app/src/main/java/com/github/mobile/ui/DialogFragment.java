@@ -15,14 +15,19 @@
  */
 package com.github.mobile.ui;
 
+import static com.github.mobile.TaskExecutor.PRIORITY_DEFAULT;
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.View;
 
 import com.github.kevinsawicki.wishlist.ViewFinder;
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Lane;
 import com.github.rtyley.android.sherlock.roboguice.fragment.RoboSherlockFragment;
+import com.google.inject.Inject;
 
 import java.io.Serializable;
+import java.util.concurrent.Executor;
 
 /**
  * Base fragment capable of receiving dialog callbacks
@@ -36,6 +41,9 @@ public abstract class DialogFragment extends RoboSherlockFragment implements
      */
     protected ViewFinder finder;
 
+    @Inject
+    private TaskExecutor executors;
+
     /**
      * Is this fragment usable from the UI-thread
      *
@@ -50,6 +58,26 @@ public abstract class DialogFragment extends RoboSherlockFragment implements
         // Intentionally left blank
     }
 
+    /**
+     * Get executor running work in the given lane on behalf of this fragment
+     * <p>
+     * Work still queued or running when this fragment is destroyed is
+     * cancelled
+     *
+     * @param lane
+     * @return executor
+     */
+    protected Executor getExecutor(final Lane lane) {
+        return executors.getExecutor(lane, PRIORITY_DEFAULT, this);
+    }
+
+    @Override
+    public void onDestroy() {
+        executors.cancel(this);
+
+        super.onDestroy();
+    }
+
     /**
      * Get serializable extra from activity's intent
      *
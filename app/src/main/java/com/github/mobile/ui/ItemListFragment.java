@@ -226,10 +226,24 @@ public abstract class ItemListFragment<E> extends DialogFragment implements
         }
 
         this.items = items;
-        getListAdapter().getWrappedAdapter().setItems(items.toArray());
+        setItems(getListAdapter().getWrappedAdapter(), items);
         showList();
     }
 
+    /**
+     * Update adapter to display the given items
+     * <p>
+     * Sub-classes may override to provide items to the adapter without
+     * copying them
+     *
+     * @param adapter
+     * @param items
+     */
+    protected void setItems(final SingleTypeAdapter<E> adapter,
+            final List<E> items) {
+        adapter.setItems(items.toArray());
+    }
+
     /**
      * Create adapter to display items
      *
@@ -15,6 +15,7 @@
  */
 package com.github.mobile.ui;
 
+import static com.github.mobile.TaskExecutor.Lane.NETWORK;
 import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.content.Loader;
@@ -22,8 +23,13 @@ import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 
+import com.github.mobile.RequestFuture;
 import com.github.mobile.ThrowableLoader;
+import com.github.mobile.accounts.AccountScope;
+import com.github.mobile.core.PageSizePolicy;
 import com.github.mobile.core.ResourcePager;
+import com.github.mobile.persistence.AccountDataManager;
+import com.google.inject.Inject;
 
 import java.io.IOException;
 import java.util.List;
@@ -31,19 +37,48 @@ import java.util.List;
 /**
  * List fragment that adds more elements when the bottom of the list is scrolled
  * to
+ * <p>
+ * The next page is read ahead once the list is scrolled close to the bottom so
+ * it is usually available by the time the bottom is reached.
+ * <p>
+ * Fragments that provide a {@link #getSnapshotName()} save the first pages
+ * they load and show them right away the next time they are created, until
+ * the first page loaded from the network replaces them.
  *
  * @param <E>
  */
 public abstract class PagedItemFragment<E> extends ItemListFragment<E>
         implements OnScrollListener {
 
+    /**
+     * Number of items from the end of the list at which the next page is read
+     * ahead
+     */
+    private static final int READ_AHEAD_ITEMS = 10;
+
+    /**
+     * Number of pages saved in a snapshot
+     */
+    private static final int SNAPSHOT_PAGES = 2;
+
     /**
      * Resource pager
      */
     protected ResourcePager<E> pager;
 
+    @Inject
+    private AccountScope accountScope;
+
+    @Inject
+    private PageSizePolicy pageSizePolicy;
+
+    @Inject
+    private AccountDataManager cache;
+
     private ResourceLoadingIndicator loadingIndicator;
 
+    private boolean loaded;
+
     /**
      * Create pager that provides resources
      *
@@ -58,11 +93,28 @@ public abstract class PagedItemFragment<E> extends ItemListFragment<E>
      */
     protected abstract int getLoadingMessage();
 
+    /**
+     * Get name of the snapshot of the items shown
+     * <p>
+     * Sub-classes must return a name unique to the resource being listed
+     *
+     * @return name or null if no snapshot should be saved
+     */
+    protected String getSnapshotName() {
+        return null;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        pager = createPager();
+        pager = configurePager(createPager());
+    }
+
+    private ResourcePager<E> configurePager(final ResourcePager<E> pager) {
+        return pager.setPageSizePolicy(pageSizePolicy).setExecutor(
+                accountScope.wrap(getExecutor(NETWORK),
+                        getActivity().getApplicationContext()));
     }
 
     /**
@@ -84,6 +136,27 @@ public abstract class PagedItemFragment<E> extends ItemListFragment<E>
         super.onActivityCreated(savedInstanceState);
 
         getListView().setOnScrollListener(this);
+
+        String snapshot = getSnapshotName();
+        if (snapshot != null && items.isEmpty())
+            cache.getSnapshot(snapshot, new RequestFuture<List<E>>() {
+
+                public void success(List<E> response) {
+                    showSnapshot(response);
+                }
+            });
+    }
+
+    private void showSnapshot(final List<E> snapshot) {
+        if (!isUsable() || loaded || snapshot.isEmpty())
+            return;
+
+        items = snapshot;
+        setItems(getListAdapter().getWrappedAdapter(), snapshot);
+        showList();
+        if (getLoaderManager().hasRunningLoaders())
+            getSherlockActivity()
+                    .setSupportProgressBarIndeterminateVisibility(true);
     }
 
     @Override
@@ -112,9 +185,16 @@ public abstract class PagedItemFragment<E> extends ItemListFragment<E>
             return;
         if (getLoaderManager().hasRunningLoaders())
             return;
-        if (listView != null
-                && listView.getLastVisiblePosition() >= pager.size())
+        if (listView == null)
+            return;
+        if (pager.size() == 0)
+            return;
+
+        int lastVisible = listView.getLastVisiblePosition();
+        if (lastVisible >= pager.size())
             showMore();
+        else if (lastVisible >= pager.size() - READ_AHEAD_ITEMS)
+            pager.readAhead();
     }
 
     @Override
@@ -134,14 +214,26 @@ public abstract class PagedItemFragment<E> extends ItemListFragment<E>
     @Override
     public void onLoadFinished(Loader<List<E>> loader, List<E> items) {
         loadingIndicator.setVisible(pager.hasMore());
+        boolean failed = loader instanceof ThrowableLoader
+                && ((ThrowableLoader<List<E>>) loader).getException() != null;
 
         super.onLoadFinished(loader, items);
+        if (failed)
+            return;
+
+        loaded = true;
+        String snapshot = getSnapshotName();
+        if (snapshot != null) {
+            int count = SNAPSHOT_PAGES * pager.getPageSize();
+            cache.saveSnapshot(snapshot,
+                    items.subList(0, Math.min(items.size(), count)));
+        }
     }
 
     @Override
     protected void refreshWithProgress() {
         pager.reset();
-        pager = createPager();
+        pager = configurePager(createPager());
 
         super.refreshWithProgress();
     }
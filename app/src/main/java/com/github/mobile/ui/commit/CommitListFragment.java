@@ -177,6 +177,13 @@ public class CommitListFragment extends PagedItemFragment<RepositoryCommit>
                 last = null;
                 return super.clear();
             }
+
+            @Override
+            protected boolean isPageIndependent() {
+                // Each page starts from the parent of the previous page's
+                // last commit
+                return false;
+            }
         };
     }
 
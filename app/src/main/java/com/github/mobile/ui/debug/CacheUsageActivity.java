@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.ui.debug;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.actionbarsherlock.view.Menu;
+import com.actionbarsherlock.view.MenuItem;
+import com.github.mobile.Intents.Builder;
+import com.github.mobile.R.id;
+import com.github.mobile.R.layout;
+import com.github.mobile.R.menu;
+import com.github.mobile.R.string;
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.RequestScheduler.Budget;
+import com.github.mobile.accounts.AccountUtils;
+import com.github.mobile.persistence.CacheManager;
+import com.github.mobile.persistence.CacheManager.Usage;
+import com.github.mobile.ui.DialogFragmentActivity;
+import com.google.inject.Inject;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.List;
+
+import roboguice.util.RoboAsyncTask;
+
+/**
+ * Debug activity to display the disk space used by each cache namespace and
+ * the remaining API rate limit budget
+ */
+public class CacheUsageActivity extends DialogFragmentActivity {
+
+    private static final String TAG = "CacheUsageActivity";
+
+    /**
+     * Create intent to view cache usage
+     *
+     * @return intent
+     */
+    public static Intent createIntent() {
+        return new Builder("cache.usage.VIEW").toIntent();
+    }
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private RequestScheduler scheduler;
+
+    private CacheUsageListAdapter adapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(layout.cache_usage);
+
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        adapter = new CacheUsageListAdapter(this);
+        ListView list = finder.find(android.R.id.list);
+        list.setAdapter(adapter);
+
+        refresh(false);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu options) {
+        getSupportMenuInflater().inflate(menu.cache_usage, options);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case android.R.id.home:
+            finish();
+            return true;
+        case id.m_trim_cache:
+            refresh(true);
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void refresh(final boolean trim) {
+        TextView budget = finder.find(id.tv_cache_budget);
+        budget.setText(MessageFormat.format(getString(string.cache_budget),
+                Formatter.formatFileSize(this, cacheManager.getBudget())));
+
+        TextView rateLimit = finder.find(id.tv_rate_limit);
+        String login = AccountUtils.getLogin(this);
+        Budget requests = login != null ? scheduler.getBudget(login) : null;
+        if (requests != null && requests.getResetAt() > 0)
+            rateLimit.setText(MessageFormat.format(
+                    getString(string.rate_limit_budget),
+                    requests.getRemaining(), requests.getLimit(), DateFormat
+                            .getTimeFormat(this).format(
+                                    new Date(requests.getResetAt()))));
+        else
+            rateLimit.setText(string.rate_limit_unknown);
+
+        setSupportProgressBarIndeterminateVisibility(true);
+        new RoboAsyncTask<List<Usage>>(this) {
+
+            @Override
+            public List<Usage> call() throws Exception {
+                if (trim)
+                    cacheManager.trim();
+                return cacheManager.getUsage();
+            }
+
+            @Override
+            protected void onSuccess(List<Usage> usage) throws Exception {
+                adapter.setItems(usage);
+            }
+
+            @Override
+            protected void onException(Exception e) throws RuntimeException {
+                Log.d(TAG, "Exception loading cache usage", e);
+            }
+
+            @Override
+            protected void onFinally() throws RuntimeException {
+                setSupportProgressBarIndeterminateVisibility(false);
+            }
+        }.execute();
+    }
+}
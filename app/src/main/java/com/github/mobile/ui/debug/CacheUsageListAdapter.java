@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.ui.debug;
+
+import android.content.Context;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+
+import com.github.kevinsawicki.wishlist.SingleTypeAdapter;
+import com.github.mobile.R.id;
+import com.github.mobile.R.layout;
+import com.github.mobile.R.string;
+import com.github.mobile.persistence.CacheManager.Usage;
+
+import java.text.MessageFormat;
+
+/**
+ * Adapter to display the {@link Usage} of each cache namespace
+ */
+public class CacheUsageListAdapter extends SingleTypeAdapter<Usage> {
+
+    private final Context context;
+
+    /**
+     * Create adapter
+     *
+     * @param context
+     */
+    public CacheUsageListAdapter(final Context context) {
+        super(LayoutInflater.from(context), layout.cache_usage_item);
+
+        this.context = context;
+    }
+
+    @Override
+    protected int[] getChildViewIds() {
+        return new int[] { id.tv_cache_namespace, id.tv_cache_size,
+                id.tv_cache_files };
+    }
+
+    @Override
+    protected void update(int position, Usage usage) {
+        setText(0, usage.getNamespace());
+        setText(1, Formatter.formatFileSize(context, usage.getBytes()));
+        setText(2, MessageFormat.format(
+                context.getString(string.cache_namespace_files),
+                usage.getFiles()));
+    }
+}
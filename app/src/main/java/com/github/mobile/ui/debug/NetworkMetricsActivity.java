@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.ui.debug;
+
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.text.format.DateFormat;
+import android.util.Log;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.actionbarsherlock.view.Menu;
+import com.actionbarsherlock.view.MenuItem;
+import com.github.mobile.Intents.Builder;
+import com.github.mobile.R.id;
+import com.github.mobile.R.layout;
+import com.github.mobile.R.menu;
+import com.github.mobile.R.string;
+import com.github.mobile.RequestCoalescer;
+import com.github.mobile.RequestMetrics;
+import com.github.mobile.RequestMetrics.Cache;
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Lane;
+import com.github.mobile.ui.DialogFragmentActivity;
+import com.github.mobile.util.AvatarCache;
+import com.github.mobile.util.ImageCache;
+import com.github.mobile.util.ToastUtils;
+import com.google.inject.Inject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import roboguice.util.RoboAsyncTask;
+
+/**
+ * Debug activity to display the latency, size and parse time of API requests
+ * per endpoint and the hit ratio of each cache
+ */
+public class NetworkMetricsActivity extends DialogFragmentActivity {
+
+    private static final String TAG = "NetworkMetricsActivity";
+
+    /**
+     * Create intent to view network metrics
+     *
+     * @return intent
+     */
+    public static Intent createIntent() {
+        return new Builder("network.metrics.VIEW").toIntent();
+    }
+
+    @Inject
+    private RequestMetrics metrics;
+
+    @Inject
+    private RequestCoalescer coalescer;
+
+    @Inject
+    private TaskExecutor executors;
+
+    @Inject
+    private AvatarCache avatars;
+
+    @Inject
+    private ImageCache images;
+
+    private NetworkMetricsListAdapter adapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        setContentView(layout.network_metrics);
+
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        adapter = new NetworkMetricsListAdapter(this);
+        ListView list = finder.find(android.R.id.list);
+        list.setAdapter(adapter);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        refresh();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu options) {
+        getSupportMenuInflater().inflate(menu.network_metrics, options);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case android.R.id.home:
+            finish();
+            return true;
+        case id.m_dump_metrics:
+            dump();
+            return true;
+        case id.m_clear_metrics:
+            metrics.clear();
+            refresh();
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void refresh() {
+        List<String> ratios = new ArrayList<String>();
+        for (Map.Entry<String, Cache> entry : metrics.getCaches().entrySet()) {
+            Cache cache = entry.getValue();
+            ratios.add(MessageFormat.format(
+                    getString(string.metrics_cache_ratio), entry.getKey(),
+                    cache.getHitRatio(), cache.getHits(), cache.getStale(),
+                    cache.getMisses()));
+        }
+        TextView ratioText = finder.find(id.tv_cache_ratios);
+        if (!ratios.isEmpty())
+            ratioText.setText(TextUtils.join("\n", ratios));
+        else
+            ratioText.setText(string.metrics_no_caches);
+
+        adapter.setItems(metrics.getEndpoints());
+    }
+
+    private void dump() {
+        final File file = new File(getFilesDir(), "network-metrics-"
+                + DateFormat.format("yyyyMMdd-kkmmss", new Date()) + ".txt");
+        new RoboAsyncTask<File>(this, executors.getExecutor(DISK)) {
+
+            @Override
+            public File call() throws Exception {
+                Writer writer = new BufferedWriter(new FileWriter(file));
+                try {
+                    metrics.dump(writer);
+
+                    writer.write("\nCoalesced requests: "
+                            + coalescer.getSaved() + ' '
+                            + coalescer.getSavedByEndpoint() + '\n');
+                    writer.write("\nExecutor lanes\n");
+                    for (Lane lane : Lane.values())
+                        writer.write(lane + ": " + executors.getStats(lane)
+                                + '\n');
+                    writer.write("\nAvatar cache\n" + avatars + '\n');
+                    writer.write("\nImage cache\n" + images + '\n');
+                } finally {
+                    writer.close();
+                }
+                return file;
+            }
+
+            @Override
+            protected void onSuccess(File file) throws Exception {
+                ToastUtils.show(NetworkMetricsActivity.this, MessageFormat
+                        .format(getString(string.metrics_dumped),
+                                file.getAbsolutePath()));
+            }
+
+            @Override
+            protected void onException(Exception e) throws RuntimeException {
+                Log.d(TAG, "Exception writing metrics", e);
+                ToastUtils.show(NetworkMetricsActivity.this,
+                        string.metrics_dump_failed);
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.ui.debug;
+
+import android.content.Context;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+
+import com.github.kevinsawicki.wishlist.SingleTypeAdapter;
+import com.github.mobile.R.id;
+import com.github.mobile.R.layout;
+import com.github.mobile.R.string;
+import com.github.mobile.RequestMetrics.Endpoint;
+
+import java.text.MessageFormat;
+
+/**
+ * Adapter to display the metrics of each {@link Endpoint}
+ */
+public class NetworkMetricsListAdapter extends SingleTypeAdapter<Endpoint> {
+
+    private final Context context;
+
+    /**
+     * Create adapter
+     *
+     * @param context
+     */
+    public NetworkMetricsListAdapter(final Context context) {
+        super(LayoutInflater.from(context), layout.network_metrics_item);
+
+        this.context = context;
+    }
+
+    @Override
+    protected int[] getChildViewIds() {
+        return new int[] { id.tv_endpoint, id.tv_endpoint_requests,
+                id.tv_endpoint_latency, id.tv_endpoint_size };
+    }
+
+    @Override
+    protected void update(int position, Endpoint endpoint) {
+        setText(0, endpoint.getTemplate());
+        setText(1, MessageFormat.format(
+                context.getString(string.metrics_endpoint_requests),
+                endpoint.getRequests()));
+        long p90 = endpoint.getLatencyPercentile(90);
+        setText(2, MessageFormat.format(
+                context.getString(string.metrics_endpoint_latency),
+                endpoint.getAverageLatency(), p90 >= 0 ? p90 : "5000+",
+                endpoint.getStatusCodes()));
+        setText(3, MessageFormat.format(
+                context.getString(string.metrics_endpoint_size),
+                Formatter.formatFileSize(context, endpoint.getBytes()),
+                endpoint.getAverageParseMillis()));
+    }
+}
@@ -21,13 +21,18 @@ import android.content.Context;
 import android.util.Log;
 
 import com.github.mobile.R.string;
+import com.github.mobile.persistence.WriteQueue;
 import com.github.mobile.ui.ProgressDialogTask;
 import com.github.mobile.util.HtmlUtils;
 import com.github.mobile.util.ToastUtils;
 import com.google.inject.Inject;
 
+import java.io.IOException;
+import java.util.Date;
+
 import org.eclipse.egit.github.core.Comment;
 import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.User;
 import org.eclipse.egit.github.core.service.IssueService;
 
 /**
@@ -46,6 +51,9 @@ public class CreateCommentTask extends ProgressDialogTask<Comment> {
     @Inject
     private IssueService service;
 
+    @Inject
+    private WriteQueue writes;
+
     /**
      * Create task for creating a comment on the given issue in the given
      * repository
@@ -67,13 +75,39 @@ public class CreateCommentTask extends ProgressDialogTask<Comment> {
 
     @Override
     protected Comment run(Account account) throws Exception {
-        Comment created = service.createComment(repository, issueNumber,
-                comment);
+        if (writes.hasWrites())
+            return queue(account);
+
+        Comment created;
+        try {
+            created = service.createComment(repository, issueNumber, comment);
+        } catch (IOException e) {
+            if (!WriteQueue.isOffline(e))
+                throw e;
+            return queue(account);
+        }
         String formatted = HtmlUtils.format(created.getBodyHtml()).toString();
         created.setBodyHtml(formatted);
         return created;
     }
 
+    /**
+     * Queue the comment to be created once the network returns
+     *
+     * @param account
+     * @return comment as it will appear once created
+     */
+    private Comment queue(final Account account) {
+        writes.createComment(repository, issueNumber, comment);
+
+        Comment queued = new Comment();
+        queued.setBody(comment);
+        queued.setBodyHtml(HtmlUtils.toHtml(comment));
+        queued.setCreatedAt(new Date());
+        queued.setUser(new User().setLogin(account.name));
+        return queued;
+    }
+
     /**
      * Create comment
      *
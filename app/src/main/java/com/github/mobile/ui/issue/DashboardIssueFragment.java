@@ -31,6 +31,7 @@ import com.google.inject.Inject;
 
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.eclipse.egit.github.core.RepositoryIssue;
 import org.eclipse.egit.github.core.client.PageIterator;
@@ -123,4 +124,12 @@ public class DashboardIssueFragment extends PagedItemFragment<RepositoryIssue> {
                 .getLayoutInflater(), items.toArray(new RepositoryIssue[items
                 .size()]));
     }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected String getSnapshotName() {
+        Map<String, String> filter = (Map<String, String>) getArguments()
+                .getSerializable(ARG_FILTER);
+        return "dashboard-issues-" + new TreeMap<String, String>(filter);
+    }
 }
@@ -94,6 +94,12 @@ import org.eclipse.egit.github.core.User;
  */
 public class IssueFragment extends DialogFragment {
 
+    /**
+     * Age in milliseconds up to which an issue and comments already in the
+     * store, such as prefetched ones, are shown without being refreshed
+     */
+    private static final long MAX_STORED_AGE = 5 * 60 * 1000;
+
     private int issueNumber;
 
     private List<Comment> comments;
@@ -231,6 +237,15 @@ public class IssueFragment extends DialogFragment {
         adapter.addFooter(footerView);
 
         issue = store.getIssue(repositoryId, issueNumber);
+        if (comments == null) {
+            FullIssue stored = store.getFullIssue(repositoryId, issueNumber);
+            long age = stored != null ? System.currentTimeMillis()
+                    - stored.getLoadedAt() : Long.MAX_VALUE;
+            if (age < MAX_STORED_AGE) {
+                issue = stored.getIssue();
+                comments = stored;
+            }
+        }
 
         TextView loadingText = (TextView) loadingView
                 .findViewById(id.tv_loading);
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.ui.issue;
+
+import static com.github.mobile.TaskExecutor.Lane.NETWORK;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.core.issue.FullIssue;
+import com.github.mobile.core.issue.IssueStore;
+import com.github.mobile.core.issue.RefreshIssueTask;
+
+import java.util.List;
+
+import org.eclipse.egit.github.core.IRepositoryIdProvider;
+
+/**
+ * Prefetcher of the issues and comments adjacent to the one being viewed in a
+ * pager
+ * <p>
+ * Issues are loaded into the {@link IssueStore} at a low priority and are
+ * held until they are no longer in range of the current position. Prefetches
+ * still pending once out of range are cancelled.
+ */
+public class IssuePrefetcher {
+
+    private static final String TAG = "IssuePrefetcher";
+
+    private final Context context;
+
+    private final TaskExecutor executors;
+
+    private final IssueStore store;
+
+    private final List<? extends IRepositoryIdProvider> repos;
+
+    private final int[] numbers;
+
+    private final int distance;
+
+    private final SparseArray<Object> pending = new SparseArray<Object>();
+
+    private final SparseArray<FullIssue> prefetched = new SparseArray<FullIssue>();
+
+    /**
+     * Create prefetcher of the issues at the positions of a pager
+     *
+     * @param context
+     * @param executors
+     * @param store
+     * @param repos
+     *            repository of the issue at each position
+     * @param numbers
+     *            number of the issue at each position
+     * @param distance
+     *            number of positions on each side of the current one to
+     *            prefetch
+     */
+    public IssuePrefetcher(final Context context, final TaskExecutor executors,
+            final IssueStore store,
+            final List<? extends IRepositoryIdProvider> repos,
+            final int[] numbers, final int distance) {
+        this.context = context;
+        this.executors = executors;
+        this.store = store;
+        this.repos = repos;
+        this.numbers = numbers;
+        this.distance = distance;
+    }
+
+    private boolean inRange(final int position, final int current) {
+        return Math.abs(position - current) <= distance;
+    }
+
+    /**
+     * Update the current position, cancelling prefetches now out of range and
+     * starting prefetches of the positions now in range, nearest first
+     * <p>
+     * This method must be called from the main thread.
+     *
+     * @param current
+     */
+    public void setPosition(final int current) {
+        for (int i = pending.size() - 1; i >= 0; i--)
+            if (!inRange(pending.keyAt(i), current)) {
+                executors.cancel(pending.valueAt(i));
+                pending.removeAt(i);
+            }
+        for (int i = prefetched.size() - 1; i >= 0; i--)
+            if (!inRange(prefetched.keyAt(i), current))
+                prefetched.removeAt(i);
+
+        for (int offset = 1; offset <= distance; offset++) {
+            prefetch(current + offset);
+            prefetch(current - offset);
+        }
+    }
+
+    private void prefetch(final int position) {
+        if (position < 0 || position >= numbers.length)
+            return;
+        if (pending.get(position) != null || prefetched.get(position) != null)
+            return;
+
+        final IRepositoryIdProvider repo = repos.get(position);
+        if (repo == null)
+            return;
+        final int number = numbers[position];
+        FullIssue stored = store.getFullIssue(repo, number);
+        if (stored != null) {
+            prefetched.put(position, stored);
+            return;
+        }
+
+        final Object owner = new Object();
+        pending.put(position, owner);
+        new RefreshIssueTask(context, repo, number, executors.getExecutor(
+                NETWORK, PRIORITY_LOW, owner)) {
+
+            @Override
+            protected void onSuccess(FullIssue fullIssue) throws Exception {
+                super.onSuccess(fullIssue);
+
+                if (pending.get(position) != owner)
+                    return;
+                pending.remove(position);
+                prefetched.put(position, fullIssue);
+                if (Log.isLoggable(TAG, Log.DEBUG))
+                    Log.d(TAG, "Prefetched " + repo.generateId() + '#'
+                            + number);
+            }
+
+            @Override
+            protected void onException(Exception e) throws RuntimeException {
+                super.onException(e);
+
+                if (pending.get(position) == owner)
+                    pending.remove(position);
+            }
+        }.execute();
+    }
+
+    /**
+     * Cancel all pending prefetches and release the prefetched issues
+     */
+    public void cancel() {
+        for (int i = 0; i < pending.size(); i++)
+            executors.cancel(pending.valueAt(i));
+        pending.clear();
+        prefetched.clear();
+    }
+}
@@ -27,6 +27,7 @@ import static com.github.mobile.RequestCodes.ISSUE_VIEW;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.v4.content.Loader;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.ListView;
@@ -41,16 +42,20 @@ import com.github.mobile.R.layout;
 import com.github.mobile.R.menu;
 import com.github.mobile.R.string;
 import com.github.mobile.RequestFuture;
+import com.github.mobile.ThrowableLoader;
 import com.github.mobile.core.ResourcePager;
 import com.github.mobile.core.issue.IssueFilter;
 import com.github.mobile.core.issue.IssuePager;
 import com.github.mobile.core.issue.IssueStore;
 import com.github.mobile.persistence.AccountDataManager;
+import com.github.mobile.persistence.DatabaseCache;
+import com.github.mobile.persistence.RepositoryIssues;
 import com.github.mobile.ui.PagedItemFragment;
 import com.github.mobile.util.AvatarLoader;
 import com.github.mobile.util.ToastUtils;
 import com.google.inject.Inject;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 
@@ -76,6 +81,12 @@ public class IssuesFragment extends PagedItemFragment<Issue> {
     @Inject
     private IssueStore store;
 
+    @Inject
+    private DatabaseCache dbCache;
+
+    @Inject
+    private RepositoryIssues.Factory persistedIssues;
+
     private IssueFilter filter;
 
     private Repository repository;
@@ -255,9 +266,29 @@ public class IssuesFragment extends PagedItemFragment<Issue> {
         super.onActivityResult(requestCode, resultCode, data);
     }
 
+    @Override
+    public Loader<List<Issue>> onCreateLoader(int id, Bundle bundle) {
+        return new ThrowableLoader<List<Issue>>(getActivity(), items) {
+
+            @Override
+            public List<Issue> loadData() throws IOException {
+                IssuePager issuePager = (IssuePager) pager;
+                // Show stored issues while the first page is requested
+                if (items.isEmpty()) {
+                    List<Issue> cached = issuePager.loadCached();
+                    if (!cached.isEmpty())
+                        deliverIntermediateResult(cached);
+                }
+                issuePager.next();
+                return issuePager.getResources();
+            }
+        };
+    }
+
     @Override
     protected ResourcePager<Issue> createPager() {
-        return new IssuePager(store) {
+        return new IssuePager(store, dbCache, persistedIssues.under(
+                repository, filter)) {
 
             @Override
             public PageIterator<Issue> createIterator(int page, int size) {
@@ -30,6 +30,7 @@ import com.github.mobile.Intents.Builder;
 import com.github.mobile.R.id;
 import com.github.mobile.R.layout;
 import com.github.mobile.R.string;
+import com.github.mobile.TaskExecutor;
 import com.github.mobile.core.issue.IssueStore;
 import com.github.mobile.core.issue.IssueUtils;
 import com.github.mobile.core.repo.RefreshRepositoryTask;
@@ -59,6 +60,11 @@ public class IssuesViewActivity extends PagerActivity {
 
     private static final String EXTRA_PULL_REQUESTS = "pullRequests";
 
+    /**
+     * Number of issues on each side of the one being viewed to prefetch
+     */
+    private static final int PREFETCH_DISTANCE = 2;
+
     /**
      * Create an intent to show a single issue
      *
@@ -164,6 +170,11 @@ public class IssuesViewActivity extends PagerActivity {
     @Inject
     private IssueStore store;
 
+    @Inject
+    private TaskExecutor executors;
+
+    private IssuePrefetcher prefetcher;
+
     private final AtomicReference<User> user = new AtomicReference<User>();
 
     private IssuesPagerAdapter adapter;
@@ -185,10 +196,16 @@ public class IssuesViewActivity extends PagerActivity {
 
         pager = finder.find(id.vp_pages);
 
-        if (repo != null)
+        if (repo != null) {
             adapter = new IssuesPagerAdapter(this, repo, issueNumbers);
-        else
+            prefetcher = new IssuePrefetcher(this, executors, store,
+                    Collections.nCopies(issueNumbers.length, repo),
+                    issueNumbers, PREFETCH_DISTANCE);
+        } else {
             adapter = new IssuesPagerAdapter(this, repoIds, issueNumbers, store);
+            prefetcher = new IssuePrefetcher(this, executors, store, repoIds,
+                    issueNumbers, PREFETCH_DISTANCE);
+        }
         pager.setAdapter(adapter);
 
         pager.setOnPageChangeListener(this);
@@ -232,10 +249,19 @@ public class IssuesViewActivity extends PagerActivity {
                     getString(string.issue_title) + number);
     }
 
+    @Override
+    protected void onDestroy() {
+        prefetcher.cancel();
+
+        super.onDestroy();
+    }
+
     @Override
     public void onPageSelected(final int position) {
         super.onPageSelected(position);
 
+        prefetcher.setPosition(position);
+
         if (repo != null) {
             updateTitle(position);
             return;
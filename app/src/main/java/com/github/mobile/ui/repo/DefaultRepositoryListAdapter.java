@@ -15,6 +15,8 @@
  */
 package com.github.mobile.ui.repo;
 
+import static java.util.Locale.US;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.TextView;
@@ -22,13 +24,11 @@ import android.widget.TextView;
 import com.github.mobile.R.color;
 import com.github.mobile.R.id;
 import com.github.mobile.R.layout;
+import com.github.mobile.persistence.CursorList;
 import com.github.mobile.ui.StyledText;
 import com.github.mobile.util.TypefaceUtils;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.egit.github.core.Repository;
@@ -36,6 +36,10 @@ import org.eclipse.egit.github.core.User;
 
 /**
  * Adapter for the default account's repositories
+ * <p>
+ * Repositories are read from the list given instead of an array so a
+ * {@link CursorList} only creates the repositories displayed. A section header
+ * is shown above the first repository of each section.
  */
 public class DefaultRepositoryListAdapter extends
         RepositoryListAdapter<Repository> {
@@ -44,58 +48,65 @@ public class DefaultRepositoryListAdapter extends
 
     private final AtomicReference<User> account;
 
-    private final Map<Long, String> headers = new HashMap<Long, String>();
+    private final String recentHeader;
 
-    private final Set<Long> noSeparators = new HashSet<Long>();
+    private List<Repository> repositories;
 
     /**
      * Create list adapter for repositories
      *
      * @param inflater
-     * @param elements
+     * @param repositories
      * @param account
+     * @param recentHeader
+     *            header shown above recent repositories
      */
     public DefaultRepositoryListAdapter(LayoutInflater inflater,
-            Repository[] elements, AtomicReference<User> account) {
-        super(layout.repo_item, inflater, elements);
+            List<Repository> repositories, AtomicReference<User> account,
+            String recentHeader) {
+        super(layout.repo_item, inflater, new Object[0]);
 
+        this.repositories = repositories;
         this.account = account;
+        this.recentHeader = recentHeader;
     }
 
     /**
-     * Clear registered header values
+     * Set repositories to display
      *
+     * @param repositories
      * @return this adapter
      */
-    public DefaultRepositoryListAdapter clearHeaders() {
-        headers.clear();
-        noSeparators.clear();
+    public DefaultRepositoryListAdapter setRepositories(
+            List<Repository> repositories) {
+        this.repositories = repositories;
+        notifyDataSetChanged();
         return this;
     }
 
-    /**
-     * Register section header
-     *
-     * @param repository
-     * @param text
-     * @return this adapter
-     */
-    public DefaultRepositoryListAdapter registerHeader(Repository repository,
-            String text) {
-        headers.put(repository.getId(), text);
-        return this;
+    @Override
+    public int getCount() {
+        return repositories.size();
     }
 
-    /**
-     * Register repository to have no bottom separator
-     *
-     * @param repository
-     * @return this adapter
-     */
-    public DefaultRepositoryListAdapter registerNoSeparator(
-            Repository repository) {
-        noSeparators.add(repository.getId());
-        return this;
+    @Override
+    public Repository getItem(int position) {
+        return repositories.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    private String getSection(int position) {
+        if (repositories instanceof CursorList)
+            return ((CursorList<Repository>) repositories)
+                    .getSection(position);
+
+        String name = getItem(position).getName();
+        return name.length() > 0 ? name.substring(0, 1).toUpperCase(US)
+                : name;
     }
 
     protected View initialize(View view) {
@@ -117,14 +128,17 @@ public class DefaultRepositoryListAdapter extends
 
     @Override
     protected void update(int position, Repository repository) {
-        String headerValue = headers.get(repository.getId());
-        if (headerValue != null) {
+        String section = getSection(position);
+        if (position == 0
+                || !TextUtils.equals(section, getSection(position - 1))) {
             setGone(5, false);
-            setText(6, headerValue);
+            setText(6, !TextUtils.isEmpty(section) ? section : recentHeader);
         } else
             setGone(5, true);
 
-        setGone(7, noSeparators.contains(repository.getId()));
+        // Don't include separator for the last repository of a section
+        setGone(7, position == getCount() - 1
+                || !TextUtils.equals(section, getSection(position + 1)));
 
         StyledText name = new StyledText();
         if (!account.get().getLogin().equals(repository.getOwner().getLogin()))
@@ -20,6 +20,7 @@ import android.app.Activity;
 import android.util.Log;
 
 import com.github.mobile.R.string;
+import com.github.mobile.RequestFuture;
 import com.github.mobile.accounts.AuthenticatedUserLoader;
 import com.github.mobile.core.user.UserComparator;
 import com.github.mobile.persistence.AccountDataManager;
@@ -28,6 +29,7 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -66,17 +68,53 @@ public class OrganizationLoader extends AuthenticatedUserLoader<List<User>> {
         return Collections.emptyList();
     }
 
+    /**
+     * Future delivering stale organizations sorted while they are revalidated
+     */
+    private class StaleFuture implements RequestFuture<List<User>> {
+
+        private List<User> stale;
+
+        private List<User> sorted;
+
+        public void success(final List<User> stale) {
+            this.stale = stale;
+            sorted = sort(stale);
+            deliverIntermediateResult(sorted);
+        }
+    }
+
     @Override
     public List<User> load(final Account account) {
+        StaleFuture staleFuture = new StaleFuture();
         List<User> orgs;
         try {
-            orgs = accountDataManager.getOrgs(false);
+            orgs = accountDataManager.getOrgs(staleFuture);
         } catch (final IOException e) {
             Log.e(TAG, "Exception loading organizations", e);
             ToastUtils.show(activity, e, string.error_orgs_load);
             return Collections.emptyList();
         }
-        Collections.sort(orgs, userComparatorProvider.get());
-        return orgs;
+
+        // Return the list already delivered when unchanged so it is not
+        // delivered again
+        if (orgs == staleFuture.stale)
+            return staleFuture.sorted;
+        return sort(orgs);
+    }
+
+    /**
+     * Sort a copy of the given organizations
+     * <p>
+     * The list given may already have been delivered and be displayed so it
+     * is never sorted in place
+     *
+     * @param orgs
+     * @return sorted copy
+     */
+    private List<User> sort(final List<User> orgs) {
+        List<User> sorted = new ArrayList<User>(orgs);
+        Collections.sort(sorted, userComparatorProvider.get());
+        return sorted;
     }
 }
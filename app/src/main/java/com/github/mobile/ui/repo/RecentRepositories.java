@@ -17,22 +17,30 @@ package com.github.mobile.ui.repo;
 
 import static java.lang.String.CASE_INSENSITIVE_ORDER;
 import android.content.Context;
-import android.os.AsyncTask;
 
+import com.github.mobile.RequestCodec;
 import com.github.mobile.RequestReader;
 import com.github.mobile.RequestWriter;
+import com.github.mobile.accounts.AccountUtils;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.User;
 
 /**
  * Model class for the repositories recently selected under an organization
+ * <p>
+ * Recent repositories are stored separately for each account
  */
 public class RecentRepositories implements Comparator<Repository>, Serializable {
 
@@ -45,9 +53,41 @@ public class RecentRepositories implements Comparator<Repository>, Serializable
 
     private static final int VERSION = 2;
 
+    private static final RequestCodec<LinkedHashSet<Long>> CODEC = new RequestCodec<LinkedHashSet<Long>>() {
+
+        public String getSchema() {
+            return "recent-repos:1";
+        }
+
+        public void encode(LinkedHashSet<Long> value, DataOutput output)
+                throws IOException {
+            output.writeInt(value.size());
+            for (Long id : value)
+                output.writeLong(id);
+        }
+
+        public LinkedHashSet<Long> decode(DataInput input) throws IOException {
+            int count = input.readInt();
+            LinkedHashSet<Long> value = new LinkedHashSet<Long>(count);
+            for (int i = 0; i < count; i++)
+                value.add(input.readLong());
+            return value;
+        }
+    };
+
     private static File getFile(final Context context, final User organization) {
-        return new File(context.getFilesDir(), "recent-repos-"
+        File shared = new File(context.getFilesDir(), "recent-repos-"
                 + organization.getId() + ".ser");
+        String login = AccountUtils.getLogin(context);
+        if (login == null)
+            return shared;
+
+        File file = new File(context.getFilesDir(), "recent-repos-" + login
+                + '-' + organization.getId() + ".ser");
+        // Adopt file stored before recent repositories were kept per account
+        if (!file.exists() && shared.exists())
+            shared.renameTo(file);
+        return file;
     }
 
     private LinkedHashSet<Long> ids;
@@ -68,7 +108,8 @@ public class RecentRepositories implements Comparator<Repository>, Serializable
     }
 
     private void load() {
-        LinkedHashSet<Long> loaded = new RequestReader(file, VERSION).read();
+        LinkedHashSet<Long> loaded = new RequestReader(file, VERSION)
+                .read(CODEC);
         if (loaded == null)
             loaded = new LinkedHashSet<Long>();
         ids = loaded;
@@ -132,20 +173,19 @@ public class RecentRepositories implements Comparator<Repository>, Serializable
     }
 
     /**
-     * Persist recent list asynchronously on a background thread
+     * Persist recent list asynchronously on the given executor
      *
+     * @param executor
      * @return this recent list
      */
-    public RecentRepositories saveAsync() {
+    public RecentRepositories saveAsync(final Executor executor) {
         if (ids != null)
-            new AsyncTask<Void, Void, Void>() {
+            executor.execute(new Runnable() {
 
-                @Override
-                protected Void doInBackground(Void... params) {
+                public void run() {
                     save();
-                    return null;
                 }
-            }.execute();
+            });
         return this;
     }
 
@@ -157,7 +197,7 @@ public class RecentRepositories implements Comparator<Repository>, Serializable
     public RecentRepositories save() {
         final LinkedHashSet<Long> save = ids;
         if (save != null)
-            new RequestWriter(file, VERSION).write(save);
+            new RequestWriter(file, VERSION).write(save, CODEC);
         return this;
     }
 
@@ -183,6 +223,17 @@ public class RecentRepositories implements Comparator<Repository>, Serializable
         return ids.contains(id);
     }
 
+    /**
+     * Get ids of the repositories in the recent list
+     *
+     * @return non-null but possibly empty set of ids
+     */
+    public Set<Long> getIds() {
+        if (ids == null)
+            load();
+        return new LinkedHashSet<Long>(ids);
+    }
+
     @Override
     public int compare(final Repository lhs, final Repository rhs) {
         final boolean lRecent = contains(lhs);
@@ -18,34 +18,47 @@ package com.github.mobile.ui.repo;
 import static com.github.mobile.Intents.EXTRA_USER;
 import static com.github.mobile.RequestCodes.REPOSITORY_VIEW;
 import static com.github.mobile.ResultCodes.RESOURCE_CHANGED;
-import static java.util.Locale.US;
+import static com.github.mobile.TaskExecutor.Lane.DISK;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.content.Loader;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.EditText;
 import android.widget.ListView;
 
+import com.actionbarsherlock.view.Menu;
+import com.actionbarsherlock.view.MenuInflater;
+import com.actionbarsherlock.view.MenuItem;
+import com.actionbarsherlock.view.MenuItem.OnActionExpandListener;
 import com.github.kevinsawicki.wishlist.SingleTypeAdapter;
 import com.github.kevinsawicki.wishlist.ViewFinder;
 import com.github.mobile.R.id;
 import com.github.mobile.R.layout;
+import com.github.mobile.R.menu;
 import com.github.mobile.R.string;
+import com.github.mobile.TaskExecutor;
 import com.github.mobile.ThrowableLoader;
 import com.github.mobile.persistence.AccountDataManager;
-import com.github.mobile.ui.HeaderFooterListAdapter;
+import com.github.mobile.persistence.CursorList;
 import com.github.mobile.ui.ItemListFragment;
 import com.github.mobile.ui.LightAlertDialog;
+import com.github.mobile.ui.TextWatcherAdapter;
 import com.github.mobile.ui.user.OrganizationSelectionListener;
 import com.github.mobile.ui.user.OrganizationSelectionProvider;
 import com.github.mobile.ui.user.UserViewActivity;
 import com.github.mobile.util.AvatarLoader;
 import com.google.inject.Inject;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.egit.github.core.Repository;
@@ -57,16 +70,23 @@ import org.eclipse.egit.github.core.User;
 public class RepositoryListFragment extends ItemListFragment<Repository>
         implements OrganizationSelectionListener {
 
+    private static final String TAG = "RepositoryListFragment";
+
     @Inject
     private AccountDataManager cache;
 
     @Inject
     private AvatarLoader avatars;
 
+    @Inject
+    private TaskExecutor executors;
+
     private final AtomicReference<User> org = new AtomicReference<User>();
 
     private RecentRepositories recentRepos;
 
+    private String filter;
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -81,7 +101,6 @@ public class RepositoryListFragment extends ItemListFragment<Repository>
         super.configureList(activity, listView);
 
         listView.setDividerHeight(0);
-        updateHeaders(items);
     }
 
     @Override
@@ -100,7 +119,7 @@ public class RepositoryListFragment extends ItemListFragment<Repository>
         org.set(organization);
 
         if (recentRepos != null)
-            recentRepos.saveAsync();
+            recentRepos.saveAsync(executors.getExecutor(DISK));
 
         // Only hard refresh if view already created and org is changing
         if (previousOrgId != organization.getId()) {
@@ -128,6 +147,42 @@ public class RepositoryListFragment extends ItemListFragment<Repository>
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onCreateOptionsMenu(Menu optionsMenu, MenuInflater inflater) {
+        inflater.inflate(menu.repositories, optionsMenu);
+
+        MenuItem filterItem = optionsMenu.findItem(id.m_filter_repos);
+        final EditText filterText = (EditText) filterItem.getActionView();
+        filterText.addTextChangedListener(new TextWatcherAdapter() {
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                setFilter(s.toString());
+            }
+        });
+        filterItem.setOnActionExpandListener(new OnActionExpandListener() {
+
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                filterText.requestFocus();
+                return true;
+            }
+
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                filterText.setText(null);
+                return true;
+            }
+        });
+    }
+
+    private void setFilter(final String text) {
+        String trimmed = text.trim();
+        if (trimmed.equals(filter != null ? filter : ""))
+            return;
+
+        filter = trimmed;
+        refresh();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         // Refresh if the viewed repository was (un)starred
@@ -210,74 +265,61 @@ public class RepositoryListFragment extends ItemListFragment<Repository>
         super.onStop();
 
         if (recentRepos != null)
-            recentRepos.saveAsync();
+            recentRepos.saveAsync(executors.getExecutor(DISK));
     }
 
-    private void updateHeaders(final List<Repository> repos) {
-        HeaderFooterListAdapter<?> rootAdapter = getListAdapter();
-        if (rootAdapter == null)
-            return;
+    @Override
+    public Loader<List<Repository>> onCreateLoader(int id, final Bundle args) {
+        final String query = filter;
+        return new ThrowableLoader<List<Repository>>(getActivity(), items) {
 
-        DefaultRepositoryListAdapter adapter = (DefaultRepositoryListAdapter) rootAdapter
-                .getWrappedAdapter();
-        adapter.clearHeaders();
+            /**
+             * Most recent list delivered
+             */
+            private List<Repository> delivered;
+
+            /**
+             * Close list unless displayed, the fragment closes the lists it
+             * displays once replaced
+             *
+             * @param repos
+             */
+            private void release(final List<Repository> repos) {
+                if (repos != RepositoryListFragment.this.items)
+                    close(repos);
+            }
 
-        if (repos.isEmpty())
-            return;
+            @Override
+            public void deliverResult(final List<Repository> repos) {
+                if (isReset()) {
+                    release(repos);
+                    return;
+                }
 
-        // Add recent header if at least one recent repository
-        Repository first = repos.get(0);
-        if (recentRepos.contains(first))
-            adapter.registerHeader(first, getString(string.recently_viewed));
-
-        // Advance past all recent repositories
-        int index;
-        Repository current = null;
-        for (index = 0; index < repos.size(); index++) {
-            Repository repository = repos.get(index);
-            if (recentRepos.contains(repository.getId()))
-                current = repository;
-            else
-                break;
-        }
+                List<Repository> previous = delivered;
+                delivered = repos;
+                super.deliverResult(repos);
 
-        if (index >= repos.size())
-            return;
+                // Intermediate lists replaced before being displayed
+                if (previous != null && previous != repos)
+                    release(previous);
+            }
 
-        if (current != null)
-            adapter.registerNoSeparator(current);
-
-        // Register header for first character
-        current = repos.get(index);
-        char start = Character.toLowerCase(current.getName().charAt(0));
-        adapter.registerHeader(current,
-                Character.toString(start).toUpperCase(US));
-
-        char previousHeader = start;
-        for (index = index + 1; index < repos.size(); index++) {
-            current = repos.get(index);
-            char repoStart = Character.toLowerCase(current.getName().charAt(0));
-            if (repoStart <= start)
-                continue;
-
-            // Don't include separator for the last element of the previous
-            // character
-            if (previousHeader != repoStart)
-                adapter.registerNoSeparator(repos.get(index - 1));
-
-            adapter.registerHeader(current, Character.toString(repoStart)
-                    .toUpperCase(US));
-            previousHeader = repoStart;
-            start = repoStart++;
-        }
+            @Override
+            public void onCanceled(final List<Repository> repos) {
+                if (repos != delivered)
+                    release(repos);
+            }
 
-        // Don't include separator for last element
-        adapter.registerNoSeparator(repos.get(repos.size() - 1));
-    }
+            @Override
+            protected void onReset() {
+                super.onReset();
 
-    @Override
-    public Loader<List<Repository>> onCreateLoader(int id, final Bundle args) {
-        return new ThrowableLoader<List<Repository>>(getActivity(), items) {
+                if (delivered != null) {
+                    release(delivered);
+                    delivered = null;
+                }
+            }
 
             @Override
             public List<Repository> loadData() throws Exception {
@@ -285,20 +327,88 @@ public class RepositoryListFragment extends ItemListFragment<Repository>
                 if (org == null)
                     return Collections.emptyList();
 
-                List<Repository> repos = cache.getRepos(org,
-                        isForceRefresh(args));
-                Collections.sort(repos, recentRepos);
-                updateHeaders(repos);
-                return repos;
+                Set<Long> recent = recentRepos != null ? recentRepos.getIds()
+                        : Collections.<Long> emptySet();
+
+                // Filtering only queries the local index
+                if (!TextUtils.isEmpty(query)) {
+                    List<Repository> repos = cache.getSortedRepos(org, recent,
+                            query);
+                    return repos != null ? repos : Collections
+                            .<Repository> emptyList();
+                }
+
+                List<Repository> repos = cache.getSortedRepos(org, recent,
+                        null);
+                if (repos == null) {
+                    repos = cache.getRepos(org, isForceRefresh(args));
+                    if (recentRepos != null)
+                        Collections.sort(repos, recentRepos);
+                    return repos;
+                }
+
+                // Show cached repositories while they are revalidated
+                if (!repos.isEmpty())
+                    deliverIntermediateResult(repos);
+
+                try {
+                    if (!cache.revalidateRepos(org, isForceRefresh(args)))
+                        return repos;
+                } catch (IOException e) {
+                    if (!repos.isEmpty()) {
+                        Log.d(TAG, "Exception revalidating repositories", e);
+                        return repos;
+                    }
+                    close(repos);
+                    throw e;
+                }
+
+                // Lists delivered are closed once replaced
+                if (repos.isEmpty())
+                    close(repos);
+                return cache.getSortedRepos(org, recent, null);
             }
         };
     }
 
+    private static void close(final List<Repository> repos) {
+        if (repos instanceof CursorList)
+            ((CursorList<Repository>) repos).close();
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<Repository>> loader,
+            List<Repository> items) {
+        List<Repository> previous = this.items;
+
+        super.onLoadFinished(loader, items);
+
+        if (previous != this.items)
+            close(previous);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        // Retained loaders deliver the same list again after a configuration
+        // change
+        Activity activity = getActivity();
+        if (isRemoving() || activity == null || activity.isFinishing())
+            close(items);
+    }
+
+    @Override
+    protected void setItems(SingleTypeAdapter<Repository> adapter,
+            List<Repository> items) {
+        ((DefaultRepositoryListAdapter) adapter).setRepositories(items);
+    }
+
     @Override
     protected SingleTypeAdapter<Repository> createAdapter(List<Repository> items) {
         return new DefaultRepositoryListAdapter(getActivity()
-                .getLayoutInflater(),
-                items.toArray(new Repository[items.size()]), org);
+                .getLayoutInflater(), items, org,
+                getString(string.recently_viewed));
     }
 
     @Override
@@ -86,4 +86,9 @@ public class RepositoryNewsFragment extends NewsFragment {
         if (!viewUser(users.from))
             viewUser(users.to);
     }
+
+    @Override
+    protected String getSnapshotName() {
+        return "repository-news-" + repo.generateId();
+    }
 }
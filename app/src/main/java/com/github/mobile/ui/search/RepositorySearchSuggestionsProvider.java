@@ -15,9 +15,28 @@
  */
 package com.github.mobile.ui.search;
 
+import static android.app.SearchManager.SUGGEST_COLUMN_FORMAT;
+import static android.app.SearchManager.SUGGEST_COLUMN_ICON_1;
+import static android.app.SearchManager.SUGGEST_COLUMN_INTENT_ACTION;
+import static android.app.SearchManager.SUGGEST_COLUMN_INTENT_DATA;
+import static android.app.SearchManager.SUGGEST_COLUMN_QUERY;
+import static android.app.SearchManager.SUGGEST_COLUMN_TEXT_1;
+import static android.content.Intent.ACTION_VIEW;
+import android.app.Application;
 import android.content.Context;
 import android.content.SearchRecentSuggestionsProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
 import android.provider.SearchRecentSuggestions;
+import android.text.TextUtils;
+
+import com.github.mobile.persistence.DatabaseCache;
+import com.github.mobile.persistence.OrganizationRepositories;
+
+import roboguice.RoboGuice;
 
 /**
  * Suggestions provider for recently searched for repository queries
@@ -27,6 +46,13 @@ public class RepositorySearchSuggestionsProvider extends
 
     private static final String AUTHORITY = "com.github.search.suggest.recent.repos";
 
+    private static final int MAX_CACHED = 5;
+
+    private static final String[] COLUMNS = new String[] { BaseColumns._ID,
+            SUGGEST_COLUMN_FORMAT, SUGGEST_COLUMN_ICON_1,
+            SUGGEST_COLUMN_TEXT_1, SUGGEST_COLUMN_QUERY,
+            SUGGEST_COLUMN_INTENT_ACTION, SUGGEST_COLUMN_INTENT_DATA };
+
     /**
      * Save query to history
      *
@@ -57,4 +83,56 @@ public class RepositorySearchSuggestionsProvider extends
     public RepositorySearchSuggestionsProvider() {
         setupSuggestions(AUTHORITY, DATABASE_MODE_QUERIES);
     }
-}
\ No newline at end of file
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        Cursor recent = super.query(uri, projection, selection, selectionArgs,
+                sortOrder);
+        String query = selectionArgs != null && selectionArgs.length > 0 ? selectionArgs[0]
+                : null;
+        if (TextUtils.isEmpty(query))
+            return recent;
+
+        SQLiteDatabase db = RoboGuice
+                .getBaseApplicationInjector(
+                        (Application) getContext().getApplicationContext())
+                .getInstance(DatabaseCache.class).getReadable();
+        if (db == null)
+            return recent;
+
+        Cursor cached = OrganizationRepositories.search(db, query, MAX_CACHED);
+        if (cached == null)
+            return recent;
+
+        MatrixCursor suggestions = new MatrixCursor(COLUMNS);
+        long id = 0;
+        try {
+            // Cached repositories open directly and are listed first
+            while (cached.moveToNext()) {
+                String name = cached.getString(1) + '/' + cached.getString(2);
+                suggestions.addRow(new Object[] { id++, null, null, name, name,
+                        ACTION_VIEW, "https://github.com/" + name });
+            }
+        } finally {
+            cached.close();
+        }
+
+        if (recent != null)
+            try {
+                while (recent.moveToNext()) {
+                    Object[] row = new Object[COLUMNS.length];
+                    row[0] = id++;
+                    for (int i = 1; i < COLUMNS.length; i++) {
+                        int column = recent.getColumnIndex(COLUMNS[i]);
+                        if (column != -1)
+                            row[i] = recent.getString(column);
+                    }
+                    suggestions.addRow(row);
+                }
+            } finally {
+                recent.close();
+            }
+        return suggestions;
+    }
+}
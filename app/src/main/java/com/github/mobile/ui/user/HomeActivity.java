@@ -15,6 +15,7 @@
  */
 package com.github.mobile.ui.user;
 
+import static android.content.pm.ApplicationInfo.FLAG_DEBUGGABLE;
 import static com.actionbarsherlock.app.ActionBar.NAVIGATION_MODE_LIST;
 import static com.github.mobile.ui.user.HomeDropdownListAdapter.ACTION_BOOKMARKS;
 import static com.github.mobile.ui.user.HomeDropdownListAdapter.ACTION_DASHBOARD;
@@ -42,7 +43,10 @@ import com.github.mobile.R.menu;
 import com.github.mobile.accounts.AccountUtils;
 import com.github.mobile.core.user.UserComparator;
 import com.github.mobile.persistence.AccountDataManager;
+import com.github.mobile.persistence.CacheManager;
 import com.github.mobile.ui.TabPagerActivity;
+import com.github.mobile.ui.debug.CacheUsageActivity;
+import com.github.mobile.ui.debug.NetworkMetricsActivity;
 import com.github.mobile.ui.gist.GistsActivity;
 import com.github.mobile.ui.issue.FiltersViewActivity;
 import com.github.mobile.ui.issue.IssueDashboardActivity;
@@ -92,11 +96,17 @@ public class HomeActivity extends TabPagerActivity<HomePagerAdapter> implements
     @Inject
     private SharedPreferences sharedPreferences;
 
+    @Inject
+    private CacheManager cacheManager;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         getSupportLoaderManager().initLoader(0, null, this);
+
+        if (savedInstanceState == null)
+            cacheManager.trimInBackground();
     }
 
     private void reloadOrgs() {
@@ -197,6 +207,10 @@ public class HomeActivity extends TabPagerActivity<HomePagerAdapter> implements
     public boolean onCreateOptionsMenu(Menu optionMenu) {
         getSupportMenuInflater().inflate(menu.home, optionMenu);
 
+        boolean debuggable = (getApplicationInfo().flags & FLAG_DEBUGGABLE) != 0;
+        optionMenu.findItem(id.m_cache_usage).setVisible(debuggable);
+        optionMenu.findItem(id.m_network_metrics).setVisible(debuggable);
+
         return super.onCreateOptionsMenu(optionMenu);
     }
 
@@ -206,6 +220,12 @@ public class HomeActivity extends TabPagerActivity<HomePagerAdapter> implements
         case id.m_search:
             onSearchRequested();
             return true;
+        case id.m_cache_usage:
+            startActivity(CacheUsageActivity.createIntent());
+            return true;
+        case id.m_network_metrics:
+            startActivity(NetworkMetricsActivity.createIntent());
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
@@ -36,4 +36,9 @@ public class MyFollowersFragment extends FollowersFragment {
             }
         };
     }
-}
\ No newline at end of file
+
+    @Override
+    protected String getSnapshotName() {
+        return "followers";
+    }
+}
@@ -36,4 +36,9 @@ public class MyFollowingFragment extends FollowingFragment {
             }
         };
     }
+
+    @Override
+    protected String getSnapshotName() {
+        return "following";
+    }
 }
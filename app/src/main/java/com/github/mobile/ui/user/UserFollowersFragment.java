@@ -48,4 +48,9 @@ public class UserFollowersFragment extends FollowersFragment {
             }
         };
     }
+
+    @Override
+    protected String getSnapshotName() {
+        return "followers-" + user.getLogin();
+    }
 }
@@ -48,4 +48,9 @@ public class UserFollowingFragment extends FollowingFragment {
             }
         };
     }
+
+    @Override
+    protected String getSnapshotName() {
+        return "following-" + user.getLogin();
+    }
 }
@@ -93,4 +93,10 @@ public abstract class UserNewsFragment extends NewsFragment implements
         if (!viewUser(users.from))
             viewUser(users.to);
     }
+
+    @Override
+    protected String getSnapshotName() {
+        return org != null ? getClass().getName() + '-' + org.getLogin()
+                : null;
+    }
 }
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.util;
+
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.util.Log;
+
+import com.github.mobile.RequestCodec;
+import com.github.mobile.RequestReader;
+import com.github.mobile.RequestWriter;
+import com.github.mobile.TaskExecutor;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Two tier cache of avatar images
+ * <p>
+ * Decoded avatars are held in memory up to a byte budget relative to the
+ * memory class of the device. Avatar images are stored on disk, one per
+ * user, and tracked by an index so lookups don't touch the file system and
+ * the disk tier can be kept under its own byte budget. Both tiers evict the
+ * least recently used avatar first.
+ * <p>
+ * The ETag and Last-Modified date the server sent with each avatar are kept
+ * in the index so stored avatars can be revalidated with a conditional
+ * request once they are older than a day.
+ */
+@Singleton
+public class AvatarCache {
+
+    private static final String TAG = "AvatarCache";
+
+    /**
+     * Fraction of the memory class of the device used by avatars in memory
+     */
+    private static final int MEMORY_FRACTION = 16;
+
+    /**
+     * Budget in bytes of avatars on disk
+     */
+    private static final long DISK_BUDGET = 4 * 1024 * 1024;
+
+    /**
+     * Milliseconds an avatar on disk is used before being revalidated
+     */
+    private static final long VALIDATION_TTL = 24 * 60 * 60 * 1000;
+
+    /**
+     * Minimum time between saves of the index triggered only by lookups
+     */
+    private static final long ORDER_SAVE_INTERVAL = 60 * 1000;
+
+    private static final String INDEX = "index";
+
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * Avatar stored on disk
+     */
+    private static class DiskEntry {
+
+        private final String name;
+
+        private final long length;
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private long validated;
+
+        private DiskEntry(final String name, final long length,
+                final String etag, final long lastModified,
+                final long validated) {
+            this.name = name;
+            this.length = length;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validated = validated;
+        }
+    }
+
+    private static class IndexCodec implements
+            RequestCodec<Map<String, DiskEntry>> {
+
+        public String getSchema() {
+            return "avatar-index:2";
+        }
+
+        public void encode(final Map<String, DiskEntry> value,
+                final DataOutput output) throws IOException {
+            output.writeInt(value.size());
+            for (Map.Entry<String, DiskEntry> entry : value.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue().name);
+                output.writeLong(entry.getValue().length);
+                String etag = entry.getValue().etag;
+                output.writeUTF(etag != null ? etag : "");
+                output.writeLong(entry.getValue().lastModified);
+                output.writeLong(entry.getValue().validated);
+            }
+        }
+
+        public Map<String, DiskEntry> decode(final DataInput input)
+                throws IOException {
+            int count = input.readInt();
+            Map<String, DiskEntry> index = new LinkedHashMap<String, DiskEntry>();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                String name = input.readUTF();
+                long length = input.readLong();
+                String etag = input.readUTF();
+                index.put(key, new DiskEntry(name, length, etag.length() > 0
+                        ? etag : null, input.readLong(), input.readLong()));
+            }
+            return index;
+        }
+    }
+
+    private static final IndexCodec INDEX_CODEC = new IndexCodec();
+
+    private static long getMemoryBudget(final Context context) {
+        ActivityManager manager = (ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        return manager.getMemoryClass() * 1024L * 1024L / MEMORY_FRACTION;
+    }
+
+    private static long getSize(final BitmapDrawable drawable) {
+        Bitmap bitmap = drawable.getBitmap();
+        return bitmap != null ? bitmap.getRowBytes() * bitmap.getHeight() : 0;
+    }
+
+    private final LinkedHashMap<String, BitmapDrawable> memory = new LinkedHashMap<String, BitmapDrawable>(
+            32, 0.75F, true);
+
+    private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<String, DiskEntry>(
+            32, 0.75F, true);
+
+    private final CacheStats memoryStats;
+
+    private final CacheStats diskStats;
+
+    private final File dir;
+
+    private final Executor executor;
+
+    private boolean indexLoaded;
+
+    private boolean savePending;
+
+    private long lastSaved;
+
+    /**
+     * Create avatar cache
+     *
+     * @param context
+     * @param executors
+     */
+    @Inject
+    public AvatarCache(final Context context, final TaskExecutor executors) {
+        this(new File(context.getCacheDir(), "avatars/github.com"),
+                getMemoryBudget(context), DISK_BUDGET, executors);
+    }
+
+    /**
+     * Create avatar cache with the given budgets
+     *
+     * @param dir
+     * @param memoryBudget
+     * @param diskBudget
+     * @param executors
+     */
+    public AvatarCache(final File dir, final long memoryBudget,
+            final long diskBudget, final TaskExecutor executors) {
+        this.dir = dir;
+        memoryStats = new CacheStats(memoryBudget);
+        diskStats = new CacheStats(diskBudget);
+        executor = executors.getSerialExecutor(DISK, PRIORITY_LOW);
+    }
+
+    /**
+     * @return directory avatars are stored in
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return counts of the memory tier
+     */
+    public CacheStats getMemoryStats() {
+        return memoryStats;
+    }
+
+    /**
+     * @return counts of the disk tier
+     */
+    public CacheStats getDiskStats() {
+        return diskStats;
+    }
+
+    /**
+     * Get avatar held in memory
+     *
+     * @param key
+     * @return avatar or null if not in memory
+     */
+    public BitmapDrawable get(final String key) {
+        BitmapDrawable avatar;
+        synchronized (memory) {
+            avatar = memory.get(key);
+        }
+        synchronized (memoryStats) {
+            if (avatar != null)
+                memoryStats.hits++;
+            else
+                memoryStats.misses++;
+        }
+        return avatar;
+    }
+
+    /**
+     * Hold avatar in memory, evicting the least recently used avatars once
+     * over budget
+     *
+     * @param key
+     * @param avatar
+     */
+    public void put(final String key, final BitmapDrawable avatar) {
+        long size = getSize(avatar);
+        synchronized (memory) {
+            BitmapDrawable previous = memory.put(key, avatar);
+            synchronized (memoryStats) {
+                memoryStats.bytes += size;
+                if (previous != null)
+                    memoryStats.bytes -= getSize(previous);
+
+                Iterator<BitmapDrawable> eldest = memory.values().iterator();
+                while (memoryStats.bytes > memoryStats.budget
+                        && eldest.hasNext()) {
+                    BitmapDrawable evicted = eldest.next();
+                    if (evicted == avatar)
+                        break;
+                    eldest.remove();
+                    memoryStats.bytes -= getSize(evicted);
+                    memoryStats.evictions++;
+                }
+            }
+        }
+    }
+
+    private void loadIndex() {
+        if (indexLoaded)
+            return;
+        indexLoaded = true;
+
+        Map<String, DiskEntry> index = new RequestReader(new File(dir, INDEX),
+                INDEX_VERSION).read(INDEX_CODEC);
+        if (index == null) {
+            // Index the avatars stored before the index was written
+            index = new LinkedHashMap<String, DiskEntry>();
+            File[] users = dir.listFiles();
+            if (users != null)
+                for (File user : users) {
+                    File[] files = user.listFiles();
+                    if (files != null)
+                        for (File file : files)
+                            if (!file.getName().endsWith("-raw"))
+                                index.put(user.getName(), new DiskEntry(
+                                        file.getName(), file.length(), null,
+                                        -1, file.lastModified()));
+                }
+        }
+        disk.putAll(index);
+        synchronized (diskStats) {
+            for (DiskEntry entry : index.values())
+                diskStats.bytes += entry.length;
+        }
+    }
+
+    private void saveIndex() {
+        if (savePending)
+            return;
+        savePending = true;
+
+        executor.execute(new Runnable() {
+
+            public void run() {
+                Map<String, DiskEntry> index;
+                synchronized (disk) {
+                    savePending = false;
+                    lastSaved = System.currentTimeMillis();
+                    index = new LinkedHashMap<String, DiskEntry>(disk);
+                }
+                new RequestWriter(new File(dir, INDEX), INDEX_VERSION).write(
+                        index, INDEX_CODEC);
+            }
+        });
+    }
+
+    /**
+     * Get file of avatar stored on disk
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @param name
+     *            name the avatar was stored under
+     * @return file or null if no avatar is stored under the given name
+     */
+    public File getFile(final String key, final String name) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = disk.get(key);
+            synchronized (diskStats) {
+                if (entry != null && entry.name.equals(name)) {
+                    diskStats.hits++;
+                    // Lookups reorder the index so it is saved to keep the
+                    // least recently used order across restarts, at most
+                    // once a minute when nothing else changes it
+                    long now = System.currentTimeMillis();
+                    if (now - lastSaved >= ORDER_SAVE_INTERVAL)
+                        saveIndex();
+                    return new File(new File(dir, key), name);
+                }
+                diskStats.misses++;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get ETag of avatar stored on disk
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @param name
+     *            name the avatar was stored under
+     * @return ETag or null if none was stored with the avatar
+     */
+    public String getETag(final String key, final String name) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = disk.get(key);
+            return entry != null && entry.name.equals(name) ? entry.etag
+                    : null;
+        }
+    }
+
+    /**
+     * Get date avatar stored on disk was last modified on the server
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @param name
+     *            name the avatar was stored under
+     * @return date in milliseconds or -1 if none was stored with the avatar
+     */
+    public long getLastModified(final String key, final String name) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = disk.get(key);
+            return entry != null && entry.name.equals(name) ? entry.lastModified
+                    : -1;
+        }
+    }
+
+    /**
+     * Is the avatar stored on disk due to be revalidated with the server?
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @return true if stored and not validated recently, false otherwise
+     */
+    public boolean needsValidation(final String key) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = disk.get(key);
+            if (entry == null)
+                return false;
+            long age = System.currentTimeMillis() - entry.validated;
+            return age > VALIDATION_TTL;
+        }
+    }
+
+    /**
+     * Record avatar stored on disk as validated with the server
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     */
+    public void markValidated(final String key) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = disk.get(key);
+            if (entry != null) {
+                entry.validated = System.currentTimeMillis();
+                saveIndex();
+            }
+        }
+    }
+
+    /**
+     * Record avatar as stored on disk, deleting the least recently used
+     * avatars once over budget
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @param file
+     */
+    public void putFile(final String key, final File file) {
+        putFile(key, file, null, -1);
+    }
+
+    /**
+     * Record avatar as stored on disk along with the validators the server
+     * sent for it, deleting the previous avatar of the key and the least
+     * recently used avatars once over budget
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     * @param file
+     * @param etag
+     * @param lastModified
+     */
+    public void putFile(final String key, final File file, final String etag,
+            final long lastModified) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry entry = new DiskEntry(file.getName(), file.length(),
+                    etag, lastModified, System.currentTimeMillis());
+            DiskEntry previous = disk.put(key, entry);
+            if (previous != null && !previous.name.equals(entry.name))
+                new File(file.getParentFile(), previous.name).delete();
+            synchronized (diskStats) {
+                diskStats.bytes += entry.length;
+                if (previous != null)
+                    diskStats.bytes -= previous.length;
+
+                Iterator<Map.Entry<String, DiskEntry>> eldest = disk
+                        .entrySet().iterator();
+                while (diskStats.bytes > diskStats.budget && eldest.hasNext()) {
+                    Map.Entry<String, DiskEntry> evicted = eldest.next();
+                    if (evicted.getValue() == entry)
+                        break;
+                    eldest.remove();
+                    diskStats.bytes -= evicted.getValue().length;
+                    diskStats.evictions++;
+                    delete(new File(dir, evicted.getKey()));
+                }
+            }
+            saveIndex();
+        }
+    }
+
+    /**
+     * Remove avatar stored on disk under the given key and delete its files
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param key
+     */
+    public void removeFile(final String key) {
+        synchronized (disk) {
+            loadIndex();
+            DiskEntry previous = disk.remove(key);
+            if (previous != null) {
+                synchronized (diskStats) {
+                    diskStats.bytes -= previous.length;
+                }
+                saveIndex();
+            }
+            delete(new File(dir, key));
+        }
+    }
+
+    private static void delete(final File userDir) {
+        File[] files = userDir.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (!file.delete())
+                    Log.d(TAG, "Unable to delete " + file.getName());
+        userDir.delete();
+    }
+
+    @Override
+    public String toString() {
+        return "memory: " + memoryStats + "\ndisk: " + diskStats;
+    }
+}
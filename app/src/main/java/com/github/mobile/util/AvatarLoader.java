@@ -15,13 +15,12 @@
  */
 package com.github.mobile.util;
 
-import static android.graphics.Bitmap.CompressFormat.PNG;
-import static android.graphics.Bitmap.Config.ARGB_8888;
 import static android.view.View.VISIBLE;
+import static com.github.mobile.TaskExecutor.Lane.CPU;
+import static com.github.mobile.TaskExecutor.Lane.NETWORK;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapFactory.Options;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
@@ -32,17 +31,17 @@ import com.actionbarsherlock.app.ActionBar;
 import com.github.kevinsawicki.http.HttpRequest;
 import com.github.mobile.R.drawable;
 import com.github.mobile.R.id;
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Lane;
 import com.github.mobile.core.search.SearchUser;
 import com.github.mobile.util.GravatarUtils;
 import com.google.inject.Inject;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.egit.github.core.CommitUser;
@@ -53,6 +52,12 @@ import roboguice.util.RoboAsyncTask;
 
 /**
  * Avatar utilities
+ * <p>
+ * Avatars not held in memory are loaded by a pipeline of a decode stage and a
+ * download stage that run in their own lanes. Concurrent binds of the same
+ * user share a single request, and work still queued for a request is
+ * cancelled once no view is waiting on it. All bind methods must be called
+ * from the main thread.
  */
 public class AvatarLoader {
 
@@ -60,152 +65,383 @@ public class AvatarLoader {
 
     private static final float CORNER_RADIUS_IN_DIP = 3;
 
-    private static final int CACHE_SIZE = 75;
+    /**
+     * Size of the largest avatar displayed
+     */
+    private static final float SIZE_IN_DIP = 40;
+
+    /**
+     * Pending load of a user's avatar and the targets waiting on it
+     */
+    private static class AvatarRequest {
+
+        private final String userId;
+
+        private final String url;
+
+        private final String filename;
+
+        private final List<ImageView> views = new ArrayList<ImageView>(1);
+
+        private final List<ActionBar> actionBars = new ArrayList<ActionBar>(
+                1);
+
+        private final List<AtomicReference<User>> users = new ArrayList<AtomicReference<User>>(
+                1);
+
+        private String etag;
+
+        private long lastModified;
+
+        private BitmapDrawable image;
+
+        private StageTask<?> running;
+
+        private boolean cancelled;
 
-    private static abstract class FetchAvatarTask extends
-            RoboAsyncTask<BitmapDrawable> {
+        private AvatarRequest(final String userId, final String url) {
+            this.userId = userId;
+            this.url = url;
+            filename = GravatarUtils.getHash(url);
+        }
+    }
+
+    /**
+     * Stage of loading an avatar run in a lane on behalf of a request
+     *
+     * @param <V>
+     */
+    private abstract class StageTask<V> extends RoboAsyncTask<V> {
 
-        private static final Executor EXECUTOR = Executors
-                .newFixedThreadPool(1);
+        protected final AvatarRequest request;
+
+        private StageTask(final AvatarRequest request, final Lane lane) {
+            super(context, executors.getExecutor(lane, PRIORITY_LOW, request));
+            this.request = request;
+        }
 
-        private FetchAvatarTask(Context context) {
-            super(context, EXECUTOR);
+        @Override
+        protected void onPreExecute() throws Exception {
+            request.running = this;
         }
 
         @Override
         protected void onException(Exception e) throws RuntimeException {
             Log.d(TAG, "Avatar load failed", e);
+            finish(request, null);
+        }
+
+        @Override
+        protected void onFinally() throws RuntimeException {
+            if (request.running == this)
+                request.running = null;
         }
     }
 
-    private final float cornerRadius;
+    /**
+     * Decode the avatar stored on disk, downloading it when none is stored
+     * and revalidating it once it is due
+     */
+    private class LoadTask extends StageTask<BitmapDrawable> {
 
-    private final Map<Object, BitmapDrawable> loaded = new LinkedHashMap<Object, BitmapDrawable>(
-            CACHE_SIZE, 1.0F) {
+        private boolean stale;
 
-        private static final long serialVersionUID = -4191624209581976720L;
+        private LoadTask(final AvatarRequest request) {
+            super(request, CPU);
+        }
 
         @Override
-        protected boolean removeEldestEntry(
-                Map.Entry<Object, BitmapDrawable> eldest) {
-            return size() >= CACHE_SIZE;
+        public BitmapDrawable call() throws Exception {
+            BitmapDrawable image = getImageBy(request.userId, request.filename);
+            stale = image != null && cache.needsValidation(request.userId);
+            return image;
         }
-    };
+
+        @Override
+        protected void onSuccess(final BitmapDrawable image) throws Exception {
+            if (request.cancelled || image != null && !stale) {
+                finish(request, image);
+                return;
+            }
+
+            // Show the stored avatar while it is revalidated
+            if (image != null)
+                deliver(request, image, false);
+            new DownloadTask(request).execute();
+        }
+    }
+
+    /**
+     * Download the avatar, or revalidate the stored one, then decode it in
+     * its own stage when new content was received
+     */
+    private class DownloadTask extends StageTask<File> {
+
+        private DownloadTask(final AvatarRequest request) {
+            super(request, NETWORK);
+        }
+
+        @Override
+        public File call() throws Exception {
+            return download(request);
+        }
+
+        @Override
+        protected void onSuccess(final File rawAvatar) throws Exception {
+            if (rawAvatar != null && !request.cancelled)
+                new DecodeTask(request, rawAvatar).execute();
+            else
+                finish(request, null);
+        }
+    }
+
+    /**
+     * Decode and store a downloaded avatar
+     */
+    private class DecodeTask extends StageTask<BitmapDrawable> {
+
+        private final File rawAvatar;
+
+        private DecodeTask(final AvatarRequest request, final File rawAvatar) {
+            super(request, CPU);
+            this.rawAvatar = rawAvatar;
+        }
+
+        @Override
+        public BitmapDrawable call() throws Exception {
+            return store(request, rawAvatar);
+        }
+
+        @Override
+        protected void onSuccess(final BitmapDrawable image) throws Exception {
+            finish(request, image);
+        }
+    }
+
+    private final float cornerRadius;
+
+    private final int size;
+
+    private final AvatarCache cache;
 
     private final Context context;
 
+    private final TaskExecutor executors;
+
+    private final Map<String, AvatarRequest> pending = new HashMap<String, AvatarRequest>();
+
     private final File avatarDir;
 
     private final Drawable loadingAvatar;
 
-    private final Options options;
+    /**
+     * Create avatar helper with its own cache
+     *
+     * @param context
+     * @param executors
+     */
+    public AvatarLoader(final Context context, final TaskExecutor executors) {
+        this(context, executors, new AvatarCache(context, executors));
+    }
 
     /**
      * Create avatar helper
      *
      * @param context
+     * @param executors
+     * @param cache
      */
     @Inject
-    public AvatarLoader(final Context context) {
+    public AvatarLoader(final Context context, final TaskExecutor executors,
+            final AvatarCache cache) {
         this.context = context;
+        this.cache = cache;
+        this.executors = executors;
 
         loadingAvatar = context.getResources().getDrawable(
                 drawable.gravatar_icon);
 
-        avatarDir = new File(context.getCacheDir(), "avatars/github.com");
+        avatarDir = cache.getDirectory();
         if (!avatarDir.isDirectory())
             avatarDir.mkdirs();
 
         float density = context.getResources().getDisplayMetrics().density;
         cornerRadius = CORNER_RADIUS_IN_DIP * density;
-
-        options = new Options();
-        options.inDither = false;
-        options.inPreferredConfig = ARGB_8888;
+        size = Math.round(SIZE_IN_DIP * density);
     }
 
     private BitmapDrawable getImageBy(final String userId, final String filename) {
-        File avatarFile = new File(avatarDir + "/" + userId, filename);
-
-        if (!avatarFile.exists() || avatarFile.length() == 0)
+        File avatarFile = cache.getFile(userId, filename);
+        if (avatarFile == null)
             return null;
 
         Bitmap bitmap = decode(avatarFile);
         if (bitmap != null)
-            return new BitmapDrawable(context.getResources(), bitmap);
+            return createDrawable(bitmap);
         else {
-            avatarFile.delete();
+            cache.removeFile(userId);
             return null;
         }
     }
 
-    private void deleteCachedUserAvatars(final File userAvatarDir) {
-        if (userAvatarDir.isDirectory())
-          for (File userAvatar : userAvatarDir.listFiles())
-              userAvatar.delete();
-        userAvatarDir.delete();
-    }
-
     private Bitmap decode(final File file) {
-        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return ImageUtils.getSampledBitmap(file, size, size);
     }
 
-    private String getAvatarFilenameForUrl(final String avatarUrl) {
-        return GravatarUtils.getHash(avatarUrl);
+    private BitmapDrawable createDrawable(final Bitmap bitmap) {
+        return new RoundedBitmapDrawable(context.getResources(), bitmap,
+                cornerRadius);
     }
 
     /**
-     * Fetch avatar from URL
+     * Download avatar from URL
+     * <p>
+     * A stored avatar of the URL is revalidated with a conditional request
+     * and left in place unless the server responds with new content.
      *
-     * @param url
-     * @param cachedAvatarFilename
-     * @return bitmap
+     * @param avatarRequest
+     * @return downloaded file or null if not modified or the download failed
      */
-    protected BitmapDrawable fetchAvatar(final String url,
-            final String userId, final String cachedAvatarFilename) {
+    private File download(final AvatarRequest avatarRequest) {
+        String userId = avatarRequest.userId;
+        String filename = avatarRequest.filename;
         File userAvatarDir = new File(avatarDir, userId);
-        deleteCachedUserAvatars(userAvatarDir);
         userAvatarDir.mkdirs();
 
-        File rawAvatar = new File(userAvatarDir, cachedAvatarFilename + "-raw");
-        HttpRequest request = HttpRequest.get(url);
-        if (request.ok())
-            request.receive(rawAvatar);
+        HttpRequest request = HttpRequest.get(avatarRequest.url);
+        String etag = cache.getETag(userId, filename);
+        if (etag != null)
+            request.ifNoneMatch(etag);
+        long lastModified = cache.getLastModified(userId, filename);
+        if (lastModified > 0)
+            request.ifModifiedSince(lastModified);
 
-        if (!rawAvatar.exists() || rawAvatar.length() == 0)
+        if (request.notModified()) {
+            cache.markValidated(userId);
+            return null;
+        }
+        if (!request.ok())
             return null;
 
-        Bitmap bitmap = decode(rawAvatar);
-        if (bitmap == null) {
+        avatarRequest.etag = request.eTag();
+        avatarRequest.lastModified = request.lastModified();
+        File rawAvatar = new File(userAvatarDir, filename + "-raw");
+        request.receive(rawAvatar);
+        if (!rawAvatar.exists() || rawAvatar.length() == 0) {
             rawAvatar.delete();
             return null;
         }
+        return rawAvatar;
+    }
 
-        bitmap = ImageUtils.roundCorners(bitmap, cornerRadius);
+    /**
+     * Decode downloaded avatar and store it on disk in place of the previous
+     * avatar of the user
+     *
+     * @param request
+     * @param rawAvatar
+     * @return avatar or null if decoding failed
+     */
+    private BitmapDrawable store(final AvatarRequest request,
+            final File rawAvatar) {
+        Bitmap bitmap = decode(rawAvatar);
         if (bitmap == null) {
             rawAvatar.delete();
             return null;
         }
 
-        File roundedAvatar = new File(userAvatarDir, cachedAvatarFilename);
-        FileOutputStream output = null;
-        try {
-            output = new FileOutputStream(roundedAvatar);
-            if (bitmap.compress(PNG, 100, output))
-                return new BitmapDrawable(context.getResources(), bitmap);
-            else
-                return null;
-        } catch (IOException e) {
-            Log.d(TAG, "Exception writing rounded avatar", e);
-            return null;
-        } finally {
-            if (output != null)
-                try {
-                    output.close();
-                } catch (IOException e) {
-                    // Ignored
-                }
+        // Corners are rounded when drawn so the image is stored as received
+        File avatar = new File(rawAvatar.getParentFile(), request.filename);
+        if (rawAvatar.renameTo(avatar))
+            cache.putFile(request.userId, avatar, request.etag,
+                    request.lastModified);
+        else
             rawAvatar.delete();
+        return createDrawable(bitmap);
+    }
+
+    private AvatarRequest request(final String userId, final String url) {
+        AvatarRequest request = pending.get(userId);
+        if (request == null) {
+            request = new AvatarRequest(userId, url);
+            pending.put(userId, request);
+            new LoadTask(request).execute();
+        } else
+            // Resume a request cancelled while one of its stages was running
+            request.cancelled = false;
+        return request;
+    }
+
+    private void finish(final AvatarRequest request, BitmapDrawable image) {
+        if (pending.get(request.userId) == request)
+            pending.remove(request.userId);
+        if (request.cancelled)
+            return;
+
+        // Fall back to the stored avatar already shown when unchanged
+        if (image == null)
+            image = request.image;
+        if (image != null)
+            deliver(request, image, true);
+    }
+
+    /**
+     * Set avatar on the targets waiting on the request
+     * <p>
+     * Targets keep waiting on the request until it finishes so a stored
+     * avatar shown while being revalidated is replaced by the new one.
+     *
+     * @param request
+     * @param image
+     * @param finished
+     *            true if the request is finished and targets stop waiting on
+     *            it
+     */
+    private void deliver(final AvatarRequest request,
+            final BitmapDrawable image, final boolean finished) {
+        request.image = image;
+        cache.put(request.userId, image);
+
+        Object tag = finished ? null : request.userId;
+        List<ImageView> views = new ArrayList<ImageView>(request.views);
+        for (ImageView view : views)
+            if (request.userId.equals(view.getTag(id.iv_avatar)))
+                setImage(image, view, tag);
+        for (int i = 0; i < request.actionBars.size(); i++)
+            if (request.userId.equals(getId(request.users.get(i).get())))
+                request.actionBars.get(i).setLogo(image);
+        if (finished) {
+            request.views.clear();
+            request.actionBars.clear();
+            request.users.clear();
+        }
+    }
+
+    /**
+     * Stop waiting on the avatar of the given user for the given view,
+     * cancelling the request once nothing else is waiting on it and no
+     * avatar has been shown for it yet
+     * <p>
+     * A request with a stage running stays pending until the stage finishes
+     * since the stage may be writing the avatar to disk, binding the user
+     * again before then resumes the request.
+     *
+     * @param userId
+     * @param view
+     */
+    private void release(final String userId, final ImageView view) {
+        AvatarRequest request = pending.get(userId);
+        if (request == null)
+            return;
+
+        request.views.remove(view);
+        if (request.image == null && request.views.isEmpty()
+                && request.actionBars.isEmpty()) {
+            request.cancelled = true;
+            if (request.running == null) {
+                pending.remove(userId);
+                executors.cancel(request);
+            }
         }
     }
 
@@ -237,35 +473,19 @@ public class AvatarLoader {
         if (userId == null)
             return this;
 
-        final String avatarUrl = user.getAvatarUrl();
-        if (TextUtils.isEmpty(avatarUrl))
+        if (TextUtils.isEmpty(user.getAvatarUrl()))
             return this;
+        final String avatarUrl = getSizedUrl(getAvatarUrl(user));
 
-        BitmapDrawable loadedImage = loaded.get(userId);
+        BitmapDrawable loadedImage = cache.get(userId);
         if (loadedImage != null) {
             actionBar.setLogo(loadedImage);
             return this;
         }
 
-        new FetchAvatarTask(context) {
-
-            @Override
-            public BitmapDrawable call() throws Exception {
-                final String avatarFilename = getAvatarFilenameForUrl(getAvatarUrl(user));
-                final BitmapDrawable image = getImageBy(userId, avatarFilename);
-                if (image != null)
-                    return image;
-                else
-                    return fetchAvatar(avatarUrl, userId, avatarFilename);
-            }
-
-            @Override
-            protected void onSuccess(BitmapDrawable image) throws Exception {
-                if (userId.equals(getId(userReference.get())))
-                    actionBar.setLogo(image);
-            }
-        }.execute();
-
+        AvatarRequest request = request(userId, avatarUrl);
+        request.actionBars.add(actionBar);
+        request.users.add(userReference);
         return this;
     }
 
@@ -275,12 +495,28 @@ public class AvatarLoader {
 
     private AvatarLoader setImage(final Drawable image, final ImageView view,
             Object tag) {
+        Object previous = view.getTag(id.iv_avatar);
+        if (previous != null && !previous.equals(tag))
+            release((String) previous, view);
+
         view.setImageDrawable(image);
         view.setTag(id.iv_avatar, tag);
         view.setVisibility(VISIBLE);
         return this;
     }
 
+    /**
+     * Get URL of avatar at the size displayed
+     *
+     * @param url
+     * @return sized URL
+     */
+    private String getSizedUrl(final String url) {
+        if (url.contains("?s=") || url.contains("&s="))
+            return url;
+        return url + (url.indexOf('?') != -1 ? '&' : '?') + "s=" + size;
+    }
+
     private String getAvatarUrl(String id) {
         if (!TextUtils.isEmpty(id))
             return "https://secure.gravatar.com/avatar/" + id + "?d=404";
@@ -334,12 +570,12 @@ public class AvatarLoader {
         if (TextUtils.isEmpty(avatarUrl))
             return setImage(loadingAvatar, view);
 
-        BitmapDrawable loadedImage = loaded.get(userId);
+        BitmapDrawable loadedImage = cache.get(userId);
         if (loadedImage != null)
             return setImage(loadedImage, view);
 
         setImage(loadingAvatar, view, userId);
-        fetchAvatarTask(avatarUrl, userId, view).execute();
+        fetch(avatarUrl, userId, view);
 
         return this;
     }
@@ -362,12 +598,12 @@ public class AvatarLoader {
 
         final String userId = user.getEmail();
 
-        BitmapDrawable loadedImage = loaded.get(userId);
+        BitmapDrawable loadedImage = cache.get(userId);
         if (loadedImage != null)
             return setImage(loadedImage, view);
 
         setImage(loadingAvatar, view, userId);
-        fetchAvatarTask(avatarUrl, userId, view).execute();
+        fetch(avatarUrl, userId, view);
 
         return this;
     }
@@ -390,12 +626,12 @@ public class AvatarLoader {
 
         final String contributorId = contributor.getLogin();
 
-        BitmapDrawable loadedImage = loaded.get(contributorId);
+        BitmapDrawable loadedImage = cache.get(contributorId);
         if (loadedImage != null)
             return setImage(loadedImage, view);
 
         setImage(loadingAvatar, view, contributorId);
-        fetchAvatarTask(avatarUrl, contributorId, view).execute();
+        fetch(avatarUrl, contributorId, view);
 
         return this;
     }
@@ -418,41 +654,20 @@ public class AvatarLoader {
 
         final String userId = user.getId();
 
-        BitmapDrawable loadedImage = loaded.get(userId);
+        BitmapDrawable loadedImage = cache.get(userId);
         if (loadedImage != null)
             return setImage(loadedImage, view);
 
         setImage(loadingAvatar, view, userId);
-        fetchAvatarTask(avatarUrl, userId, view).execute();
+        fetch(avatarUrl, userId, view);
 
         return this;
     }
 
-    private FetchAvatarTask fetchAvatarTask(final String avatarUrl,
-            final String userId, final ImageView view) {
-        return new FetchAvatarTask(context) {
-
-            @Override
-            public BitmapDrawable call() throws Exception {
-                if (!userId.equals(view.getTag(id.iv_avatar)))
-                    return null;
-
-                final String avatarFilename = getAvatarFilenameForUrl(avatarUrl);
-                final BitmapDrawable image = getImageBy(userId, avatarFilename);
-                if (image != null)
-                    return image;
-                else
-                    return fetchAvatar(avatarUrl, userId, avatarFilename);
-            }
-
-            @Override
-            protected void onSuccess(final BitmapDrawable image) throws Exception {
-                if (image == null)
-                    return;
-                loaded.put(userId, image);
-                if (userId.equals(view.getTag(id.iv_avatar)))
-                    setImage(image, view);
-            }
-        };
+    private void fetch(final String url, final String userId,
+            final ImageView view) {
+        AvatarRequest request = request(userId, getSizedUrl(url));
+        if (!request.views.contains(view))
+            request.views.add(view);
     }
 }
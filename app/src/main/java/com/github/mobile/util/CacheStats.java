@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.util;
+
+/**
+ * Hit, miss and eviction counts of a cache kept under a byte budget
+ */
+public class CacheStats {
+
+    int hits;
+
+    int misses;
+
+    int evictions;
+
+    long bytes;
+
+    final long budget;
+
+    CacheStats(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return number of lookups that found an entry
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that found no entry
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of entries evicted to stay under budget
+     */
+    public synchronized int getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return bytes used
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions="
+                + evictions + ", bytes=" + bytes + '/' + budget;
+    }
+}
@@ -265,6 +265,22 @@ public class HtmlUtils {
             output.setSpan(span, start, length, SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
+    /**
+     * Convert plain text to HTML
+     * <p>
+     * This is used to display text written while offline that the server has
+     * not yet rendered.
+     *
+     * @param text
+     * @return html
+     */
+    public static String toHtml(final String text) {
+        if (TextUtils.isEmpty(text))
+            return "";
+
+        return TextUtils.htmlEncode(text).replace("\n", "<br>");
+    }
+
     /**
      * Encode HTML
      *
@@ -18,6 +18,7 @@ package com.github.mobile.util;
 import static android.util.Base64.DEFAULT;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
+import static com.github.mobile.RequestScheduler.Priority.PREFETCH;
 import static java.lang.Integer.MAX_VALUE;
 import static org.eclipse.egit.github.core.client.IGitHubConstants.HOST_DEFAULT;
 import android.accounts.Account;
@@ -34,10 +35,13 @@ import android.widget.TextView;
 import com.github.kevinsawicki.http.HttpRequest;
 import com.github.kevinsawicki.http.HttpRequest.HttpRequestException;
 import com.github.mobile.R.drawable;
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.RequestScheduler.Priority;
 import com.github.mobile.accounts.AuthenticatedUserTask;
 import com.google.inject.Inject;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -49,6 +53,9 @@ import org.eclipse.egit.github.core.service.ContentsService;
 
 /**
  * Getter for an image
+ * <p>
+ * Images are stored in an {@link ImageCache} shared by all getters so each
+ * image is only downloaded again once the server reports it has changed.
  */
 public class HttpImageGetter implements ImageGetter {
 
@@ -77,7 +84,7 @@ public class HttpImageGetter implements ImageGetter {
 
     private final Context context;
 
-    private final File dir;
+    private final ImageCache cache;
 
     private final int width;
 
@@ -87,17 +94,23 @@ public class HttpImageGetter implements ImageGetter {
 
     private final ContentsService service;
 
+    private final RequestScheduler scheduler;
+
     /**
      * Create image getter for context
      *
      * @param context
      * @param service
+     * @param scheduler
+     * @param cache
      */
     @Inject
-    public HttpImageGetter(Context context, ContentsService service) {
+    public HttpImageGetter(Context context, ContentsService service,
+            RequestScheduler scheduler, ImageCache cache) {
         this.context = context;
         this.service = service;
-        dir = context.getCacheDir();
+        this.scheduler = scheduler;
+        this.cache = cache;
         width = ServiceUtils.getDisplayWidth(context);
         loading = new LoadingImageGetter(context, 24);
     }
@@ -200,12 +213,17 @@ public class HttpImageGetter implements ImageGetter {
     /**
      * Request an image using the contents API if the source URI is a path to a
      * file already in the repository
+     * <p>
+     * The SHA-1 of the file is stored as the validator of the image so the
+     * image is only decoded and stored again when the file has changed.
      *
      * @param source
-     * @return
+     * @param cached
+     *            image stored for the source or null if none
+     * @return image file or null if not a repository image
      * @throws IOException
      */
-    private Drawable requestRepositoryImage(final String source)
+    private File requestRepositoryImage(final String source, final File cached)
             throws IOException {
         if (TextUtils.isEmpty(source))
             return null;
@@ -246,55 +264,127 @@ public class HttpImageGetter implements ImageGetter {
         if (TextUtils.isEmpty(path))
             return null;
 
-        List<RepositoryContents> contents = service.getContents(
-                RepositoryId.create(owner, name), path.toString(), branch);
-        if (contents != null && contents.size() == 1) {
-            byte[] content = Base64.decode(contents.get(0).getContent(),
-                    DEFAULT);
-            Bitmap bitmap = ImageUtils.getBitmap(content, width, MAX_VALUE);
-            if (bitmap == null)
-                return loading.getDrawable(source);
-            BitmapDrawable drawable = new BitmapDrawable(
-                    context.getResources(), bitmap);
-            drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
-            return drawable;
-        } else
+        // Images are requested ahead of being displayed so yield to requests
+        // made for the user once the rate limit runs low
+        List<RepositoryContents> contents;
+        Priority previous = scheduler.setPriority(PREFETCH);
+        try {
+            contents = service.getContents(RepositoryId.create(owner, name),
+                    path.toString(), branch);
+        } finally {
+            scheduler.setPriority(previous);
+        }
+        if (contents == null || contents.size() != 1)
+            return null;
+
+        String sha = contents.get(0).getSha();
+        if (cached != null && sha != null
+                && sha.equals(cache.getETag(source))) {
+            cache.markValidated(source);
+            return cached;
+        }
+
+        byte[] content = Base64.decode(contents.get(0).getContent(), DEFAULT);
+        File temp = cache.createTempFile();
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            output.write(content);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            if (output != null)
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+        }
+        return cache.putFile(source, temp, sha, -1);
+    }
+
+    /**
+     * Request an image over HTTP, revalidating the stored image if any
+     *
+     * @param source
+     * @param cached
+     *            image stored for the source or null if none
+     * @return image file
+     * @throws IOException
+     */
+    private File requestImage(final String source, final File cached)
+            throws IOException {
+        HttpRequest request = HttpRequest.get(source);
+        if (cached != null) {
+            String etag = cache.getETag(source);
+            if (etag != null)
+                request.ifNoneMatch(etag);
+            long lastModified = cache.getLastModified(source);
+            if (lastModified > 0)
+                request.ifModifiedSince(lastModified);
+            if (request.notModified()) {
+                cache.markValidated(source);
+                return cached;
+            }
+        }
+        if (!request.ok())
+            throw new IOException("Unexpected response code: "
+                    + request.code());
+
+        File temp = cache.createTempFile();
+        try {
+            request.receive(temp);
+        } catch (HttpRequestException e) {
+            temp.delete();
+            throw e;
+        }
+        return cache.putFile(source, temp, request.eTag(),
+                request.lastModified());
+    }
+
+    private Drawable decode(final File image) {
+        Bitmap bitmap = ImageUtils.getBitmap(image, width, MAX_VALUE);
+        if (bitmap == null)
             return null;
+
+        BitmapDrawable drawable = new BitmapDrawable(context.getResources(),
+                bitmap);
+        drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return drawable;
     }
 
     @Override
     public Drawable getDrawable(final String source) {
+        File cached = cache.getFile(source);
+        if (cached != null && !cache.needsValidation(source)) {
+            Drawable image = decode(cached);
+            if (image != null)
+                return image;
+            cache.removeFile(source);
+            cached = null;
+        }
+
+        File image = null;
         try {
-            Drawable repositoryImage = requestRepositoryImage(source);
-            if (repositoryImage != null)
-                return repositoryImage;
+            image = requestRepositoryImage(source, cached);
         } catch (Exception e) {
             // Ignore and attempt request over regular HTTP request
         }
 
-        File output = null;
-        try {
-            output = File.createTempFile("image", ".jpg", dir);
-            HttpRequest request = HttpRequest.get(source);
-            if (!request.ok())
-                throw new IOException("Unexpected response code: "
-                        + request.code());
-            request.receive(output);
-            Bitmap bitmap = ImageUtils.getBitmap(output, width, MAX_VALUE);
-            if (bitmap == null)
-                return loading.getDrawable(source);
-
-            BitmapDrawable drawable = new BitmapDrawable(
-                    context.getResources(), bitmap);
-            drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
-            return drawable;
-        } catch (IOException e) {
-            return loading.getDrawable(source);
-        } catch (HttpRequestException e) {
-            return loading.getDrawable(source);
-        } finally {
-            if (output != null)
-                output.delete();
-        }
+        if (image == null)
+            try {
+                image = requestImage(source, cached);
+            } catch (IOException e) {
+                // Fall back to the stored image below
+            } catch (HttpRequestException e) {
+                // Fall back to the stored image below
+            }
+
+        // Use the stored image when it could not be revalidated
+        if (image == null)
+            image = cached;
+        Drawable drawable = image != null ? decode(image) : null;
+        return drawable != null ? drawable : loading.getDrawable(source);
     }
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.util;
+
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
+import android.content.Context;
+import android.util.Log;
+
+import com.github.mobile.RequestCodec;
+import com.github.mobile.RequestReader;
+import com.github.mobile.RequestWriter;
+import com.github.mobile.ResponseCache;
+import com.github.mobile.TaskExecutor;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Disk cache of images embedded in rendered HTML, keyed by URL
+ * <p>
+ * Images are stored under a digest of their URL and tracked by an index so
+ * the cache can be kept under a byte budget, evicting the least recently used
+ * image first. The validator the image was served with is kept in the index
+ * so stored images can be revalidated once they are older than a day.
+ */
+@Singleton
+public class ImageCache {
+
+    private static final String TAG = "ImageCache";
+
+    /**
+     * Budget in bytes of images on disk
+     */
+    private static final long DISK_BUDGET = 8 * 1024 * 1024;
+
+    /**
+     * Milliseconds an image is used before being revalidated
+     */
+    private static final long VALIDATION_TTL = 24 * 60 * 60 * 1000;
+
+    private static final String INDEX = "index";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * Image stored on disk
+     */
+    private static class Entry {
+
+        private final long length;
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private long validated;
+
+        private Entry(final long length, final String etag,
+                final long lastModified, final long validated) {
+            this.length = length;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validated = validated;
+        }
+    }
+
+    private static class IndexCodec implements
+            RequestCodec<Map<String, Entry>> {
+
+        public String getSchema() {
+            return "image-index:1";
+        }
+
+        public void encode(final Map<String, Entry> value,
+                final DataOutput output) throws IOException {
+            output.writeInt(value.size());
+            for (Map.Entry<String, Entry> entry : value.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue().length);
+                String etag = entry.getValue().etag;
+                output.writeUTF(etag != null ? etag : "");
+                output.writeLong(entry.getValue().lastModified);
+                output.writeLong(entry.getValue().validated);
+            }
+        }
+
+        public Map<String, Entry> decode(final DataInput input)
+                throws IOException {
+            int count = input.readInt();
+            Map<String, Entry> index = new LinkedHashMap<String, Entry>();
+            for (int i = 0; i < count; i++) {
+                String name = input.readUTF();
+                long length = input.readLong();
+                String etag = input.readUTF();
+                index.put(name, new Entry(length, etag.length() > 0 ? etag
+                        : null, input.readLong(), input.readLong()));
+            }
+            return index;
+        }
+    }
+
+    private static final IndexCodec INDEX_CODEC = new IndexCodec();
+
+    private final LinkedHashMap<String, Entry> disk = new LinkedHashMap<String, Entry>(
+            32, 0.75F, true);
+
+    private final CacheStats stats;
+
+    private final File dir;
+
+    private final Executor executor;
+
+    private boolean indexLoaded;
+
+    private boolean savePending;
+
+    /**
+     * Create image cache
+     *
+     * @param context
+     * @param executors
+     */
+    @Inject
+    public ImageCache(final Context context, final TaskExecutor executors) {
+        this(new File(context.getCacheDir(), "images"), DISK_BUDGET,
+                executors);
+    }
+
+    /**
+     * Create image cache with the given budget
+     *
+     * @param dir
+     * @param budget
+     * @param executors
+     */
+    public ImageCache(final File dir, final long budget,
+            final TaskExecutor executors) {
+        this.dir = dir;
+        stats = new CacheStats(budget);
+        executor = executors.getSerialExecutor(DISK, PRIORITY_LOW);
+    }
+
+    /**
+     * @return counts of the cache
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private String getName(final String url) {
+        return ResponseCache.hash(url);
+    }
+
+    private void loadIndex() {
+        if (indexLoaded)
+            return;
+        indexLoaded = true;
+
+        Map<String, Entry> index = new RequestReader(new File(dir, INDEX),
+                INDEX_VERSION).read(INDEX_CODEC);
+        if (index == null) {
+            // Index the images stored before the index was written
+            index = new LinkedHashMap<String, Entry>();
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File file : files) {
+                    String name = file.getName();
+                    if (file.isFile() && !INDEX.equals(name)
+                            && !name.endsWith(TEMP_SUFFIX))
+                        index.put(name, new Entry(file.length(), null, -1,
+                                file.lastModified()));
+                }
+        }
+        disk.putAll(index);
+        synchronized (stats) {
+            for (Entry entry : index.values())
+                stats.bytes += entry.length;
+        }
+    }
+
+    private void saveIndex() {
+        if (savePending)
+            return;
+        savePending = true;
+
+        executor.execute(new Runnable() {
+
+            public void run() {
+                Map<String, Entry> index;
+                synchronized (disk) {
+                    savePending = false;
+                    index = new LinkedHashMap<String, Entry>(disk);
+                }
+                new RequestWriter(new File(dir, INDEX), INDEX_VERSION).write(
+                        index, INDEX_CODEC);
+            }
+        });
+    }
+
+    private Entry getEntry(final String url) {
+        String name = getName(url);
+        if (name == null)
+            return null;
+
+        loadIndex();
+        return disk.get(name);
+    }
+
+    private void remove(final String name) {
+        Entry previous = disk.remove(name);
+        if (previous != null) {
+            synchronized (stats) {
+                stats.bytes -= previous.length;
+            }
+            saveIndex();
+        }
+    }
+
+    /**
+     * Get file of image stored for URL
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     * @return file or null if no image is stored
+     */
+    public File getFile(final String url) {
+        synchronized (disk) {
+            File file = null;
+            if (getEntry(url) != null) {
+                file = new File(dir, getName(url));
+                // Images may have been deleted when trimming all caches
+                if (file.exists())
+                    file.setLastModified(System.currentTimeMillis());
+                else {
+                    remove(file.getName());
+                    file = null;
+                }
+            }
+
+            synchronized (stats) {
+                if (file != null)
+                    stats.hits++;
+                else
+                    stats.misses++;
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Get ETag of image stored for URL
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     * @return ETag or null if none was stored with the image
+     */
+    public String getETag(final String url) {
+        synchronized (disk) {
+            Entry entry = getEntry(url);
+            return entry != null ? entry.etag : null;
+        }
+    }
+
+    /**
+     * Get date image stored for URL was last modified on the server
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     * @return date in milliseconds or -1 if none was stored with the image
+     */
+    public long getLastModified(final String url) {
+        synchronized (disk) {
+            Entry entry = getEntry(url);
+            return entry != null ? entry.lastModified : -1;
+        }
+    }
+
+    /**
+     * Is the image stored for URL due to be revalidated with the server?
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     * @return true if stored and not validated recently, false otherwise
+     */
+    public boolean needsValidation(final String url) {
+        synchronized (disk) {
+            Entry entry = getEntry(url);
+            if (entry == null)
+                return false;
+            long age = System.currentTimeMillis() - entry.validated;
+            return age > VALIDATION_TTL;
+        }
+    }
+
+    /**
+     * Record image stored for URL as validated with the server
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     */
+    public void markValidated(final String url) {
+        synchronized (disk) {
+            Entry entry = getEntry(url);
+            if (entry != null) {
+                entry.validated = System.currentTimeMillis();
+                saveIndex();
+            }
+        }
+    }
+
+    /**
+     * Create temporary file in the cache directory to download an image into
+     * before it is stored with {@link #putFile(String, File, String, long)}
+     *
+     * @return file
+     * @throws IOException
+     */
+    public File createTempFile() throws IOException {
+        if (!dir.isDirectory())
+            dir.mkdirs();
+        return File.createTempFile("image", TEMP_SUFFIX, dir);
+    }
+
+    /**
+     * Store downloaded image for URL along with the validators the server
+     * sent for it, deleting the least recently used images once over budget
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     * @param temp
+     *            file created by {@link #createTempFile()}
+     * @param etag
+     * @param lastModified
+     * @return stored file or null if the image could not be stored
+     */
+    public File putFile(final String url, final File temp, final String etag,
+            final long lastModified) {
+        String name = getName(url);
+        if (name == null) {
+            temp.delete();
+            return null;
+        }
+
+        synchronized (disk) {
+            loadIndex();
+            File file = new File(dir, name);
+            if (!temp.renameTo(file)) {
+                Log.d(TAG, "Unable to store " + name);
+                temp.delete();
+                return null;
+            }
+
+            Entry entry = new Entry(file.length(), etag, lastModified,
+                    System.currentTimeMillis());
+            Entry previous = disk.put(name, entry);
+            synchronized (stats) {
+                stats.bytes += entry.length;
+                if (previous != null)
+                    stats.bytes -= previous.length;
+
+                Iterator<Map.Entry<String, Entry>> eldest = disk.entrySet()
+                        .iterator();
+                while (stats.bytes > stats.budget && eldest.hasNext()) {
+                    Map.Entry<String, Entry> evicted = eldest.next();
+                    if (evicted.getValue() == entry)
+                        break;
+                    eldest.remove();
+                    stats.bytes -= evicted.getValue().length;
+                    stats.evictions++;
+                    if (!new File(dir, evicted.getKey()).delete())
+                        Log.d(TAG, "Unable to delete " + evicted.getKey());
+                }
+            }
+            saveIndex();
+            return file;
+        }
+    }
+
+    /**
+     * Remove image stored for URL and delete its file
+     * <p>
+     * This method may perform file I/O and should never be called on the
+     * UI-thread
+     *
+     * @param url
+     */
+    public void removeFile(final String url) {
+        String name = getName(url);
+        if (name == null)
+            return;
+
+        synchronized (disk) {
+            loadIndex();
+            remove(name);
+            new File(dir, name).delete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return stats.toString();
+    }
+}
@@ -15,17 +15,10 @@
  */
 package com.github.mobile.util;
 
-import static android.graphics.Bitmap.Config.ARGB_8888;
-import static android.graphics.Color.WHITE;
-import static android.graphics.PorterDuff.Mode.DST_IN;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Point;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.RectF;
 import android.util.Log;
 import android.widget.ImageView;
 
@@ -189,6 +182,29 @@ public class ImageUtils {
         return getBitmap(image.getAbsolutePath(), width, height);
     }
 
+    /**
+     * Get bitmap sampled down by the largest power of two that keeps it at
+     * least as large as the given width and height
+     *
+     * @param image
+     * @param width
+     * @param height
+     * @return image or null if read fails
+     */
+    public static Bitmap getSampledBitmap(final File image, int width,
+            int height) {
+        String imagePath = image.getAbsolutePath();
+        Point size = getSize(imagePath);
+        if (size == null || size.x <= 0 || size.y <= 0)
+            return null;
+
+        int sampleSize = 1;
+        while (size.x / (sampleSize * 2) >= width
+                && size.y / (sampleSize * 2) >= height)
+            sampleSize *= 2;
+        return getBitmap(imagePath, sampleSize);
+    }
+
     /**
      * Get a bitmap from the image file
      *
@@ -222,36 +238,4 @@ public class ImageUtils {
         if (bitmap != null)
             view.setImageBitmap(bitmap);
     }
-
-    /**
-     * Round the corners of a {@link Bitmap}
-     *
-     * @param source
-     * @param radius
-     * @return rounded corner bitmap
-     */
-    public static Bitmap roundCorners(final Bitmap source, final float radius) {
-        int width = source.getWidth();
-        int height = source.getHeight();
-
-        Paint paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setColor(WHITE);
-
-        Bitmap clipped = Bitmap.createBitmap(width, height, ARGB_8888);
-        Canvas canvas = new Canvas(clipped);
-        canvas.drawRoundRect(new RectF(0, 0, width, height), radius, radius,
-                paint);
-        paint.setXfermode(new PorterDuffXfermode(DST_IN));
-
-        Bitmap rounded = Bitmap.createBitmap(width, height, ARGB_8888);
-        canvas = new Canvas(rounded);
-        canvas.drawBitmap(source, 0, 0, null);
-        canvas.drawBitmap(clipped, 0, 0, paint);
-
-        source.recycle();
-        clipped.recycle();
-
-        return rounded;
-    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.util;
+
+import static android.graphics.Matrix.ScaleToFit.FILL;
+import static android.graphics.Shader.TileMode.CLAMP;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * Drawable of a bitmap with rounded corners
+ * <p>
+ * The corners are clipped when drawn using a shader of the bitmap so no
+ * rounded copy of the bitmap is ever created.
+ */
+public class RoundedBitmapDrawable extends BitmapDrawable {
+
+    private final float radius;
+
+    private final RectF bitmapRect;
+
+    private final RectF drawRect = new RectF();
+
+    private final Matrix matrix = new Matrix();
+
+    private final BitmapShader shader;
+
+    /**
+     * Create drawable of bitmap with the given corner radius
+     *
+     * @param resources
+     * @param bitmap
+     * @param radius
+     *            in pixels
+     */
+    public RoundedBitmapDrawable(final Resources resources,
+            final Bitmap bitmap, final float radius) {
+        super(resources, bitmap);
+
+        this.radius = radius;
+        bitmapRect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        shader = new BitmapShader(bitmap, CLAMP, CLAMP);
+
+        Paint paint = getPaint();
+        paint.setAntiAlias(true);
+        paint.setShader(shader);
+    }
+
+    @Override
+    protected void onBoundsChange(final Rect bounds) {
+        super.onBoundsChange(bounds);
+
+        drawRect.set(bounds);
+        matrix.setRectToRect(bitmapRect, drawRect, FILL);
+        shader.setLocalMatrix(matrix);
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+        canvas.drawRoundRect(drawRect, radius, radius, getPaint());
+    }
+}
@@ -35,6 +35,7 @@ import android.view.View;
 import android.widget.TextView;
 
 import com.github.mobile.R.id;
+import com.github.mobile.TaskExecutor;
 import com.github.mobile.ui.user.NewsListAdapter;
 import com.github.mobile.util.AvatarLoader;
 
@@ -82,7 +83,7 @@ public class NewsEventTextTest extends AndroidTestCase {
         repo = new EventRepository().setName("user/repo");
 
         adapter = new NewsListAdapter(LayoutInflater.from(mContext),
-                new AvatarLoader(mContext));
+                new AvatarLoader(mContext, new TaskExecutor()));
     }
 
     private Event createEvent(String type) {
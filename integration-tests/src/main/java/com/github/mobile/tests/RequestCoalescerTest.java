@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.RequestCoalescer;
+import com.github.mobile.RequestCoalescer.Copier;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests of {@link RequestCoalescer}
+ */
+public class RequestCoalescerTest extends AndroidTestCase {
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    private Future<Object> submit(final String key, final Object result,
+            final IOException error) {
+        return submit(key, result, error, null);
+    }
+
+    private Future<Object> submit(final String key, final Object result,
+            final IOException error, final Copier<Object> copier) {
+        return executor.submit(new Callable<Object>() {
+
+            public Object call() throws Exception {
+                return coalescer.execute(key, "/user", new Callable<Object>() {
+
+                    public Object call() throws Exception {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        if (error != null)
+                            throw error;
+                        return result;
+                    }
+                }, copier);
+            }
+        });
+    }
+
+    private void waitForFollower() throws InterruptedException {
+        // The second request waits on the first, give it time to join
+        Thread.sleep(100);
+        release.countDown();
+    }
+
+    /**
+     * Verify identical concurrent requests share a single call and result
+     *
+     * @throws Exception
+     */
+    public void testSharedResult() throws Exception {
+        Object result = new Object();
+        Future<Object> first = submit("a", result, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Object> second = submit("a", new Object(), null);
+        waitForFollower();
+
+        assertSame(result, first.get());
+        assertSame(result, second.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getSaved());
+        assertEquals(1, coalescer.getSavedByEndpoint().get("/user")
+                .intValue());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    /**
+     * Verify every caller of a shared request is given its own copy of the
+     * result and the result of requests not shared is not copied
+     *
+     * @throws Exception
+     */
+    public void testSharedResultCopied() throws Exception {
+        Copier<Object> copier = new Copier<Object>() {
+
+            public Object copy(Object result) {
+                return new StringBuilder(result.toString());
+            }
+        };
+        StringBuilder result = new StringBuilder("result");
+        Future<Object> first = submit("a", result, null, copier);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Object> second = submit("a", new Object(), null, copier);
+        waitForFollower();
+
+        Object firstResult = first.get();
+        Object secondResult = second.get();
+        assertNotSame(result, firstResult);
+        assertNotSame(result, secondResult);
+        assertNotSame(firstResult, secondResult);
+        assertEquals("result", firstResult.toString());
+        assertEquals("result", secondResult.toString());
+
+        Object alone = new Object();
+        assertSame(alone, submit("b", alone, null, copier).get());
+    }
+
+    /**
+     * Verify an exception from a coalesced request is thrown to every caller
+     *
+     * @throws Exception
+     */
+    public void testSharedException() throws Exception {
+        IOException error = new IOException("failed");
+        Future<Object> first = submit("a", null, error);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Object> second = submit("a", null, null);
+        waitForFollower();
+
+        for (Future<Object> future : new Future[] { first, second })
+            try {
+                future.get();
+                fail("Exception not thrown");
+            } catch (Exception e) {
+                assertSame(error, e.getCause());
+            }
+        assertEquals(1, calls.get());
+    }
+
+    /**
+     * Verify requests with different keys are not coalesced and completed
+     * requests are not reused
+     *
+     * @throws Exception
+     */
+    public void testDistinctKeys() throws Exception {
+        release.countDown();
+        submit("a", "a", null).get();
+        submit("a", "a", null).get();
+        submit("b", "b", null).get();
+
+        assertEquals(3, calls.get());
+        assertEquals(0, coalescer.getSaved());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.RequestMetrics;
+import com.github.mobile.RequestMetrics.Cache;
+import com.github.mobile.RequestMetrics.Endpoint;
+
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Unit tests of {@link RequestMetrics}
+ */
+public class RequestMetricsTest extends AndroidTestCase {
+
+    private final RequestMetrics metrics = new RequestMetrics();
+
+    /**
+     * Verify request URIs are grouped by endpoint template
+     */
+    public void testTemplates() {
+        assertEquals("/repos/{owner}/{repo}/issues/{number}",
+                RequestMetrics.getTemplate("/repos/a/b/issues/12"));
+        assertEquals("/repos/{owner}/{repo}/issues",
+                RequestMetrics.getTemplate("/repos/a/b/issues?page=2"));
+        assertEquals("/repos/{owner}/{repo}/git/trees/{sha}",
+                RequestMetrics.getTemplate("/repos/a/b/git/trees/"
+                        + "0123456789abcdef0123456789abcdef01234567"));
+        assertEquals("/users/{user}/repos",
+                RequestMetrics.getTemplate("/users/someone/repos"));
+        assertEquals("/orgs/{user}/repos",
+                RequestMetrics.getTemplate("/orgs/github/repos"));
+        assertEquals("/user/repos", RequestMetrics.getTemplate("/user/repos"));
+        assertEquals("/", RequestMetrics.getTemplate("/"));
+    }
+
+    /**
+     * Verify responses are recorded per template with latency buckets
+     */
+    public void testEndpoints() {
+        metrics.response("/repos/a/b/issues/1", 200, 50);
+        metrics.response("/repos/c/d/issues/2", 200, 400);
+        metrics.response("/repos/c/d/issues/3", 404, 9000);
+        metrics.received("/repos/a/b/issues/1", 1024);
+        metrics.parsed("/repos/a/b/issues/1", 30);
+        metrics.response("/user", 200, 100);
+
+        List<Endpoint> endpoints = metrics.getEndpoints();
+        assertEquals(2, endpoints.size());
+        Endpoint issues = endpoints.get(0);
+        assertEquals("/repos/{owner}/{repo}/issues/{number}",
+                issues.getTemplate());
+        assertEquals(3, issues.getRequests());
+        assertEquals(3150, issues.getAverageLatency());
+        assertEquals(100, issues.getLatencyPercentile(30));
+        assertEquals(500, issues.getLatencyPercentile(60));
+        assertEquals(-1, issues.getLatencyPercentile(90));
+        assertEquals(1024, issues.getBytes());
+        assertEquals(30, issues.getAverageParseMillis());
+        assertEquals(2, issues.getStatusCodes().get(200).intValue());
+        assertEquals(1, issues.getStatusCodes().get(404).intValue());
+        assertEquals(1, endpoints.get(1).getRequests());
+    }
+
+    /**
+     * Verify cache lookups are counted and dumped
+     *
+     * @throws Exception
+     */
+    public void testCachesAndDump() throws Exception {
+        metrics.hit(RequestMetrics.CACHE_DATABASE);
+        metrics.stale(RequestMetrics.CACHE_DATABASE);
+        metrics.miss(RequestMetrics.CACHE_DATABASE);
+        metrics.miss(RequestMetrics.CACHE_DATABASE);
+        metrics.response("/user", 200, 100);
+
+        Cache cache = metrics.getCaches().get(RequestMetrics.CACHE_DATABASE);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getStale());
+        assertEquals(2, cache.getMisses());
+        assertEquals(50, cache.getHitRatio());
+
+        StringWriter dump = new StringWriter();
+        metrics.dump(dump);
+        assertTrue(dump.toString().contains("database: hits=1"));
+        assertTrue(dump.toString().contains("/user: requests=1"));
+
+        metrics.clear();
+        assertTrue(metrics.getEndpoints().isEmpty());
+        assertTrue(metrics.getCaches().isEmpty());
+    }
+}
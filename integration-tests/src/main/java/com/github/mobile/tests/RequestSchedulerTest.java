@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import static com.github.mobile.RequestScheduler.Priority.INTERACTIVE;
+import static com.github.mobile.RequestScheduler.Priority.PREFETCH;
+import static com.github.mobile.RequestScheduler.Priority.SYNC;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.RequestScheduler;
+import com.github.mobile.RequestScheduler.DeferredException;
+
+/**
+ * Unit tests of {@link RequestScheduler}
+ */
+public class RequestSchedulerTest extends AndroidTestCase {
+
+    private static final String SCOPE = "user";
+
+    private final RequestScheduler scheduler = new RequestScheduler();
+
+    private long inAnHour() {
+        return System.currentTimeMillis() + 60 * 60 * 1000;
+    }
+
+    private void assertDeferred() throws Exception {
+        try {
+            scheduler.acquire(SCOPE);
+            fail("Request not deferred");
+        } catch (DeferredException e) {
+            assertTrue(e.getResetAt() > System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Verify requests are made before any budget is known
+     *
+     * @throws Exception
+     */
+    public void testUnknownBudget() throws Exception {
+        assertNull(scheduler.getBudget(SCOPE));
+        scheduler.setPriority(SYNC);
+        scheduler.acquire(SCOPE);
+    }
+
+    /**
+     * Verify lower priorities are deferred as the budget shrinks while
+     * interactive requests are always made
+     *
+     * @throws Exception
+     */
+    public void testDeferLowerPriorities() throws Exception {
+        scheduler.update(SCOPE, 5000, 2000, inAnHour());
+        assertEquals(2000, scheduler.getBudget(SCOPE).getRemaining());
+
+        scheduler.setPriority(SYNC);
+        assertDeferred();
+        scheduler.setPriority(PREFETCH);
+        scheduler.acquire(SCOPE);
+
+        scheduler.update(SCOPE, 5000, 500, inAnHour());
+        assertDeferred();
+        scheduler.setPriority(INTERACTIVE);
+        scheduler.acquire(SCOPE);
+    }
+
+    /**
+     * Verify requests are no longer deferred once the limit has reset
+     *
+     * @throws Exception
+     */
+    public void testLimitReset() throws Exception {
+        scheduler.update(SCOPE, 5000, 0, System.currentTimeMillis() - 1000);
+        scheduler.setPriority(SYNC);
+        scheduler.acquire(SCOPE);
+    }
+
+    /**
+     * Verify priorities are set per thread
+     *
+     * @throws Exception
+     */
+    public void testThreadPriority() throws Exception {
+        assertEquals(INTERACTIVE, scheduler.getPriority());
+        assertEquals(INTERACTIVE, scheduler.setPriority(SYNC));
+        assertEquals(SYNC, scheduler.getPriority());
+
+        final RequestScheduler.Priority[] other = new RequestScheduler.Priority[1];
+        Thread thread = new Thread() {
+
+            public void run() {
+                other[0] = scheduler.getPriority();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(INTERACTIVE, other[0]);
+    }
+}
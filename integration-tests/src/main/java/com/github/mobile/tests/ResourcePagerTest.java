@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.core.PageSizePolicy;
+import com.github.mobile.core.ResourcePager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.egit.github.core.client.PageIterator;
+import org.eclipse.egit.github.core.client.PagedRequest;
+
+/**
+ * Unit tests of {@link ResourcePager}
+ */
+public class ResourcePagerTest extends AndroidTestCase {
+
+    private static final int PAGES = 8;
+
+    private static final int PAGE_SIZE = 5;
+
+    /**
+     * Pager over integers that records how many pages are requested and how
+     * many are requested at once
+     */
+    private static class CountingPager extends ResourcePager<Integer> {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private final List<Integer> sizes = Collections
+                .synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        protected Object getId(Integer resource) {
+            return resource;
+        }
+
+        @Override
+        public PageIterator<Integer> createIterator(final int page,
+                final int size) {
+            sizes.add(size);
+            PagedRequest<Integer> request = new PagedRequest<Integer>(page,
+                    PAGE_SIZE);
+            request.setUri("/items");
+            return new PageIterator<Integer>(request, null) {
+
+                private int current = page;
+
+                @Override
+                public boolean hasNext() {
+                    return current <= PAGES;
+                }
+
+                @Override
+                public Collection<Integer> next() {
+                    requests.incrementAndGet();
+                    int running = inFlight.incrementAndGet();
+                    if (running > maxInFlight.get())
+                        maxInFlight.set(running);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        // Ignored
+                    }
+                    inFlight.decrementAndGet();
+
+                    List<Integer> items = new ArrayList<Integer>(PAGE_SIZE);
+                    for (int i = 0; i < PAGE_SIZE; i++)
+                        items.add((current - 1) * PAGE_SIZE + i);
+                    current++;
+                    return items;
+                }
+            };
+        }
+    }
+
+    private static void assertInOrder(final List<Integer> resources,
+            final int count) {
+        assertEquals(count, resources.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(i, resources.get(i).intValue());
+    }
+
+    /**
+     * Verify previously loaded pages are reloaded concurrently and in order
+     * after the pager is cleared
+     *
+     * @throws Exception
+     */
+    public void testConcurrentReload() throws Exception {
+        CountingPager pager = new CountingPager();
+        pager.setExecutor(Executors.newFixedThreadPool(4));
+        for (int i = 0; i < PAGES; i++)
+            pager.next();
+        assertFalse(pager.hasMore());
+        assertEquals(1, pager.maxInFlight.get());
+
+        pager.clear();
+        long start = System.nanoTime();
+        pager.next();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertInOrder(pager.getResources(), PAGES * PAGE_SIZE);
+        assertTrue(pager.maxInFlight.get() > 1);
+        assertTrue(pager.maxInFlight.get() <= 4);
+        assertTrue("Reload took " + elapsed + " ms", elapsed < PAGES * 50);
+    }
+
+    /**
+     * Verify pages are reloaded serially without an executor
+     *
+     * @throws Exception
+     */
+    public void testSerialReload() throws Exception {
+        CountingPager pager = new CountingPager();
+        pager.next();
+        pager.next();
+        pager.clear();
+        pager.next();
+
+        assertInOrder(pager.getResources(), 2 * PAGE_SIZE);
+        assertEquals(1, pager.maxInFlight.get());
+    }
+
+    /**
+     * Verify the page read ahead is used by the next call to next
+     *
+     * @throws Exception
+     */
+    public void testReadAhead() throws Exception {
+        CountingPager pager = new CountingPager();
+        pager.setExecutor(Executors.newFixedThreadPool(1));
+        pager.next();
+        pager.readAhead();
+        pager.readAhead();
+        pager.next();
+
+        assertInOrder(pager.getResources(), 2 * PAGE_SIZE);
+        assertEquals(2, pager.requests.get());
+    }
+
+    /**
+     * Verify a smaller first page is requested before pages of the size chosen
+     * by the policy, that the rest of the first full page is requested at the
+     * smaller size instead of requesting the first page again, and that
+     * latency is recorded for each page
+     *
+     * @throws Exception
+     */
+    public void testSmallerFirstPage() throws Exception {
+        PageSizePolicy policy = new PageSizePolicy(getContext()) {
+
+            @Override
+            protected int getNetworkSize() {
+                return PageSizePolicy.MAX_SIZE;
+            }
+        };
+        int firstSize = policy.getFirstPageSize(PageSizePolicy.MAX_SIZE);
+        assertEquals(PageSizePolicy.MAX_SIZE, 2 * firstSize);
+        CountingPager pager = new CountingPager();
+        pager.setPageSizePolicy(policy);
+        assertEquals(PageSizePolicy.MAX_SIZE, pager.getPageSize());
+
+        assertTrue(pager.next());
+        assertInOrder(pager.getResources(), PAGE_SIZE);
+        assertTrue(pager.next());
+        assertInOrder(pager.getResources(), 2 * PAGE_SIZE);
+        assertTrue(pager.next());
+
+        assertEquals(3, pager.sizes.size());
+        assertEquals(firstSize, pager.sizes.get(0).intValue());
+        assertEquals(firstSize, pager.sizes.get(1).intValue());
+        assertEquals(PageSizePolicy.MAX_SIZE, pager.sizes.get(2).intValue());
+
+        PageSizePolicy.Stats stats = policy.getStats().get(
+                CountingPager.class.getName());
+        assertNotNull(stats);
+        assertEquals(3, stats.getPages());
+        assertEquals(3 * PAGE_SIZE, stats.getResources());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.ResponseCache;
+import com.github.mobile.ResponseCache.Entry;
+import com.github.mobile.ResponseCache.Recorder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Unit tests of {@link ResponseCache}
+ */
+public class ResponseCacheTest extends AndroidTestCase {
+
+    private static class Response extends HttpURLConnection {
+
+        private final String etag;
+
+        private final String link;
+
+        private Response(final String etag) throws IOException {
+            this(etag, null);
+        }
+
+        private Response(final String etag, final String link)
+                throws IOException {
+            super(new URL("https://api.github.com/user"));
+            this.etag = etag;
+            this.link = link;
+        }
+
+        @Override
+        public String getHeaderField(String key) {
+            if ("Link".equals(key))
+                return link;
+            return "ETag".equals(key) ? etag : null;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() throws IOException {
+        }
+    }
+
+    private static String read(final InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int read;
+        try {
+            while ((read = input.read(buffer)) != -1)
+                output.write(buffer, 0, read);
+        } finally {
+            input.close();
+        }
+        return output.toString("UTF-8");
+    }
+
+    private ResponseCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        File dir = new File(getContext().getCacheDir(), "responses-test");
+        if (dir.isDirectory())
+            for (File file : dir.listFiles())
+                file.delete();
+        cache = new ResponseCache(dir);
+    }
+
+    /**
+     * Verify body is stored once fully read and committed
+     *
+     * @throws Exception
+     */
+    public void testRecordAndRead() throws Exception {
+        assertNull(cache.get("key"));
+
+        Recorder recorder = cache.record("key", new Response("\"abc\""),
+                new ByteArrayInputStream("{\"a\":1}  ".getBytes("UTF-8")));
+        assertNotNull(recorder);
+        // Partial read is drained when committed
+        assertEquals('{', recorder.read());
+        assertTrue(recorder.commit());
+
+        Entry entry = cache.get("key");
+        assertNotNull(entry);
+        assertEquals("{\"a\":1}  ", read(entry.openBody()));
+        assertNull(cache.get("other"));
+    }
+
+    /**
+     * Verify the links to other pages are stored with the body and reported in
+     * place of the links of the response the body is served for
+     *
+     * @throws Exception
+     */
+    public void testReplayLinks() throws Exception {
+        String link = "<https://api.github.com/user/repos?page=2>;"
+                + " rel=\"next\"";
+        Recorder recorder = cache.record("key", new Response("\"abc\"", link),
+                new ByteArrayInputStream("[]".getBytes("UTF-8")));
+        assertTrue(recorder.commit());
+
+        Entry entry = cache.get("key");
+        assertNotNull(entry);
+        HttpURLConnection replayed = entry.replayHeaders(new Response(
+                "\"abc\""));
+        assertEquals(link, replayed.getHeaderField("Link"));
+        assertEquals("\"abc\"", replayed.getHeaderField("ETag"));
+        assertEquals("[]", read(entry.openBody()));
+    }
+
+    /**
+     * Verify responses without validators are not cached
+     *
+     * @throws Exception
+     */
+    public void testNoValidator() throws Exception {
+        assertNull(cache.record("key", new Response(null),
+                new ByteArrayInputStream(new byte[0])));
+    }
+
+    /**
+     * Verify aborted recordings are discarded
+     *
+     * @throws Exception
+     */
+    public void testAbort() throws Exception {
+        Recorder recorder = cache.record("key", new Response("\"abc\""),
+                new ByteArrayInputStream("body".getBytes("UTF-8")));
+        recorder.abort();
+        assertNull(cache.get("key"));
+    }
+
+    /**
+     * Verify counters are tracked per endpoint
+     */
+    public void testStats() {
+        String endpoint = ResponseCache.getEndpoint("/user/repos?page=2");
+        assertEquals("/user/repos", endpoint);
+        cache.revalidate(endpoint).hit(endpoint).miss("/user");
+        assertEquals(1, cache.getStats().get(endpoint).getHits());
+        assertEquals(1, cache.getStats().get(endpoint).getRevalidations());
+        assertEquals(0, cache.getStats().get(endpoint).getMisses());
+        assertEquals(1, cache.getStats().get("/user").getMisses());
+    }
+}
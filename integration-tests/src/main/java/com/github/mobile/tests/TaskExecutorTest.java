@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests;
+
+import static com.github.mobile.TaskExecutor.Lane.DISK;
+import static com.github.mobile.TaskExecutor.PRIORITY_DEFAULT;
+import static com.github.mobile.TaskExecutor.PRIORITY_HIGH;
+import static com.github.mobile.TaskExecutor.PRIORITY_LOW;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests of {@link TaskExecutor}
+ */
+public class TaskExecutorTest extends AndroidTestCase {
+
+    private final TaskExecutor executors = new TaskExecutor();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<String> order = Collections
+            .synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        super.tearDown();
+    }
+
+    /**
+     * Occupy every thread of the disk lane until released
+     *
+     * @param owner
+     * @throws InterruptedException
+     */
+    private void block(final Object owner) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(DISK.getThreads());
+        Executor executor = executors.getExecutor(DISK, PRIORITY_DEFAULT,
+                owner);
+        for (int i = 0; i < DISK.getThreads(); i++)
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        order.add("interrupted");
+                    }
+                }
+            });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private Runnable record(final String name, final CountDownLatch done) {
+        return new Runnable() {
+
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    /**
+     * Verify queued work runs in priority order
+     *
+     * @throws Exception
+     */
+    public void testPriorityOrder() throws Exception {
+        block(null);
+        CountDownLatch done = new CountDownLatch(3);
+        executors.getExecutor(DISK, PRIORITY_LOW, null).execute(
+                record("low", done));
+        executors.getExecutor(DISK).execute(record("default", done));
+        executors.getExecutor(DISK, PRIORITY_HIGH, null).execute(
+                record("high", done));
+        Stats stats = executors.getStats(DISK);
+        assertEquals(3, stats.getQueued());
+        assertEquals(DISK.getThreads(), stats.getActive());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("high", order.get(0));
+        assertEquals("default", order.get(1));
+        assertEquals("low", order.get(2));
+        assertEquals(3, stats.getMaxQueued());
+    }
+
+    /**
+     * Verify cancelling an owner removes its queued work and interrupts its
+     * running work
+     *
+     * @throws Exception
+     */
+    public void testCancelOwner() throws Exception {
+        Object owner = new Object();
+        block(owner);
+        CountDownLatch done = new CountDownLatch(1);
+        executors.getExecutor(DISK, PRIORITY_DEFAULT, owner).execute(
+                record("owned", done));
+
+        assertEquals(DISK.getThreads() + 1, executors.cancel(owner));
+        assertFalse(done.await(500, TimeUnit.MILLISECONDS));
+        assertFalse(order.contains("owned"));
+        assertEquals(DISK.getThreads(),
+                Collections.frequency(order, "interrupted"));
+        assertEquals(1, executors.getStats(DISK).getCancelled());
+        assertEquals(0, executors.cancel(owner));
+    }
+
+    /**
+     * Verify a serial executor runs work one at a time in submission order
+     *
+     * @throws Exception
+     */
+    public void testSerialExecutor() throws Exception {
+        Executor serial = executors.getSerialExecutor(DISK, PRIORITY_DEFAULT);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++)
+            serial.execute(record(Integer.toString(i), done));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++)
+            assertEquals(Integer.toString(i), order.get(i));
+    }
+}
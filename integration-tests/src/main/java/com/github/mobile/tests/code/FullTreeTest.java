@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.code;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.mobile.DefaultClient;
+import com.github.mobile.core.code.FullTree;
+import com.github.mobile.core.code.FullTree.Folder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.eclipse.egit.github.core.Reference;
+import org.eclipse.egit.github.core.Tree;
+import org.eclipse.egit.github.core.TreeEntry;
+import org.eclipse.egit.github.core.TypedResource;
+import org.eclipse.egit.github.core.client.GsonUtils;
+
+/**
+ * Unit tests and memory benchmark of building a {@link FullTree}
+ */
+public class FullTreeTest extends AndroidTestCase {
+
+    private static final String TAG = "FullTreeTest";
+
+    /**
+     * Number of entries in the benchmark fixture
+     */
+    private static final int ENTRIES = 100000;
+
+    /**
+     * Number of files in each folder of the benchmark fixture
+     */
+    private static final int FILES_PER_FOLDER = 99;
+
+    private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+
+    private static final String URL = "https://api.github.com/repos/owner/repo/git/";
+
+    private File fixture;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (fixture != null)
+            fixture.delete();
+
+        super.tearDown();
+    }
+
+    private static Reference createReference() {
+        Reference ref = new Reference();
+        ref.setRef("refs/heads/master");
+        TypedResource commit = new TypedResource();
+        commit.setSha(SHA);
+        ref.setObject(commit);
+        return ref;
+    }
+
+    private static void writeEntry(final Writer writer, final String path,
+            final String type, final boolean first) throws IOException {
+        if (!first)
+            writer.write(',');
+        writer.write("{\"path\":\"");
+        writer.write(path);
+        writer.write("\",\"mode\":\"100644\",\"type\":\"");
+        writer.write(type);
+        writer.write("\",\"sha\":\"");
+        writer.write(SHA);
+        writer.write("\",\"size\":1024,\"url\":\"");
+        writer.write(URL);
+        writer.write(type);
+        writer.write("s/");
+        writer.write(SHA);
+        writer.write("\"}");
+    }
+
+    /**
+     * Write a recursive tree listing of folders each containing files
+     *
+     * @param writer
+     * @param entries
+     * @throws IOException
+     */
+    private static void writeTree(final Writer writer, final int entries)
+            throws IOException {
+        writer.write("{\"sha\":\"");
+        writer.write(SHA);
+        writer.write("\",\"url\":\"");
+        writer.write(URL);
+        writer.write("trees/");
+        writer.write(SHA);
+        writer.write("\",\"tree\":[");
+        int written = 0;
+        for (int folder = 0; written < entries; folder++) {
+            String folderPath = "folder" + folder;
+            writeEntry(writer, folderPath, "tree", written++ == 0);
+            int files = Math.min(FILES_PER_FOLDER, entries - written);
+            for (int file = 0; file < files; file++)
+                writeEntry(writer, folderPath + "/file" + file + ".txt",
+                        "blob", false);
+            written += files;
+        }
+        writer.write("]}");
+    }
+
+    private Reader openFixture() throws IOException {
+        if (fixture == null) {
+            fixture = new File(getContext().getCacheDir(), "tree.json");
+            Writer writer = new BufferedWriter(new FileWriter(fixture));
+            try {
+                writeTree(writer, ENTRIES);
+            } finally {
+                writer.close();
+            }
+        }
+        return new BufferedReader(new FileReader(fixture), 8192);
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int count(final Folder folder) {
+        int count = folder.files.size() + folder.folders.size();
+        for (Folder child : folder.folders.values())
+            count += count(child);
+        return count;
+    }
+
+    /**
+     * Verify a streamed tree has the same structure as a parsed tree
+     *
+     * @throws Exception
+     */
+    public void testStreamedTree() throws Exception {
+        StringWriter json = new StringWriter();
+        writeTree(json, 250);
+
+        Tree parsed = GsonUtils.getGson().fromJson(json.toString(),
+                Tree.class);
+        FullTree expected = new FullTree(parsed, createReference());
+
+        FullTree streamed = new FullTree(SHA, createReference());
+        assertEquals(250, DefaultClient.parse(
+                new StringReader(json.toString()), "tree", TreeEntry.class,
+                streamed));
+
+        assertEquals(SHA, streamed.tree.getSha());
+        assertEquals("master", streamed.branch);
+        assertEquals(count(expected.root), count(streamed.root));
+        assertEquals(expected.root.folders.keySet(),
+                streamed.root.folders.keySet());
+        Folder folder = streamed.root.folders.get("folder1");
+        assertEquals(FILES_PER_FOLDER, folder.files.size());
+        assertEquals("folder1/file0.txt",
+                folder.files.get("file0.txt").entry.getPath());
+        assertNull(folder.files.get("file0.txt").entry.getUrl());
+    }
+
+    /**
+     * Benchmark the live heap needed to build a tree with a large number of
+     * entries from a fully parsed response and from a streamed response
+     *
+     * @throws Exception
+     */
+    public void testMemoryBenchmark() throws Exception {
+        long baseline = getUsedMemory();
+        Reader reader = openFixture();
+        Tree parsed;
+        FullTree tree;
+        try {
+            parsed = GsonUtils.getGson().fromJson(reader, Tree.class);
+            tree = new FullTree(parsed, createReference());
+        } finally {
+            reader.close();
+        }
+        // Measure while the parsed response is still referenced, as it is
+        // when the tree is built from it
+        long bulkPeak = getUsedMemory() - baseline;
+        assertEquals(ENTRIES, parsed.getTree().size());
+        parsed = null;
+        tree = null;
+
+        baseline = getUsedMemory();
+        reader = openFixture();
+        try {
+            tree = new FullTree(SHA, createReference());
+            assertEquals(ENTRIES, DefaultClient.parse(reader, "tree",
+                    TreeEntry.class, tree));
+        } finally {
+            reader.close();
+        }
+        long streamedPeak = getUsedMemory() - baseline;
+        assertEquals(ENTRIES, count(tree.root));
+
+        Log.i(TAG, ENTRIES + " entries, parsed peak: " + bulkPeak / 1024
+                + " KB, streamed peak: " + streamedPeak / 1024 + " KB");
+        assertTrue(streamedPeak < bulkPeak);
+    }
+}
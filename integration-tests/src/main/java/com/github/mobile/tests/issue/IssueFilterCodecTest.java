@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.issue;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.mobile.RequestReader;
+import com.github.mobile.RequestWriter;
+import com.github.mobile.core.issue.IssueFilter;
+import com.github.mobile.core.issue.IssueFilterCodec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.egit.github.core.Label;
+import org.eclipse.egit.github.core.Milestone;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Unit tests of {@link IssueFilterCodec}
+ */
+public class IssueFilterCodecTest extends AndroidTestCase {
+
+    private static final String TAG = "IssueFilterCodecTest";
+
+    private static final int VERSION = 4;
+
+    private static final int ITERATIONS = 50;
+
+    private File file;
+
+    private final IssueFilterCodec codec = new IssueFilterCodec();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        file = new File(getContext().getCacheDir(), "filters-test.ser");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+
+        super.tearDown();
+    }
+
+    private Collection<IssueFilter> createFilters(final int count) {
+        Collection<IssueFilter> filters = new HashSet<IssueFilter>();
+        for (int i = 0; i < count; i++) {
+            User owner = new User().setId(i).setLogin("owner" + i);
+            Repository repo = new Repository();
+            repo.setId(i);
+            repo.setName("repo" + i);
+            repo.setOwner(owner);
+            IssueFilter filter = new IssueFilter(repo);
+            filter.addLabel(new Label().setName("bug").setColor("ff0000"));
+            filter.setMilestone(new Milestone().setNumber(i).setTitle(
+                    "v" + i));
+            filter.setAssignee(owner);
+            filter.setOpen(i % 2 == 0);
+            filters.add(filter);
+        }
+        return filters;
+    }
+
+    private void writeSerialized(final Object data) throws Exception {
+        ObjectOutputStream output = new ObjectOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file), 8192));
+        try {
+            output.writeInt(VERSION);
+            output.writeObject(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Verify filters are read back equal to how they were written
+     */
+    public void testRoundTrip() {
+        Collection<IssueFilter> filters = createFilters(10);
+        assertNotNull(new RequestWriter(file, VERSION).write(filters, codec));
+        assertEquals(filters, new RequestReader(file, VERSION).read(codec));
+    }
+
+    /**
+     * Verify files written with a different version are discarded
+     */
+    public void testVersionMismatch() {
+        new RequestWriter(file, VERSION).write(createFilters(1), codec);
+        assertNull(new RequestReader(file, VERSION + 1).read(codec));
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Verify files in the previous serialized format are still read
+     *
+     * @throws Exception
+     */
+    public void testReadSerialized() throws Exception {
+        Collection<IssueFilter> filters = createFilters(3);
+        writeSerialized(filters);
+        assertEquals(filters, new RequestReader(file, VERSION).read(codec));
+    }
+
+    /**
+     * Compare time and size of the binary format against serialization
+     *
+     * @throws Exception
+     */
+    public void testFormatBenchmark() throws Exception {
+        Collection<IssueFilter> filters = createFilters(100);
+        RequestReader reader = new RequestReader(file, VERSION);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            writeSerialized(filters);
+        long serializedWrite = System.nanoTime() - start;
+        long serializedSize = file.length();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            reader.read(codec);
+        long serializedRead = System.nanoTime() - start;
+
+        RequestWriter writer = new RequestWriter(file, VERSION);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            writer.write(filters, codec);
+        long binaryWrite = System.nanoTime() - start;
+        long binarySize = file.length();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            reader.read(codec);
+        long binaryRead = System.nanoTime() - start;
+
+        Log.d(TAG, "Serialized: " + serializedSize + " bytes, write "
+                + serializedWrite / ITERATIONS / 1000 + " us, read "
+                + serializedRead / ITERATIONS / 1000 + " us");
+        Log.d(TAG, "Binary: " + binarySize + " bytes, write " + binaryWrite
+                / ITERATIONS / 1000 + " us, read " + binaryRead / ITERATIONS
+                / 1000 + " us");
+        assertTrue(binarySize < serializedSize);
+    }
+}
@@ -17,8 +17,12 @@ package com.github.mobile.tests.issue;
 
 import android.test.AndroidTestCase;
 
+import com.github.mobile.core.issue.FullIssue;
 import com.github.mobile.core.issue.IssueStore;
 
+import java.util.Collections;
+
+import org.eclipse.egit.github.core.Comment;
 import org.eclipse.egit.github.core.Repository;
 import org.eclipse.egit.github.core.RepositoryIssue;
 import org.eclipse.egit.github.core.User;
@@ -53,4 +57,26 @@ public class IssueStoreTest extends AndroidTestCase {
         assertEquals(issue2.getBody(), issue.getBody());
         assertSame(issue, store.getIssue(repo, 1));
     }
+
+    /**
+     * Verify issues stored with comments are found by repository and number
+     */
+    public void testFullIssue() {
+        IssueStore store = new IssueStore(new IssueService(),
+                new PullRequestService());
+        Repository repo = new Repository();
+        repo.setName("name");
+        repo.setOwner(new User().setLogin("owner"));
+
+        assertNull(store.getFullIssue(repo, 1));
+
+        RepositoryIssue issue = new RepositoryIssue();
+        issue.setRepository(repo).setNumber(1);
+        FullIssue full = new FullIssue(issue,
+                Collections.singletonList(new Comment().setBody("comment")));
+        assertSame(full, store.addFullIssue(repo, full));
+        assertSame(full, store.getFullIssue(repo, 1));
+        assertNull(store.getFullIssue(repo, 2));
+        assertTrue(full.getLoadedAt() <= System.currentTimeMillis());
+    }
 }
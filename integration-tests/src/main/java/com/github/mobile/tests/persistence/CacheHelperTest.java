@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.persistence;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.DefaultClient;
+import com.github.mobile.persistence.CacheHelper;
+import com.github.mobile.persistence.OrganizationRepositories;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Unit tests of the schema created by {@link CacheHelper}
+ */
+public class CacheHelperTest extends AndroidTestCase {
+
+    private static final String DATABASE = "cache-test.db";
+
+    private SQLiteDatabase db;
+
+    private CacheHelper helper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        db = getContext().openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE,
+                null);
+        helper = new CacheHelper(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        getContext().deleteDatabase(DATABASE);
+
+        super.tearDown();
+    }
+
+    private String explain(final String sql, final String... args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(detail)).append('\n');
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    private void assertIndexed(final String plan) {
+        for (String step : plan.split("\n"))
+            assertTrue(plan, step.contains("INDEX")
+                    || step.contains("PRIMARY KEY"));
+    }
+
+    private int count(String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Repository createRepo(long id, User owner, long updatedAt) {
+        Repository repo = new Repository();
+        repo.setId(id);
+        repo.setName("repo" + id);
+        repo.setOwner(owner);
+        repo.setUpdatedAt(new Date(updatedAt));
+        return repo;
+    }
+
+    /**
+     * Verify repositories of an organization are looked up by index
+     */
+    public void testReposByOrgUsesIndex() {
+        helper.onCreate(db);
+
+        assertIndexed(explain(
+                "SELECT repos.repoId, users.name FROM repos JOIN users ON (repos.ownerId = users.id) WHERE repos.orgId=?",
+                "1"));
+    }
+
+    /**
+     * Verify owner and updated lookups use indexes
+     */
+    public void testOwnerAndUpdatedUseIndex() {
+        helper.onCreate(db);
+
+        assertIndexed(explain("SELECT repoId FROM repos WHERE ownerId=?", "1"));
+        assertIndexed(explain("SELECT repoId FROM repos WHERE updatedAt>?",
+                "1"));
+    }
+
+    /**
+     * Verify upgrading from the last released schema preserves cached rows
+     */
+    public void testUpgradePreservesRepos() {
+        db.execSQL("CREATE TABLE orgs (id INTEGER PRIMARY KEY);");
+        db.execSQL("CREATE TABLE users (id INTEGER PRIMARY KEY, name TEXT, avatarurl TEXT);");
+        db.execSQL("CREATE TABLE repos (id INTEGER PRIMARY KEY, repoId INTEGER, orgId INTEGER, name TEXT, ownerId INTEGER, private INTEGER, fork INTEGER, description TEXT, forks INTEGER, watchers INTEGER, language TEXT, hasIssues INTEGER, mirrorUrl TEXT);");
+        db.execSQL("INSERT INTO users (id, name) VALUES (5, 'owner')");
+        db.execSQL("INSERT INTO repos (repoId, orgId, name, ownerId) VALUES (10, 1, 'repo', 5)");
+
+        helper.onUpgrade(db, 8, 10);
+
+        assertEquals(1, count("repos"));
+        assertEquals(1, count("users"));
+        assertEquals(0, count("fetched"));
+        assertIndexed(explain("SELECT repoId FROM repos WHERE orgId=?", "1"));
+    }
+
+    /**
+     * Verify storing repositories only rewrites changed rows and removes
+     * repositories no longer present
+     */
+    public void testDiffStore() {
+        helper.onCreate(db);
+
+        User org = new User().setId(1).setLogin("org");
+        User owner = new User().setId(2).setLogin("owner");
+        OrganizationRepositories resource = new OrganizationRepositories(org,
+                new DefaultClient(), null);
+
+        List<Repository> repos = new ArrayList<Repository>();
+        repos.add(createRepo(10, owner, 1000));
+        repos.add(createRepo(11, owner, 1000));
+        assertTrue(resource.store(db, repos));
+        assertEquals(2, count("repos"));
+        assertFalse(resource.store(db, repos));
+
+        repos.remove(1);
+        repos.add(createRepo(12, owner, 2000));
+        assertTrue(resource.store(db, repos));
+
+        Cursor cursor = db.rawQuery(
+                "SELECT repoId FROM repos WHERE orgId=1 ORDER BY repoId", null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(10, cursor.getLong(0));
+            cursor.moveToNext();
+            assertEquals(12, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, count("users"));
+
+        // Changed repositories are rewritten even if not updated
+        repos.get(0).setName("renamed");
+        repos.get(1).setLanguage("Java");
+        resource.store(db, repos);
+        cursor = db.rawQuery(
+                "SELECT name, language FROM repos WHERE orgId=1 ORDER BY repoId",
+                null);
+        try {
+            cursor.moveToFirst();
+            assertEquals("renamed", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("Java", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.persistence;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.mobile.DefaultClient;
+import com.github.mobile.persistence.CacheHelper;
+import com.github.mobile.persistence.CursorList;
+import com.github.mobile.persistence.OrganizationRepositories;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Unit tests and benchmark of storing {@link OrganizationRepositories}
+ */
+public class OrganizationRepositoriesTest extends AndroidTestCase {
+
+    private static final String TAG = "OrganizationRepositoriesTest";
+
+    private static final String DATABASE = "repos-test.db";
+
+    private static final int REPOS = 5000;
+
+    private static final int OWNERS = 50;
+
+    private SQLiteDatabase db;
+
+    private User org;
+
+    private List<Repository> repos;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        db = getContext().openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE,
+                null);
+        new CacheHelper(getContext()).onCreate(db);
+
+        org = new User().setId(1).setLogin("org");
+        repos = new ArrayList<Repository>(REPOS);
+        for (int i = 0; i < REPOS; i++) {
+            Repository repo = new Repository();
+            repo.setId(i + 1);
+            repo.setName("repo" + i);
+            repo.setDescription("Description of repository " + i);
+            repo.setLanguage(i % 2 == 0 ? "Java" : null);
+            repo.setWatchers(i);
+            repo.setOwner(new User().setId(i % OWNERS + 1)
+                    .setLogin("owner" + i % OWNERS)
+                    .setAvatarUrl("https://avatars/" + i % OWNERS));
+            repos.add(repo);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        getContext().deleteDatabase(DATABASE);
+
+        super.tearDown();
+    }
+
+    private OrganizationRepositories createResource() {
+        return new OrganizationRepositories(org, new DefaultClient(), null);
+    }
+
+    private int count(String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store repositories the way they were stored prior to using compiled
+     * statements, used as the benchmark baseline
+     */
+    private void storeWithContentValues() {
+        db.delete("repos", "orgId=?",
+                new String[] { Integer.toString(org.getId()) });
+        ContentValues values = new ContentValues(12);
+        for (Repository repo : repos) {
+            values.clear();
+
+            User owner = repo.getOwner();
+            values.put("repoId", repo.getId());
+            values.put("name", repo.getName());
+            values.put("orgId", org.getId());
+            values.put("ownerId", owner.getId());
+            values.put("private", repo.isPrivate() ? 1 : 0);
+            values.put("fork", repo.isFork() ? 1 : 0);
+            values.put("description", repo.getDescription());
+            values.put("forks", repo.getForks());
+            values.put("watchers", repo.getWatchers());
+            values.put("language", repo.getLanguage());
+            values.put("hasIssues", repo.isHasIssues() ? 1 : 0);
+            values.put("mirrorUrl", repo.getMirrorUrl());
+            db.replace("repos", null, values);
+
+            values.clear();
+
+            values.put("id", owner.getId());
+            values.put("name", owner.getLogin());
+            values.put("avatarurl", owner.getAvatarUrl());
+            db.replace("users", null, values);
+        }
+    }
+
+    private long timeBaseline() {
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            storeWithContentValues();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long timeStore() {
+        OrganizationRepositories resource = createResource();
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            resource.store(db, repos);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return nanos > 0 ? REPOS * 1000000000L / nanos : 0;
+    }
+
+    /**
+     * Verify stored repositories and owners can be loaded back
+     */
+    public void testStoreAndLoad() {
+        OrganizationRepositories resource = createResource();
+        timeStore();
+        assertEquals(REPOS, count("repos"));
+        assertEquals(OWNERS, count("users"));
+
+        Cursor cursor = resource.getCursor(db);
+        try {
+            assertEquals(REPOS, cursor.getCount());
+            cursor.moveToFirst();
+            Repository loaded = resource.loadFrom(cursor);
+            assertNotNull(loaded.getName());
+            assertNotNull(loaded.getOwner().getLogin());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Benchmark storing a large organization's repositories using the
+     * baseline approach and the compiled statements now used
+     */
+    public void testStoreBenchmark() {
+        // Warm up both code paths
+        timeBaseline();
+        timeStore();
+
+        long baseline = timeBaseline();
+        long compiled = timeStore();
+        Log.i(TAG, REPOS + " repositories, ContentValues: "
+                + rowsPerSecond(baseline) + " rows/sec, compiled: "
+                + rowsPerSecond(compiled) + " rows/sec");
+        assertEquals(REPOS, count("repos"));
+    }
+
+    /**
+     * Verify sorted cursor puts recent repositories first followed by the
+     * rest sorted by name with a section per first character
+     */
+    public void testSortedWindow() {
+        OrganizationRepositories resource = createResource();
+        timeStore();
+
+        List<Long> recent = new ArrayList<Long>();
+        recent.add(repos.get(REPOS - 1).getId());
+        CursorList<Repository> sorted = new CursorList<Repository>(
+                resource.getSortedCursor(db, recent, null), resource,
+                OrganizationRepositories.COLUMN_SECTION);
+        try {
+            assertEquals(REPOS, sorted.size());
+            assertEquals(recent.get(0).longValue(), sorted.get(0).getId());
+            assertEquals("", sorted.getSection(0));
+            assertEquals("R", sorted.getSection(1));
+            for (int i = 2; i < REPOS; i++)
+                assertTrue(sorted.get(i - 1).getName()
+                        .compareToIgnoreCase(sorted.get(i).getName()) <= 0);
+        } finally {
+            sorted.close();
+        }
+    }
+
+    /**
+     * Benchmark showing the first screen of repositories when every row is
+     * loaded compared to only loading the rows displayed
+     */
+    public void testWindowBenchmark() {
+        OrganizationRepositories resource = createResource();
+        timeStore();
+        List<Long> recent = Collections.emptyList();
+
+        long start = System.nanoTime();
+        List<Repository> all = new ArrayList<Repository>();
+        Cursor cursor = resource.getCursor(db);
+        try {
+            while (cursor.moveToNext())
+                all.add(resource.loadFrom(cursor));
+        } finally {
+            cursor.close();
+        }
+        long full = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        CursorList<Repository> window = new CursorList<Repository>(
+                resource.getSortedCursor(db, recent, null), resource,
+                OrganizationRepositories.COLUMN_SECTION);
+        try {
+            for (int i = 0; i < 15; i++)
+                window.get(i);
+            long windowed = System.nanoTime() - start;
+            Log.i(TAG, REPOS + " repositories, first screen loading all: "
+                    + full / 1000000 + " ms, windowed: " + windowed / 1000000
+                    + " ms");
+        } finally {
+            window.close();
+        }
+        assertEquals(REPOS, all.size());
+    }
+
+    /**
+     * Verify filtered cursor only includes repositories matching every word
+     * typed as a prefix
+     */
+    public void testFilteredWindow() {
+        OrganizationRepositories resource = createResource();
+        timeStore();
+        List<Long> recent = Collections.emptyList();
+
+        long start = System.nanoTime();
+        CursorList<Repository> filtered = new CursorList<Repository>(
+                resource.getSortedCursor(db, recent, "repo499"), resource,
+                OrganizationRepositories.COLUMN_SECTION);
+        try {
+            // repo499 and repo4990 through repo4999
+            assertEquals(11, filtered.size());
+            assertEquals("repo499", filtered.get(0).getName());
+            Log.i(TAG, REPOS + " repositories, filtered in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } finally {
+            filtered.close();
+        }
+
+        filtered = new CursorList<Repository>(resource.getSortedCursor(db,
+                recent, "OWNER8 java"), resource,
+                OrganizationRepositories.COLUMN_SECTION);
+        try {
+            assertEquals(REPOS / OWNERS, filtered.size());
+            for (Repository repo : filtered) {
+                assertEquals("owner8", repo.getOwner().getLogin());
+                assertEquals("Java", repo.getLanguage());
+            }
+        } finally {
+            filtered.close();
+        }
+    }
+
+    /**
+     * Verify index follows renamed and removed repositories
+     */
+    public void testSearchIndexUpdated() {
+        OrganizationRepositories resource = createResource();
+        timeStore();
+
+        repos.get(0).setName("renamed");
+        repos.remove(1);
+        resource.store(db, repos);
+
+        Cursor cursor = OrganizationRepositories.search(db, "rena", 10);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(repos.get(0).getId(), cursor.getLong(0));
+            assertEquals("owner0", cursor.getString(1));
+            assertEquals("renamed", cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = OrganizationRepositories.search(db, "repo0", 10);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        cursor = OrganizationRepositories.search(db, "repo1", 10000);
+        try {
+            // repo1 itself was removed
+            assertEquals(1110, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(REPOS - 1, count("repos_fts"));
+    }
+
+    /**
+     * Verify text typed is converted to a prefix query
+     */
+    public void testMatchQuery() {
+        assertNull(OrganizationRepositories.toMatchQuery(null));
+        assertNull(OrganizationRepositories.toMatchQuery(" -* "));
+        assertEquals("git*", OrganizationRepositories.toMatchQuery("git"));
+        assertEquals("github* android*",
+                OrganizationRepositories.toMatchQuery("GitHub/android"));
+        assertEquals("a* b*", OrganizationRepositories.toMatchQuery("a\"b"));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.persistence;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.core.issue.IssueFilter;
+import com.github.mobile.persistence.CacheHelper;
+import com.github.mobile.persistence.RepositoryIssues;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.Label;
+import org.eclipse.egit.github.core.Milestone;
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Unit tests of {@link RepositoryIssues}
+ */
+public class RepositoryIssuesTest extends AndroidTestCase {
+
+    private static final String DATABASE = "issues-test.db";
+
+    private SQLiteDatabase db;
+
+    private Repository repo;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        db = getContext().openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE,
+                null);
+        new CacheHelper(getContext()).onCreate(db);
+
+        repo = new Repository();
+        repo.setId(1);
+        repo.setName("repo");
+        repo.setOwner(new User().setId(1).setLogin("owner"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        getContext().deleteDatabase(DATABASE);
+
+        super.tearDown();
+    }
+
+    private Issue createIssue(int number, String state, long updatedAt) {
+        Issue issue = new Issue();
+        issue.setId(number * 10);
+        issue.setNumber(number);
+        issue.setTitle("Issue " + number);
+        issue.setState(state);
+        issue.setCreatedAt(new Date(number * 1000L));
+        issue.setUpdatedAt(new Date(updatedAt));
+        issue.setUser(new User().setId(2).setLogin("reporter"));
+        return issue;
+    }
+
+    private List<Issue> load(RepositoryIssues resource) {
+        List<Issue> issues = new ArrayList<Issue>();
+        Cursor cursor = resource.getCursor(db);
+        try {
+            while (cursor.moveToNext())
+                issues.add(resource.loadFrom(cursor));
+        } finally {
+            cursor.close();
+        }
+        return issues;
+    }
+
+    /**
+     * Verify stored issues are loaded newest first and filtered by state,
+     * milestone, assignee and labels
+     */
+    public void testFilter() {
+        List<Issue> issues = new ArrayList<Issue>();
+        issues.add(createIssue(1, "open", 1000));
+        Issue labeled = createIssue(2, "open", 2000);
+        labeled.setLabels(Collections.singletonList(new Label().setName(
+                "bug_fix").setColor("ff0000")));
+        labeled.setMilestone(new Milestone().setNumber(3).setTitle("v1"));
+        labeled.setAssignee(new User().setId(4).setLogin("assignee"));
+        issues.add(labeled);
+        issues.add(createIssue(3, "closed", 3000));
+
+        IssueFilter filter = new IssueFilter(repo);
+        RepositoryIssues resource = new RepositoryIssues(repo, filter, null);
+        resource.store(db, issues);
+
+        List<Issue> open = load(resource);
+        assertEquals(2, open.size());
+        assertEquals(2, open.get(0).getNumber());
+        assertEquals("bug_fix", open.get(0).getLabels().get(0).getName());
+        assertEquals("assignee", open.get(0).getAssignee().getLogin());
+        assertEquals("v1", open.get(0).getMilestone().getTitle());
+        assertNull(open.get(1).getAssignee());
+
+        filter.addLabel(new Label().setName("bug_fix"));
+        assertEquals(1, load(new RepositoryIssues(repo, filter, null)).size());
+        filter.setLabels(Collections.singletonList(new Label()
+                .setName("bugxfix")));
+        assertEquals(0, load(new RepositoryIssues(repo, filter, null)).size());
+
+        filter = new IssueFilter(repo).setOpen(false);
+        assertEquals(3, load(new RepositoryIssues(repo, filter, null)).get(0)
+                .getNumber());
+    }
+
+    /**
+     * Verify only the first store and syncs advance the synced time
+     */
+    public void testSynced() {
+        RepositoryIssues resource = new RepositoryIssues(repo,
+                new IssueFilter(repo), null);
+        assertNull(resource.getSynced(db));
+
+        assertTrue(resource.store(db, Collections.singletonList(createIssue(
+                1, "open", 1000))));
+        assertEquals(1000, resource.getSynced(db).getTime());
+        assertFalse(resource.store(db, Collections
+                .singletonList(createIssue(1, "open", 1000))));
+
+        resource.store(db, Collections.singletonList(createIssue(2, "open",
+                2000)));
+        assertEquals(1000, resource.getSynced(db).getTime());
+
+        resource.setSince(new Date(1000));
+        resource.store(db, Collections.singletonList(createIssue(1, "closed",
+                3000)));
+        assertEquals(3000, resource.getSynced(db).getTime());
+        assertEquals(1, load(resource).size());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.persistence;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.RequestReader;
+import com.github.mobile.RequestWriter;
+import com.github.mobile.persistence.SnapshotCodec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Repository;
+import org.eclipse.egit.github.core.RepositoryIssue;
+import org.eclipse.egit.github.core.User;
+import org.eclipse.egit.github.core.event.Event;
+import org.eclipse.egit.github.core.event.IssuesPayload;
+
+/**
+ * Unit tests of {@link SnapshotCodec}
+ */
+public class SnapshotCodecTest extends AndroidTestCase {
+
+    private static final int VERSION = 4;
+
+    private File file;
+
+    private final SnapshotCodec codec = new SnapshotCodec();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        file = new File(getContext().getCacheDir(), "snapshot-test.snap");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * Verify items of different types are read back with their fields
+     */
+    public void testRoundTrip() {
+        User user = new User().setId(1).setLogin("user");
+        Repository repo = new Repository();
+        repo.setName("repo");
+        repo.setOwner(user);
+        RepositoryIssue issue = new RepositoryIssue();
+        issue.setRepository(repo).setNumber(2).setTitle("title")
+                .setCreatedAt(new Date(1000));
+        IssuesPayload payload = new IssuesPayload();
+        payload.setAction("opened");
+        payload.setIssue(issue);
+        Event event = new Event().setType(Event.TYPE_ISSUES).setActor(user)
+                .setPayload(payload);
+
+        List<Object> items = new ArrayList<Object>();
+        items.add(user);
+        items.add(issue);
+        items.add(event);
+        assertNotNull(new RequestWriter(file, VERSION).write(items, codec));
+
+        List<Object> read = new RequestReader(file, VERSION).read(codec);
+        assertNotNull(read);
+        assertEquals(3, read.size());
+        assertEquals("user", ((User) read.get(0)).getLogin());
+        RepositoryIssue readIssue = (RepositoryIssue) read.get(1);
+        assertEquals(2, readIssue.getNumber());
+        assertEquals("repo", readIssue.getRepository().getName());
+        assertEquals(1000, readIssue.getCreatedAt().getTime());
+        Event readEvent = (Event) read.get(2);
+        assertEquals("user", readEvent.getActor().getLogin());
+        assertTrue(readEvent.getPayload() instanceof IssuesPayload);
+        assertEquals("title", ((IssuesPayload) readEvent.getPayload())
+                .getIssue().getTitle());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.persistence;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.persistence.CacheHelper;
+import com.github.mobile.persistence.WriteQueue;
+import com.google.inject.Provider;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.egit.github.core.Comment;
+import org.eclipse.egit.github.core.IRepositoryIdProvider;
+import org.eclipse.egit.github.core.Issue;
+import org.eclipse.egit.github.core.RepositoryId;
+import org.eclipse.egit.github.core.client.RequestError;
+import org.eclipse.egit.github.core.client.RequestException;
+import org.eclipse.egit.github.core.service.IssueService;
+import org.eclipse.egit.github.core.service.WatcherService;
+
+/**
+ * Unit tests of {@link WriteQueue}
+ */
+public class WriteQueueTest extends AndroidTestCase {
+
+    private static final String LOGIN = "write-queue-test";
+
+    private static final String DATABASE = "cache-" + LOGIN + ".db";
+
+    private final RepositoryId repo = new RepositoryId("owner", "repo");
+
+    private final List<String> applied = new ArrayList<String>();
+
+    private CacheHelper helper;
+
+    private WriteQueue queue;
+
+    private Date updatedAt;
+
+    private IOException failure;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        getContext().deleteDatabase(DATABASE);
+        getContext().openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE,
+                null).close();
+        helper = new CacheHelper(getContext(), LOGIN);
+
+        IssueService issues = new IssueService() {
+
+            @Override
+            public Issue getIssue(IRepositoryIdProvider repository, int number)
+                    throws IOException {
+                return new Issue().setNumber(number).setUpdatedAt(updatedAt);
+            }
+
+            @Override
+            public Issue editIssue(IRepositoryIdProvider repository,
+                    Issue issue) throws IOException {
+                check();
+                applied.add("edit " + issue.getTitle());
+                if (updatedAt != null)
+                    updatedAt = new Date(updatedAt.getTime() + 1000);
+                return issue.setUpdatedAt(updatedAt);
+            }
+
+            @Override
+            public Comment createComment(IRepositoryIdProvider repository,
+                    int issueNumber, String comment) throws IOException {
+                check();
+                applied.add("comment " + comment);
+                return new Comment().setBody(comment);
+            }
+        };
+        WatcherService watchers = new WatcherService() {
+
+            @Override
+            public void watch(IRepositoryIdProvider repository)
+                    throws IOException {
+                check();
+                applied.add("star " + repository.generateId());
+            }
+        };
+        queue = new WriteQueue(getContext(), new Provider<CacheHelper>() {
+
+            public CacheHelper get() {
+                return helper;
+            }
+        }, null, issues, watchers) {
+
+            @Override
+            protected void pendingChanged(boolean pending) {
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        helper.close();
+        getContext().deleteDatabase(DATABASE);
+
+        super.tearDown();
+    }
+
+    private void check() throws IOException {
+        if (failure != null)
+            throw failure;
+    }
+
+    private Issue edit(String title) {
+        return new Issue().setNumber(1).setTitle(title);
+    }
+
+    /**
+     * Verify writes are replayed in the order they were queued
+     *
+     * @throws Exception
+     */
+    public void testReplayInOrder() throws Exception {
+        assertFalse(queue.hasWrites());
+        queue.editIssue(repo, edit("a"), null);
+        queue.createComment(repo, 1, "b");
+        queue.star(repo, true);
+        assertTrue(queue.hasWrites());
+        assertEquals(3, queue.getWrites().size());
+
+        assertEquals(0, queue.replay());
+        assertEquals(3, applied.size());
+        assertEquals("edit a", applied.get(0));
+        assertEquals("comment b", applied.get(1));
+        assertEquals("star owner/repo", applied.get(2));
+        assertFalse(queue.hasWrites());
+    }
+
+    /**
+     * Verify an edit of an issue updated on the server after the edit was made
+     * is dropped instead of being replayed
+     *
+     * @throws Exception
+     */
+    public void testConflict() throws Exception {
+        queue.editIssue(repo, edit("stale"), new Date(1000));
+        queue.editIssue(repo, edit("current"), new Date(2000));
+        updatedAt = new Date(2000);
+
+        assertEquals(1, queue.replay());
+        assertEquals(1, applied.size());
+        assertEquals("edit current", applied.get(0));
+        assertFalse(queue.hasWrites());
+        assertTrue(queue.getWrites().isEmpty());
+    }
+
+    /**
+     * Verify an edit queued after another edit of the same issue is not taken
+     * as conflicting with the change the earlier edit made on the server
+     *
+     * @throws Exception
+     */
+    public void testSuccessiveEdits() throws Exception {
+        queue.editIssue(repo, edit("first"), new Date(1000));
+        queue.editIssue(repo, edit("second"), new Date(1000));
+        updatedAt = new Date(1000);
+
+        assertEquals(0, queue.replay());
+        assertEquals(2, applied.size());
+        assertEquals("edit first", applied.get(0));
+        assertEquals("edit second", applied.get(1));
+        assertFalse(queue.hasWrites());
+    }
+
+    /**
+     * Verify only failures to reach the server are taken as being offline
+     */
+    public void testOffline() {
+        assertTrue(WriteQueue.isOffline(new UnknownHostException()));
+        assertTrue(WriteQueue.isOffline(new IOException(
+                new UnknownHostException())));
+        assertFalse(WriteQueue.isOffline(new SocketTimeoutException()));
+        assertFalse(WriteQueue.isOffline(new RequestException(
+                new RequestError(), 500)));
+    }
+
+    /**
+     * Verify writes rejected by the server are dropped and replaying stops at
+     * the first write that fails because of the network or a server error
+     *
+     * @throws Exception
+     */
+    public void testFailures() throws Exception {
+        queue.createComment(repo, 1, "rejected");
+        failure = new RequestException(new RequestError(), 422);
+        assertEquals(0, queue.replay());
+        assertFalse(queue.hasWrites());
+
+        queue.createComment(repo, 1, "first");
+        queue.createComment(repo, 1, "second");
+        failure = new UnknownHostException("offline");
+        try {
+            queue.replay();
+            fail("Exception not thrown");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(2, queue.getWrites().size());
+
+        failure = new RequestException(new RequestError(), 503);
+        try {
+            queue.replay();
+            fail("Exception not thrown");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(2, queue.getWrites().size());
+
+        failure = null;
+        queue.replay();
+        assertEquals(2, applied.size());
+        assertEquals("comment first", applied.get(0));
+        assertEquals("comment second", applied.get(1));
+    }
+}
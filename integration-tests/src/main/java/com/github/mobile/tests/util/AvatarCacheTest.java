@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.util;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.test.AndroidTestCase;
+
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.util.AvatarCache;
+import com.github.mobile.util.CacheStats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests of {@link AvatarCache}
+ */
+public class AvatarCacheTest extends AndroidTestCase {
+
+    /**
+     * Bytes used by each 10x10 avatar held in memory
+     */
+    private static final int AVATAR_BYTES = 10 * 10 * 4;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        dir = new File(getContext().getCacheDir(), "avatar-cache-test");
+        delete(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+
+        super.tearDown();
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private BitmapDrawable createAvatar() {
+        return new BitmapDrawable(getContext().getResources(),
+                Bitmap.createBitmap(10, 10, ARGB_8888));
+    }
+
+    private File createFile(final String key, final String name,
+            final int length) throws IOException {
+        File userDir = new File(dir, key);
+        userDir.mkdirs();
+        File file = new File(userDir, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[length]);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    /**
+     * Verify the least recently used avatar is evicted from memory once over
+     * budget
+     */
+    public void testMemoryEviction() {
+        AvatarCache cache = new AvatarCache(dir, AVATAR_BYTES * 2, 0,
+                new TaskExecutor());
+        BitmapDrawable a = createAvatar();
+        BitmapDrawable b = createAvatar();
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+
+        cache.put("c", createAvatar());
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+
+        CacheStats stats = cache.getMemoryStats();
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(AVATAR_BYTES * 2, stats.getBytes());
+    }
+
+    /**
+     * Verify avatars on disk are found by name and the least recently used
+     * are deleted once over budget
+     *
+     * @throws Exception
+     */
+    public void testDiskEviction() throws Exception {
+        AvatarCache cache = new AvatarCache(dir, 0, 100, new TaskExecutor());
+        File a = createFile("a", "1", 40);
+        cache.putFile("a", a);
+        File b = createFile("b", "2", 40);
+        cache.putFile("b", b);
+        assertEquals(a, cache.getFile("a", "1"));
+        assertNull(cache.getFile("a", "2"));
+
+        cache.putFile("c", createFile("c", "3", 40));
+        assertNotNull(cache.getFile("a", "1"));
+        assertNull(cache.getFile("b", "2"));
+        assertFalse(b.exists());
+        assertEquals(1, cache.getDiskStats().getEvictions());
+        assertEquals(80, cache.getDiskStats().getBytes());
+
+        cache.removeFile("a");
+        assertNull(cache.getFile("a", "1"));
+        assertFalse(a.exists());
+    }
+
+    /**
+     * Verify avatars stored before the index existed are indexed
+     *
+     * @throws Exception
+     */
+    public void testIndexExistingFiles() throws Exception {
+        createFile("a", "1", 10);
+        createFile("a", "1-raw", 10);
+        AvatarCache cache = new AvatarCache(dir, 0, 100, new TaskExecutor());
+        assertNotNull(cache.getFile("a", "1"));
+        assertNull(cache.getFile("a", "1-raw"));
+        assertEquals(10, cache.getDiskStats().getBytes());
+    }
+
+    /**
+     * Verify validators are returned only for the stored name and avatars
+     * are due for revalidation once old
+     *
+     * @throws Exception
+     */
+    public void testValidation() throws Exception {
+        File old = createFile("a", "1", 10);
+        old.setLastModified(System.currentTimeMillis() - 2 * 24 * 60 * 60
+                * 1000L);
+        AvatarCache cache = new AvatarCache(dir, 0, 100, new TaskExecutor());
+        assertNull(cache.getETag("a", "1"));
+        assertTrue(cache.needsValidation("a"));
+        assertFalse(cache.needsValidation("b"));
+
+        cache.markValidated("a");
+        assertFalse(cache.needsValidation("a"));
+
+        File updated = createFile("a", "2", 20);
+        cache.putFile("a", updated, "\"etag\"", 1000);
+        assertEquals("\"etag\"", cache.getETag("a", "2"));
+        assertEquals(1000, cache.getLastModified("a", "2"));
+        assertNull(cache.getETag("a", "1"));
+        assertEquals(-1, cache.getLastModified("a", "1"));
+        assertFalse(cache.needsValidation("a"));
+        assertFalse(old.exists());
+        assertEquals(20, cache.getDiskStats().getBytes());
+    }
+}
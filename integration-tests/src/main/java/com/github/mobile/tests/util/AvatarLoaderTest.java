@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.util;
+
+import static android.graphics.Bitmap.CompressFormat.PNG;
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static com.github.mobile.TaskExecutor.Lane.CPU;
+import static com.github.mobile.TaskExecutor.Lane.NETWORK;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.widget.ImageView;
+
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.TaskExecutor.Stats;
+import com.github.mobile.util.AvatarCache;
+import com.github.mobile.util.AvatarLoader;
+import com.github.mobile.util.GravatarUtils;
+import com.github.mobile.util.RoundedBitmapDrawable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.eclipse.egit.github.core.User;
+
+/**
+ * Tests of loading avatars through {@link AvatarLoader}
+ */
+public class AvatarLoaderTest extends AndroidTestCase {
+
+    /**
+     * Milliseconds to wait for avatars to load
+     */
+    private static final long TIMEOUT = 10 * 1000;
+
+    /**
+     * Sized URL of avatars that refuses connections so no avatar is ever
+     * downloaded
+     */
+    private static final String URL = "https://localhost:1/avatar?s=40";
+
+    private interface Condition {
+
+        boolean isMet();
+    }
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private File dir;
+
+    private TaskExecutor executors;
+
+    private AvatarCache cache;
+
+    private AvatarLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        dir = new File(getContext().getCacheDir(), "avatar-loader-test");
+        delete(dir);
+        executors = new TaskExecutor();
+        cache = new AvatarCache(dir, 1024 * 1024, 1024 * 1024, executors);
+        loader = new AvatarLoader(getContext(), executors, cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        delete(dir);
+
+        super.tearDown();
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private static User createUser(final int id) {
+        return new User().setId(id).setAvatarUrl(URL);
+    }
+
+    /**
+     * Write avatar of user to the directory of the cache
+     *
+     * @param id
+     * @return file
+     * @throws IOException
+     */
+    private File storeAvatar(final int id) throws IOException {
+        File userDir = new File(dir, Integer.toString(id));
+        userDir.mkdirs();
+        File file = new File(userDir, GravatarUtils.getHash(URL));
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, ARGB_8888);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(PNG, 100, output);
+        } finally {
+            output.close();
+        }
+        bitmap.recycle();
+        return file;
+    }
+
+    private void runOnMain(final Runnable runnable) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(TIMEOUT, SECONDS));
+    }
+
+    private void waitFor(final Condition condition) throws Exception {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.isMet()) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(50);
+        }
+    }
+
+    private void waitForAvatar(final ImageView view) throws Exception {
+        waitFor(new Condition() {
+
+            public boolean isMet() {
+                return view.getDrawable() instanceof RoundedBitmapDrawable;
+            }
+        });
+    }
+
+    private void waitForCompleted(final Stats stats, final int completed)
+            throws Exception {
+        waitFor(new Condition() {
+
+            public boolean isMet() {
+                return stats.getCompleted() == completed;
+            }
+        });
+    }
+
+    /**
+     * Verify views bound to the same user share a single request
+     *
+     * @throws Exception
+     */
+    public void testSharedRequest() throws Exception {
+        cache.putFile("1", storeAvatar(1));
+        final ImageView view1 = new ImageView(getContext());
+        final ImageView view2 = new ImageView(getContext());
+        runOnMain(new Runnable() {
+
+            public void run() {
+                loader.bind(view1, createUser(1));
+                loader.bind(view2, createUser(1));
+            }
+        });
+
+        waitForAvatar(view1);
+        waitForAvatar(view2);
+        assertSame(view1.getDrawable(), view2.getDrawable());
+        waitForCompleted(executors.getStats(CPU), 1);
+        assertEquals(0, executors.getStats(NETWORK).getCompleted());
+    }
+
+    /**
+     * Verify rebinding a view to another user cancels the queued request of
+     * the user the view was bound to before
+     *
+     * @throws Exception
+     */
+    public void testCancelOnRebind() throws Exception {
+        cache.putFile("2", storeAvatar(2));
+
+        // Occupy every thread of the lane so requests stay queued
+        final int threads = CPU.getThreads();
+        final CountDownLatch started = new CountDownLatch(threads);
+        Executor executor = executors.getExecutor(CPU);
+        for (int i = 0; i < threads; i++)
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Ignored
+                    }
+                }
+            });
+        assertTrue(started.await(TIMEOUT, SECONDS));
+
+        final ImageView view = new ImageView(getContext());
+        runOnMain(new Runnable() {
+
+            public void run() {
+                loader.bind(view, createUser(1));
+                loader.bind(view, createUser(2));
+            }
+        });
+        Stats stats = executors.getStats(CPU);
+        assertEquals(1, stats.getCancelled());
+
+        release.countDown();
+        waitForAvatar(view);
+        waitForCompleted(stats, threads + 1);
+        assertEquals(0, executors.getStats(NETWORK).getCompleted());
+    }
+
+    /**
+     * Verify a stored avatar due for revalidation is shown while the request
+     * is handed from the decode stage to the download stage, and is kept
+     * when the download fails
+     *
+     * @throws Exception
+     */
+    public void testRevalidationHandoff() throws Exception {
+        File stored = storeAvatar(3);
+        stored.setLastModified(System.currentTimeMillis() - 2 * 24 * 60 * 60
+                * 1000L);
+        assertTrue(cache.needsValidation("3"));
+
+        final ImageView view = new ImageView(getContext());
+        runOnMain(new Runnable() {
+
+            public void run() {
+                loader.bind(view, createUser(3));
+            }
+        });
+
+        waitForAvatar(view);
+        waitForCompleted(executors.getStats(NETWORK), 1);
+        assertTrue(view.getDrawable() instanceof RoundedBitmapDrawable);
+        assertTrue(stored.exists());
+        assertTrue(cache.needsValidation("3"));
+    }
+}
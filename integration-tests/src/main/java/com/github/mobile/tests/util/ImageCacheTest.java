@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.util;
+
+import android.test.AndroidTestCase;
+
+import com.github.mobile.ResponseCache;
+import com.github.mobile.TaskExecutor;
+import com.github.mobile.util.ImageCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests of {@link ImageCache}
+ */
+public class ImageCacheTest extends AndroidTestCase {
+
+    private static final String URL_A = "https://example.com/a.png";
+
+    private static final String URL_B = "https://example.com/b.png";
+
+    private static final String URL_C = "https://example.com/c.png";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        dir = new File(getContext().getCacheDir(), "image-cache-test");
+        delete(dir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+
+        super.tearDown();
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private static void write(final File file, final int length)
+            throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[length]);
+        } finally {
+            output.close();
+        }
+    }
+
+    private File download(final ImageCache cache, final int length)
+            throws IOException {
+        File temp = cache.createTempFile();
+        write(temp, length);
+        return temp;
+    }
+
+    /**
+     * Verify images are found by URL and the least recently used are deleted
+     * once over budget
+     *
+     * @throws Exception
+     */
+    public void testEviction() throws Exception {
+        ImageCache cache = new ImageCache(dir, 100, new TaskExecutor());
+        assertNull(cache.getFile(URL_A));
+
+        File a = cache.putFile(URL_A, download(cache, 40), null, -1);
+        assertNotNull(a);
+        assertTrue(a.exists());
+        File b = cache.putFile(URL_B, download(cache, 40), null, -1);
+        assertEquals(a, cache.getFile(URL_A));
+
+        cache.putFile(URL_C, download(cache, 40), null, -1);
+        assertNotNull(cache.getFile(URL_A));
+        assertNull(cache.getFile(URL_B));
+        assertFalse(b.exists());
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(80, cache.getStats().getBytes());
+
+        cache.removeFile(URL_A);
+        assertNull(cache.getFile(URL_A));
+        assertFalse(a.exists());
+    }
+
+    /**
+     * Verify validators are stored with images and replaced along with them
+     *
+     * @throws Exception
+     */
+    public void testValidators() throws Exception {
+        ImageCache cache = new ImageCache(dir, 100, new TaskExecutor());
+        assertNull(cache.getETag(URL_A));
+        assertEquals(-1, cache.getLastModified(URL_A));
+        assertFalse(cache.needsValidation(URL_A));
+
+        cache.putFile(URL_A, download(cache, 10), "\"1\"", 1000);
+        assertEquals("\"1\"", cache.getETag(URL_A));
+        assertEquals(1000, cache.getLastModified(URL_A));
+        assertFalse(cache.needsValidation(URL_A));
+
+        cache.putFile(URL_A, download(cache, 20), "\"2\"", -1);
+        assertEquals("\"2\"", cache.getETag(URL_A));
+        assertEquals(-1, cache.getLastModified(URL_A));
+        assertEquals(20, cache.getStats().getBytes());
+    }
+
+    /**
+     * Verify images stored before the index existed are indexed and are due
+     * for revalidation once old
+     *
+     * @throws Exception
+     */
+    public void testIndexExistingFiles() throws Exception {
+        dir.mkdirs();
+        File stored = new File(dir, ResponseCache.hash(URL_A));
+        write(stored, 10);
+        stored.setLastModified(System.currentTimeMillis() - 2 * 24 * 60 * 60
+                * 1000L);
+        write(new File(dir, "image1.tmp"), 10);
+
+        ImageCache cache = new ImageCache(dir, 100, new TaskExecutor());
+        assertEquals(stored, cache.getFile(URL_A));
+        assertEquals(10, cache.getStats().getBytes());
+        assertTrue(cache.needsValidation(URL_A));
+
+        cache.markValidated(URL_A);
+        assertFalse(cache.needsValidation(URL_A));
+    }
+
+    /**
+     * Verify images deleted outside of the cache are no longer found
+     *
+     * @throws Exception
+     */
+    public void testDeletedFile() throws Exception {
+        ImageCache cache = new ImageCache(dir, 100, new TaskExecutor());
+        File stored = cache.putFile(URL_A, download(cache, 10), null, -1);
+        assertTrue(stored.delete());
+
+        assertNull(cache.getFile(URL_A));
+        assertEquals(0, cache.getStats().getBytes());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 GitHub Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mobile.tests.util;
+
+import static android.graphics.Bitmap.CompressFormat.PNG;
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.graphics.Color.BLUE;
+import static android.graphics.Color.TRANSPARENT;
+import static android.graphics.Color.WHITE;
+import static android.graphics.PorterDuff.Mode.DST_IN;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.mobile.util.ImageUtils;
+import com.github.mobile.util.RoundedBitmapDrawable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests and benchmark of decoding and rounding avatars
+ */
+public class ImageUtilsTest extends AndroidTestCase {
+
+    private static final String TAG = "ImageUtilsTest";
+
+    /**
+     * Size of avatars when no size is requested
+     */
+    private static final int FULL_SIZE = 460;
+
+    /**
+     * Size of avatars displayed on an xhdpi device
+     */
+    private static final int DISPLAY_SIZE = 80;
+
+    private static final float RADIUS = 6;
+
+    private static final int RUNS = 20;
+
+    private File fullAvatar;
+
+    private File sizedAvatar;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        fullAvatar = createAvatar("full-avatar", FULL_SIZE);
+        sizedAvatar = createAvatar("sized-avatar", DISPLAY_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fullAvatar.delete();
+        sizedAvatar.delete();
+
+        super.tearDown();
+    }
+
+    private File createAvatar(final String name, final int size)
+            throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, ARGB_8888);
+        bitmap.eraseColor(BLUE);
+        File file = new File(getContext().getCacheDir(), name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(PNG, 100, output);
+        } finally {
+            output.close();
+        }
+        bitmap.recycle();
+        return file;
+    }
+
+    private static long getBytes(final Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Verify images are sampled down no smaller than the requested size
+     */
+    public void testSampledBitmap() {
+        Bitmap bitmap = ImageUtils.getSampledBitmap(fullAvatar, DISPLAY_SIZE,
+                DISPLAY_SIZE);
+        assertNotNull(bitmap);
+        assertEquals(FULL_SIZE / 4, bitmap.getWidth());
+        assertEquals(FULL_SIZE / 4, bitmap.getHeight());
+
+        bitmap = ImageUtils.getSampledBitmap(sizedAvatar, DISPLAY_SIZE,
+                DISPLAY_SIZE);
+        assertEquals(DISPLAY_SIZE, bitmap.getWidth());
+
+        assertNull(ImageUtils.getSampledBitmap(new File(getContext()
+                .getCacheDir(), "missing-avatar"), DISPLAY_SIZE, DISPLAY_SIZE));
+    }
+
+    /**
+     * Verify corners are clipped when drawn and the rest of the image is not
+     */
+    public void testRoundedCorners() {
+        Bitmap bitmap = ImageUtils.getSampledBitmap(sizedAvatar, DISPLAY_SIZE,
+                DISPLAY_SIZE);
+        RoundedBitmapDrawable drawable = new RoundedBitmapDrawable(
+                getContext().getResources(), bitmap, RADIUS);
+        drawable.setBounds(0, 0, DISPLAY_SIZE, DISPLAY_SIZE);
+
+        Bitmap drawn = Bitmap.createBitmap(DISPLAY_SIZE, DISPLAY_SIZE,
+                ARGB_8888);
+        drawable.draw(new Canvas(drawn));
+        assertEquals(TRANSPARENT, drawn.getPixel(0, 0));
+        assertEquals(TRANSPARENT, drawn.getPixel(DISPLAY_SIZE - 1,
+                DISPLAY_SIZE - 1));
+        assertEquals(BLUE, drawn.getPixel(DISPLAY_SIZE / 2, DISPLAY_SIZE / 2));
+    }
+
+    /**
+     * Decode a full size avatar and round it by drawing through a mask into
+     * new bitmaps then re-encode it as a PNG
+     *
+     * @param bytes
+     *            holder of bytes allocated
+     * @return time in nanoseconds
+     */
+    private long timeBaseline(final long[] bytes) {
+        long start = System.nanoTime();
+        Bitmap source = BitmapFactory.decodeFile(fullAvatar.getAbsolutePath());
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setColor(WHITE);
+        Bitmap clipped = Bitmap.createBitmap(width, height, ARGB_8888);
+        Canvas canvas = new Canvas(clipped);
+        canvas.drawRoundRect(new RectF(0, 0, width, height), RADIUS, RADIUS,
+                paint);
+        paint.setXfermode(new PorterDuffXfermode(DST_IN));
+        Bitmap rounded = Bitmap.createBitmap(width, height, ARGB_8888);
+        canvas = new Canvas(rounded);
+        canvas.drawBitmap(source, 0, 0, null);
+        canvas.drawBitmap(clipped, 0, 0, paint);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        rounded.compress(PNG, 100, output);
+        long elapsed = System.nanoTime() - start;
+
+        bytes[0] = getBytes(source) + getBytes(clipped) + getBytes(rounded)
+                + output.size();
+        source.recycle();
+        clipped.recycle();
+        rounded.recycle();
+        return elapsed;
+    }
+
+    /**
+     * Decode an avatar sampled to the displayed size and round it when drawn
+     *
+     * @param avatar
+     * @param bytes
+     *            holder of bytes allocated
+     * @return time in nanoseconds
+     */
+    private long timeSampled(final File avatar, final long[] bytes) {
+        long start = System.nanoTime();
+        Bitmap bitmap = ImageUtils.getSampledBitmap(avatar, DISPLAY_SIZE,
+                DISPLAY_SIZE);
+        new RoundedBitmapDrawable(getContext().getResources(), bitmap, RADIUS);
+        long elapsed = System.nanoTime() - start;
+
+        bytes[0] = getBytes(bitmap);
+        bitmap.recycle();
+        return elapsed;
+    }
+
+    /**
+     * Benchmark decode time and bytes allocated per avatar when rounding full
+     * size avatars into new bitmaps compared to decoding avatars at the size
+     * displayed and rounding them when drawn
+     */
+    public void testAvatarBenchmark() {
+        long[] baselineBytes = new long[1];
+        long[] fullBytes = new long[1];
+        long[] sizedBytes = new long[1];
+
+        // Warm up all code paths
+        timeBaseline(baselineBytes);
+        timeSampled(fullAvatar, fullBytes);
+        timeSampled(sizedAvatar, sizedBytes);
+
+        long baseline = 0;
+        long full = 0;
+        long sized = 0;
+        for (int i = 0; i < RUNS; i++) {
+            baseline += timeBaseline(baselineBytes);
+            full += timeSampled(fullAvatar, fullBytes);
+            sized += timeSampled(sizedAvatar, sizedBytes);
+        }
+        Log.i(TAG, "Per avatar, rounded copies: " + baseline / RUNS / 1000
+                + " us, " + baselineBytes[0] + " bytes, sampled full size: "
+                + full / RUNS / 1000 + " us, " + fullBytes[0]
+                + " bytes, requested size: " + sized / RUNS / 1000 + " us, "
+                + sizedBytes[0] + " bytes");
+        assertTrue(sizedBytes[0] < baselineBytes[0]);
+        assertTrue(fullBytes[0] < baselineBytes[0]);
+    }
+}